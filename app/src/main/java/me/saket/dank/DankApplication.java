@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import io.github.inflationx.viewpump.ViewPump;
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.exceptions.OnErrorNotImplementedException;
@@ -27,6 +28,7 @@ import io.reactivex.functions.Consumer;
 import io.reactivex.plugins.RxJavaPlugins;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.di.Dank;
+import me.saket.dank.reddit.RequestPriority;
 import me.saket.dank.ui.appshortcuts.AppShortcutRepository;
 import timber.log.Timber;
 
@@ -44,6 +46,7 @@ public class DankApplication extends Application {
 
     Dank.initDependencies(this);
     RxJavaPlugins.setErrorHandler(undeliveredExceptionsHandler());
+    RxJavaPlugins.setScheduleHandler(RequestPriority.scheduleHandler());
 
     Timber.plant(new Timber.DebugTree());
 
@@ -87,6 +90,11 @@ public class DankApplication extends Application {
             .startWith(initialDelayStream)
             .subscribe());
 
+    referenceHolders.add(
+        Completable.fromAction(() -> Dank.dependencyInjector().urlParserCache().restoreFromDisk())
+            .subscribeOn(Schedulers.io())
+            .subscribe());
+
     LazyThreeTen.init(this);
     referenceHolders.add(
         initialDelayStream.subscribe(o -> LazyThreeTen.cacheZones()));
@@ -99,6 +107,18 @@ public class DankApplication extends Application {
             .subscribe());
   }
 
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    Dank.dependencyInjector().markdownSpanCache().onTrimMemory(level);
+
+    if (level == TRIM_MEMORY_UI_HIDDEN) {
+      Completable.fromAction(() -> Dank.dependencyInjector().urlParserCache().saveToDisk())
+          .subscribeOn(Schedulers.io())
+          .subscribe();
+    }
+  }
+
   private boolean isRoboUnitTest() {
     return "robolectric".equals(Build.FINGERPRINT);
   }
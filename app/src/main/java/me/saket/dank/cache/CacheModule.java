@@ -1,32 +1,36 @@
 package me.saket.dank.cache;
 
 import android.app.Application;
+import android.content.res.Resources;
+import android.os.Process;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.danikula.videocache.HttpProxyCacheServer;
 import com.jakewharton.disklrucache.DiskLruCache;
-import com.nytimes.android.external.cache3.Cache;
-import com.nytimes.android.external.cache3.CacheBuilder;
 import com.nytimes.android.external.fs3.filesystem.FileSystem;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.inject.Named;
 import javax.inject.Singleton;
 
+import dagger.Lazy;
 import dagger.Module;
 import dagger.Provides;
-import io.reactivex.Scheduler;
 import io.reactivex.exceptions.Exceptions;
-import io.reactivex.schedulers.Schedulers;
-import me.saket.dank.BuildConfig;
+import me.saket.dank.R;
+import me.saket.dank.data.AppDatabase;
 import me.saket.dank.data.AppInfo;
+import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.data.FileSize;
-import me.saket.dank.urlparser.Link;
-import me.saket.dank.utils.DeviceInfo;
+import me.saket.dank.urlparser.UrlParserCache;
 import me.saket.dank.utils.FileSizeUnit;
 
 @Module
@@ -60,9 +64,39 @@ public class CacheModule {
   }
 
   @Provides
-  @Named("cache_pre_filling")
-  Scheduler cachePreFillingScheduler() {
-    return Schedulers.from(Executors.newCachedThreadPool());
+  @Singleton
+  CachePreFillLedger provideCachePreFillLedger(Application appContext, Lazy<AppDatabase> database) {
+    Resources resources = appContext.getResources();
+    Map<CachePreFillThing, Long> ttlMillis = new EnumMap<>(CachePreFillThing.class);
+    ttlMillis.put(CachePreFillThing.IMAGES, TimeUnit.HOURS.toMillis(resources.getInteger(R.integer.cache_pre_fill_ttl_hours_for_images)));
+    ttlMillis.put(CachePreFillThing.LINK_METADATA, TimeUnit.HOURS.toMillis(resources.getInteger(R.integer.cache_pre_fill_ttl_hours_for_link_metadata)));
+    ttlMillis.put(CachePreFillThing.COMMENTS, TimeUnit.HOURS.toMillis(resources.getInteger(R.integer.cache_pre_fill_ttl_hours_for_comments)));
+
+    int maxEntries = resources.getInteger(R.integer.cache_pre_fill_ledger_max_entries);
+    return new CachePreFillLedger(() -> database.get().cachePreFillDao(), ttlMillis, maxEntries);
+  }
+
+  @Provides
+  @Singleton
+  PrefetchScheduler providePrefetchScheduler(Application appContext) {
+    Resources resources = appContext.getResources();
+    int maxWorkers = resources.getInteger(R.integer.prefetch_max_workers);
+
+    Map<CachePreFillThing, Integer> maxWorkersPerThing = new EnumMap<>(CachePreFillThing.class);
+    maxWorkersPerThing.put(CachePreFillThing.IMAGES, resources.getInteger(R.integer.prefetch_max_workers_for_images));
+    maxWorkersPerThing.put(CachePreFillThing.LINK_METADATA, resources.getInteger(R.integer.prefetch_max_workers_for_link_metadata));
+    maxWorkersPerThing.put(CachePreFillThing.COMMENTS, resources.getInteger(R.integer.prefetch_max_workers_for_comments));
+
+    AtomicInteger threadCount = new AtomicInteger();
+    Executor executor = Executors.newFixedThreadPool(maxWorkers, runnable -> {
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+      }, "prefetch-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    return new PrefetchScheduler(executor, maxWorkers, maxWorkersPerThing);
   }
 
   @Provides
@@ -74,15 +108,11 @@ public class CacheModule {
 
   @Provides
   @Singleton
-  @Named("url_parser")
-  Cache<String, Link> provideUrlParserCache(DeviceInfo deviceInfo) {
-    if (BuildConfig.DEBUG && deviceInfo.isRunningOnEmulator()) {
-      return CacheBuilder.newBuilder()
-          .maximumSize(0)
-          .build();
-    }
-    return CacheBuilder.newBuilder()
-        .maximumSize(100)
-        .build();
+  UrlParserCache provideUrlParserCache(Application appContext, AppInfo appInfo) {
+    int maxEntries = appContext.getResources().getInteger(R.integer.url_parser_cache_max_entries);
+    File diskFile = appContext.getResources().getBoolean(R.bool.url_parser_cache_persist_to_disk)
+        ? new File(appContext.getCacheDir(), "url_parser_cache")
+        : null;
+    return new UrlParserCache(maxEntries, diskFile, appInfo.appVersionCode());
   }
 }
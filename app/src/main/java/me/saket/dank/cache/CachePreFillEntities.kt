@@ -0,0 +1,31 @@
+package me.saket.dank.cache
+
+import androidx.room.Dao
+import androidx.room.Entity
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import me.saket.dank.data.CachePreFillThing
+
+/**
+ * Records that [thing] was pre-filled for a submission. See [CachePreFillLedger].
+ */
+@Entity(primaryKeys = ["submissionFullName", "thing"])
+data class CachedPreFill(
+    val submissionFullName: String,
+    val thing: CachePreFillThing,
+    val saveTimeMillis: Long
+)
+
+@Dao
+interface CachePreFillDao {
+
+  @Query("SELECT * FROM cachedprefill")
+  fun preFills(): List<CachedPreFill>
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun save(preFill: CachedPreFill)
+
+  @Query("DELETE FROM cachedprefill WHERE saveTimeMillis < :savedBeforeMillis")
+  fun deletePreFillsBefore(savedBeforeMillis: Long): Int
+}
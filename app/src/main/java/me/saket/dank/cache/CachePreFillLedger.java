@@ -0,0 +1,99 @@
+package me.saket.dank.cache;
+
+import androidx.annotation.CheckResult;
+import androidx.annotation.WorkerThread;
+
+import com.nytimes.android.external.cache3.Cache;
+import com.nytimes.android.external.cache3.CacheBuilder;
+
+import java.util.Collections;
+import java.util.Map;
+
+import dagger.Lazy;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import me.saket.dank.data.CachePreFillThing;
+import timber.log.Timber;
+
+/**
+ * Remembers which things were pre-filled for which submissions, so that they aren't downloaded
+ * again until they expire. Survives process death by writing through to {@link CachePreFillDao}.
+ * <p>
+ * Lookups only read memory, so they're safe on any thread once {@link #load()} has completed.
+ * Things pre-filled before that are simply not known to be fresh yet.
+ */
+public class CachePreFillLedger {
+
+  private final Lazy<CachePreFillDao> dao;
+  private final Map<CachePreFillThing, Long> ttlMillis;
+  private final Cache<String, Long> saveTimes;
+  private final Object loadLock = new Object();
+  private volatile boolean loaded;
+
+  /**
+   * @param ttlMillis How long each thing stays fresh after it's pre-filled.
+   */
+  public CachePreFillLedger(Lazy<CachePreFillDao> dao, Map<CachePreFillThing, Long> ttlMillis, long maxEntries) {
+    this.dao = dao;
+    this.ttlMillis = ttlMillis;
+    this.saveTimes = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .build();
+  }
+
+  private static String key(String submissionFullName, CachePreFillThing thing) {
+    return submissionFullName + "_" + thing.name();
+  }
+
+  /**
+   * Reads the ledger from the database. Only the first subscription does any work.
+   */
+  @CheckResult
+  public Completable load() {
+    return Completable.fromAction(() -> {
+      synchronized (loadLock) {
+        if (loaded) {
+          return;
+        }
+        for (CachedPreFill preFill : dao.get().preFills()) {
+          // Things marked while this was loading are newer.
+          saveTimes.asMap().putIfAbsent(key(preFill.getSubmissionFullName(), preFill.getThing()), preFill.getSaveTimeMillis());
+        }
+        loaded = true;
+      }
+    });
+  }
+
+  public boolean isFresh(String submissionFullName, CachePreFillThing thing) {
+    Long saveTimeMillis = saveTimes.getIfPresent(key(submissionFullName, thing));
+    return saveTimeMillis != null && System.currentTimeMillis() - saveTimeMillis < ttlMillis(thing);
+  }
+
+  @WorkerThread
+  public void markPreFilled(String submissionFullName, CachePreFillThing thing) {
+    long nowMillis = System.currentTimeMillis();
+    saveTimes.put(key(submissionFullName, thing), nowMillis);
+    try {
+      dao.get().save(new CachedPreFill(submissionFullName, thing, nowMillis));
+    } catch (Exception e) {
+      // It'll only get pre-filled again after the next launch.
+      Timber.e(e, "Couldn't save pre-fill of %s for %s", thing, submissionFullName);
+    }
+  }
+
+  /**
+   * Deletes entries that have expired for every thing.
+   */
+  @CheckResult
+  public Single<Integer> recycleExpired() {
+    return Single.fromCallable(() -> {
+      long maxTtlMillis = ttlMillis.isEmpty() ? 0 : Collections.max(ttlMillis.values());
+      return dao.get().deletePreFillsBefore(System.currentTimeMillis() - maxTtlMillis);
+    });
+  }
+
+  private long ttlMillis(CachePreFillThing thing) {
+    Long ttl = ttlMillis.get(thing);
+    return ttl != null ? ttl : 0;
+  }
+}
@@ -15,10 +15,8 @@ import me.saket.dank.urlparser.*;
 import net.dean.jraw.models.Submission;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -27,12 +25,13 @@ import javax.inject.Singleton;
 import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
-import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.reddit.Reddit;
+import me.saket.dank.reddit.RequestPriority;
 import me.saket.dank.ui.media.MediaHostRepository;
 import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.submission.AuditedCommentSort;
@@ -61,14 +60,12 @@ public class CachePreFiller {
   private final MediaHostRepository mediaHostRepository;
   private final LinkMetadataRepository linkMetadataRepository;
 
-  private final Lazy<Scheduler> preFillingScheduler;
+  private final Lazy<PrefetchScheduler> prefetchScheduler;
+  private final Lazy<CachePreFillLedger> preFillLedger;
   private final Lazy<Map<CachePreFillThing, Preference<NetworkStrategy>>> preFillingNetworkStrategies;
   private final Lazy<UrlParser> urlParser;
   private final Lazy<SubmissionImageLoader> submissionImageLoader;
 
-  // Key: <submission-fullname>_<CachePreFillThing>.
-  private Set<String> completedPreFills = new HashSet<>(50);
-
   @Inject
   public CachePreFiller(
       Application appContext,
@@ -78,7 +75,8 @@ public class CachePreFiller {
       LinkMetadataRepository linkMetadataRepository,
       Lazy<UrlParser> urlParser,
       Lazy<SubmissionImageLoader> submissionImageLoader,
-      @Named("cache_pre_filling") Lazy<Scheduler> preFillingScheduler,
+      Lazy<PrefetchScheduler> prefetchScheduler,
+      Lazy<CachePreFillLedger> preFillLedger,
       @Named("cache_pre_filling_network_strategies") Lazy<Map<CachePreFillThing, Preference<NetworkStrategy>>> preFillingNetworkStrategies)
   {
     this.appContext = appContext;
@@ -89,15 +87,20 @@ public class CachePreFiller {
     this.urlParser = urlParser;
     this.submissionImageLoader = submissionImageLoader;
     this.preFillingNetworkStrategies = preFillingNetworkStrategies;
-    this.preFillingScheduler = preFillingScheduler;
+    this.prefetchScheduler = prefetchScheduler;
+    this.preFillLedger = preFillLedger;
   }
 
   private void log(String message, Object... args) {
     //Timber.d(message, args);
   }
 
+  /**
+   * @param visibleSoonCount Number of submissions at the start of <var>submissions</var> that are about to be
+   *                         shown. These are pre-filled before the rest.
+   */
   @CheckResult
-  public Completable preFillInParallelThreads(List<Submission> submissions, @Px int submissionAlbumLinkThumbnailWidth) {
+  public Completable preFillInParallelThreads(List<Submission> submissions, int visibleSoonCount, @Px int submissionAlbumLinkThumbnailWidth) {
     log("Pre-filling");
 
     // WARNING: this Observable is intentionally not shared to allow parallel execution of its subscribers.
@@ -129,11 +132,16 @@ public class CachePreFiller {
 
           return submissionAndContentLinkStream
               .filter(submissionContentAreStaticImages())
-              .concatMap(submissionAndLink -> {
+              .filter(submissionAndLink -> !isThingAlreadyPreFilled(submissionAndLink.first(), CachePreFillThing.IMAGES))
+              .flatMap(submissionAndLink -> {
                 Submission submission = submissionAndLink.first();
                 MediaLink mediaLink = (MediaLink) submissionAndLink.second();
-                return preFillImageOrAlbum(submission, mediaLink, submissionAlbumLinkThumbnailWidth)
-                    .subscribeOn(preFillingScheduler.get())
+                return prefetchScheduler.get()
+                    .schedule(
+                        Completable.defer(() -> preFillImageOrAlbum(submission, mediaLink, submissionAlbumLinkThumbnailWidth)),
+                        submission.getId(),
+                        CachePreFillThing.IMAGES,
+                        priorityOf(submission, submissions, visibleSoonCount))
                     //.doOnSubscribe(d -> log("Caching image: %s", submissionAndLink.first().getTitle()))
                     //.doOnComplete(() -> log("Cached image: %s", submissionAndLink.first().getTitle()))
                     .onErrorComplete()
@@ -154,9 +162,14 @@ public class CachePreFiller {
 
           return submissionAndContentLinkStream
               .filter(submissionContentIsExternalLink())
-              .concatMap(
-                  submissionAndLink -> preFillLinkMetadata(submissionAndLink.first(), submissionAndLink.second(), submissionAlbumLinkThumbnailWidth)
-                      .subscribeOn(preFillingScheduler.get())
+              .filter(submissionAndLink -> !isThingAlreadyPreFilled(submissionAndLink.first(), CachePreFillThing.LINK_METADATA))
+              .flatMap(
+                  submissionAndLink -> prefetchScheduler.get()
+                      .schedule(
+                          Completable.defer(() -> preFillLinkMetadata(submissionAndLink.first(), submissionAndLink.second(), submissionAlbumLinkThumbnailWidth)),
+                          submissionAndLink.first().getId(),
+                          CachePreFillThing.LINK_METADATA,
+                          priorityOf(submissionAndLink.first(), submissions, visibleSoonCount))
                       //.doOnSubscribe(d -> Timber.i("Caching link: %s", submissionAndLink.first().getTitle()))
                       .toObservable()
                       .onErrorResumeNext(Observable.empty())
@@ -174,14 +187,29 @@ public class CachePreFiller {
 
           //log("Pre-filling comments for %s submissions", submissions.size());
 
-          return submissionAndContentLinkStream.concatMap(submissionAndLink -> preFillComment(submissionAndLink.first())
-              .subscribeOn(preFillingScheduler.get())
-              //.doOnSubscribe(d -> Timber.i("Caching comments: %s", submissionAndLink.first().getTitle()))
-              .toObservable())
+          return submissionAndContentLinkStream
+              .filter(submissionAndLink -> !isThingAlreadyPreFilled(submissionAndLink.first(), CachePreFillThing.COMMENTS))
+              .flatMap(submissionAndLink -> prefetchScheduler.get()
+                  .schedule(
+                      Completable.defer(() -> preFillComment(submissionAndLink.first())),
+                      submissionAndLink.first().getId(),
+                      CachePreFillThing.COMMENTS,
+                      priorityOf(submissionAndLink.first(), submissions, visibleSoonCount))
+                  //.doOnSubscribe(d -> Timber.i("Caching comments: %s", submissionAndLink.first().getTitle()))
+                  .toObservable())
               .onErrorResumeNext(Observable.empty());
         });
 
-    return Observable.merge(imageCachePreFillStream, linkCacheFillStream, commentCacheFillStream).ignoreElements();
+    // The ledger is read once so that checking it before scheduling each pre-fill doesn't hit the disk.
+    return preFillLedger.get().load()
+        .subscribeOn(Schedulers.io())
+        .andThen(Observable.merge(imageCachePreFillStream, linkCacheFillStream, commentCacheFillStream).ignoreElements());
+  }
+
+  private static PrefetchScheduler.Priority priorityOf(Submission submission, List<Submission> submissions, int visibleSoonCount) {
+    return submissions.indexOf(submission) < visibleSoonCount
+        ? PrefetchScheduler.Priority.VISIBLE_SOON
+        : PrefetchScheduler.Priority.SPECULATIVE;
   }
 
   private Predicate<Pair<Submission, Link>> submissionContentAreStaticImages() {
@@ -232,10 +260,19 @@ public class CachePreFiller {
               .toObservable();
         });
 
+    // The ledger outlives the process, so only images that actually got loaded are recorded.
+    // The link resolution can complete without emitting anything.
     return Observable.merge(checks, singleImageLoad, albumImagesLoad)
-        .ignoreElements()
-        .doOnComplete(() -> log("Image done: %s", submission.getTitle()))
-        .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.IMAGES));
+        .toList()
+        .flatMapCompletable(loadedImages -> {
+          if (loadedImages.isEmpty()) {
+            return Completable.complete();
+          }
+          return Completable.fromAction(() -> {
+            log("Image done: %s", submission.getTitle());
+            markThingAsPreFilled(submission, CachePreFillThing.IMAGES);
+          });
+        });
   }
 
   private Predicate<Pair<Submission, Link>> submissionContentIsExternalLink() {
@@ -278,9 +315,10 @@ public class CachePreFiller {
                 .submit()
                 .get();
           }
-        }))
-        .doOnComplete(() -> log("Link done: %s", submission.getTitle()))
-        .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.LINK_METADATA));
+          // Recorded only once the metadata and all its images have loaded.
+          log("Link done: %s", submission.getTitle());
+          markThingAsPreFilled(submission, CachePreFillThing.LINK_METADATA);
+        }));
   }
 
   private Completable preFillComment(Submission submission) {
@@ -297,19 +335,22 @@ public class CachePreFiller {
         .commentSort(auditedSort)
         .build();
 
-    return submissionRepository.submissionWithComments(request)
+    // Gets deferred if Reddit's rate-limit is running low. It'll be tried again on the next pre-fill.
+    Completable commentsFetch = submissionRepository.submissionWithComments(request)
         .take(1)
-        .ignoreElements()
-        .onErrorComplete()
+        .ignoreElements();
+
+    return RequestPriority.background(commentsFetch)
         //.doOnComplete(() -> Timber.i("Comments done: %s", submission.getTitle()))
-        .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.COMMENTS));
+        .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.COMMENTS))
+        .onErrorComplete();
   }
 
   private boolean isThingAlreadyPreFilled(Submission submission, CachePreFillThing thing) {
-    return completedPreFills.contains(submission.getFullName() + "_" + thing.name());
+    return preFillLedger.get().isFresh(submission.getFullName(), thing);
   }
 
   private void markThingAsPreFilled(Submission submission, CachePreFillThing thing) {
-    completedPreFills.add(submission.getFullName() + "_" + thing.name());
+    preFillLedger.get().markPreFilled(submission.getFullName(), thing);
   }
 }
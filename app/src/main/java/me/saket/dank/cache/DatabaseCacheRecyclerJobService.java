@@ -15,6 +15,7 @@ import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.DankJobService;
 import me.saket.dank.di.Dank;
+import me.saket.dank.reply.ReplyRepository;
 import me.saket.dank.ui.submission.SubmissionRepository;
 import timber.log.Timber;
 
@@ -24,6 +25,8 @@ import timber.log.Timber;
 public class DatabaseCacheRecyclerJobService extends DankJobService {
 
   @Inject SubmissionRepository submissionRepository;
+  @Inject CachePreFillLedger cachePreFillLedger;
+  @Inject ReplyRepository replyRepository;
 
   public static void schedule(Context context) {
     JobInfo.Builder builder = new JobInfo.Builder(ID_RECYCLE_OLD_SUBMISSIONS, new ComponentName(context, DatabaseCacheRecyclerJobService.class))
@@ -60,6 +63,8 @@ public class DatabaseCacheRecyclerJobService extends DankJobService {
         durationTimeUnit.toDays(durationFromNow));
 
     submissionRepository.recycleAllCachedBefore(durationFromNow, durationTimeUnit)
+        .zipWith(cachePreFillLedger.recycleExpired(), (submissionRows, preFillRows) -> submissionRows + preFillRows)
+        .zipWith(replyRepository.recycleOldDrafts(), (cacheRows, draftRows) -> cacheRows + draftRows)
         .subscribeOn(Schedulers.io())
         .takeUntil(lifecycleOnDestroy().ignoreElements())
         .subscribe(
@@ -0,0 +1,294 @@
+package me.saket.dank.cache;
+
+import androidx.annotation.CheckResult;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableObserver;
+import io.reactivex.Observable;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+import me.saket.dank.data.CachePreFillThing;
+
+/**
+ * Runs cache pre-fills with a fixed budget of concurrent prefetches, so that they never compete
+ * with the submission the user is waiting on.
+ * <p>
+ * A prefetch holds its slot from the time it starts until its Completable terminates, even if
+ * its work continues on another thread. Queued prefetches start in order of {@link Priority},
+ * then in the order they were scheduled. Each {@link CachePreFillThing} also has its own limit,
+ * so that a long queue of images can't block comments.
+ * <p>
+ * While a submission is being loaded in the foreground (see {@link #foregroundLoad(String)}),
+ * only {@link Priority#INTERACTIVE} prefetches are started and any that are queued for that
+ * submission are promoted to it.
+ */
+public class PrefetchScheduler {
+
+  public enum Priority {
+    /** The user is waiting on it. */
+    INTERACTIVE,
+
+    /** Will probably be shown shortly, e.g., rows on or near the screen. */
+    VISIBLE_SOON,
+
+    /** Might be needed some time later. */
+    SPECULATIVE
+  }
+
+  /** Weight of the latest duration in {@link #averageDurationMillis}. */
+  private static final float DURATION_SMOOTHING_FACTOR = 0.2f;
+
+  private final Executor executor;
+  private final int maxWorkers;
+  private final Map<CachePreFillThing, Integer> maxWorkersPerThing;
+
+  private final Object lock = new Object();
+  private final List<Task> queue = new ArrayList<>();
+  private final Map<CachePreFillThing, Integer> runningPerThing = new EnumMap<>(CachePreFillThing.class);
+  private final List<String> foregroundSubmissionIds = new ArrayList<>();
+  private int runningCount;
+  private long nextSequence;
+  private volatile float averageDurationMillis = -1;
+
+  /**
+   * @param maxWorkersPerThing Things that are missing are only limited by <var>maxWorkers</var>.
+   */
+  public PrefetchScheduler(Executor executor, int maxWorkers, Map<CachePreFillThing, Integer> maxWorkersPerThing) {
+    this.executor = executor;
+    this.maxWorkers = maxWorkers;
+    this.maxWorkersPerThing = maxWorkersPerThing;
+  }
+
+  /**
+   * Subscribes to <var>prefetch</var> on this scheduler's executor once a slot is free.
+   * Disposing before that removes it from the queue.
+   */
+  @CheckResult
+  public Completable schedule(Completable prefetch, String submissionId, CachePreFillThing thing, Priority priority) {
+    return Completable.create(emitter -> {
+      Task task = new Task(prefetch, submissionId, thing, priority, emitter);
+      emitter.setCancellable(task::cancel);
+      enqueue(task);
+    });
+  }
+
+  /**
+   * Holds back non-interactive prefetches while <var>upstream</var> loads a submission, until it
+   * emits its first item or terminates.
+   */
+  public <T> ObservableTransformer<T, T> foregroundLoad(String submissionId) {
+    return upstream -> Observable.defer(() -> {
+      Disposable hold = holdForForeground(submissionId);
+      return upstream
+          .doOnNext(o -> hold.dispose())
+          .doFinally(hold::dispose);
+    });
+  }
+
+  /**
+   * Measured from prefetches that completed so far, assuming all workers are busy.
+   *
+   * @return -1 until a prefetch completes.
+   */
+  public float completionsPerSecond() {
+    float durationMillis = averageDurationMillis;
+    return durationMillis < 0 ? -1 : maxWorkers * 1000f / Math.max(durationMillis, 1);
+  }
+
+  private void recordDuration(long durationMillis) {
+    synchronized (lock) {
+      averageDurationMillis = averageDurationMillis < 0
+          ? durationMillis
+          : averageDurationMillis + DURATION_SMOOTHING_FACTOR * (durationMillis - averageDurationMillis);
+    }
+  }
+
+  @VisibleForTesting
+  Disposable holdForForeground(String submissionId) {
+    synchronized (lock) {
+      foregroundSubmissionIds.add(submissionId);
+      for (Task task : queue) {
+        if (task.submissionId.equals(submissionId)) {
+          task.priority = Priority.INTERACTIVE;
+        }
+      }
+    }
+    drain();
+
+    return Disposables.fromAction(() -> {
+      synchronized (lock) {
+        foregroundSubmissionIds.remove(submissionId);
+      }
+      drain();
+    });
+  }
+
+  @VisibleForTesting
+  int queuedCount() {
+    synchronized (lock) {
+      return queue.size();
+    }
+  }
+
+  @VisibleForTesting
+  int runningCount() {
+    synchronized (lock) {
+      return runningCount;
+    }
+  }
+
+  private void enqueue(Task task) {
+    synchronized (lock) {
+      task.sequence = nextSequence++;
+      if (foregroundSubmissionIds.contains(task.submissionId)) {
+        task.priority = Priority.INTERACTIVE;
+      }
+      queue.add(task);
+    }
+    drain();
+  }
+
+  /**
+   * Starts as many queued tasks as the limits allow.
+   */
+  private void drain() {
+    while (true) {
+      Task next;
+      synchronized (lock) {
+        next = pollNextRunnableTask();
+        if (next == null) {
+          return;
+        }
+        runningCount++;
+        runningPerThing.put(next.thing, runningCount(next.thing) + 1);
+      }
+      executor.execute(next::run);
+    }
+  }
+
+  private Task pollNextRunnableTask() {
+    if (runningCount >= maxWorkers) {
+      return null;
+    }
+    boolean onlyInteractive = !foregroundSubmissionIds.isEmpty();
+
+    Task best = null;
+    for (Task task : queue) {
+      if (onlyInteractive && task.priority != Priority.INTERACTIVE) {
+        continue;
+      }
+      Integer maxForThing = maxWorkersPerThing.get(task.thing);
+      if (maxForThing != null && runningCount(task.thing) >= maxForThing) {
+        continue;
+      }
+      if (best == null || task.isMoreUrgentThan(best)) {
+        best = task;
+      }
+    }
+    if (best != null) {
+      queue.remove(best);
+    }
+    return best;
+  }
+
+  private int runningCount(CachePreFillThing thing) {
+    Integer count = runningPerThing.get(thing);
+    return count != null ? count : 0;
+  }
+
+  private void release(Task task) {
+    synchronized (lock) {
+      runningCount--;
+      runningPerThing.put(task.thing, runningCount(task.thing) - 1);
+    }
+    drain();
+  }
+
+  private class Task implements CompletableObserver {
+    private final Completable prefetch;
+    private final String submissionId;
+    private final CachePreFillThing thing;
+    private final CompletableEmitter emitter;
+    private final AtomicReference<Disposable> upstream = new AtomicReference<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private Priority priority;
+    private long sequence;
+    private long startTimeNanos;
+
+    Task(Completable prefetch, String submissionId, CachePreFillThing thing, Priority priority, CompletableEmitter emitter) {
+      this.prefetch = prefetch;
+      this.submissionId = submissionId;
+      this.thing = thing;
+      this.priority = priority;
+      this.emitter = emitter;
+    }
+
+    boolean isMoreUrgentThan(Task other) {
+      int priorityComparison = priority.compareTo(other.priority);
+      return priorityComparison < 0 || (priorityComparison == 0 && sequence < other.sequence);
+    }
+
+    void run() {
+      startTimeNanos = System.nanoTime();
+      started.set(true);
+      if (emitter.isDisposed()) {
+        finish();
+        return;
+      }
+      prefetch.subscribe(this);
+    }
+
+    void cancel() {
+      boolean wasQueued;
+      synchronized (lock) {
+        wasQueued = queue.remove(this);
+      }
+      if (!wasQueued && started.get()) {
+        Disposable disposable = upstream.getAndSet(Disposables.disposed());
+        if (disposable != null) {
+          disposable.dispose();
+        }
+        finish();
+      }
+    }
+
+    @Override
+    public void onSubscribe(Disposable disposable) {
+      if (!upstream.compareAndSet(null, disposable)) {
+        disposable.dispose();
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      recordDuration(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos));
+      emitter.onComplete();
+      finish();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      emitter.tryOnError(error);
+      finish();
+    }
+
+    private void finish() {
+      if (finished.compareAndSet(false, true)) {
+        release(this);
+      }
+    }
+  }
+}
@@ -1,23 +1,111 @@
 package me.saket.dank.data
 
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
 import androidx.room.Database
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import me.saket.dank.cache.CachePreFillDao
+import me.saket.dank.cache.CachedPreFill
+import me.saket.dank.reply.ReplyDraftDao
+import me.saket.dank.reply.SavedReplyDraft
 import me.saket.dank.ui.submission.*
+import timber.log.Timber
 
 @Database(
     entities = [
       CachedSubmission::class,
       CachedSubmissionComments::class,
-      CachedSubmissionId2::class],
-    version = 2,
+      CachedCommentThread::class,
+      CachedSubmissionId2::class,
+      CachedPreFill::class,
+      SavedReplyDraft::class],
+    version = 5,
     exportSchema = false)
 @TypeConverters(
     SubmissionRoomTypeConverter::class,
-    RepliesRoomTypeConverter::class,
+    CommentThreadRoomTypeConverter::class,
     DankSubmissionRequestRoomTypeConverter::class,
     SortingAndTimePeriodRoomTypeConverter::class)
 abstract class AppDatabase : RoomDatabase() {
 
   abstract fun submissionDao(): CachedSubmissionDao
+
+  abstract fun cachePreFillDao(): CachePreFillDao
+
+  abstract fun replyDraftDao(): ReplyDraftDao
+
+  companion object {
+
+    /**
+     * Moves cached comment trees from a single JSON text column per request to one
+     * [BinaryJsonValueFormat] row per top-level thread. Comments are only a cache, so
+     * rows that can't be converted are dropped and get re-fetched later.
+     */
+    val MIGRATION_2_3 = object : Migration(2, 3) {
+      override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `CachedCommentThread` (`request` TEXT NOT NULL, `fullName` TEXT NOT NULL, `submissionId` TEXT NOT NULL, `sortRank` INTEGER NOT NULL, `thread` BLOB NOT NULL, `saveTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`request`, `fullName`))")
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_CachedCommentThread_request_sortRank` ON `CachedCommentThread` (`request`, `sortRank`)")
+        database.execSQL("CREATE TABLE IF NOT EXISTS `CachedSubmissionComments_new` (`submissionId` TEXT NOT NULL, `request` TEXT NOT NULL, `saveTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`request`))")
+
+        val repliesConverter = RepliesRoomTypeConverter()
+        val threadConverter = CommentThreadRoomTypeConverter()
+        database.query("SELECT submissionId, replies, request, saveTimeMillis FROM CachedSubmissionComments").use { cursor ->
+          while (cursor.moveToNext()) {
+            try {
+              val submissionId = cursor.getString(0)
+              val replies = repliesConverter.fromJson(cursor.getString(1))
+              val request = cursor.getString(2)
+              val saveTimeMillis = cursor.getLong(3)
+
+              replies.children.forEachIndexed { index, thread ->
+                val threadValues = ContentValues(6)
+                threadValues.put("request", request)
+                threadValues.put("fullName", thread.fullName)
+                threadValues.put("submissionId", submissionId)
+                threadValues.put("sortRank", index)
+                threadValues.put("thread", threadConverter.toBytes(thread))
+                threadValues.put("saveTimeMillis", saveTimeMillis)
+                database.insert("CachedCommentThread", SQLiteDatabase.CONFLICT_REPLACE, threadValues)
+              }
+
+              val values = ContentValues(3)
+              values.put("submissionId", submissionId)
+              values.put("request", request)
+              values.put("saveTimeMillis", saveTimeMillis)
+              database.insert("CachedSubmissionComments_new", SQLiteDatabase.CONFLICT_REPLACE, values)
+            } catch (e: Exception) {
+              Timber.w(e, "Dropping cached comments that couldn't be migrated")
+              database.execSQL("DELETE FROM CachedCommentThread WHERE request = ?", arrayOf(cursor.getString(2)))
+            }
+          }
+        }
+
+        database.execSQL("DROP TABLE CachedSubmissionComments")
+        database.execSQL("ALTER TABLE CachedSubmissionComments_new RENAME TO CachedSubmissionComments")
+      }
+    }
+
+    /**
+     * Adds the ledger of pre-filled things.
+     */
+    val MIGRATION_3_4 = object : Migration(3, 4) {
+      override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `CachedPreFill` (`submissionFullName` TEXT NOT NULL, `thing` TEXT NOT NULL, `saveTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`submissionFullName`, `thing`))")
+      }
+    }
+
+    /**
+     * Adds reply drafts, which were earlier stored in shared prefs. Existing drafts get moved
+     * by ReplyRepository, because they can't be read from here.
+     */
+    val MIGRATION_4_5 = object : Migration(4, 5) {
+      override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `SavedReplyDraft` (`parentFullName` TEXT NOT NULL, `body` TEXT NOT NULL, `createdTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`parentFullName`))")
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_SavedReplyDraft_createdTimeMillis` ON `SavedReplyDraft` (`createdTimeMillis`)")
+      }
+    }
+  }
 }
@@ -0,0 +1,257 @@
+package me.saket.dank.data
+
+import okio.Buffer
+import java.io.IOException
+
+/**
+ * Compact, versioned binary encoding for JSON value trees produced by Moshi's
+ * [com.squareup.moshi.JsonAdapter.toJsonValue]. Used for storing large JRAW models
+ * like comment trees in the database, where re-tokenizing megabytes of JSON text
+ * on every read was the bottleneck.
+ *
+ * Layout:
+ * ```
+ * magic (4 bytes) | version (1 byte)
+ * string count (varint) | string end offsets (varint each) | string block length (varint) | UTF-8 string block
+ * value tree
+ * ```
+ *
+ * Every string (object keys, authors, subreddit names, comment bodies) is stored exactly
+ * once in the string block and referenced by its index everywhere else, so repeated keys
+ * and authors are interned. Integral numbers, including whole doubles, are stored as
+ * zig-zag varints.
+ */
+object BinaryJsonValueFormat {
+
+  const val VERSION: Byte = 1
+  private const val MAGIC = 0x44_4A_56_42 // "DJVB".
+
+  private const val TAG_NULL = 0
+  private const val TAG_TRUE = 1
+  private const val TAG_FALSE = 2
+  private const val TAG_LONG = 3
+  private const val TAG_DOUBLE = 4
+  private const val TAG_STRING = 5
+  private const val TAG_ARRAY = 6
+  private const val TAG_OBJECT = 7
+  private const val TAG_WHOLE_DOUBLE = 8
+
+  fun isEncoded(bytes: ByteArray): Boolean {
+    if (bytes.size < 5) {
+      return false
+    }
+    val magic = (bytes[0].toInt() and 0xFF shl 24) or
+        (bytes[1].toInt() and 0xFF shl 16) or
+        (bytes[2].toInt() and 0xFF shl 8) or
+        (bytes[3].toInt() and 0xFF)
+    return magic == MAGIC
+  }
+
+  fun encode(value: Any?): ByteArray {
+    val strings = StringTable()
+    val tree = Buffer()
+    writeValue(tree, value, strings)
+
+    val output = Buffer()
+    output.writeInt(MAGIC)
+    output.writeByte(VERSION.toInt())
+    strings.writeTo(output)
+    output.writeAll(tree)
+    return output.readByteArray()
+  }
+
+  @Throws(IOException::class)
+  fun decode(bytes: ByteArray): Any? {
+    if (!isEncoded(bytes)) {
+      throw IOException("Not a binary json value")
+    }
+    val version = bytes[4]
+    if (version != VERSION) {
+      throw IOException("Unsupported version: $version")
+    }
+    val reader = Reader(bytes, position = 5)
+    val strings = reader.readStringTable()
+    return reader.readValue(strings)
+  }
+
+  private fun writeValue(sink: Buffer, value: Any?, strings: StringTable) {
+    when (value) {
+      null -> sink.writeByte(TAG_NULL)
+      is Boolean -> sink.writeByte(if (value) TAG_TRUE else TAG_FALSE)
+      is Long, is Int, is Short, is Byte -> {
+        sink.writeByte(TAG_LONG)
+        writeVarint(sink, zigZag((value as Number).toLong()))
+      }
+      is Double, is Float -> {
+        val double = (value as Number).toDouble()
+        val long = double.toLong()
+        if (long.toDouble() == double && !(double == 0.0 && 1 / double < 0)) {
+          // Timestamps from Reddit are doubles with no fractional part.
+          sink.writeByte(TAG_WHOLE_DOUBLE)
+          writeVarint(sink, zigZag(long))
+        } else {
+          sink.writeByte(TAG_DOUBLE)
+          sink.writeLong(java.lang.Double.doubleToRawLongBits(double))
+        }
+      }
+      is Number -> {
+        // BigDecimal & co. Moshi's value reader parses numbers from strings just fine.
+        sink.writeByte(TAG_STRING)
+        writeVarint(sink, strings.indexOf(value.toString()).toLong())
+      }
+      is String -> {
+        sink.writeByte(TAG_STRING)
+        writeVarint(sink, strings.indexOf(value).toLong())
+      }
+      is List<*> -> {
+        sink.writeByte(TAG_ARRAY)
+        writeVarint(sink, value.size.toLong())
+        for (i in value.indices) {
+          writeValue(sink, value[i], strings)
+        }
+      }
+      is Map<*, *> -> {
+        sink.writeByte(TAG_OBJECT)
+        writeVarint(sink, value.size.toLong())
+        for ((key, entryValue) in value) {
+          writeVarint(sink, strings.indexOf(key as String).toLong())
+          writeValue(sink, entryValue, strings)
+        }
+      }
+      else -> throw IllegalArgumentException("Unknown json value: ${value.javaClass}")
+    }
+  }
+
+  private fun zigZag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+  private fun unZigZag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+  private fun writeVarint(sink: Buffer, value: Long) {
+    var remaining = value
+    while (remaining and 0x7FL.inv() != 0L) {
+      sink.writeByte(((remaining and 0x7F) or 0x80).toInt())
+      remaining = remaining ushr 7
+    }
+    sink.writeByte(remaining.toInt())
+  }
+
+  private class StringTable {
+    private val indices = HashMap<String, Int>()
+    private val block = Buffer()
+    private val endOffsets = ArrayList<Long>()
+
+    fun indexOf(string: String): Int {
+      return indices.getOrPut(string) {
+        block.writeUtf8(string)
+        endOffsets.add(block.size)
+        endOffsets.size - 1
+      }
+    }
+
+    fun writeTo(sink: Buffer) {
+      writeVarint(sink, endOffsets.size.toLong())
+      for (endOffset in endOffsets) {
+        writeVarint(sink, endOffset)
+      }
+      writeVarint(sink, block.size)
+      sink.writeAll(block)
+    }
+  }
+
+  /**
+   * Strings are only decoded from the block when they're first referenced.
+   */
+  private class DecodedStringTable(
+      private val bytes: ByteArray,
+      private val blockStart: Int,
+      private val endOffsets: IntArray
+  ) {
+    private val decoded = arrayOfNulls<String>(endOffsets.size)
+
+    operator fun get(index: Int): String {
+      decoded[index]?.let { return it }
+      val start = if (index == 0) 0 else endOffsets[index - 1]
+      val string = String(bytes, blockStart + start, endOffsets[index] - start, Charsets.UTF_8)
+      decoded[index] = string
+      return string
+    }
+  }
+
+  private class Reader(private val bytes: ByteArray, private var position: Int) {
+
+    fun readStringTable(): DecodedStringTable {
+      val count = readVarint().toInt()
+      val endOffsets = IntArray(count)
+      for (i in 0 until count) {
+        endOffsets[i] = readVarint().toInt()
+      }
+      val blockLength = readVarint().toInt()
+      val blockStart = position
+      position += blockLength
+      if (position > bytes.size) {
+        throw IOException("Truncated string block")
+      }
+      return DecodedStringTable(bytes, blockStart, endOffsets)
+    }
+
+    fun readValue(strings: DecodedStringTable): Any? {
+      return when (val tag = readByte()) {
+        TAG_NULL -> null
+        TAG_TRUE -> true
+        TAG_FALSE -> false
+        TAG_LONG -> unZigZag(readVarint())
+        TAG_DOUBLE -> java.lang.Double.longBitsToDouble(readLong())
+        TAG_WHOLE_DOUBLE -> unZigZag(readVarint()).toDouble()
+        TAG_STRING -> strings[readVarint().toInt()]
+        TAG_ARRAY -> {
+          val size = readVarint().toInt()
+          val list = ArrayList<Any?>(size)
+          for (i in 0 until size) {
+            list.add(readValue(strings))
+          }
+          list
+        }
+        TAG_OBJECT -> {
+          val size = readVarint().toInt()
+          // Moshi's own value writer uses a LinkedHashMap too.
+          val map = LinkedHashMap<String, Any?>(size * 4 / 3 + 1)
+          for (i in 0 until size) {
+            val key = strings[readVarint().toInt()]
+            map[key] = readValue(strings)
+          }
+          map
+        }
+        else -> throw IOException("Unknown tag $tag at ${position - 1}")
+      }
+    }
+
+    private fun readByte(): Int {
+      if (position >= bytes.size) {
+        throw IOException("Unexpected end of input")
+      }
+      return bytes[position++].toInt() and 0xFF
+    }
+
+    private fun readLong(): Long {
+      var value = 0L
+      for (i in 0 until 8) {
+        value = (value shl 8) or readByte().toLong()
+      }
+      return value
+    }
+
+    private fun readVarint(): Long {
+      var result = 0L
+      var shift = 0
+      while (shift < 64) {
+        val byte = readByte()
+        result = result or ((byte and 0x7F).toLong() shl shift)
+        if (byte and 0x80 == 0) {
+          return result
+        }
+        shift += 7
+      }
+      throw IOException("Malformed varint")
+    }
+  }
+}
@@ -4,6 +4,7 @@ import com.bumptech.glide.load.engine.GlideException
 import io.reactivex.exceptions.CompositeException
 import io.reactivex.exceptions.UndeliverableException
 import me.saket.dank.R
+import me.saket.dank.reddit.RedditRateLimiter
 import okhttp3.internal.http2.ConnectionShutdownException
 import okhttp3.internal.http2.StreamResetException
 import retrofit2.HttpException
@@ -113,6 +114,7 @@ constructor() {
         || error is SocketTimeoutException
         || error is UnknownHostException
         || error is StreamResetException
-        || error is ConnectionShutdownException)
+        || error is ConnectionShutdownException
+        || error is RedditRateLimiter.BackgroundRequestDeferredException)
   }
 }
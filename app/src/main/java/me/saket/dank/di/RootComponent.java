@@ -2,6 +2,7 @@ package me.saket.dank.di;
 
 import com.squareup.moshi.Moshi;
 
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import dagger.Component;
@@ -48,12 +49,15 @@ import me.saket.dank.ui.user.UserProfilePopup;
 import me.saket.dank.ui.user.messages.InboxActivity;
 import me.saket.dank.ui.user.messages.InboxFolderFragment;
 import me.saket.dank.ui.user.messages.PrivateMessageThreadActivity;
+import me.saket.dank.urlparser.UrlParserCache;
 import me.saket.dank.utils.NestedOptionsPopupMenu;
 import me.saket.dank.utils.markdown.MarkdownModule;
+import me.saket.dank.utils.markdown.MarkdownSpanCache;
 import me.saket.dank.vote.VoteJobService;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.walkthrough.WalkthroughModule;
 import me.saket.dank.widgets.IndentedLayout;
+import okhttp3.OkHttpClient;
 
 @Component(modules = {
     RootModule.class,
@@ -69,6 +73,9 @@ public interface RootComponent {
 
   DankApi api();
 
+  @Named("shared")
+  OkHttpClient sharedOkHttpClient();
+
   ErrorResolver errorManager();
 
   MessagesNotificationManager messagesNotificationManager();
@@ -83,6 +90,10 @@ public interface RootComponent {
 
   TypefaceInflationInterceptor typefaceInflationInterceptor();
 
+  MarkdownSpanCache markdownSpanCache();
+
+  UrlParserCache urlParserCache();
+
   void inject(MediaAlbumViewerActivity target);
 
   void inject(MediaVideoFragment target);
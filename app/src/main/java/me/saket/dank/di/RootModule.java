@@ -18,7 +18,9 @@ import com.squareup.moshi.Moshi;
 import com.squareup.sqlbrite2.BriteDatabase;
 import com.squareup.sqlbrite2.SqlBrite;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -41,10 +43,13 @@ import me.saket.dank.urlparser.Link;
 import me.saket.dank.urlparser.RedditUserLink;
 import me.saket.dank.urlparser.UrlParser;
 import me.saket.dank.utils.DankLinkMovementMethod;
+import me.saket.dank.utils.okhttp.HttpCachePolicies;
+import me.saket.dank.utils.okhttp.SharedOkHttpClient;
 import me.thanel.dawn.linkunfurler.LinkMetadataReader;
 import me.thanel.dawn.linkunfurler.LinkUnfurler;
 import me.thanel.dawn.linkunfurler.readers.GenericLinkMetadataReader;
 import me.thanel.dawn.linkunfurler.readers.PlayStoreLinkMetadataReader;
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
@@ -57,6 +62,7 @@ public class RootModule {
 
   public static final int NETWORK_CONNECT_TIMEOUT_SECONDS = 15;
   public static final int NETWORK_READ_TIMEOUT_SECONDS = 10;
+  private static final long DANK_API_HTTP_CACHE_SIZE_BYTES = 10 * 1024 * 1024;
   private final Application appContext;
 
   public RootModule(Application appContext) {
@@ -91,12 +97,20 @@ public class RootModule {
     return appContext.getSharedPreferences("votes", Context.MODE_PRIVATE);
   }
 
+  /**
+   * Every other HTTP client is derived from this one so that they all share connections.
+   */
   @Provides
   @Singleton
-  OkHttpClient provideOkHttpClient() {
-    OkHttpClient.Builder builder = new OkHttpClient.Builder()
-        .connectTimeout(NETWORK_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-        .readTimeout(NETWORK_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  @Named("shared")
+  OkHttpClient provideSharedOkHttpClient() {
+    return SharedOkHttpClient.create(NETWORK_CONNECT_TIMEOUT_SECONDS, NETWORK_READ_TIMEOUT_SECONDS);
+  }
+
+  @Provides
+  @Singleton
+  OkHttpClient provideOkHttpClient(@Named("shared") OkHttpClient sharedOkHttpClient) {
+    OkHttpClient.Builder builder = sharedOkHttpClient.newBuilder();
 
     if (BuildConfig.DEBUG) {
       HttpLoggingInterceptor logging = new HttpLoggingInterceptor(message -> Timber.tag("OkHttp").d(message));
@@ -108,9 +122,35 @@ public class RootModule {
     return builder.build();
   }
 
+  /**
+   * Caches responses of {@link DankApi}'s third-party APIs. Kept separate from other clients so that
+   * things like media downloads don't push API responses out of the cache.
+   */
+  @Provides
+  @Singleton
+  @Named("dank_api")
+  OkHttpClient provideDankApiOkHttpClient(OkHttpClient okHttpClient) {
+    // Streamable and Redgifs return signed video URLs that expire, so they aren't kept for long.
+    HttpCachePolicies cachePolicies = new HttpCachePolicies(Arrays.asList(
+        HttpCachePolicies.Policy.create("api.imgur.com", "/3/album/", 1, 7 * 24, TimeUnit.HOURS),
+        HttpCachePolicies.Policy.create("api.imgur.com", "/3/image/", 1, 7 * 24, TimeUnit.HOURS),
+        HttpCachePolicies.Policy.create("api.gfycat.com", "/v1/gfycats/", 24, 7 * 24, TimeUnit.HOURS),
+        HttpCachePolicies.Policy.create("api.streamable.com", "/videos/", 10, 60, TimeUnit.MINUTES),
+        HttpCachePolicies.Policy.create("api.redgifs.com", "/v2/gifs/", 10, 60, TimeUnit.MINUTES),
+        HttpCachePolicies.Policy.create("api.giphy.com", "/v1/gifs/trending", 5, 24 * 60, TimeUnit.MINUTES),
+        HttpCachePolicies.Policy.create("api.giphy.com", "/v1/gifs/search", 60, 24 * 60, TimeUnit.MINUTES)
+    ));
+
+    return okHttpClient.newBuilder()
+        .cache(new Cache(new File(appContext.getCacheDir(), "dank_api_http_cache"), DANK_API_HTTP_CACHE_SIZE_BYTES))
+        .addInterceptor(cachePolicies.staleIfErrorInterceptor())
+        .addNetworkInterceptor(cachePolicies.maxAgeInterceptor())
+        .build();
+  }
+
   @Provides
   @Singleton
-  Retrofit provideRetrofit(OkHttpClient okHttpClient, Moshi moshi) {
+  Retrofit provideRetrofit(@Named("dank_api") OkHttpClient okHttpClient, Moshi moshi) {
     return new Retrofit.Builder()
         .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
         .addConverterFactory(MoshiConverterFactory.create(moshi))
@@ -228,7 +268,11 @@ public class RootModule {
 
   @Provides
   @Singleton
-  LinkUnfurler provideLinkUnfurler(GenericLinkMetadataReader genericLinkMetadataReader, List<LinkMetadataReader> customMetadataReaders) {
-    return new LinkUnfurler(genericLinkMetadataReader, customMetadataReaders);
+  LinkUnfurler provideLinkUnfurler(
+      GenericLinkMetadataReader genericLinkMetadataReader,
+      List<LinkMetadataReader> customMetadataReaders,
+      @Named("shared") OkHttpClient sharedOkHttpClient)
+  {
+    return new LinkUnfurler(genericLinkMetadataReader, customMetadataReaders, sharedOkHttpClient);
   }
 }
@@ -28,6 +28,7 @@ class StorageModule {
   fun appDatabase(appContext: Application): AppDatabase {
     return Room.databaseBuilder(appContext, AppDatabase::class.java, "Dank-room")
         .fallbackToDestructiveMigrationFrom(1)
+        .addMigrations(AppDatabase.MIGRATION_2_3, AppDatabase.MIGRATION_3_4, AppDatabase.MIGRATION_4_5)
         .build()
   }
 }
@@ -23,6 +23,7 @@ import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.InboxRepository;
 import me.saket.dank.data.ResolvedError;
 import me.saket.dank.di.Dank;
+import me.saket.dank.reddit.RequestPriority;
 import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.user.UserSessionRepository;
 import me.saket.dank.ui.user.messages.InboxFolder;
@@ -171,7 +172,7 @@ public class CheckUnreadMessagesJobService extends DankJobService {
       refreshCompletable = Completable.complete();
     }
 
-    refreshCompletable
+    RequestPriority.background(refreshCompletable)
         .andThen(inboxRepository.messages(InboxFolder.UNREAD).firstOrError())
         .subscribeOn(io())
         .observeOn(mainThread())
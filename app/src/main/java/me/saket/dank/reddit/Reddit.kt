@@ -4,14 +4,12 @@ import io.reactivex.Completable
 import io.reactivex.Single
 import me.saket.dank.data.PaginationAnchor
 import me.saket.dank.reddit.jraw.UserLoginHelper
-import me.saket.dank.ui.submission.SubmissionAndComments
 import me.saket.dank.ui.subreddit.SubredditSearchResult
 import me.saket.dank.ui.subreddit.Subscribeable
 import me.saket.dank.ui.user.messages.InboxFolder
 import me.saket.dank.utils.DankSubmissionRequest
 import net.dean.jraw.models.*
 import net.dean.jraw.models.Subreddit
-import net.dean.jraw.tree.CommentNode
 import net.dean.jraw.tree.RootCommentNode
 
 interface Reddit {
@@ -68,7 +66,17 @@ interface Reddit {
 
     fun fetch(request: DankSubmissionRequest): Single<RootCommentNode>
 
-    fun <T : PublicContribution<*>>  fetchMoreComments(submissionData: SubmissionAndComments, commentNode: CommentNode<T>): Single<SubmissionAndComments>
+    /**
+     * Fetches the comments hidden behind [moreChildren] using as few calls to /api/morechildren
+     * as possible. Reddit accepts up to [MORE_CHILDREN_MAX_IDS] ids per call.
+     *
+     * @return Flat list of comments and nested "load more" items, in the order sent by Reddit.
+     */
+    fun fetchMoreComments(request: DankSubmissionRequest, moreChildren: List<MoreChildren>): Single<List<NestedIdentifiable>>
+
+    companion object {
+      const val MORE_CHILDREN_MAX_IDS = 100
+    }
   }
 
   interface Subscriptions {
@@ -0,0 +1,187 @@
+package me.saket.dank.reddit;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.auto.value.AutoValue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import me.saket.dank.utils.TokenBucket;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import timber.log.Timber;
+
+/**
+ * Tracks Reddit's rate-limit budget from the X-Ratelimit headers it sends with every response.
+ * <p>
+ * Interactive calls can use the entire budget and are never held back. Background calls
+ * ({@link RequestPriority#BACKGROUND}) can't use the last {@link #INTERACTIVE_RESERVE_FRACTION} of
+ * it, and are spaced out evenly over the rest of the window. This works like a token bucket that
+ * refills at the rate the budget allows. Background calls that would have to wait longer than
+ * {@link #MAX_BACKGROUND_WAIT_SECONDS} fail with {@link BackgroundRequestDeferredException},
+ * so that their jobs can retry later.
+ */
+@Singleton
+public class RedditRateLimiter {
+
+  static final String HEADER_REMAINING = "X-Ratelimit-Remaining";
+  static final String HEADER_USED = "X-Ratelimit-Used";
+  static final String HEADER_RESET = "X-Ratelimit-Reset";
+
+  static final float INTERACTIVE_RESERVE_FRACTION = 0.25f;
+  static final long MAX_BACKGROUND_WAIT_SECONDS = 30;
+
+  /** Keeps background calls that were waiting for a reset from all going out together. */
+  private static final long MIN_BACKGROUND_SPACING_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final TokenBucket.Clock clock;
+
+  private boolean budgetKnown;
+  private double remaining;
+  private double windowSize;
+  private long resetAtNanos;
+  private long nextBackgroundAtNanos;
+
+  public static class BackgroundRequestDeferredException extends IOException {
+    BackgroundRequestDeferredException(long secondsUntilReset) {
+      super("Background call deferred to keep Reddit's rate-limit budget for interactive calls. Resets in " + secondsUntilReset + "s");
+    }
+  }
+
+  @AutoValue
+  public abstract static class Headroom {
+    /**
+     * False until Reddit has sent its headers for the current window.
+     */
+    public abstract boolean known();
+
+    public abstract int remaining();
+
+    public abstract int windowSize();
+
+    public abstract int remainingForBackground();
+
+    public abstract long secondsUntilReset();
+
+    static Headroom create(boolean known, int remaining, int windowSize, int remainingForBackground, long secondsUntilReset) {
+      return new AutoValue_RedditRateLimiter_Headroom(known, remaining, windowSize, remainingForBackground, secondsUntilReset);
+    }
+  }
+
+  @Inject
+  public RedditRateLimiter() {
+    this(System::nanoTime);
+  }
+
+  @VisibleForTesting
+  RedditRateLimiter(TokenBucket.Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Should be added to the Reddit client using {@link okhttp3.OkHttpClient.Builder#addInterceptor(Interceptor)}.
+   */
+  public Interceptor interceptor() {
+    return chain -> {
+      long waitNanos = reserve(RequestPriority.current(), TimeUnit.SECONDS.toNanos(MAX_BACKGROUND_WAIT_SECONDS));
+      if (waitNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for Reddit's rate-limit");
+        }
+      }
+
+      Response response = chain.proceed(chain.request());
+      update(response.header(HEADER_REMAINING), response.header(HEADER_USED), response.header(HEADER_RESET));
+      return response;
+    };
+  }
+
+  /**
+   * Takes one call out of the budget.
+   *
+   * @return Nanoseconds to wait before making the call.
+   * @throws BackgroundRequestDeferredException If a background call would have to wait longer than <var>maxWaitNanos</var>.
+   */
+  @VisibleForTesting
+  synchronized long reserve(RequestPriority priority, long maxWaitNanos) throws BackgroundRequestDeferredException {
+    long nowNanos = clock.nanoTime();
+    if (!budgetKnown || nowNanos >= resetAtNanos) {
+      // The budget of a new window is only known after its first response.
+      return 0;
+    }
+
+    if (priority == RequestPriority.INTERACTIVE) {
+      remaining -= 1;
+      return 0;
+    }
+
+    long startNanos;
+    long spacingNanos;
+    double remainingForBackground = remainingForBackground();
+    if (remainingForBackground >= 1) {
+      startNanos = Math.max(nowNanos, nextBackgroundAtNanos);
+      spacingNanos = (long) ((resetAtNanos - nowNanos) / remainingForBackground);
+    } else {
+      // Wait for the next window.
+      startNanos = Math.max(resetAtNanos, nextBackgroundAtNanos);
+      spacingNanos = MIN_BACKGROUND_SPACING_NANOS;
+    }
+
+    long waitNanos = startNanos - nowNanos;
+    if (waitNanos > maxWaitNanos) {
+      throw new BackgroundRequestDeferredException(TimeUnit.NANOSECONDS.toSeconds(resetAtNanos - nowNanos));
+    }
+    nextBackgroundAtNanos = startNanos + spacingNanos;
+    if (startNanos < resetAtNanos) {
+      remaining -= 1;
+    }
+    return waitNanos;
+  }
+
+  @VisibleForTesting
+  synchronized void update(@Nullable String remainingHeader, @Nullable String usedHeader, @Nullable String resetHeader) {
+    if (remainingHeader == null || resetHeader == null) {
+      // Not every endpoint sends them, like the ones for refreshing tokens.
+      return;
+    }
+    try {
+      double remaining = Double.parseDouble(remainingHeader);
+      double used = usedHeader != null ? Double.parseDouble(usedHeader) : 0;
+      long resetSeconds = (long) Double.parseDouble(resetHeader);
+
+      this.remaining = remaining;
+      this.windowSize = remaining + used;
+      this.resetAtNanos = clock.nanoTime() + TimeUnit.SECONDS.toNanos(resetSeconds);
+      this.budgetKnown = true;
+
+    } catch (NumberFormatException e) {
+      Timber.w("Invalid rate-limit headers. remaining: %s, used: %s, reset: %s", remainingHeader, usedHeader, resetHeader);
+    }
+  }
+
+  public synchronized Headroom headroom() {
+    long nowNanos = clock.nanoTime();
+    if (!budgetKnown || nowNanos >= resetAtNanos) {
+      return Headroom.create(false, 0, 0, 0, 0);
+    }
+    return Headroom.create(
+        true,
+        (int) remaining,
+        (int) windowSize,
+        (int) Math.max(0, remainingForBackground()),
+        TimeUnit.NANOSECONDS.toSeconds(resetAtNanos - nowNanos));
+  }
+
+  private double remainingForBackground() {
+    return remaining - windowSize * INTERACTIVE_RESERVE_FRACTION;
+  }
+}
@@ -0,0 +1,64 @@
+package me.saket.dank.reddit;
+
+import androidx.annotation.CheckResult;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableObserver;
+import io.reactivex.functions.Function;
+
+/**
+ * Whether Reddit calls are being made for something the user is waiting on. Used by
+ * {@link RedditRateLimiter} for keeping background work from using up the rate-limit budget.
+ * <p>
+ * Calls are interactive unless they're made inside {@link #background(Completable)}. The priority
+ * is held by the thread, and carried over to work that gets scheduled on other threads by
+ * {@link #scheduleHandler()}.
+ */
+public enum RequestPriority {
+  INTERACTIVE,
+  BACKGROUND;
+
+  private static final ThreadLocal<RequestPriority> CURRENT = new ThreadLocal<>();
+
+  public static RequestPriority current() {
+    RequestPriority priority = CURRENT.get();
+    return priority != null ? priority : INTERACTIVE;
+  }
+
+  /**
+   * Marks Reddit calls made by <var>upstream</var> as background work.
+   */
+  @CheckResult
+  public static Completable background(Completable upstream) {
+    return new Completable() {
+      @Override
+      protected void subscribeActual(CompletableObserver observer) {
+        runAs(BACKGROUND, () -> upstream.subscribe(observer));
+      }
+    };
+  }
+
+  /**
+   * For {@link io.reactivex.plugins.RxJavaPlugins#setScheduleHandler(Function)}. Runnables scheduled
+   * by background work run as background work too. Interactive ones are left untouched.
+   */
+  public static Function<Runnable, Runnable> scheduleHandler() {
+    return runnable -> {
+      RequestPriority priority = CURRENT.get();
+      if (priority == null || priority == INTERACTIVE) {
+        return runnable;
+      }
+      return () -> runAs(priority, runnable);
+    };
+  }
+
+  private static void runAs(RequestPriority priority, Runnable runnable) {
+    RequestPriority previous = CURRENT.get();
+    CURRENT.set(priority);
+    try {
+      runnable.run();
+    } finally {
+      CURRENT.set(previous);
+    }
+  }
+}
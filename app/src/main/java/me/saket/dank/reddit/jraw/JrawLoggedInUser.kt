@@ -53,9 +53,10 @@ class JrawLoggedInUser(private val clients: Observable<RedditClient>, private va
         .firstOrError()
         .flatMapCompletable {
           Completable.fromAction {
-            when (thing) {
-              is Comment -> it.comment(thing.id).setVote(voteDirection)
-              is Submission -> it.submission(thing.id).setVote(voteDirection)
+            // Parsing the full-name so that votes can also be sent for a SimpleIdentifiable.
+            when (parse(thing.fullName)) {
+              COMMENT -> it.comment(thing.id).setVote(voteDirection)
+              SUBMISSION -> it.submission(thing.id).setVote(voteDirection)
               else -> throw AssertionError("Unknown contribution for vote: $thing")
             }
           }
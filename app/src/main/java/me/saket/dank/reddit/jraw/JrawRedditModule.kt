@@ -7,6 +7,7 @@ import dagger.Provides
 import io.reactivex.subjects.BehaviorSubject
 import me.saket.dank.BuildConfig
 import me.saket.dank.R
+import me.saket.dank.reddit.RedditRateLimiter
 import net.dean.jraw.RedditClient
 import net.dean.jraw.android.AndroidHelper
 import net.dean.jraw.android.AppInfo
@@ -78,9 +79,12 @@ class JrawRedditModule {
       appInfoProvider: AppInfoProvider,
       tokenStore: SharedPreferencesTokenStore,
       tokenRefresher: JrawTokenRefresher,
-      @Named("deviceUuid") deviceUUID: UUID
+      @Named("deviceUuid") deviceUUID: UUID,
+      @Named("shared") sharedHttpClient: OkHttpClient,
+      rateLimiter: RedditRateLimiter
   ): AccountHelper {
-    val httpClient = OkHttpClient.Builder()
+    val httpClient = sharedHttpClient.newBuilder()
+        .addInterceptor(rateLimiter.interceptor())
         .addNetworkInterceptor(tokenRefresher)
         .apply {
           if (BuildConfig.DEBUG) {
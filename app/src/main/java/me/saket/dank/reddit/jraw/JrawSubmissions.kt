@@ -3,35 +3,66 @@ package me.saket.dank.reddit.jraw
 import io.reactivex.Observable
 import io.reactivex.Single
 import me.saket.dank.reddit.Reddit
-import me.saket.dank.ui.submission.SubmissionAndComments
 import me.saket.dank.utils.DankSubmissionRequest
+import net.dean.jraw.Endpoint
+import net.dean.jraw.JrawUtils
 import net.dean.jraw.RedditClient
-import net.dean.jraw.models.PublicContribution
-import net.dean.jraw.tree.CommentNode
+import net.dean.jraw.databind.Enveloped
+import net.dean.jraw.models.KindConstants
+import net.dean.jraw.models.MoreChildren
+import net.dean.jraw.models.NestedIdentifiable
 import net.dean.jraw.tree.RootCommentNode
+import java.util.Locale
 import javax.inject.Inject
 
 class JrawSubmissions @Inject constructor(private val clients: Observable<RedditClient>) : Reddit.Submissions {
 
+  private val thingAdapter by lazy {
+    JrawUtils.moshi.adapter<NestedIdentifiable>(NestedIdentifiable::class.java, Enveloped::class.java)
+  }
+
   override fun fetch(request: DankSubmissionRequest): Single<RootCommentNode> {
     return clients
         .firstOrError()
         .map { it.submission(request.id()).comments(request.toJraw()) }
   }
 
-  override fun <T : PublicContribution<*>> fetchMoreComments(
-      submissionData: SubmissionAndComments,
-      commentNode: CommentNode<T>
-  ): Single<SubmissionAndComments> {
-    // JRAW inserts the new comments directly inside submission's comment tree, which we
-    // do not want because we treat persistence as the single source of truth. So we'll
-    // instead return the submission so that it gets saved to to DB and let the UI
-    // update itself.
+  override fun fetchMoreComments(request: DankSubmissionRequest, moreChildren: List<MoreChildren>): Single<List<NestedIdentifiable>> {
+    // JRAW's CommentNode#replaceMore() can only expand one item at a time and inserts the new
+    // comments directly inside the comment tree, which we do not want because we treat persistence
+    // as the single source of truth. So the ids of all items are fetched together and merged later.
     return clients
         .firstOrError()
-        .map {
-          commentNode.replaceMore(it)
-          submissionData
+        .map { reddit ->
+          moreChildren
+              .flatMap { it.childrenIds }
+              .distinct()
+              .chunked(Reddit.Submissions.MORE_CHILDREN_MAX_IDS)
+              .flatMap { ids -> fetchMoreChildren(reddit, request, ids) }
         }
   }
+
+  private fun fetchMoreChildren(reddit: RedditClient, request: DankSubmissionRequest, ids: List<String>): List<NestedIdentifiable> {
+    val response = reddit.request {
+      it.endpoint(Endpoint.GET_MORECHILDREN)
+          .query(mapOf(
+              "api_type" to "json",
+              "link_id" to "${KindConstants.SUBMISSION}_${request.id()}",
+              "children" to ids.joinToString(separator = ","),
+              "sort" to request.commentSort().mode().name.toLowerCase(Locale.ENGLISH),
+              "limit_children" to "false"
+          ))
+    }
+
+    // {"json": {"errors": [], "data": {"things": [...]}}}
+    val json = JrawUtils.moshi.adapter(Any::class.java).fromJson(response.body) as Map<*, *>
+    val body = json["json"] as Map<*, *>
+    val errors = body["errors"] as List<*>?
+    if (errors != null && errors.isNotEmpty()) {
+      throw IllegalStateException("Couldn't fetch more comments: $errors")
+    }
+
+    val things = (body["data"] as Map<*, *>?)?.get("things") as List<*>? ?: return emptyList()
+    return things.map { thingAdapter.fromJsonValue(it)!! }
+  }
 }
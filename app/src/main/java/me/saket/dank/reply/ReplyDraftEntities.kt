@@ -0,0 +1,44 @@
+package me.saket.dank.reply
+
+import androidx.room.Dao
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.PrimaryKey
+import androidx.room.Query
+import io.reactivex.Flowable
+
+/**
+ * Draft of a reply to [parentFullName]. Indexed by [createdTimeMillis] so that old drafts
+ * can be recycled without reading every draft.
+ */
+@Entity(indices = [Index("createdTimeMillis")])
+data class SavedReplyDraft(
+    @PrimaryKey
+    val parentFullName: String,
+    val body: String,
+    val createdTimeMillis: Long
+)
+
+@Dao
+interface ReplyDraftDao {
+
+  /**
+   * Emits an empty list if there's no draft.
+   */
+  @Query("SELECT * FROM savedreplydraft WHERE parentFullName = :parentFullName")
+  fun draft(parentFullName: String): Flowable<List<SavedReplyDraft>>
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun save(draft: SavedReplyDraft)
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun saveAll(drafts: List<SavedReplyDraft>)
+
+  @Query("DELETE FROM savedreplydraft WHERE parentFullName = :parentFullName")
+  fun delete(parentFullName: String)
+
+  @Query("DELETE FROM savedreplydraft WHERE createdTimeMillis < :createdBeforeMillis")
+  fun deleteDraftsCreatedBefore(createdBeforeMillis: Long): Int
+}
@@ -4,9 +4,7 @@ import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteDatabase;
 
 import androidx.annotation.CheckResult;
-import androidx.annotation.VisibleForTesting;
 
-import com.f2prateek.rx.preferences2.RxSharedPreferences;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 import com.squareup.sqlbrite2.BriteDatabase;
@@ -15,7 +13,8 @@ import net.dean.jraw.models.Identifiable;
 
 import org.threeten.bp.LocalDateTime;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -29,6 +28,7 @@ import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import me.saket.dank.BuildConfig;
+import me.saket.dank.data.AppDatabase;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.FullNameType;
 import me.saket.dank.data.ResolvedError;
@@ -49,14 +49,18 @@ import static org.threeten.bp.ZoneOffset.UTC;
 @Singleton
 public class ReplyRepository implements DraftStore {
 
+  private static final String KEY_DRAFT_PREFIX = "replyDraftFor_";
+
   private final Lazy<Reddit> reddit;
   private final BriteDatabase database;
   private final UserSessionRepository userSessionRepository;
   private final Moshi moshi;
   private final int recycleDraftsOlderThanNumDays;
   private final SharedPreferences sharedPrefs;
-  private final RxSharedPreferences rxSharedPrefs;
   private final Lazy<ErrorResolver> errorResolver;
+  private final Lazy<AppDatabase> roomDatabase;
+  private final Object draftsMoveLock = new Object();
+  private volatile boolean draftsMovedFromSharedPrefs;
 
   @Inject
   public ReplyRepository(
@@ -66,16 +70,17 @@ public class ReplyRepository implements DraftStore {
       @Named("drafts") SharedPreferences sharedPrefs,
       Moshi moshi,
       @Named("drafts_max_retain_days") int recycleDraftsOlderThanNumDays,
-      Lazy<ErrorResolver> errorResolver)
+      Lazy<ErrorResolver> errorResolver,
+      Lazy<AppDatabase> roomDatabase)
   {
     this.reddit = reddit;
     this.database = database;
     this.userSessionRepository = userSessionRepository;
     this.sharedPrefs = sharedPrefs;
-    this.rxSharedPrefs = RxSharedPreferences.create(sharedPrefs);
     this.moshi = moshi;
     this.recycleDraftsOlderThanNumDays = recycleDraftsOlderThanNumDays;
     this.errorResolver = errorResolver;
+    this.roomDatabase = roomDatabase;
   }
 
 // ======== INLINE_REPLY ======== //
@@ -196,59 +201,44 @@ public class ReplyRepository implements DraftStore {
 
     return Completable
         .fromAction(() -> {
+          moveDraftsFromSharedPrefsIfNeeded();
           long draftCreatedTimeMillis = System.currentTimeMillis();
-          ReplyDraft replyDraft = ReplyDraft.create(draftBody, draftCreatedTimeMillis);
-          JsonAdapter<ReplyDraft> jsonAdapter = moshi.adapter(ReplyDraft.class);
-          String replyDraftJson = jsonAdapter.toJson(replyDraft);
-          rxSharedPrefs.getString(keyForDraft(identifiable)).set(replyDraftJson);
+          roomDatabase.get().replyDraftDao().save(new SavedReplyDraft(draftKey(identifiable), draftBody, draftCreatedTimeMillis));
           //Timber.i("Draft saved: %s", draftBody);
-
-          // Recycle old drafts.
-          Map<String, ?> allDraftJsons = new HashMap<>(sharedPrefs.getAll());
-          Map<String, ReplyDraft> allDrafts = new HashMap<>(allDraftJsons.size());
-          for (Map.Entry<String, ?> entry : allDraftJsons.entrySet()) {
-            String draftEntryJson = (String) entry.getValue();
-            //Timber.i("Existing draft: %s", draftEntryJson);
-            ReplyDraft draftEntry = jsonAdapter.fromJson(draftEntryJson);
-            allDrafts.put(entry.getKey(), draftEntry);
-          }
-          recycleOldDrafts(allDrafts);
         })
         .toSingleDefault(DraftSaveResult.SAVED_OR_UPDATED);
   }
 
-  @VisibleForTesting
-  void recycleOldDrafts(Map<String, ReplyDraft> allDrafts) {
-    LocalDateTime nowDateTime = LocalDateTime.now(UTC);
-    LocalDateTime draftDateLimit = nowDateTime.minusDays(recycleDraftsOlderThanNumDays);
-    long draftDateLimitMillis = draftDateLimit.toInstant(UTC).toEpochMilli();
-
-    SharedPreferences.Editor sharedPrefsEditor = sharedPrefs.edit();
-
-    for (Map.Entry<String, ReplyDraft> entry : allDrafts.entrySet()) {
-      ReplyDraft draftEntry = entry.getValue();
-      if (draftEntry.createdTimeMillis() < draftDateLimitMillis) {
-        // Stale draft.
-        sharedPrefsEditor.remove(entry.getKey());
-      }
-    }
-
-    sharedPrefsEditor.apply();
+  /**
+   * Deletes drafts older than {@link #recycleDraftsOlderThanNumDays}. Runs periodically
+   * from {@link me.saket.dank.cache.DatabaseCacheRecyclerJobService}.
+   *
+   * @return Number of deleted drafts.
+   */
+  @CheckResult
+  public Single<Integer> recycleOldDrafts() {
+    return Single.fromCallable(() -> {
+      moveDraftsFromSharedPrefsIfNeeded();
+
+      LocalDateTime nowDateTime = LocalDateTime.now(UTC);
+      LocalDateTime draftDateLimit = nowDateTime.minusDays(recycleDraftsOlderThanNumDays);
+      long draftDateLimitMillis = draftDateLimit.toInstant(UTC).toEpochMilli();
+      return roomDatabase.get().replyDraftDao().deleteDraftsCreatedBefore(draftDateLimitMillis);
+    });
   }
 
   @Override
   public Observable<String> streamDrafts(Identifiable identifiable) {
-    return rxSharedPrefs.getString(keyForDraft(identifiable), "")
-        .asObservable()
-        .map(replyDraftJson -> {
-          if ("".equals(replyDraftJson)) {
+    String draftKey = draftKey(identifiable);
+    return Completable.fromAction(this::moveDraftsFromSharedPrefsIfNeeded)
+        .andThen(roomDatabase.get().replyDraftDao().draft(draftKey).toObservable())
+        .map(drafts -> {
+          if (drafts.isEmpty()) {
             // Always emit a default value so that the UI's initial setup is done.
             return "";
 
           } else {
-            ReplyDraft replyDraft = moshi.adapter(ReplyDraft.class).fromJson(replyDraftJson);
-            //noinspection ConstantConditions
-            return replyDraft.body();
+            return drafts.get(0).getBody();
           }
         })
         .distinctUntilChanged();
@@ -269,12 +259,48 @@ public class ReplyRepository implements DraftStore {
     //  throw new UnsupportedOperationException();
     //}
     //Timber.i("Removing draft for %s", parent);
-    return Completable.fromAction(() -> sharedPrefs.edit().remove(keyForDraft(identifiable)).apply());
+    return Completable.fromAction(() -> {
+      moveDraftsFromSharedPrefsIfNeeded();
+      roomDatabase.get().replyDraftDao().delete(draftKey(identifiable));
+    });
+  }
+
+  /**
+   * Drafts used to be stored as JSON in shared prefs. Moves them to the database on first use.
+   */
+  private void moveDraftsFromSharedPrefsIfNeeded() {
+    if (draftsMovedFromSharedPrefs) {
+      return;
+    }
+    synchronized (draftsMoveLock) {
+      if (draftsMovedFromSharedPrefs) {
+        return;
+      }
+      Map<String, ?> legacyDraftJsons = sharedPrefs.getAll();
+      if (!legacyDraftJsons.isEmpty()) {
+        JsonAdapter<ReplyDraft> jsonAdapter = moshi.adapter(ReplyDraft.class);
+        List<SavedReplyDraft> legacyDrafts = new ArrayList<>(legacyDraftJsons.size());
+        for (Map.Entry<String, ?> entry : legacyDraftJsons.entrySet()) {
+          if (!entry.getKey().startsWith(KEY_DRAFT_PREFIX) || !(entry.getValue() instanceof String)) {
+            continue;
+          }
+          try {
+            ReplyDraft draft = jsonAdapter.fromJson((String) entry.getValue());
+            //noinspection ConstantConditions
+            legacyDrafts.add(new SavedReplyDraft(entry.getKey().substring(KEY_DRAFT_PREFIX.length()), draft.body(), draft.createdTimeMillis()));
+          } catch (IOException e) {
+            Timber.e(e, "Dropping draft that couldn't be read: %s", entry.getKey());
+          }
+        }
+        roomDatabase.get().replyDraftDao().saveAll(legacyDrafts);
+        sharedPrefs.edit().clear().apply();
+      }
+      draftsMovedFromSharedPrefs = true;
+    }
   }
 
-  @VisibleForTesting
-  static String keyForDraft(Identifiable contribution) {
+  private static String draftKey(Identifiable contribution) {
     Preconditions.checkNotNull(contribution.getFullName(), "fullname");
-    return "replyDraftFor_" + contribution.getFullName();
+    return contribution.getFullName();
   }
 }
@@ -9,6 +9,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.ScrollView;
+import android.widget.TextView;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.widget.Toolbar;
@@ -28,11 +29,14 @@ import butterknife.BindView;
 import butterknife.ButterKnife;
 import dagger.Lazy;
 import io.reactivex.Completable;
+import io.reactivex.Observable;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.R;
 import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.di.Dank;
+import me.saket.dank.markdownhints.MarkdownSpanPool;
 import me.saket.dank.notifs.CheckUnreadMessagesJobService;
+import me.saket.dank.reddit.RedditRateLimiter;
 import me.saket.dank.reply.ReplyRepository;
 import me.saket.dank.ui.DankPullCollapsibleActivity;
 import me.saket.dank.ui.appshortcuts.AppShortcutRepository;
@@ -43,9 +47,11 @@ import me.saket.dank.ui.subreddit.SubmissionSwipeAction;
 import me.saket.dank.ui.subscriptions.SubscriptionRepository;
 import me.saket.dank.ui.user.messages.CachedMessage;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.urlparser.UrlParserCache;
 import me.saket.dank.utils.RxUtils;
 import me.saket.dank.utils.Views;
 import me.saket.dank.utils.markdown.Markdown;
+import me.saket.dank.utils.markdown.MarkdownSpanCache;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.widgets.InboxUI.IndependentExpandablePageLayout;
 import timber.log.Timber;
@@ -67,8 +73,12 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
   @Inject ReplyRepository replyRepository;
   @Inject LinkMetadataRepository linkMetadataRepository;
   @Inject VotingManager votingManager;
+  @Inject RedditRateLimiter redditRateLimiter;
   @Inject UrlParser urlParser;
+  @Inject Lazy<UrlParserCache> urlParserCache;
   @Inject Lazy<Markdown> markdown;
+  @Inject Lazy<MarkdownSpanCache> markdownSpanCache;
+  @Inject Lazy<MarkdownSpanPool> markdownSpanPool;
   @Inject Lazy<MediaHostRepository> mediaHostRepository;
   @Inject Lazy<AppShortcutRepository> appShortcutRepository;
   @Inject @Named("walkthroughs") Lazy<SharedPreferences> sharedPreferences;
@@ -98,6 +108,8 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
   protected void onPostCreate(@Nullable Bundle savedInstanceState) {
     super.onPostCreate(savedInstanceState);
 
+    addRateLimitHeadroom();
+
     addButton("Clear \"seen\" message notifs", o -> {
       Dank.messagesNotifManager()
           .removeAllMessageNotifSeenStatuses()
@@ -155,6 +167,11 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
     addButton("Clear UrlParser cache", o -> {
       urlParser.clearCache();
     });
+
+    addButton("Log UrlParser cache stats", o -> {
+      urlParserCache.get().logStats();
+    });
+
     addButton("Clear media-repo cache", o -> {
       mediaHostRepository.get().clearCache();
     });
@@ -172,6 +189,14 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
       markdown.get().clearCache();
     });
 
+    addButton("Log markdown cache stats", o -> {
+      markdownSpanCache.get().logStats();
+    });
+
+    addButton("Log markdown span pool stats", o -> {
+      markdownSpanPool.get().logStats();
+    });
+
     addButton("Recycle old DB rows", o -> {
       int durationFromNow = 0;
       TimeUnit durationTimeUnit = TimeUnit.DAYS;
@@ -200,6 +225,29 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
     });
   }
 
+  private void addRateLimitHeadroom() {
+    TextView headroomView = new TextView(this);
+    contentContainer.addView(headroomView, ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+
+    Observable.interval(0, 1, TimeUnit.SECONDS)
+        .map(o -> redditRateLimiter.headroom())
+        .distinctUntilChanged()
+        .observeOn(mainThread())
+        .takeUntil(lifecycle().onDestroy())
+        .subscribe(headroom -> {
+          if (headroom.known()) {
+            headroomView.setText(String.format(
+                "Reddit rate-limit: %s/%s left (%s for background), resets in %ss",
+                headroom.remaining(),
+                headroom.windowSize(),
+                headroom.remainingForBackground(),
+                headroom.secondsUntilReset()));
+          } else {
+            headroomView.setText("Reddit rate-limit: unknown until the next call");
+          }
+        });
+  }
+
   private void addButton(String label, View.OnClickListener clickListener) {
     Button button = new Button(this);
     contentContainer.addView(button, ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
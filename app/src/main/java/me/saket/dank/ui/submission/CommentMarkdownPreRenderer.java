@@ -0,0 +1,111 @@
+package me.saket.dank.ui.submission;
+
+import androidx.annotation.CheckResult;
+import androidx.annotation.VisibleForTesting;
+
+import net.dean.jraw.models.Comment;
+import net.dean.jraw.tree.CommentNode;
+import net.dean.jraw.tree.RootCommentNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import dagger.Lazy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import me.saket.dank.utils.markdown.Markdown;
+import me.saket.dank.utils.markdown.MarkdownSpanCache;
+import timber.log.Timber;
+
+import static me.saket.dank.ui.submission.SubmissionCommentTreeUiConstructor.COLLAPSED_COMMENT_IDS;
+
+/**
+ * Parses comment bodies in the background, in the order they're displayed, so that
+ * {@link SubmissionCommentTreeUiConstructor} mostly finds them warm in {@link MarkdownSpanCache}
+ * instead of parsing every row one after another.
+ */
+public class CommentMarkdownPreRenderer {
+
+  private final Lazy<Markdown> markdown;
+  private final Scheduler scheduler;
+  private final int parallelism;
+  private final int maxDepth;
+
+  @Inject
+  public CommentMarkdownPreRenderer(
+      Lazy<Markdown> markdown,
+      @Named("markdown_pre_rendering") Scheduler scheduler,
+      @Named("markdown_pre_rendering_parallelism") int parallelism,
+      @Named("markdown_pre_rendering_max_depth") int maxDepth)
+  {
+    this.markdown = markdown;
+    this.scheduler = scheduler;
+    this.parallelism = parallelism;
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * Completes once all comments up to the max depth are parsed. Dispose to cancel.
+   * Comments that haven't been picked up by a worker yet are skipped.
+   */
+  @CheckResult
+  public Completable preRender(SubmissionAndComments submissionAndComments) {
+    if (!submissionAndComments.getComments().isPresent()) {
+      return Completable.complete();
+    }
+    RootCommentNode rootNode = submissionAndComments.getComments().get();
+
+    // A prefetch of 1 keeps the workers close to display order, so the first screen gets parsed first.
+    return Flowable.fromCallable(() -> commentsInDisplayOrder(rootNode, maxDepth))
+        .flatMapIterable(comments -> comments)
+        .parallel(parallelism, 1)
+        .runOn(scheduler, 1)
+        .doOnNext(this::preRender)
+        .sequential()
+        .ignoreElements()
+        .doOnError(error -> Timber.e(error, "Couldn't pre-render comments"))
+        .onErrorComplete();
+  }
+
+  private void preRender(Comment comment) {
+    // Collapsed comments show stripped markdown, which is derived from the same cache entry.
+    markdown.get().parse(comment);
+    if (comment.getAuthorFlairText() != null) {
+      markdown.get().parseAuthorFlair(comment.getAuthorFlairText());
+    }
+  }
+
+  /**
+   * Depth-first, same as {@link SubmissionCommentTreeUiConstructor}. Replies of collapsed
+   * comments are skipped because they aren't shown.
+   */
+  @VisibleForTesting
+  static List<Comment> commentsInDisplayOrder(RootCommentNode rootNode, int maxDepth) {
+    List<Comment> comments = new ArrayList<>();
+    Deque<CommentNode<Comment>> stack = new ArrayDeque<>();
+    pushRepliesInReverse(stack, rootNode.getReplies());
+
+    while (!stack.isEmpty()) {
+      CommentNode<Comment> node = stack.pop();
+      Comment comment = node.getSubject();
+      comments.add(comment);
+
+      if (node.getDepth() < maxDepth && !COLLAPSED_COMMENT_IDS.isCollapsed(comment)) {
+        pushRepliesInReverse(stack, node.getReplies());
+      }
+    }
+    return comments;
+  }
+
+  private static void pushRepliesInReverse(Deque<CommentNode<Comment>> stack, List<CommentNode<Comment>> replies) {
+    for (int i = replies.size() - 1; i >= 0; i--) {
+      stack.push(replies.get(i));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package me.saket.dank.ui.submission;
+
+import androidx.annotation.WorkerThread;
+
+import com.nytimes.android.external.cache3.Cache;
+import com.nytimes.android.external.cache3.CacheBuilder;
+
+import net.dean.jraw.models.Submission;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.functions.Function;
+
+/**
+ * Submissions decoded from {@link CachedSubmission} rows, keyed by the version they were decoded
+ * from. Rows of a submission list that haven't been saved again since they were last read don't
+ * get decoded again when the list gets re-queried.
+ */
+class DecodedSubmissionCache {
+
+  /** Well below SQLite's limit of 999 bound variables. */
+  private static final int IDS_PER_QUERY = 500;
+
+  private final Cache<CachedSubmissionVersion, Submission> submissions;
+  private final Function<String, Submission> decoder;
+
+  DecodedSubmissionCache(long maxSize, Function<String, Submission> decoder) {
+    this.decoder = decoder;
+    this.submissions = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .build();
+  }
+
+  /**
+   * Reads and decodes only the rows that aren't cached. Rows that got deleted since
+   * <var>versions</var> were queried are skipped.
+   */
+  @WorkerThread
+  List<Submission> decode(List<CachedSubmissionVersion> versions, CachedSubmissionDao dao) throws Exception {
+    Submission[] decoded = new Submission[versions.size()];
+    List<String> undecodedIds = new ArrayList<>();
+
+    for (int i = 0; i < versions.size(); i++) {
+      decoded[i] = submissions.getIfPresent(versions.get(i));
+      if (decoded[i] == null) {
+        undecodedIds.add(versions.get(i).getId());
+      }
+    }
+
+    Map<String, Submission> newlyDecoded = new HashMap<>(undecodedIds.size());
+    for (int start = 0; start < undecodedIds.size(); start += IDS_PER_QUERY) {
+      List<String> ids = undecodedIds.subList(start, Math.min(start + IDS_PER_QUERY, undecodedIds.size()));
+      for (CachedSubmissionJson json : dao.submissionJsons(ids)) {
+        // This can be newer than the queried version if the row was saved again in the
+        // meantime. The list will get re-queried anyway, and find it in the cache then.
+        Submission submission = decoder.apply(json.getSubmission());
+        submissions.put(json.version(), submission);
+        newlyDecoded.put(json.getId(), submission);
+      }
+    }
+
+    List<Submission> submissionList = new ArrayList<>(versions.size());
+    for (int i = 0; i < versions.size(); i++) {
+      Submission submission = decoded[i] != null ? decoded[i] : newlyDecoded.get(versions.get(i).getId());
+      if (submission != null) {
+        submissionList.add(submission);
+      }
+    }
+    return submissionList;
+  }
+}
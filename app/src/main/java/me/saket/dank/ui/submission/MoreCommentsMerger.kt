@@ -0,0 +1,113 @@
+package me.saket.dank.ui.submission
+
+import com.squareup.moshi.Types
+import net.dean.jraw.JrawUtils
+import net.dean.jraw.databind.Enveloped
+import net.dean.jraw.models.Comment
+import net.dean.jraw.models.Listing
+import net.dean.jraw.models.MoreChildren
+import net.dean.jraw.models.NestedIdentifiable
+
+/**
+ * Merges comments fetched for "load more" items into stored comment threads. Unlike JRAW's
+ * [net.dean.jraw.tree.CommentNode.replaceMore], the existing tree isn't modified. Only comments
+ * on the path to an expanded item get rebuilt and everything else is reused as-is, so callers
+ * can find the threads that changed by comparing references.
+ */
+object MoreCommentsMerger {
+
+  private val thingAdapter by lazy {
+    JrawUtils.moshi.adapter<NestedIdentifiable>(NestedIdentifiable::class.java, Enveloped::class.java).serializeNulls()
+  }
+
+  private val repliesAdapter by lazy {
+    val type = Types.newParameterizedType(Listing::class.java, NestedIdentifiable::class.java)
+    JrawUtils.moshi.adapter<Listing<NestedIdentifiable>>(type, Enveloped::class.java).serializeNulls()
+  }
+
+  /**
+   * @param topLevelItems            Threads that contain the expanded items. Threads that don't are returned unchanged.
+   * @param expandedParentFullNames  Full names of the comments (or the submission) whose "load more" items were fetched.
+   * @param fetchedItems             Flat list of comments and "load more" items, in the order sent by Reddit.
+   * @return [topLevelItems] with their expanded "load more" items replaced by [fetchedItems]. New top-level
+   * comments are appended at the end.
+   */
+  @JvmStatic
+  fun merge(
+      topLevelItems: List<NestedIdentifiable>,
+      submissionFullName: String,
+      expandedParentFullNames: Set<String>,
+      fetchedItems: List<NestedIdentifiable>
+  ): List<NestedIdentifiable> {
+    val fetchedItemsByParent = LinkedHashMap<String, MutableList<NestedIdentifiable>>()
+    for (item in fetchedItems) {
+      fetchedItemsByParent.getOrPut(item.parentFullName) { ArrayList() }.add(item)
+    }
+    return Merge(expandedParentFullNames, fetchedItemsByParent).children(submissionFullName, topLevelItems)
+  }
+
+  private class Merge(
+      private val expandedParentFullNames: Set<String>,
+      private val fetchedItemsByParent: MutableMap<String, MutableList<NestedIdentifiable>>
+  ) {
+
+    fun children(parentFullName: String, children: List<NestedIdentifiable>): List<NestedIdentifiable> {
+      val isExpanded = parentFullName in expandedParentFullNames
+      var merged: MutableList<NestedIdentifiable>? = null
+
+      for ((index, child) in children.withIndex()) {
+        val mergedChild = when {
+          isExpanded && child is MoreChildren -> null
+          child is Comment -> comment(child)
+          else -> child
+        }
+        if (merged == null && mergedChild !== child) {
+          // Copy only once something changes.
+          merged = ArrayList(children.subList(0, index))
+        }
+        if (merged != null && mergedChild != null) {
+          merged.add(mergedChild)
+        }
+      }
+
+      val fetchedChildren = if (isExpanded) fetchedItemsByParent.remove(parentFullName) else null
+      if (fetchedChildren != null) {
+        if (merged == null) {
+          merged = ArrayList(children)
+        }
+        fetchedChildren.mapTo(merged) { if (it is Comment) fetchedComment(it) else it }
+      }
+      return merged ?: children
+    }
+
+    private fun comment(comment: Comment): Comment {
+      val replies = comment.replies.children
+      val mergedReplies = children(comment.fullName, replies)
+      return if (mergedReplies === replies) comment else comment.withReplies(mergedReplies)
+    }
+
+    /**
+     * Reddit sends all fetched comments in a flat list, so their replies are re-attached here.
+     */
+    private fun fetchedComment(comment: Comment): Comment {
+      val fetchedReplies = fetchedItemsByParent.remove(comment.fullName) ?: return comment
+      val replies = comment.replies.children + fetchedReplies.map { if (it is Comment) fetchedComment(it) else it }
+      return comment.withReplies(replies)
+    }
+  }
+
+  /**
+   * JRAW's models are immutable, so the comment is rebuilt through its JSON.
+   */
+  private fun Comment.withReplies(replies: List<NestedIdentifiable>): Comment {
+    @Suppress("UNCHECKED_CAST")
+    val envelope = thingAdapter.toJsonValue(this) as Map<String, Any?>
+    @Suppress("UNCHECKED_CAST")
+    val data = LinkedHashMap(envelope["data"] as Map<String, Any?>)
+    data["replies"] = repliesAdapter.toJsonValue(Listing.create(null, replies))
+
+    val rebuiltEnvelope = LinkedHashMap(envelope)
+    rebuiltEnvelope["data"] = data
+    return thingAdapter.fromJsonValue(rebuiltEnvelope) as Comment
+  }
+}
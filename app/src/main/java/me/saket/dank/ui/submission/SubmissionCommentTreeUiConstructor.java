@@ -6,6 +6,7 @@ import android.text.style.ForegroundColorSpan;
 import androidx.annotation.CheckResult;
 import androidx.annotation.ColorInt;
 import androidx.annotation.ColorRes;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 
 import me.saket.dank.utils.*;
@@ -20,14 +21,17 @@ import net.dean.jraw.tree.CommentNode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 
 import dagger.Lazy;
 import io.reactivex.Observable;
 import io.reactivex.Scheduler;
-import kotlin.Triple;
 import me.saket.dank.R;
 import me.saket.dank.data.LocallyPostedComment;
 import me.saket.dank.data.SpannableWithTextEquality;
@@ -46,7 +50,6 @@ import me.saket.dank.vote.VotingManager;
 import timber.log.Timber;
 
 import static io.reactivex.schedulers.Schedulers.io;
-import static me.saket.dank.utils.Arrays2.immutable;
 import static me.saket.dank.utils.Preconditions.checkNotNull;
 
 /**
@@ -162,6 +165,214 @@ public class SubmissionCommentTreeUiConstructor {
     }
   }
 
+  /**
+   * Remote comment rows built in the last pass. Rows whose inputs haven't changed since then are
+   * reused as-is, so a collapse toggle, a vote or a "load more" progress change only rebuilds the
+   * affected rows instead of re-parsing the markdown and bylines of the entire tree. Reusing the
+   * same instances also lets the adapter's diff resolve unchanged rows with an identity check.
+   */
+  static class CommentRowCache {
+    private Map<String, CachedRow> previousPassRows = new HashMap<>();
+    private Map<String, CachedRow> currentPassRows = new HashMap<>();
+
+    private static class CachedRow {
+      final CommentNode node;
+      final boolean isCollapsed;
+      final boolean isFocused;
+      final VoteDirection voteDirection;
+      final int score;
+      final SubmissionRemoteComment.UiModel uiModel;
+
+      CachedRow(
+          CommentNode node,
+          boolean isCollapsed,
+          boolean isFocused,
+          VoteDirection voteDirection,
+          int score,
+          SubmissionRemoteComment.UiModel uiModel)
+      {
+        this.node = node;
+        this.isCollapsed = isCollapsed;
+        this.isFocused = isFocused;
+        this.voteDirection = voteDirection;
+        this.score = score;
+        this.uiModel = uiModel;
+      }
+    }
+
+    /**
+     * @return The row built in the last pass if none of its inputs have changed, or null otherwise.
+     * Comment trees are immutable once loaded, so a changed tree will always have a different node instance.
+     */
+    @Nullable
+    SubmissionRemoteComment.UiModel get(CommentNode node, boolean isCollapsed, boolean isFocused, VoteDirection voteDirection, int score) {
+      CachedRow cachedRow = previousPassRows.get(node.getSubject().getFullName());
+      if (cachedRow != null
+          && cachedRow.node == node
+          && cachedRow.isCollapsed == isCollapsed
+          && cachedRow.isFocused == isFocused
+          && cachedRow.voteDirection == voteDirection
+          && cachedRow.score == score)
+      {
+        currentPassRows.put(node.getSubject().getFullName(), cachedRow);
+        return cachedRow.uiModel;
+      }
+      return null;
+    }
+
+    void put(
+        CommentNode node,
+        boolean isCollapsed,
+        boolean isFocused,
+        VoteDirection voteDirection,
+        int score,
+        SubmissionRemoteComment.UiModel uiModel)
+    {
+      CachedRow row = new CachedRow(node, isCollapsed, isFocused, voteDirection, score, uiModel);
+      currentPassRows.put(node.getSubject().getFullName(), row);
+    }
+
+    /**
+     * Called once a pass is complete. Rows that weren't visited in this pass (because they were
+     * collapsed or removed) are dropped so that this cache never grows beyond the visible tree.
+     */
+    void onPassComplete() {
+      Map<String, CachedRow> staleRows = previousPassRows;
+      previousPassRows = currentPassRows;
+      currentPassRows = staleRows;
+      currentPassRows.clear();
+    }
+
+    /**
+     * Called once a pass that only visited a part of the tree is complete. Rows outside that part
+     * are still shown, so nothing is dropped.
+     */
+    void onPartialPassComplete() {
+      previousPassRows.putAll(currentPassRows);
+      currentPassRows.clear();
+    }
+  }
+
+  /** Rows taken by a remote comment, its reply field, pending-sync replies and child comments. */
+  static class RowRange {
+    final CommentNode node;
+    int start;
+    int count;
+
+    RowRange(CommentNode node, int start, int count) {
+      this.node = node;
+      this.start = start;
+      this.count = count;
+    }
+  }
+
+  /**
+   * Rows and inputs of the last pass. When the only change since then is a comment getting
+   * collapsed or expanded, just that comment's range of rows is rebuilt and spliced in, instead
+   * of walking the entire tree and letting the adapter diff every row.
+   */
+  static class FlattenedCommentRows {
+    final ArrayList<SubmissionScreenUiModel> rows = new ArrayList<>();
+    final Map<String, RowRange> rangesByFullName = new HashMap<>();
+    @Nullable List<SubmissionScreenUiModel> emittedRows;
+
+    @Nullable PassInputs inputs;
+    final Set<String> collapsedIds = new HashSet<>();
+    final Set<String> activeReplyIds = new HashSet<>();
+    final Set<String> inFlightLoadMoreIds = new HashSet<>();
+
+    /**
+     * @return Range of the only comment whose collapsed state changed since the last pass, or null
+     * if anything else changed too.
+     */
+    @Nullable
+    RowRange findOnlyToggledComment(PassInputs nextInputs) {
+      if (inputs == null
+          || inputs.submissionData != nextInputs.submissionData
+          || inputs.pendingSyncRepliesMap != nextInputs.pendingSyncRepliesMap
+          || !inputs.focusedComment.equals(nextInputs.focusedComment)
+          || inputs.voteChange != nextInputs.voteChange
+          || !activeReplyIds.equals(ACTIVE_REPLY_IDS)
+          || !inFlightLoadMoreIds.equals(IN_FLIGHT_LOAD_MORE_IDS))
+      {
+        return null;
+      }
+
+      Set<String> larger = COLLAPSED_COMMENT_IDS.size() > collapsedIds.size() ? COLLAPSED_COMMENT_IDS : collapsedIds;
+      Set<String> smaller = larger == collapsedIds ? COLLAPSED_COMMENT_IDS : collapsedIds;
+      if (larger.size() != smaller.size() + 1) {
+        return null;
+      }
+      String toggledId = null;
+      for (String id : larger) {
+        if (!smaller.contains(id)) {
+          if (toggledId != null) {
+            return null;
+          }
+          toggledId = id;
+        }
+      }
+      // Null for local comments and for comments hidden inside a collapsed parent.
+      return toggledId != null ? rangesByFullName.get(toggledId) : null;
+    }
+
+    /**
+     * Replaces the rows of <var>range</var> with <var>subtreeRows</var>. Ranges that follow it
+     * are shifted and the ranges that contain it are resized.
+     */
+    void splice(RowRange range, List<SubmissionScreenUiModel> subtreeRows, Map<String, RowRange> subtreeRanges) {
+      int start = range.start;
+      int end = range.start + range.count;
+      int delta = subtreeRows.size() - range.count;
+
+      rows.subList(start, end).clear();
+      rows.addAll(start, subtreeRows);
+
+      Iterator<RowRange> iterator = rangesByFullName.values().iterator();
+      while (iterator.hasNext()) {
+        RowRange otherRange = iterator.next();
+        if (otherRange.start >= end) {
+          otherRange.start += delta;
+        } else if (otherRange.start >= start) {
+          iterator.remove();    // Rebuilt.
+        } else if (otherRange.start + otherRange.count >= end) {
+          otherRange.count += delta;
+        }
+      }
+      rangesByFullName.putAll(subtreeRanges);
+    }
+
+    void onPassComplete(PassInputs passInputs, List<SubmissionScreenUiModel> passEmittedRows) {
+      inputs = passInputs;
+      emittedRows = passEmittedRows;
+      collapsedIds.clear();
+      collapsedIds.addAll(COLLAPSED_COMMENT_IDS);
+      activeReplyIds.clear();
+      activeReplyIds.addAll(ACTIVE_REPLY_IDS);
+      inFlightLoadMoreIds.clear();
+      inFlightLoadMoreIds.addAll(IN_FLIGHT_LOAD_MORE_IDS);
+    }
+  }
+
+  static class PassInputs {
+    final SubmissionAndComments submissionData;
+    final PendingSyncRepliesMap pendingSyncRepliesMap;
+    final Optional<FocusedComment> focusedComment;
+    final Object voteChange;
+
+    PassInputs(
+        SubmissionAndComments submissionData,
+        PendingSyncRepliesMap pendingSyncRepliesMap,
+        Optional<FocusedComment> focusedComment,
+        Object voteChange)
+    {
+      this.submissionData = submissionData;
+      this.pendingSyncRepliesMap = pendingSyncRepliesMap;
+      this.focusedComment = focusedComment;
+      this.voteChange = voteChange;
+    }
+  }
+
   @Inject
   public SubmissionCommentTreeUiConstructor(
       Lazy<ReplyRepository> replyRepository,
@@ -207,7 +418,14 @@ public class SubmissionCommentTreeUiConstructor {
         .map(optionalId -> optionalId.map(FocusedComment::create))
         .distinctUntilChanged();
 
-    Observable<Object> voteChanges = votingManager.get().streamChanges();
+    // Changed full-names can repeat, so each change gets a token of its own that
+    // FlattenedCommentRows can compare by identity.
+    Observable<Object> voteChanges = votingManager.get().streamChanges()
+        .map(o -> new Object());
+
+    // Accessed only from the scheduler below, one pass at a time.
+    CommentRowCache rowCache = new CommentRowCache();
+    FlattenedCommentRows lastPass = new FlattenedCommentRows();
 
     return CombineLatestWithLog
         .from(
@@ -216,16 +434,67 @@ public class SubmissionCommentTreeUiConstructor {
             O.of("focusedComment", focusedComments),
             O.of("row-visibility", rowVisibilityChanges),
             O.of("votes", voteChanges),
-            (submissionData, pendingSyncRepliesMap, focusedComment, o, oo) -> new Triple<>(submissionData, pendingSyncRepliesMap, focusedComment))
+            (submissionData, pendingSyncRepliesMap, focusedComment, o, voteChange) ->
+                new PassInputs(submissionData, pendingSyncRepliesMap, focusedComment, voteChange))
         .observeOn(scheduler)
-        .map(triple -> {
-          SubmissionAndComments submissionData = triple.getFirst();
-          PendingSyncRepliesMap pendingSyncRepliesMap = triple.getSecond();
-          Optional<FocusedComment> focusedComment = triple.getThird();
-          String submissionAuthor = submissionData.getSubmission().getAuthor();
-          return constructComments(context, submissionData, pendingSyncRepliesMap, submissionAuthor, focusedComment);
-        })
-        .as(immutable());
+        .map(inputs -> constructOrSpliceComments(context, rowCache, lastPass, inputs));
+  }
+
+  /**
+   * @return A {@link SplicedList} of the last pass's rows if only one comment was collapsed or expanded since
+   * then, or an immutable list of all rows otherwise.
+   */
+  private List<SubmissionScreenUiModel> constructOrSpliceComments(
+      Context context,
+      CommentRowCache rowCache,
+      FlattenedCommentRows lastPass,
+      PassInputs inputs)
+  {
+    SubmissionAndComments submissionData = inputs.submissionData;
+    String submissionAuthor = submissionData.getSubmission().getAuthor();
+    RowRange toggledRange = lastPass.findOnlyToggledComment(inputs);
+
+    List<SubmissionScreenUiModel> emittedRows;
+    if (toggledRange != null) {
+      List<SubmissionScreenUiModel> subtreeRows = new ArrayList<>(toggledRange.count);
+      Map<String, RowRange> subtreeRanges = new HashMap<>();
+      constructComments(
+          context,
+          rowCache,
+          subtreeRows,
+          subtreeRanges,
+          toggledRange.start,
+          toggledRange.node,
+          submissionData.getSubmission(),
+          inputs.pendingSyncRepliesMap,
+          submissionAuthor,
+          inputs.focusedComment);
+      rowCache.onPartialPassComplete();
+
+      int start = toggledRange.start;
+      int removedCount = toggledRange.count;
+      lastPass.splice(toggledRange, subtreeRows, subtreeRanges);
+      //noinspection ConstantConditions
+      emittedRows = new SplicedList<>(lastPass.emittedRows, new ArrayList<>(lastPass.rows), start, removedCount, subtreeRows.size());
+
+    } else {
+      lastPass.rows.clear();
+      lastPass.rangesByFullName.clear();
+      constructComments(
+          context,
+          rowCache,
+          lastPass.rows,
+          lastPass.rangesByFullName,
+          submissionData,
+          inputs.pendingSyncRepliesMap,
+          submissionAuthor,
+          inputs.focusedComment);
+      rowCache.onPassComplete();
+      emittedRows = Collections.unmodifiableList(new ArrayList<>(lastPass.rows));
+    }
+
+    lastPass.onPassComplete(inputs, emittedRows);
+    return emittedRows;
   }
 
   private static String keyFor(Identifiable contribution) {
@@ -328,10 +597,14 @@ public class SubmissionCommentTreeUiConstructor {
   }
 
   /**
-   * Walk through the tree in pre-order, ignoring any collapsed comment tree node and flatten them in a single List.
+   * Walk through the tree in pre-order, ignoring any collapsed comment tree node and flatten them into
+   * <var>flattenComments</var>. The rows taken by each remote comment are recorded in <var>rowRanges</var>.
    */
-  private List<SubmissionScreenUiModel> constructComments(
+  private void constructComments(
       Context context,
+      CommentRowCache rowCache,
+      ArrayList<SubmissionScreenUiModel> flattenComments,
+      Map<String, RowRange> rowRanges,
       SubmissionAndComments submissionData,
       PendingSyncRepliesMap pendingSyncRepliesMap,
       String submissionAuthor,
@@ -347,18 +620,19 @@ public class SubmissionCommentTreeUiConstructor {
         .map(node -> node.totalSize())
         .orElse(0);
 
-    ArrayList<SubmissionScreenUiModel> flattenComments = new ArrayList<>(totalRowsSize);
+    flattenComments.ensureCapacity(totalRowsSize);
     if (ACTIVE_REPLY_IDS.isActive(submissionData.getSubmission())) {
       String loggedInUserName = userSessionRepository.get().loggedInUserName();
       flattenComments.add(inlineReplyUiModel(context, submissionData.getSubmission(), submissionAuthor, loggedInUserName, 0));
     }
 
-    if (submissionData.getComments().isEmpty()) {
-      return flattenComments;
-    } else {
-      return constructComments(
+    if (submissionData.getComments().isPresent()) {
+      constructComments(
           context,
+          rowCache,
           flattenComments,
+          rowRanges,
+          0,
           submissionData.getComments().get(),
           submissionData.getSubmission(),
           pendingSyncRepliesMap,
@@ -369,10 +643,15 @@ public class SubmissionCommentTreeUiConstructor {
 
   /**
    * Walk through the tree in pre-order, ignoring any collapsed comment tree node and flatten them in a single List.
+   *
+   * @param rowOffset Index in the complete list of rows where <var>flattenComments</var> starts.
    */
-  private List<SubmissionScreenUiModel> constructComments(
+  private void constructComments(
       Context context,
+      CommentRowCache rowCache,
       List<SubmissionScreenUiModel> flattenComments,
+      Map<String, RowRange> rowRanges,
+      int rowOffset,
       CommentNode nextNode,
       Submission submission,
       PendingSyncRepliesMap pendingSyncRepliesMap,
@@ -388,12 +667,13 @@ public class SubmissionCommentTreeUiConstructor {
 
     boolean isCommentNodeCollapsed = COLLAPSED_COMMENT_IDS.isCollapsed(nextNode.getSubject());
     boolean isReplyActive = ACTIVE_REPLY_IDS.isActive(nextNode.getSubject());
+    int rangeStart = rowOffset + flattenComments.size();
 
     if (nextNode.getDepth() != 0) {
       //Timber.i("%s(%s) %s: %s", indentation, nextNode.getComment().getFullName(), nextNode.getComment().getAuthor(), nextNode.getComment().getBody());
       String commentFullName = nextNode.getSubject().getFullName();
       boolean isFocused = focusedComment.isPresent() && focusedComment.get().fullname().equals(commentFullName);
-      flattenComments.add(syncedCommentUiModel(context, nextNode, isCommentNodeCollapsed, submissionAuthor, isFocused));
+      flattenComments.add(syncedCommentUiModel(context, rowCache, nextNode, isCommentNodeCollapsed, submissionAuthor, isFocused));
     }
 
     // Reply box.
@@ -420,45 +700,50 @@ public class SubmissionCommentTreeUiConstructor {
       }
     }
 
-    // Next, the child comment tree.
-    if (nextNode.getReplies().isEmpty()) {
-      return flattenComments;
-
-    } else {
-      // Ignore collapsed children.
-      if (!isCommentNodeCollapsed) {
-        //noinspection unchecked
-        List<CommentNode> childCommentsTree = nextNode.getReplies();
-        for (int i = 0; i < childCommentsTree.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
-          CommentNode node = childCommentsTree.get(i);
-          constructComments(context, flattenComments, node, submission, pendingSyncRepliesMap, submissionAuthor, focusedComment);
-        }
+    // Next, the child comment tree. Ignore collapsed children.
+    if (!nextNode.getReplies().isEmpty() && !isCommentNodeCollapsed) {
+      //noinspection unchecked
+      List<CommentNode> childCommentsTree = nextNode.getReplies();
+      for (int i = 0; i < childCommentsTree.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
+        CommentNode node = childCommentsTree.get(i);
+        constructComments(context, rowCache, flattenComments, rowRanges, rowOffset, node, submission, pendingSyncRepliesMap, submissionAuthor, focusedComment);
+      }
 
-        if (nextNode.hasMoreChildren()) {
-          //Timber.d("%s(%s) %s has %d MORE ---------->",
-          //    indentation, nextNode.getComment().getFullName(), nextNode.getComment().getAuthor(), nextNode.getMoreChildren().getCount()
-          //);
-          //Timber.d("%s %s", indentation, nextNode.getMoreChildren().getChildrenIds());
-          flattenComments.add(loadMoreUiModel(context, nextNode, IN_FLIGHT_LOAD_MORE_IDS.isInFlightFor(nextNode)));
-        }
+      if (nextNode.hasMoreChildren()) {
+        //Timber.d("%s(%s) %s has %d MORE ---------->",
+        //    indentation, nextNode.getComment().getFullName(), nextNode.getComment().getAuthor(), nextNode.getMoreChildren().getCount()
+        //);
+        //Timber.d("%s %s", indentation, nextNode.getMoreChildren().getChildrenIds());
+        flattenComments.add(loadMoreUiModel(context, nextNode, IN_FLIGHT_LOAD_MORE_IDS.isInFlightFor(nextNode)));
       }
-      return flattenComments;
+    }
+
+    if (nextNode.getDepth() != 0) {
+      int rangeCount = rowOffset + flattenComments.size() - rangeStart;
+      rowRanges.put(nextNode.getSubject().getFullName(), new RowRange(nextNode, rangeStart, rangeCount));
     }
   }
 
   private SubmissionRemoteComment.UiModel syncedCommentUiModel(
       Context context,
+      CommentRowCache rowCache,
       CommentNode commentNode,
       boolean isCollapsed,
       String submissionAuthor,
       boolean isFocused)
   {
     Comment comment = (Comment) commentNode.getSubject();
+    VoteDirection pendingOrDefaultVoteDirection = votingManager.get().getPendingOrDefaultVote(comment, comment.getVote());
+    int commentScore = votingManager.get().getScoreAfterAdjustingPendingVote(comment);
+
+    SubmissionRemoteComment.UiModel cachedUiModel = rowCache.get(commentNode, isCollapsed, isFocused, pendingOrDefaultVoteDirection, commentScore);
+    if (cachedUiModel != null) {
+      return cachedUiModel;
+    }
+
     Optional<String> authorFlairText = comment.getAuthorFlairText() != null ? Optional.ofNullable(comment.getAuthorFlairText()) : Optional.empty();
     long createdTimeMillis = comment.getCreated().getTime();
-    VoteDirection pendingOrDefaultVoteDirection = votingManager.get().getPendingOrDefaultVote(comment, comment.getVote());
 
-    int commentScore = votingManager.get().getScoreAfterAdjustingPendingVote(comment);
     Optional<Integer> commentScoreIfNotHidden;
     if (comment.isScoreHidden()) {
       commentScoreIfNotHidden = Optional.empty();
@@ -491,7 +776,7 @@ public class SubmissionCommentTreeUiConstructor {
         ? R.color.submission_comment_background_focused
         : R.color.submission_comment_background;
 
-    return SubmissionRemoteComment.UiModel.builder()
+    SubmissionRemoteComment.UiModel uiModel = SubmissionRemoteComment.UiModel.builder()
         .adapterId(JrawUtils2.generateAdapterId(commentNode.getSubject()))
         .bylineTextColor(color(context,
             isCollapsed
@@ -511,6 +796,9 @@ public class SubmissionCommentTreeUiConstructor {
         .byline(byline, commentScore)
         .body(commentBody)
         .build();
+
+    rowCache.put(commentNode, isCollapsed, isFocused, pendingOrDefaultVoteDirection, commentScore, uiModel);
+    return uiModel;
   }
 
   /**
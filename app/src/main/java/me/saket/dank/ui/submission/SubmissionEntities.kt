@@ -4,6 +4,8 @@ import androidx.room.*
 import com.squareup.moshi.JsonAdapter
 import com.squareup.moshi.Types
 import io.reactivex.Flowable
+import me.saket.dank.data.AppDatabase
+import me.saket.dank.data.BinaryJsonValueFormat
 import me.saket.dank.di.StorageModule
 import me.saket.dank.utils.DankSubmissionRequest
 import me.saket.dank.utils.Optional
@@ -24,34 +26,93 @@ data class CachedSubmission(
     val saveTimeMillis: Long
 )
 
+/**
+ * Marks that comments for [request] have been fetched. The comments themselves
+ * are stored per top-level thread in [CachedCommentThread].
+ */
 @Entity
 data class CachedSubmissionComments(
     val submissionId: String,
 
-    @field:[Enveloped]
-    val replies: Listing<NestedIdentifiable>,
-
     @PrimaryKey
     val request: DankSubmissionRequest,
 
     val saveTimeMillis: Long
 )
 
+/**
+ * A top-level comment (or a top-level "load more" item) along with all its replies.
+ * Storing threads as separate rows lets the first screenful of comments be read
+ * without decoding the entire tree, and lets "load more" rewrite only the thread
+ * it expanded.
+ */
+@Entity(
+    primaryKeys = ["request", "fullName"],
+    indices = [Index("request", "sortRank")])
+data class CachedCommentThread(
+    val request: DankSubmissionRequest,
+    val fullName: String,
+    val submissionId: String,
+    val sortRank: Int,
+
+    @field:[Enveloped]
+    val thread: NestedIdentifiable,
+
+    val saveTimeMillis: Long
+)
+
+data class CachedSubmissionAndCommentsHeader(
+    val id: String,
+    val submission: Submission,
+    val request: DankSubmissionRequest?,
+    val threadCount: Int
+) {
+
+  fun withThreads(threads: List<CachedCommentThread>?, isComplete: Boolean = true): CachedSubmissionAndComments {
+    return CachedSubmissionAndComments(id, submission, threads?.map { it.thread }, request, isComplete)
+  }
+}
+
 data class CachedSubmissionAndComments(
     val id: String,
     val submission: Submission,
-    val replies: Listing<NestedIdentifiable>?,
-    val request: DankSubmissionRequest?
+    val threads: List<NestedIdentifiable>?,
+    val request: DankSubmissionRequest?,
+
+    /** False when only the first screenful of threads has been read so far. */
+    val isComplete: Boolean = true
 ) {
 
   fun comments(): Optional<RootCommentNode> {
-    if (replies == null || request == null) {
+    if (threads == null || request == null) {
       return Optional.empty()
     }
+    val replies = Listing.create<NestedIdentifiable>(null, threads)
     return Optional.of(RootCommentNode(submission, replies, CommentTreeSettings(submission.id, request.commentSort().mode())))
   }
 }
 
+/**
+ * Identifies a saved version of a [CachedSubmission] without decoding its JSON, so that
+ * submission lists can skip decoding rows that haven't changed.
+ */
+data class CachedSubmissionVersion(
+    val id: String,
+    val saveTimeMillis: Long
+)
+
+/**
+ * A [CachedSubmission] whose submission hasn't been decoded yet.
+ */
+data class CachedSubmissionJson(
+    val id: String,
+    val saveTimeMillis: Long,
+    val submission: String
+) {
+
+  fun version() = CachedSubmissionVersion(id, saveTimeMillis)
+}
+
 @Entity(primaryKeys = ["id", "subredditName", "sortingAndTimePeriod"])
 data class CachedSubmissionId2 constructor(
     val id: String,
@@ -63,8 +124,21 @@ data class CachedSubmissionId2 constructor(
 @Dao
 interface CachedSubmissionDao {
 
-  @Query("SELECT S.id, S.submission, C.replies, C.request\nFROM cachedsubmission S \nLEFT JOIN cachedsubmissioncomments C \nON (S.id = C.submissionId AND C.request = :request)\nWHERE S.id = :id\n")
-  fun submissionWithComments(id: String, request: DankSubmissionRequest): Flowable<List<CachedSubmissionAndComments>>
+  /**
+   * Comment threads aren't included so that they can be read in pages. The thread count
+   * is selected so that this query also gets re-triggered when threads are updated.
+   */
+  @Query("SELECT S.id, S.submission, C.request, \n(SELECT COUNT(*) FROM cachedcommentthread T WHERE T.request = C.request) AS threadCount\nFROM cachedsubmission S \nLEFT JOIN cachedsubmissioncomments C \nON (S.id = C.submissionId AND C.request = :request)\nWHERE S.id = :id\n")
+  fun submissionWithComments(id: String, request: DankSubmissionRequest): Flowable<List<CachedSubmissionAndCommentsHeader>>
+
+  @Query("SELECT * FROM cachedcommentthread WHERE request = :request ORDER BY sortRank ASC LIMIT :limit OFFSET :offset")
+  fun commentThreads(request: DankSubmissionRequest, offset: Int, limit: Int): List<CachedCommentThread>
+
+  @Query("SELECT * FROM cachedcommentthread WHERE request = :request AND fullName IN (:fullNames) ORDER BY sortRank ASC")
+  fun commentThreads(request: DankSubmissionRequest, fullNames: List<String>): List<CachedCommentThread>
+
+  @Query("SELECT MAX(sortRank) FROM cachedcommentthread WHERE request = :request")
+  fun lastCommentThreadSortRank(request: DankSubmissionRequest): Int?
 
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   fun saveSubmission(submission: CachedSubmission)
@@ -72,6 +146,36 @@ interface CachedSubmissionDao {
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   fun saveComments(comments: CachedSubmissionComments)
 
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun saveCommentThreads(threads: List<CachedCommentThread>)
+
+  @Query("DELETE FROM cachedcommentthread WHERE request = :request AND fullName IN (:fullNames)")
+  fun deleteCommentThreads(request: DankSubmissionRequest, fullNames: List<String>)
+
+  @Query("DELETE FROM cachedcommentthread WHERE request = :request")
+  fun deleteCommentThreads(request: DankSubmissionRequest)
+
+  /**
+   * Replaces all comments stored for [comments]'s request.
+   */
+  @Transaction
+  fun saveCommentsWithThreads(comments: CachedSubmissionComments, threads: List<CachedCommentThread>) {
+    deleteCommentThreads(comments.request)
+    saveCommentThreads(threads)
+    saveComments(comments)
+  }
+
+  /**
+   * Updates existing threads in [updatedThreads] and deletes threads that no longer exist.
+   */
+  @Transaction
+  fun updateCommentThreads(request: DankSubmissionRequest, updatedThreads: List<CachedCommentThread>, removedFullNames: List<String>) {
+    if (removedFullNames.isNotEmpty()) {
+      deleteCommentThreads(request, removedFullNames)
+    }
+    saveCommentThreads(updatedThreads)
+  }
+
   @Query("SELECT * FROM cachedsubmissioncomments WHERE saveTimeMillis < :savedBeforeMillis")
   fun countOfSubmissionWithComments(savedBeforeMillis: Long): Flowable<List<CachedSubmissionComments>>
 
@@ -88,10 +192,25 @@ interface CachedSubmissionDao {
   fun deleteAllSubmissionIds()
 
   @Query("DELETE FROM cachedsubmissioncomments WHERE request = :request")
-  fun deleteComments(request: DankSubmissionRequest)
+  fun deleteCommentsHeader(request: DankSubmissionRequest)
+
+  @Transaction
+  fun deleteComments(request: DankSubmissionRequest) {
+    deleteCommentsHeader(request)
+    deleteCommentThreads(request)
+  }
 
   @Query("DELETE FROM cachedsubmissioncomments")
-  fun deleteAllComments()
+  fun deleteAllCommentsHeaders()
+
+  @Query("DELETE FROM cachedcommentthread")
+  fun deleteAllCommentThreads()
+
+  @Transaction
+  fun deleteAllComments() {
+    deleteAllCommentsHeaders()
+    deleteAllCommentThreads()
+  }
 
   @Query("DELETE FROM cachedsubmissionid2 WHERE saveTimeMillis < :savedBeforeMillis")
   fun deleteSubmissionIdsBefore(savedBeforeMillis: Long): Int
@@ -102,17 +221,31 @@ interface CachedSubmissionDao {
   @Query("DELETE FROM cachedsubmissioncomments WHERE saveTimeMillis < :savedBeforeMillis")
   fun deleteSubmissionCommentsBefore(savedBeforeMillis: Long): Int
 
+  @Query("DELETE FROM cachedcommentthread WHERE saveTimeMillis < :savedBeforeMillis")
+  fun deleteCommentThreadsBefore(savedBeforeMillis: Long): Int
+
   @Transaction
   fun deleteAllSubmissionRelatedRows(savedBeforeMillis: Long): Int {
     var deletedRowCount = 0
     deletedRowCount += deleteSubmissionIdsBefore(savedBeforeMillis)
     deletedRowCount += deleteSubmissionsBefore(savedBeforeMillis)
     deletedRowCount += deleteSubmissionCommentsBefore(savedBeforeMillis)
+    deletedRowCount += deleteCommentThreadsBefore(savedBeforeMillis)
     return deletedRowCount
   }
 
-  @Query("SELECT S.submission FROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmission S\nON ID.id = S.id\nWHERE ID.subredditName = :subredditName AND ID.sortingAndTimePeriod = :sortingAndTimePeriod\nORDER BY ID.saveTimeMillis ASC")
-  fun submissionsInFolderAsc(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Flowable<List<Submission>>
+  /**
+   * Submissions themselves aren't selected so that every write to the table doesn't
+   * result in the entire list getting decoded again. See [submissionJsons].
+   */
+  @Query("SELECT S.id, S.saveTimeMillis FROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmission S\nON ID.id = S.id\nWHERE ID.subredditName = :subredditName AND ID.sortingAndTimePeriod = :sortingAndTimePeriod\nORDER BY ID.saveTimeMillis ASC")
+  fun submissionVersionsInFolderAsc(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Flowable<List<CachedSubmissionVersion>>
+
+  /**
+   * SQLite limits the number of bound variables, so [ids] should be read in chunks.
+   */
+  @Query("SELECT id, saveTimeMillis, submission FROM cachedsubmission WHERE id IN (:ids)")
+  fun submissionJsons(ids: List<String>): List<CachedSubmissionJson>
 }
 
 class SubmissionRoomTypeConverter {
@@ -130,22 +263,37 @@ class SubmissionRoomTypeConverter {
   }
 }
 
-class RepliesRoomTypeConverter {
+/**
+ * Comment threads can run into megabytes, so they're stored using [BinaryJsonValueFormat]
+ * instead of JSON text.
+ */
+class CommentThreadRoomTypeConverter {
   private val adapter by lazy {
-    val type = Types.newParameterizedType(Listing::class.java, NestedIdentifiable::class.java)
-    JrawUtils.moshi.adapter<Listing<NestedIdentifiable>>(type, Enveloped::class.java).serializeNulls()
+    JrawUtils.moshi.adapter<NestedIdentifiable>(NestedIdentifiable::class.java, Enveloped::class.java).serializeNulls()
   }
 
   @TypeConverter
-  fun toJson(replies: Listing<NestedIdentifiable>): String {
-    return adapter.toJson(replies)
+  fun toBytes(thread: NestedIdentifiable): ByteArray {
+    return BinaryJsonValueFormat.encode(adapter.toJsonValue(thread))
   }
 
   @TypeConverter
-  fun fromJson(json: String?): Listing<NestedIdentifiable>? {
-    if (json == null) {
-      return null
-    }
+  fun fromBytes(bytes: ByteArray): NestedIdentifiable {
+    return adapter.fromJsonValue(BinaryJsonValueFormat.decode(bytes))!!
+  }
+}
+
+/**
+ * Used only by [AppDatabase.MIGRATION_2_3]. Whole comment trees used to be stored
+ * as JSON text in a single column.
+ */
+class RepliesRoomTypeConverter {
+  private val adapter by lazy {
+    val type = Types.newParameterizedType(Listing::class.java, NestedIdentifiable::class.java)
+    JrawUtils.moshi.adapter<Listing<NestedIdentifiable>>(type, Enveloped::class.java)
+  }
+
+  fun fromJson(json: String): Listing<NestedIdentifiable> {
     return adapter.fromJson(json) as Listing<NestedIdentifiable>
   }
 }
@@ -49,8 +49,11 @@ import net.dean.jraw.models.Identifiable;
 import net.dean.jraw.models.Message;
 import net.dean.jraw.models.Submission;
 import net.dean.jraw.models.SubmissionPreview;
+import net.dean.jraw.tree.CommentNode;
 import net.dean.jraw.tree.RootCommentNode;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -69,6 +72,7 @@ import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Predicate;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.R;
+import me.saket.dank.cache.PrefetchScheduler;
 import me.saket.dank.data.ActivityResult;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.LinkMetadataRepository;
@@ -130,6 +134,7 @@ import me.saket.dank.utils.Animations;
 import me.saket.dank.utils.DankSubmissionRequest;
 import me.saket.dank.utils.ExoPlayerManager;
 import me.saket.dank.utils.Function0;
+import me.saket.dank.utils.InfiniteScroller;
 import me.saket.dank.utils.JrawUtils2;
 import me.saket.dank.utils.Keyboards;
 import me.saket.dank.utils.LinearSmoothScrollerWithVerticalSnapPref;
@@ -214,6 +219,8 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   @Inject Lazy<SubmissionImageHolder> contentImageViewHolder;
   @Inject Lazy<ErrorResolver> errorResolver;
   @Inject Lazy<MediaHostRepository> mediaHostRepository;
+  @Inject Lazy<CommentMarkdownPreRenderer> commentMarkdownPreRenderer;
+  @Inject Lazy<PrefetchScheduler> prefetchScheduler;
 
   private BehaviorRelay<DankSubmissionRequest> submissionRequestStream = BehaviorRelay.create();
   private BehaviorRelay<Optional<SubmissionAndComments>> submissionStream = BehaviorRelay.createDefault(Optional.empty());
@@ -233,6 +240,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   private int commentRowCountBeforeActivityDestroy = -1;
 
   private Relay<UiEvent> uiEvents = PublishRelay.create();
+  private final List<LoadMoreCommentsClickEvent> queuedLoadMoreCommentClicks = new ArrayList<>();
 
   public interface Callbacks {
     // TODO: remove this now?
@@ -466,13 +474,21 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         .takeUntil(lifecycle().onDestroy())
         .subscribe(o -> commentRecyclerView.setAdapter(commentsAdapter));
 
+    // Comment threads beyond the first screenful are read from the DB as the list nears its end.
+    Relay<Object> moreCommentThreadRequests = PublishRelay.create();
+    InfiniteScroller.streamPagingRequests(commentRecyclerView)
+        .takeUntil(lifecycle().onDestroy())
+        .subscribe(moreCommentThreadRequests);
+
     // Load comments when submission changes.
     submissionRequestStream
         .observeOn(mainThread())
         //.doOnNext(o -> commentsLoadProgressVisibleStream.accept(true))
         //.doOnNext(o -> Timber.d("------------------"))
         .doOnNext(request -> uiEvents.accept(SubmissionRequestChanged.create(request)))
-        .switchMap(submissionRequest -> submissionRepository.submissionWithComments(submissionRequest)
+        .switchMap(submissionRequest -> submissionRepository.submissionWithComments(submissionRequest, moreCommentThreadRequests)
+            // Prefetches of other submissions wait until this one loads.
+            .compose(prefetchScheduler.get().foregroundLoad(submissionRequest.id()))
             //.compose(RxUtils.doOnceOnNext(o -> Timber.d("Submission received")))
             //.doOnNext(o -> Timber.i("%s comments", o.second().getComments().map(node -> node.totalSize())))
             .flatMap(pair -> {
@@ -513,6 +529,15 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         .takeUntil(lifecycle().onDestroy())
         .subscribe(submissionStream);
 
+    // Parse comments in the background so that the adapter's data-set gets built with a warm markdown cache.
+    submissionStream
+        .filter(Optional::isPresent)
+        .map(Optional::get)
+        .switchMapCompletable(submissionAndComments -> commentMarkdownPreRenderer.get().preRender(submissionAndComments)
+            .ambWith(lifecycle().onPageCollapseOrDestroyCompletable()))
+        .ambWith(lifecycle().onDestroyCompletable())
+        .subscribe();
+
     // Adapter data-set.
     submissionUiConstructor
         .stream(
@@ -526,7 +551,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         )
         .subscribeOn(io())
         .toFlowable(BackpressureStrategy.LATEST)
-        .compose(RxDiffUtil.calculateDiff(CommentsItemDiffer.Companion::create))
+        .compose(RxDiffUtil.calculateDiffOrSplice(CommentsItemDiffer.Companion::create))
         .observeOn(mainThread())
         .takeUntil(lifecycle().onDestroyFlowable())
         .subscribe(commentsAdapter);
@@ -853,33 +878,21 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
           loadMoreClickEvent.openThreadContinuation(currentSubmissionRequest);
         });
 
-    // Load-more-comment clicks.
+    // Load-more-comment clicks. Clicks made while a batch is loading get
+    // queued and are loaded together in the next batch.
     commentsAdapter.streamLoadMoreCommentsClicks()
         .filter(loadMoreClickEvent -> !JrawUtils2.isThreadContinuation(loadMoreClickEvent.parentCommentNode()))
-        // This filter() is important. Stupid JRAW inserts new comments directly into
-        // the comment tree so if multiple API calls are made, it'll insert duplicate
+        // This filter() is important. Expanding the same item twice will insert duplicate
         // items and result in a crash because RecyclerView expects stable IDs.
         .filter(loadMoreClickEvent -> !commentTreeUiConstructor.isMoreCommentsInFlightFor(loadMoreClickEvent.parentCommentNode()))
-        .doOnNext(loadMoreClickEvent -> commentTreeUiConstructor.setMoreCommentsLoading(loadMoreClickEvent.parentComment(), true))
-        .concatMapEager(loadMoreClickEvent -> submissionRequestStream
-            .zipWith(submissionStream.map(Optional::get), Pair::create)
-            .take(1)
-            .flatMapCompletable(pair -> {
-              DankSubmissionRequest submissionRequest = pair.first();
-              SubmissionAndComments submissionData = pair.second();
-              //noinspection unchecked
-              return submissionRepository
-                  .loadAndSaveMoreComments(submissionData, submissionRequest, loadMoreClickEvent.parentCommentNode())
-                  .subscribeOn(Schedulers.io());
-            })
-            .doOnError(e -> {
-              ResolvedError resolvedError = errorResolver.get().resolve(e);
-              resolvedError.ifUnknown(() -> Timber.e(e, "Failed to load more comments"));
-              Toast.makeText(getContext(), R.string.submission_error_failed_to_load_more_comments, Toast.LENGTH_SHORT).show();
-            })
-            .onErrorComplete()
-            .doOnTerminate(() -> commentTreeUiConstructor.setMoreCommentsLoading(loadMoreClickEvent.parentComment(), false))
-            .toObservable())
+        .doOnNext(loadMoreClickEvent -> {
+          commentTreeUiConstructor.setMoreCommentsLoading(loadMoreClickEvent.parentComment(), true);
+          queuedLoadMoreCommentClicks.add(loadMoreClickEvent);
+        })
+        // Clicks received while a batch is loading collapse into a single pending batch.
+        .toFlowable(BackpressureStrategy.LATEST)
+        .concatMap(o -> loadQueuedMoreComments().toFlowable(), 1)
+        .toObservable()
         .takeUntil(lifecycle().onDestroy())
         .subscribe();
 
@@ -914,6 +927,50 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
     ((SubmissionCommentInlineReply.ViewHolder) holder).handlePickedGiphyGif(title, gif);
   }
 
+  /**
+   * Loads all queued "load more" items using as few API calls as possible. Should
+   * only be called on the main thread, which is also where it terminates.
+   */
+  @CheckResult
+  private Completable loadQueuedMoreComments() {
+    return Completable.defer(() -> {
+      if (queuedLoadMoreCommentClicks.isEmpty()) {
+        return Completable.complete();
+      }
+
+      List<LoadMoreCommentsClickEvent> loadMoreClickEvents = new ArrayList<>(queuedLoadMoreCommentClicks);
+      queuedLoadMoreCommentClicks.clear();
+
+      List<CommentNode<?>> commentNodes = new ArrayList<>(loadMoreClickEvents.size());
+      for (LoadMoreCommentsClickEvent loadMoreClickEvent : loadMoreClickEvents) {
+        commentNodes.add(loadMoreClickEvent.parentCommentNode());
+      }
+
+      return submissionRequestStream
+          .zipWith(submissionStream.map(Optional::get), Pair::create)
+          .take(1)
+          .flatMapCompletable(pair -> {
+            DankSubmissionRequest submissionRequest = pair.first();
+            Submission submission = pair.second().getSubmission();
+            return submissionRepository
+                .loadAndSaveMoreComments(submission, submissionRequest, commentNodes)
+                .subscribeOn(Schedulers.io());
+          })
+          .observeOn(mainThread())
+          .doOnError(e -> {
+            ResolvedError resolvedError = errorResolver.get().resolve(e);
+            resolvedError.ifUnknown(() -> Timber.e(e, "Failed to load more comments"));
+            Toast.makeText(getContext(), R.string.submission_error_failed_to_load_more_comments, Toast.LENGTH_SHORT).show();
+          })
+          .onErrorComplete()
+          .doOnTerminate(() -> {
+            for (LoadMoreCommentsClickEvent loadMoreClickEvent : loadMoreClickEvents) {
+              commentTreeUiConstructor.setMoreCommentsLoading(loadMoreClickEvent.parentComment(), false);
+            }
+          });
+    });
+  }
+
   /**
    * Scroll to <var>parent</var>'s reply if it's not going to
    * be visible because it's located beyond the visible window.
@@ -1,6 +1,8 @@
 package me.saket.dank.ui.submission;
 
 import androidx.annotation.CheckResult;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.google.auto.value.AutoValue;
 import com.jakewharton.rxbinding2.internal.Notification;
@@ -11,6 +13,8 @@ import com.squareup.sqlbrite2.BriteDatabase;
 
 import net.dean.jraw.models.CommentSort;
 import net.dean.jraw.models.Listing;
+import net.dean.jraw.models.MoreChildren;
+import net.dean.jraw.models.NestedIdentifiable;
 import net.dean.jraw.models.Submission;
 import net.dean.jraw.tree.CommentNode;
 import net.dean.jraw.tree.RootCommentNode;
@@ -21,9 +25,17 @@ import org.threeten.bp.ZoneId;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -33,6 +45,8 @@ import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subjects.CompletableSubject;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.data.AppDatabase;
 import me.saket.dank.data.ErrorResolver;
@@ -40,6 +54,7 @@ import me.saket.dank.data.FullNameType;
 import me.saket.dank.data.PaginationAnchor;
 import me.saket.dank.data.ResolvedError;
 import me.saket.dank.reddit.Reddit;
+import me.saket.dank.reddit.RequestPriority;
 import me.saket.dank.reply.ReplyRepository;
 import me.saket.dank.ui.submission.AuditedCommentSort.SelectedBy;
 import me.saket.dank.ui.subreddit.SubmissionPaginationResult;
@@ -58,6 +73,17 @@ import static io.reactivex.schedulers.Schedulers.io;
 @Singleton
 public class SubmissionRepository {
 
+  private static final int FIRST_SCREEN_COMMENT_THREAD_COUNT = 15;
+
+  /** Comment threads that are read from the DB each time the comment list nears its end. */
+  private static final int COMMENT_THREADS_PER_PAGE = 15;
+
+  /** Pagination continues until more than these many new submissions are saved. */
+  private static final int MIN_SUBMISSIONS_TO_SAVE_PER_PAGINATION = 10;
+
+  /** Pages that are fetched ahead of the one being saved. */
+  private static final int PAGINATION_LOOKAHEAD_PAGES = 1;
+
   private final Lazy<Moshi> moshi;
   @Deprecated private final Lazy<BriteDatabase> database;
   private final Lazy<AppDatabase> roomDatabase;
@@ -69,6 +95,8 @@ public class SubmissionRepository {
   private final Lazy<ReplyRepository> replyRepository;
 
   private Cache<DankSubmissionRequest, CachedSubmissionAndComments> inMemoryCache;
+  private final ConcurrentMap<DankSubmissionRequest, InFlightFetch> inFlightFetches = new ConcurrentHashMap<>();
+  private final DecodedSubmissionCache decodedSubmissions = new DecodedSubmissionCache(1000, new SubmissionRoomTypeConverter()::fromJson);
 
   @Inject
   public SubmissionRepository(
@@ -108,6 +136,20 @@ public class SubmissionRepository {
    */
   @CheckResult
   public Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> submissionWithComments(DankSubmissionRequest oldRequest) {
+    return submissionWithComments(oldRequest, Observable.never());
+  }
+
+  /**
+   * Like {@link #submissionWithComments(DankSubmissionRequest)}, but only the first screenful of
+   * comment threads is read at first.
+   *
+   * @param moreCommentThreadRequests Reads the next page of comment threads on every emission.
+   */
+  @CheckResult
+  public Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> submissionWithComments(
+      DankSubmissionRequest oldRequest,
+      Observable<?> moreCommentThreadRequests)
+  {
     if (oldRequest.id().equalsIgnoreCase(SyntheticData.SUBMISSION_ID_FOR_GESTURE_WALKTHROUGH)) {
       //Timber.i("Returning from Synthetic.");
       return syntheticSubmissionForGesturesWalkthrough()
@@ -121,7 +163,7 @@ public class SubmissionRepository {
           .toObservable();
     }
 
-    Observable<Pair<DankSubmissionRequest, CachedSubmissionAndComments>> dbStream = getFromDbOrFetchSubmissionWithComments(oldRequest)
+    Observable<Pair<DankSubmissionRequest, CachedSubmissionAndComments>> dbStream = getFromDbOrFetchSubmissionWithComments(oldRequest, moreCommentThreadRequests)
         .take(1)
         .flatMap(submissionWithComments -> {
           // The aim is to always load comments in the sort mode suggested by a subreddit. In case we
@@ -136,13 +178,13 @@ public class SubmissionRepository {
                 .commentSort(suggestedSort, SelectedBy.SUBMISSION_SUGGESTED)
                 .build();
 
-            return getFromDbOrFetchSubmissionWithComments(newRequest)
+            return getFromDbOrFetchSubmissionWithComments(newRequest, moreCommentThreadRequests)
                 .map(submissions -> Pair.create(newRequest, submissions));
 
           } else {
             //Timber.i("Returning from DB with the same sort again");
             // We're calling getOrFetch() again to receive a refreshing Observable.
-            return getFromDbOrFetchSubmissionWithComments(oldRequest)
+            return getFromDbOrFetchSubmissionWithComments(oldRequest, moreCommentThreadRequests)
                 .startWith(submissionWithComments)
                 .map(submissions -> Pair.create(oldRequest, submissions))
                 //.compose(RxUtils.doOnceOnNext(o -> Timber.i("Returned from memory")))
@@ -151,7 +193,13 @@ public class SubmissionRepository {
         });
 
     return dbStream
-        .doOnNext(pair -> inMemoryCache.put(pair.first(), pair.second()))
+        // A partial tree isn't useful if the complete tree is already available in memory.
+        .filter(pair -> pair.second().isComplete() || inMemoryCache.getIfPresent(pair.first()) == null)
+        .doOnNext(pair -> {
+          if (pair.second().isComplete()) {
+            inMemoryCache.put(pair.first(), pair.second());
+          }
+        })
         .startWith(Observable.create(emitter -> {
           CachedSubmissionAndComments inMemoryValue = inMemoryCache.getIfPresent(oldRequest);
           if (inMemoryValue != null) {
@@ -171,9 +219,12 @@ public class SubmissionRepository {
    * Get from DB or from the network if not present in DB.
    */
   @CheckResult
-  private Observable<CachedSubmissionAndComments> getFromDbOrFetchSubmissionWithComments(DankSubmissionRequest request) {
+  private Observable<CachedSubmissionAndComments> getFromDbOrFetchSubmissionWithComments(
+      DankSubmissionRequest request,
+      Observable<?> moreCommentThreadRequests)
+  {
     // This stream is intentionally not shared. I don't know why, but the network call was blocking the DB stream.
-    Observable<List<CachedSubmissionAndComments>> dbStream = roomDatabase.get()
+    Observable<List<CachedSubmissionAndCommentsHeader>> dbStream = roomDatabase.get()
         .submissionDao()
         .submissionWithComments(request.id(), request)
         .toObservable();
@@ -181,73 +232,226 @@ public class SubmissionRepository {
     Completable refreshCompletable = dbStream
         .observeOn(io())
         .map(Arrays2::firstOrEmpty)
-        .filter(optionalSubmission -> optionalSubmission.isEmpty() || optionalSubmission.get().comments().isEmpty())
-        .flatMapCompletable(o -> {
-          Single<RootCommentNode> cachedNetworkStream = reddit.get().submissions()
-              .fetch(request)
-              .cache();
-
-          Completable saveCompletable = cachedNetworkStream
-              .map(node -> {
-                Submission submission = node.getSubject();
-                CachedSubmissionComments cachedComments = new CachedSubmissionComments(
-                    submission.getId(),
-                    node.getChildren(),
-                    request,
-                    System.currentTimeMillis());
-                CachedSubmission cachedSubmission = new CachedSubmission(
-                    submission.getId(),
-                    submission,
-                    submission.getSubreddit(),
-                    System.currentTimeMillis());
-                return Pair.create(cachedSubmission, cachedComments);
-              })
-              .flatMapCompletable(this::saveSubmissionData);
+        .filter(optionalSubmission -> optionalSubmission.isEmpty() || optionalSubmission.get().getRequest() == null)
+        .flatMapCompletable(o -> fetchAndSaveSubmissionWithComments(request));
+
+    return Observable.defer(() -> {
+      // Shared across DB updates so that the comment list doesn't shrink back to the first page.
+      // A complete tree from memory is read in full again so that it can get replaced.
+      CachedSubmissionAndComments inMemoryValue = inMemoryCache.getIfPresent(request);
+      int inMemoryThreadCount = inMemoryValue != null && inMemoryValue.getThreads() != null ? inMemoryValue.getThreads().size() : 0;
+      AtomicInteger threadsToRead = new AtomicInteger(Math.max(FIRST_SCREEN_COMMENT_THREAD_COUNT, inMemoryThreadCount));
+
+      return dbStream
+          .switchMap(dbItems -> dbItems.isEmpty()
+              ? Observable.empty()
+              : readCommentThreads(dbItems.get(0), threadsToRead, moreCommentThreadRequests))
+          .mergeWith(refreshCompletable.toObservable());
+    });
+  }
 
-          Completable removeStaleSyncedLocalReplies = cachedNetworkStream
-              .map(node -> node.getSubject())
-              .map(ParentThread::of)
-              .flatMapCompletable(replyRepository.get()::removeSyncPendingPostedReplies);
+  /**
+   * Fetches from remote and saves to DB. Concurrent calls for the same request, say from
+   * {@link me.saket.dank.cache.CachePreFiller} and the submission screen, share one network call
+   * and one DB write. The call is cancelled only once all of them are disposed.
+   * <p>
+   * An interactive call never joins a background one, because background calls can get held back
+   * or deferred by {@link me.saket.dank.reddit.RedditRateLimiter}. It starts its own fetch instead,
+   * which later calls will join.
+   */
+  @CheckResult
+  @VisibleForTesting
+  Completable fetchAndSaveSubmissionWithComments(DankSubmissionRequest request) {
+    return Completable.defer(() -> {
+      RequestPriority priority = RequestPriority.current();
+
+      while (true) {
+        InFlightFetch inFlightFetch = inFlightFetches.get(request);
+        if (inFlightFetch != null && inFlightFetch.canBeJoinedBy(priority)) {
+          return inFlightFetch.fetch;
+        }
 
-          return saveCompletable.mergeWith(removeStaleSyncedLocalReplies);
-        });
+        InFlightFetch newFetch = new InFlightFetch(request, priority);
+        boolean stored = inFlightFetch == null
+            ? inFlightFetches.putIfAbsent(request, newFetch) == null
+            : inFlightFetches.replace(request, inFlightFetch, newFetch);
+        if (stored) {
+          return newFetch.fetch;
+        }
+        // Lost a race with another call. Try joining its fetch.
+      }
+    });
+  }
 
-    return dbStream
-        .flatMap(dbItems -> dbItems.isEmpty() ? Observable.empty() : Observable.just(dbItems.get(0)))
-        .mergeWith(refreshCompletable.toObservable());
+  @CheckResult
+  private Completable fetchAndSaveSubmissionWithCommentsUnshared(DankSubmissionRequest request) {
+    Single<RootCommentNode> cachedNetworkStream = reddit.get().submissions()
+        .fetch(request)
+        .cache();
+
+    Completable saveCompletable = cachedNetworkStream
+        .map(node -> {
+          Submission submission = node.getSubject();
+          CachedSubmissionComments cachedComments = new CachedSubmissionComments(
+              submission.getId(),
+              request,
+              System.currentTimeMillis());
+          CachedSubmission cachedSubmission = new CachedSubmission(
+              submission.getId(),
+              submission,
+              submission.getSubreddit(),
+              System.currentTimeMillis());
+          List<CachedCommentThread> threads = toCommentThreads(submission, node.getChildren(), request);
+          return Pair.create(cachedSubmission, Pair.create(cachedComments, threads));
+        })
+        .flatMapCompletable(this::saveSubmissionData);
+
+    Completable removeStaleSyncedLocalReplies = cachedNetworkStream
+        .map(node -> node.getSubject())
+        .map(ParentThread::of)
+        .flatMapCompletable(replyRepository.get()::removeSyncPendingPostedReplies);
+
+    return saveCompletable.mergeWith(removeStaleSyncedLocalReplies);
   }
 
-  private Completable saveSubmissionData(Pair<CachedSubmission, CachedSubmissionComments> submissionData) {
-    return Completable.fromAction(() -> {
-      CachedSubmission cachedSubmission = submissionData.first();
-      CachedSubmissionComments cachedSubmissionComments = submissionData.second();
+  /**
+   * Reads <var>threadsToRead</var> comment threads and then another page of threads on every
+   * emission of <var>moreThreadRequests</var>, so that opening a large thread doesn't decode
+   * threads that the user may never scroll to.
+   */
+  @CheckResult
+  private Observable<CachedSubmissionAndComments> readCommentThreads(
+      CachedSubmissionAndCommentsHeader header,
+      AtomicInteger threadsToRead,
+      Observable<?> moreThreadRequests)
+  {
+    DankSubmissionRequest request = header.getRequest();
+    if (request == null) {
+      return Observable.just(header.withThreads(null));
+    }
 
-      roomDatabase.get().submissionDao().saveSubmission(cachedSubmission);
-      roomDatabase.get().submissionDao().saveComments(cachedSubmissionComments);
+    CachedSubmissionDao dao = roomDatabase.get().submissionDao();
+    return Observable.defer(() -> {
+      List<CachedCommentThread> threads = new ArrayList<>(Math.min(threadsToRead.get(), header.getThreadCount()));
+      return moreThreadRequests
+          .map(o -> threadsToRead.addAndGet(COMMENT_THREADS_PER_PAGE))
+          .startWith(Observable.fromCallable(threadsToRead::get))
+          .takeUntil(count -> count >= header.getThreadCount())
+          .observeOn(io())
+          .map(count -> {
+            threads.addAll(dao.commentThreads(request, threads.size(), count - threads.size()));
+            return header.withThreads(threads, threads.size() >= header.getThreadCount());
+          });
     });
   }
 
-  private Completable saveSubmissionComments(SubmissionAndComments submissionData, DankSubmissionRequest request) {
+  private static List<CachedCommentThread> toCommentThreads(Submission submission, List<NestedIdentifiable> topLevelItems, DankSubmissionRequest request) {
+    long saveTimeMillis = System.currentTimeMillis();
+    List<CachedCommentThread> threads = new ArrayList<>(topLevelItems.size());
+    for (int i = 0; i < topLevelItems.size(); i++) {
+      NestedIdentifiable item = topLevelItems.get(i);
+      threads.add(new CachedCommentThread(request, item.getFullName(), submission.getId(), i, item, saveTimeMillis));
+    }
+    return threads;
+  }
+
+  private Completable saveSubmissionData(Pair<CachedSubmission, Pair<CachedSubmissionComments, List<CachedCommentThread>>> submissionData) {
     return Completable.fromAction(() -> {
-      //noinspection ConstantConditions
-      CachedSubmissionComments cachedSubmissionComments = new CachedSubmissionComments(
-          submissionData.getSubmission().getId(),
-          submissionData.getComments().get().getChildren(),
-          request,
-          System.currentTimeMillis());
-      roomDatabase.get().submissionDao().saveComments(cachedSubmissionComments);
+      CachedSubmission cachedSubmission = submissionData.first();
+      CachedSubmissionComments cachedSubmissionComments = submissionData.second().first();
+      List<CachedCommentThread> threads = submissionData.second().second();
+
+      roomDatabase.get().runInTransaction(() -> {
+        roomDatabase.get().submissionDao().saveSubmission(cachedSubmission);
+        roomDatabase.get().submissionDao().saveCommentsWithThreads(cachedSubmissionComments, threads);
+      });
     });
   }
 
+  /**
+   * Expands the "load more" items of all <var>commentNodes</var> together and saves the
+   * top-level threads they belong to in a single transaction.
+   */
   @CheckResult
-  public Completable loadAndSaveMoreComments(SubmissionAndComments submissionData, DankSubmissionRequest request, CommentNode commentNode) {
-    if (!commentNode.getSettings().getSubmissionId().equals(submissionData.getSubmission().getId())) {
-      throw new AssertionError("CommentNode does not belong to this submission");
+  public Completable loadAndSaveMoreComments(Submission submission, DankSubmissionRequest request, List<CommentNode<?>> commentNodes) {
+    List<MoreChildren> moreChildren = new ArrayList<>(commentNodes.size());
+    Set<String> expandedParentFullNames = new HashSet<>(commentNodes.size());
+    Set<String> expandedThreadFullNames = new HashSet<>(commentNodes.size());
+
+    for (CommentNode<?> commentNode : commentNodes) {
+      if (!commentNode.getSettings().getSubmissionId().equals(submission.getId())) {
+        throw new AssertionError("CommentNode does not belong to this submission");
+      }
+      //noinspection ConstantConditions
+      moreChildren.add(commentNode.getMoreChildren());
+      expandedParentFullNames.add(commentNode.getSubject().getFullName());
+      expandedThreadFullNames.add(topLevelThreadFullName(commentNode));
     }
 
-    //noinspection unchecked
-    return ((Single<SubmissionAndComments>) reddit.get().submissions().fetchMoreComments(submissionData, commentNode))
-        .flatMapCompletable(updatedSubmissionData -> saveSubmissionComments(updatedSubmissionData, request));
+    return reddit.get().submissions().fetchMoreComments(request, moreChildren)
+        .flatMapCompletable(fetchedItems -> saveMoreComments(submission, request, expandedParentFullNames, expandedThreadFullNames, fetchedItems));
+  }
+
+  /**
+   * @return Full name of the top-level thread that contains <var>commentNode</var>'s "load more" item.
+   */
+  private static String topLevelThreadFullName(CommentNode<?> commentNode) {
+    if (commentNode.getDepth() == 0) {
+      // The submission's own "load more" item is stored as a thread by itself.
+      //noinspection ConstantConditions
+      return commentNode.getMoreChildren().getFullName();
+    }
+    CommentNode<?> topLevelNode = commentNode;
+    while (topLevelNode.getDepth() > 1) {
+      topLevelNode = topLevelNode.getParent();
+    }
+    return topLevelNode.getSubject().getFullName();
+  }
+
+  /**
+   * Saves only the threads that changed after merging <var>fetchedItems</var>. The threads are
+   * read inside the transaction instead of using the tree shown in the UI, so that expansions
+   * finishing close together don't overwrite each other.
+   */
+  private Completable saveMoreComments(
+      Submission submission,
+      DankSubmissionRequest request,
+      Set<String> expandedParentFullNames,
+      Set<String> expandedThreadFullNames,
+      List<NestedIdentifiable> fetchedItems)
+  {
+    return Completable.fromAction(() -> {
+      CachedSubmissionDao dao = roomDatabase.get().submissionDao();
+      roomDatabase.get().runInTransaction(() -> {
+        List<CachedCommentThread> storedThreads = dao.commentThreads(request, new ArrayList<>(expandedThreadFullNames));
+        Map<String, CachedCommentThread> storedThreadsByFullName = new HashMap<>(storedThreads.size());
+        List<NestedIdentifiable> storedItems = new ArrayList<>(storedThreads.size());
+        for (CachedCommentThread storedThread : storedThreads) {
+          storedThreadsByFullName.put(storedThread.getFullName(), storedThread);
+          storedItems.add(storedThread.getThread());
+        }
+
+        List<NestedIdentifiable> mergedItems = MoreCommentsMerger.merge(storedItems, submission.getFullName(), expandedParentFullNames, fetchedItems);
+
+        Integer lastSortRank = dao.lastCommentThreadSortRank(request);
+        int nextSortRank = lastSortRank != null ? lastSortRank + 1 : 0;
+        long saveTimeMillis = System.currentTimeMillis();
+        List<CachedCommentThread> updatedThreads = new ArrayList<>();
+
+        for (NestedIdentifiable item : mergedItems) {
+          CachedCommentThread storedThread = storedThreadsByFullName.remove(item.getFullName());
+          if (storedThread == null) {
+            // New top-level comments only get appended, so sort ranks of existing threads don't change.
+            updatedThreads.add(new CachedCommentThread(request, item.getFullName(), submission.getId(), nextSortRank++, item, saveTimeMillis));
+
+          } else if (storedThread.getThread() != item) {
+            updatedThreads.add(new CachedCommentThread(request, item.getFullName(), submission.getId(), storedThread.getSortRank(), item, saveTimeMillis));
+          }
+        }
+        // Whatever's left was replaced by the expansion, like a top-level "load more" item.
+        dao.updateCommentThreads(request, updatedThreads, new ArrayList<>(storedThreadsByFullName.keySet()));
+      });
+    });
   }
 
   public Completable clearCachedSubmissionComments(DankSubmissionRequest request) {
@@ -277,10 +481,12 @@ public class SubmissionRepository {
 
   @CheckResult
   public Observable<List<Submission>> submissions(CachedSubmissionFolder folder) {
-    return roomDatabase.get()
-        .submissionDao()
-        .submissionsInFolderAsc(folder.subredditName(), folder.sortingAndTimePeriod())
-        .toObservable();
+    CachedSubmissionDao dao = roomDatabase.get().submissionDao();
+    return dao.submissionVersionsInFolderAsc(folder.subredditName(), folder.sortingAndTimePeriod())
+        .toObservable()
+        // Only complete lists are emitted. The subreddit screen paginates from the end of the list it's
+        // given and restores its scroll position against it, so a partial list would look like the end.
+        .switchMap(versions -> Observable.fromCallable(() -> decodedSubmissions.decode(versions, dao)));
   }
 
   /**
@@ -290,63 +496,35 @@ public class SubmissionRepository {
   public Observable<SubmissionPaginationResult> loadAndSaveMoreSubmissions(CachedSubmissionFolder folder) {
     return lastPaginationAnchor(folder)
         //.doOnSuccess(anchor -> Timber.i("anchor: %s", anchor))
-        .flatMapCompletable(anchor -> Single
-            .fromCallable(() -> {
-              PaginationAnchor nextAnchor = anchor;
-              int savedSubmissionCount = 0;
-
-              while (true) {
-                FetchResult fetchResult = fetchSubmissionsFromRemoteWithAnchor(folder, nextAnchor);
-                votingManager.get().removePendingVotesForFetchedSubmissions(fetchResult.fetchedSubmissions()).subscribe();
-                //Timber.i("Found %s submissions on remote", fetchResult.fetchedSubmissions().size());
-
-                SaveResult saveResult = saveSubmissions(folder, fetchResult.fetchedSubmissions());
-                savedSubmissionCount += saveResult.savedItems().size();
-
-                if (!fetchResult.hasMoreItems() || savedSubmissionCount > 10) {
-                  //Timber.i("Breaking early");
-                  break;
-                }
+        .flatMapObservable(anchor -> fetchAndSaveSubmissionPages(folder, anchor))
+        .onErrorResumeNext(error -> {
+          SubredditSearchResult result = reddit.get().subreddits().parseSubmissionPaginationError(error);
+          switch (result.type()) {
+            case ERROR_PRIVATE:
+              return Observable.error(new PrivateSubredditException());
 
-                //Timber.i("%s distinct items not enough", distinctNewItems.size());
-                Submission lastFetchedSubmission = fetchResult.fetchedSubmissions().get(fetchResult.fetchedSubmissions().size() - 1);
-                nextAnchor = PaginationAnchor.create(lastFetchedSubmission.getFullName());
-              }
-              //Timber.i("Fetched %s submissions", distinctNewItems.size());
-              return savedSubmissionCount;
-            })
-            .toCompletable()
-            .onErrorResumeNext(error -> {
-              SubredditSearchResult result = reddit.get().subreddits().parseSubmissionPaginationError(error);
-              switch (result.type()) {
-                case ERROR_PRIVATE:
-                  return Completable.error(new PrivateSubredditException());
-
-                case ERROR_NOT_FOUND:
-                  return Completable.error(new SubredditNotFoundException());
-
-                case ERROR_UNKNOWN:
-                  return Completable.error(error);
-
-                default:
-                  throw new AssertionError("Unknown result: " + result);
-              }
-            })
-            .retryWhen(errors -> errors.flatMap(error -> {
-              Throwable actualError = errorResolver.get().findActualCause(error);
-
-              if (actualError instanceof InterruptedIOException) {
-                // I don't know why, but this chain gets occasionally gets interrupted randomly.
-                //Timber.w("Retrying on thread interruption");
-                return Flowable.just((Object) Notification.INSTANCE);
-              } else {
-                //error.printStackTrace();
-                return Flowable.error(error);
-              }
-            }))
-        )
-        .toSingleDefault(SubmissionPaginationResult.idle())
-        .toObservable()
+            case ERROR_NOT_FOUND:
+              return Observable.error(new SubredditNotFoundException());
+
+            case ERROR_UNKNOWN:
+              return Observable.error(error);
+
+            default:
+              throw new AssertionError("Unknown result: " + result);
+          }
+        })
+        .retryWhen(errors -> errors.flatMap(error -> {
+          Throwable actualError = errorResolver.get().findActualCause(error);
+
+          if (actualError instanceof InterruptedIOException) {
+            // I don't know why, but this chain gets occasionally gets interrupted randomly.
+            //Timber.w("Retrying on thread interruption");
+            return Observable.just((Object) Notification.INSTANCE);
+          } else {
+            //error.printStackTrace();
+            return Observable.error(error);
+          }
+        }))
         .doOnError(e -> {
           if (!(e instanceof PrivateSubredditException || e instanceof SubredditNotFoundException)) {
             ResolvedError resolvedError = errorResolver.get().resolve(e);
@@ -357,6 +535,68 @@ public class SubmissionRepository {
         .startWith(SubmissionPaginationResult.inFlight());
   }
 
+  /**
+   * Pages are fetched on one thread and saved on another, so the next page gets downloaded while
+   * the previous one is being written. Fetching stops once enough new submissions have been saved
+   * or remote runs out of them, and an idle result is emitted right away. Pages that were already
+   * fetched ahead by then are saved before completing. Errors after the idle result are only logged,
+   * so that a failed result never follows it.
+   */
+  @CheckResult
+  private Observable<SubmissionPaginationResult> fetchAndSaveSubmissionPages(CachedSubmissionFolder folder, PaginationAnchor anchor) {
+    return Observable.defer(() -> {
+      AtomicBoolean hasSavedEnough = new AtomicBoolean(false);
+      AtomicInteger savedSubmissionCount = new AtomicInteger(0);
+
+      Flowable<FetchResult> pages = Flowable.<FetchResult, Iterator<Listing<Submission>>>generate(
+          () -> submissionPaginator(folder, anchor),
+          (paginator, emitter) -> {
+            if (hasSavedEnough.get()) {
+              //Timber.i("Breaking early");
+              emitter.onComplete();
+              return;
+            }
+            Listing<Submission> submissions = paginator.next();
+            boolean hasMoreItems = paginator.hasNext();
+            //Timber.i("Found %s submissions on remote", submissions.size());
+            emitter.onNext(FetchResult.create(submissions, hasMoreItems));
+            if (!hasMoreItems) {
+              emitter.onComplete();
+            }
+          });
+
+      return pages
+          .subscribeOn(io())
+          // concatMap() requests the next page as soon as it starts saving the previous one. Errors
+          // are delayed so that an idle result from an earlier page always gets emitted first.
+          .concatMapDelayError(
+              fetchResult -> Flowable
+                  .fromCallable(() -> {
+                    votingManager.get().removePendingVotesForFetchedSubmissions(fetchResult.fetchedSubmissions()).subscribe();
+                    SaveResult saveResult = saveSubmissions(folder, fetchResult.fetchedSubmissions());
+                    int savedCount = savedSubmissionCount.addAndGet(saveResult.savedItems().size());
+
+                    boolean isDone = !fetchResult.hasMoreItems() || savedCount > MIN_SUBMISSIONS_TO_SAVE_PER_PAGINATION;
+                    return isDone && !hasSavedEnough.getAndSet(true);
+                  })
+                  .subscribeOn(io()),
+              PAGINATION_LOOKAHEAD_PAGES,
+              true)
+          .onErrorResumeNext(error -> {
+            if (hasSavedEnough.get()) {
+              // Idle was already emitted, so this was a page fetched ahead. It'll get fetched again
+              // on the next pagination.
+              Timber.w(error, "Couldn't fetch or save submissions ahead for %s", folder);
+              return Flowable.empty();
+            }
+            return Flowable.error(error);
+          })
+          .filter(isFirstPageToSaveEnough -> isFirstPageToSaveEnough)
+          .map(o -> SubmissionPaginationResult.idle())
+          .toObservable();
+    });
+  }
+
   /**
    * Create a PaginationAnchor from the last cached submission under <var>folder</var>.
    */
@@ -370,29 +610,24 @@ public class SubmissionRepository {
     });
   }
 
-  @CheckResult
-  private FetchResult fetchSubmissionsFromRemoteWithAnchor(CachedSubmissionFolder folder, PaginationAnchor anchor) {
+  private Iterator<Listing<Submission>> submissionPaginator(CachedSubmissionFolder folder, PaginationAnchor anchor) {
     boolean isFrontpage = subscriptionRepository.get().isFrontpage(folder.subredditName());
 
-    Iterator<Listing<Submission>> subredditPaginator;
     if (anchor.isEmpty()) {
-      subredditPaginator = reddit.get().subreddits().submissions(
+      return reddit.get().subreddits().submissions(
           folder.subredditName(),
           isFrontpage,
           folder.sortingAndTimePeriod().sortOrder(),
           folder.sortingAndTimePeriod().timePeriod());
 
     } else {
-      subredditPaginator = reddit.get().subreddits().submissions(
+      return reddit.get().subreddits().submissions(
           folder.subredditName(),
           isFrontpage,
           folder.sortingAndTimePeriod().sortOrder(),
           folder.sortingAndTimePeriod().timePeriod(),
           anchor.fullName());
     }
-
-    Listing<Submission> submissions = subredditPaginator.next();
-    return FetchResult.create(submissions, subredditPaginator.hasNext());
   }
 
   /**
@@ -498,6 +733,79 @@ public class SubmissionRepository {
         .andThen(Single.fromCallable(() -> roomDatabase.get().submissionDao().deleteAllSubmissionRelatedRows(millisBeforeNow)));
   }
 
+  /**
+   * A fetch shared by concurrent callers. Its result is kept, so that a caller that joins after the
+   * fetch has terminated gets its result instead of starting another fetch that isn't registered.
+   */
+  private class InFlightFetch {
+    private final DankSubmissionRequest request;
+    private final RequestPriority priority;
+    private final CompletableSubject result = CompletableSubject.create();
+    private final Completable fetch;
+
+    // Guarded by this.
+    private int subscriberCount;
+    private boolean started;
+    private boolean cancelled;
+    @Nullable private Disposable upstream;
+
+    InFlightFetch(DankSubmissionRequest request, RequestPriority priority) {
+      this.request = request;
+      this.priority = priority;
+      this.fetch = Completable.defer(() -> {
+        boolean shouldStart;
+        synchronized (this) {
+          if (cancelled) {
+            // Everyone else left before this caller could join.
+            return fetchAndSaveSubmissionWithComments(request);
+          }
+          subscriberCount++;
+          shouldStart = !started;
+          started = true;
+        }
+        if (shouldStart) {
+          start();
+        }
+        return result.doOnDispose(this::onSubscriberDisposed);
+      });
+    }
+
+    private void start() {
+      Disposable disposable = fetchAndSaveSubmissionWithCommentsUnshared(request)
+          // Unregistered before the result reaches anyone, so that later calls start a new fetch.
+          .doOnTerminate(() -> inFlightFetches.remove(request, this))
+          .subscribe(result::onComplete, result::onError);
+
+      synchronized (this) {
+        upstream = disposable;
+        if (cancelled) {
+          disposable.dispose();
+        }
+      }
+    }
+
+    private void onSubscriberDisposed() {
+      Disposable toDispose;
+      synchronized (this) {
+        subscriberCount--;
+        if (subscriberCount > 0 || result.hasComplete() || result.hasThrowable()) {
+          return;
+        }
+        cancelled = true;
+        inFlightFetches.remove(request, this);
+        toDispose = upstream;
+      }
+      if (toDispose != null) {
+        toDispose.dispose();
+      }
+    }
+
+    boolean canBeJoinedBy(RequestPriority callerPriority) {
+      return priority == RequestPriority.INTERACTIVE || callerPriority == RequestPriority.BACKGROUND;
+    }
+  }
+
+
   @AutoValue
   abstract static class SaveResult {
     public abstract List<Object> savedItems();
@@ -4,7 +4,7 @@ import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
 import androidx.annotation.CheckResult;
-import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.jakewharton.rxrelay2.Relay;
@@ -27,9 +27,11 @@ import me.saket.dank.ui.submission.events.ReplyItemViewBindEvent;
 import me.saket.dank.ui.submission.events.ReplySendClickEvent;
 import me.saket.dank.ui.submission.events.SubmissionContentLinkClickEvent;
 import me.saket.dank.utils.Arrays2;
+import me.saket.dank.utils.InfinitelyScrollableRecyclerViewAdapter;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.RecyclerViewArrayAdapter;
+import me.saket.dank.utils.RxDiffUtil;
 
 /**
  * Steps for creating a new view type:
@@ -40,7 +42,7 @@ import me.saket.dank.utils.RecyclerViewArrayAdapter;
  * 4. Update {@link CommentsItemDiffer}.
  */
 public class SubmissionCommentsAdapter extends RecyclerViewArrayAdapter<SubmissionScreenUiModel, RecyclerView.ViewHolder>
-    implements Consumer<Pair<List<SubmissionScreenUiModel>, DiffUtil.DiffResult>>
+    implements Consumer<Pair<List<SubmissionScreenUiModel>, RxDiffUtil.ListUpdate>>, InfinitelyScrollableRecyclerViewAdapter
 {
 
   public static final long ID_COMMENT_OPTIONS = -95;
@@ -104,9 +106,14 @@ public class SubmissionCommentsAdapter extends RecyclerViewArrayAdapter<Submissi
   }
 
   @Override
-  public void accept(Pair<List<SubmissionScreenUiModel>, DiffUtil.DiffResult> pair) {
+  public int getItemCountMinusDecorators() {
+    return getItemCount();
+  }
+
+  @Override
+  public void accept(Pair<List<SubmissionScreenUiModel>, RxDiffUtil.ListUpdate> pair) {
     updateData(pair.first());
-    pair.second().dispatchUpdatesTo(this);
+    pair.second().dispatchUpdatesTo(new AdapterListUpdateCallback(this));
   }
 
   @Override
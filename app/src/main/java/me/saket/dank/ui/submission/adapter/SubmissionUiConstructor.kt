@@ -118,7 +118,7 @@ class SubmissionUiConstructor @Inject constructor(
               .startWith(0)  // Stream sometimes takes too long to emit anything.
 
           val externalChanges = Observable
-              .merge(votingManager.streamChanges(), bookmarksRepository.get().streamChanges())
+              .merge(votingManager.streamChanges(optional.get().submission.fullName), bookmarksRepository.get().streamChanges())
               .startWith(NOTHING)
 
           val headerUiModels = CombineLatestWithLog.from<Context, Submission, Optional<SubmissionContentLinkUiModel>, SwipeActions, SubmissionCommentsHeader.UiModel>(
@@ -171,6 +171,10 @@ class SubmissionUiConstructor @Inject constructor(
           val commentsLoadErrorUiModels = commentsLoadErrors
               .map { optionalError -> optionalError.map { error -> SubmissionCommentsLoadError.UiModel.create(error) } }
 
+          // For passing on splices of comment rows. Accessed by one combine at a time.
+          var lastCommentModels: List<SubmissionScreenUiModel>? = null
+          var lastAllItems: List<SubmissionScreenUiModel>? = null
+
           CombineLatestWithLog.from(
               O.of("header", headerUiModels),
               O.of("comment options", commentOptionsUiModels),
@@ -190,6 +194,7 @@ class SubmissionUiConstructor @Inject constructor(
             optionalContentError.ifPresent { allItems.add(it) }
             viewFullThread.ifPresent { allItems.add(it) }
             allItems.add(commentOptions)
+            val commentsStart = allItems.size
             allItems.addAll(commentModels)
 
             if (BuildConfig.DEBUG) {
@@ -200,11 +205,49 @@ class SubmissionUiConstructor @Inject constructor(
             // so that inline reply for submission appears above them.
             optionalCommentsLoadProgress.ifPresent { allItems.add(it) }
             optionalCommentsLoadError.ifPresent { allItems.add(it) }
-            Collections.unmodifiableList(allItems)
+
+            val items = spliceOfCommentRows(lastAllItems, lastCommentModels, allItems, commentModels, commentsStart)
+                ?: Collections.unmodifiableList(allItems)
+            lastCommentModels = commentModels
+            lastAllItems = items
+            items
           }
         }
   }
 
+  /**
+   * @return <var>allItems</var> as a splice of <var>lastAllItems</var> if only its comment rows
+   * were spliced since then, or null if it needs to be diffed.
+   */
+  private fun spliceOfCommentRows(
+      lastAllItems: List<SubmissionScreenUiModel>?,
+      lastCommentModels: List<SubmissionScreenUiModel>?,
+      allItems: List<SubmissionScreenUiModel>,
+      commentModels: List<SubmissionScreenUiModel>,
+      commentsStart: Int
+  ): List<SubmissionScreenUiModel>? {
+    if (lastAllItems == null || lastCommentModels == null || commentModels !is SplicedList<*> || !commentModels.isSplicedFrom(lastCommentModels)) {
+      return null
+    }
+
+    // Rows around the comments have to be unchanged.
+    val rowsAfterComments = allItems.size - commentsStart - commentModels.size
+    val lastRowsAfterComments = lastAllItems.size - commentsStart - lastCommentModels.size
+    if (lastRowsAfterComments < 0
+        || rowsAfterComments != lastRowsAfterComments
+        || allItems.subList(0, commentsStart) != lastAllItems.subList(0, commentsStart)
+        || allItems.takeLast(rowsAfterComments) != lastAllItems.takeLast(lastRowsAfterComments)) {
+      return null
+    }
+
+    return SplicedList(
+        lastAllItems,
+        allItems,
+        commentsStart + commentModels.start(),
+        commentModels.removedCount(),
+        commentModels.insertedCount())
+  }
+
   /**
    * Header contains submission details, content link and self-text post.
    */
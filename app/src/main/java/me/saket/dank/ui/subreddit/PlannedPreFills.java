@@ -0,0 +1,78 @@
+package me.saket.dank.ui.subreddit;
+
+import net.dean.jraw.models.Submission;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.reactivex.Completable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.BiFunction;
+import me.saket.dank.cache.CachePreFiller;
+
+/**
+ * Keeps one {@link CachePreFiller} subscription per submission across the plans of
+ * {@link SubmissionPrefetchPlanner}. Moving to a new plan cancels only the submissions that
+ * dropped out of it and starts only the ones that are new to it, so scrolling doesn't abort
+ * pre-fills of rows that are still in the window.
+ * <p>
+ * Pre-fills that are kept retain the priority they were started with.
+ */
+class PlannedPreFills implements Disposable {
+
+  /** Takes a submission and whether it's about to be on screen. */
+  private final BiFunction<Submission, Boolean, Completable> preFill;
+  private final Map<String, Disposable> preFillsById = new HashMap<>();
+  private boolean disposed;
+
+  PlannedPreFills(BiFunction<Submission, Boolean, Completable> preFill) {
+    this.preFill = preFill;
+  }
+
+  synchronized void update(SubmissionPrefetchPlanner.Plan plan) throws Exception {
+    if (disposed) {
+      return;
+    }
+
+    List<Submission> submissions = plan.submissions();
+    Set<String> plannedIds = new HashSet<>(submissions.size());
+    for (int i = 0; i < submissions.size(); i++) {
+      plannedIds.add(submissions.get(i).getId());
+    }
+
+    Iterator<Map.Entry<String, Disposable>> iterator = preFillsById.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Disposable> entry = iterator.next();
+      if (!plannedIds.contains(entry.getKey())) {
+        entry.getValue().dispose();
+        iterator.remove();
+      }
+    }
+
+    for (int i = 0; i < submissions.size(); i++) {
+      Submission submission = submissions.get(i);
+      if (!preFillsById.containsKey(submission.getId())) {
+        boolean isVisibleSoon = i < plan.visibleSoonCount();
+        preFillsById.put(submission.getId(), preFill.apply(submission, isVisibleSoon).subscribe());
+      }
+    }
+  }
+
+  @Override
+  public synchronized void dispose() {
+    disposed = true;
+    for (Disposable disposable : preFillsById.values()) {
+      disposable.dispose();
+    }
+    preFillsById.clear();
+  }
+
+  @Override
+  public synchronized boolean isDisposed() {
+    return disposed;
+  }
+}
@@ -0,0 +1,252 @@
+package me.saket.dank.ui.subreddit;
+
+import android.net.ConnectivityManager;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.CheckResult;
+import androidx.annotation.VisibleForTesting;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.auto.value.AutoValue;
+
+import net.dean.jraw.models.Submission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import me.saket.dank.cache.CachePreFiller;
+import me.saket.dank.cache.PrefetchScheduler;
+import me.saket.dank.ui.subreddit.uimodels.SubredditScreenUiModel.SubmissionRowUiModel;
+import me.saket.dank.ui.subreddit.uimodels.SubredditSubmission;
+
+/**
+ * Decides which submissions {@link CachePreFiller} should pre-fill, based on where the user is
+ * scrolling: the rows on screen and the next few in the direction of scroll. While the list is
+ * being flung, the rows that will fly past are skipped in favor of the ones it'll settle on.
+ * <p>
+ * The number of rows to look ahead grows with how quickly pre-fills are completing and is
+ * halved on metered networks.
+ */
+public class SubmissionPrefetchPlanner {
+
+  @VisibleForTesting static final int MIN_LOOKAHEAD = 3;
+  @VisibleForTesting static final int MAX_LOOKAHEAD = 30;
+  @VisibleForTesting static final int DEFAULT_LOOKAHEAD = 10;
+
+  /** Rows that can be pre-filled in this time are looked ahead. */
+  private static final float LOOKAHEAD_SECONDS = 10f;
+
+  /** Comments plus either images or link metadata. */
+  private static final float PRE_FILLS_PER_SUBMISSION = 2f;
+
+  /** Scrolling faster than this is treated as a fling. */
+  @VisibleForTesting static final float FLING_ROWS_PER_SECOND = 12f;
+
+  /** Roughly how long a fling takes to settle, used for predicting where it'll stop. */
+  private static final float FLING_PROJECTION_SECONDS = 0.5f;
+
+  /** Weight of the latest scroll event when averaging scroll velocity. */
+  private static final float VELOCITY_SMOOTHING_FACTOR = 0.3f;
+
+  private final PrefetchScheduler prefetchScheduler;
+  private final ConnectivityManager connectivityManager;
+
+  @Inject
+  public SubmissionPrefetchPlanner(PrefetchScheduler prefetchScheduler, ConnectivityManager connectivityManager) {
+    this.prefetchScheduler = prefetchScheduler;
+    this.connectivityManager = connectivityManager;
+  }
+
+  @AutoValue
+  public abstract static class Plan {
+    /** In the order they should be pre-filled. */
+    public abstract List<Submission> submissions();
+
+    /** Number of submissions at the start of {@link #submissions()} that are about to be on screen. */
+    public abstract int visibleSoonCount();
+
+    static Plan create(List<Submission> submissions, int visibleSoonCount) {
+      return new AutoValue_SubmissionPrefetchPlanner_Plan(submissions, visibleSoonCount);
+    }
+  }
+
+  @AutoValue
+  abstract static class Window {
+    /** Adapter positions, in the order they should be pre-filled. */
+    abstract List<Integer> positions();
+
+    abstract int visibleSoonCount();
+
+    /** So that a new plan is made when rows get added without the window moving. */
+    abstract int itemCount();
+
+    static Window create(List<Integer> positions, int visibleSoonCount, int itemCount) {
+      return new AutoValue_SubmissionPrefetchPlanner_Window(positions, visibleSoonCount, itemCount);
+    }
+  }
+
+  /**
+   * Emits a new plan when the rows to pre-fill change. {@link PlannedPreFills} cancels work only
+   * for rows that are no longer in it. Must be subscribed on the main thread.
+   */
+  @CheckResult
+  public Observable<Plan> plans(RecyclerView recyclerView, SubredditSubmissionsAdapter adapter) {
+    return Observable.<Window>create(emitter -> {
+      if (Looper.myLooper() != Looper.getMainLooper()) {
+        throw new IllegalStateException("Expected to be called on the main thread but was " + Thread.currentThread().getName());
+      }
+
+      RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        private float rowsPerSecond;
+        private long lastScrollTimeMillis;
+
+        @Override
+        public void onScrolled(RecyclerView rv, int dx, int dy) {
+          long nowMillis = SystemClock.uptimeMillis();
+          long elapsedMillis = nowMillis - lastScrollTimeMillis;
+          lastScrollTimeMillis = nowMillis;
+
+          int visibleRowCount = visibleRowCount(rv);
+          if (elapsedMillis > 0 && elapsedMillis < 1000 && visibleRowCount > 0 && rv.getHeight() > 0) {
+            float rowHeight = (float) rv.getHeight() / visibleRowCount;
+            float latestRowsPerSecond = dy / rowHeight * 1000f / elapsedMillis;
+            rowsPerSecond += VELOCITY_SMOOTHING_FACTOR * (latestRowsPerSecond - rowsPerSecond);
+          }
+          emitWindow(rowsPerSecond);
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView rv, int newState) {
+          if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            rowsPerSecond = 0;
+            emitWindow(0);
+          }
+        }
+
+        void emitWindow(float rowsPerSecond) {
+          LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+          int firstVisible = layoutManager.findFirstVisibleItemPosition();
+          int lastVisible = layoutManager.findLastVisibleItemPosition();
+          int lookahead = lookahead(prefetchScheduler.completionsPerSecond(), connectivityManager.isActiveNetworkMetered());
+          emitter.onNext(window(Math.max(firstVisible, 0), Math.max(lastVisible, 0), adapter.getItemCount(), rowsPerSecond, lookahead));
+        }
+      };
+
+      recyclerView.addOnScrollListener(scrollListener);
+
+      // Rows aren't scrolled when they're first added.
+      Disposable dataChangesSubscription = adapter.dataChanges()
+          .startWith(Collections.<SubmissionRowUiModel>emptyList())
+          .subscribe(o -> scrollListener.onScrollStateChanged(recyclerView, recyclerView.getScrollState()));
+
+      emitter.setCancellable(() -> {
+        recyclerView.removeOnScrollListener(scrollListener);
+        dataChangesSubscription.dispose();
+      });
+    })
+        .distinctUntilChanged()
+        .map(window -> {
+          List<Submission> submissions = new ArrayList<>(window.positions().size());
+          int visibleSoonCount = 0;
+          for (int i = 0; i < window.positions().size(); i++) {
+            int position = window.positions().get(i);
+            if (position >= adapter.getItemCount()) {
+              continue;
+            }
+            SubmissionRowUiModel row = adapter.getItem(position);
+            if (row instanceof SubredditSubmission.UiModel) {
+              submissions.add(((SubredditSubmission.UiModel) row).submission());
+              if (i < window.visibleSoonCount()) {
+                visibleSoonCount++;
+              }
+            }
+          }
+          return Plan.create(submissions, visibleSoonCount);
+        });
+  }
+
+  private static int visibleRowCount(RecyclerView recyclerView) {
+    LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+    return layoutManager.findLastVisibleItemPosition() - layoutManager.findFirstVisibleItemPosition() + 1;
+  }
+
+  /**
+   * @param completionsPerSecond -1 if unknown.
+   */
+  @VisibleForTesting
+  static int lookahead(float completionsPerSecond, boolean isNetworkMetered) {
+    int lookahead = completionsPerSecond < 0
+        ? DEFAULT_LOOKAHEAD
+        : Math.round(completionsPerSecond * LOOKAHEAD_SECONDS / PRE_FILLS_PER_SUBMISSION);
+    if (isNetworkMetered) {
+      lookahead /= 2;
+    }
+    return Math.max(MIN_LOOKAHEAD, Math.min(lookahead, MAX_LOOKAHEAD));
+  }
+
+  /**
+   * Window positions are rounded to multiples of half the lookahead so that the plan doesn't
+   * change, and cancel in-flight pre-fills, on every row that gets scrolled.
+   *
+   * @param rowsPerSecond Positive when scrolling down.
+   */
+  @VisibleForTesting
+  static Window window(int firstVisible, int lastVisible, int itemCount, float rowsPerSecond, int lookahead) {
+    int step = Math.max(1, lookahead / 2);
+    int visibleCount = lastVisible - firstVisible + 1;
+
+    if (Math.abs(rowsPerSecond) >= FLING_ROWS_PER_SECOND) {
+      // Plan for the rows that the fling will settle on instead of the ones it's flying past.
+      int projectedOffset = Math.round(rowsPerSecond * FLING_PROJECTION_SECONDS);
+      firstVisible = clamp(firstVisible + projectedOffset, 0, Math.max(0, itemCount - visibleCount));
+      lastVisible = firstVisible + visibleCount - 1;
+    }
+
+    // Rows on screen, rounded outwards.
+    int visibleStart = clamp(roundDown(firstVisible, step), 0, itemCount);
+    int visibleEnd = clamp(roundDown(lastVisible + step, step), visibleStart, itemCount);
+
+    List<Integer> positions = new ArrayList<>();
+    if (rowsPerSecond >= 0) {
+      int end = clamp(roundDown(lastVisible + lookahead + step, step), visibleEnd, itemCount);
+      addRange(positions, visibleStart, end);
+
+    } else {
+      int start = clamp(roundDown(firstVisible - lookahead, step), 0, visibleStart);
+      // Rows on screen first, then the ones above them, closest first.
+      addRange(positions, visibleStart, visibleEnd);
+      addRangeReversed(positions, start, visibleStart);
+    }
+    return Window.create(positions, visibleEnd - visibleStart, itemCount);
+  }
+
+  private static void addRange(List<Integer> positions, int start, int end) {
+    for (int position = start; position < end; position++) {
+      positions.add(position);
+    }
+  }
+
+  private static void addRangeReversed(List<Integer> positions, int start, int end) {
+    for (int position = end - 1; position >= start; position--) {
+      positions.add(position);
+    }
+  }
+
+  /**
+   * Negative values are clamped to 0 by callers, so rounding them towards 0 is fine.
+   */
+  private static int roundDown(int value, int step) {
+    return value / step * step;
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(value, max));
+  }
+}
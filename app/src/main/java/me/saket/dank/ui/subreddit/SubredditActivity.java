@@ -27,6 +27,7 @@ import com.jakewharton.rxrelay2.Relay;
 
 import net.dean.jraw.models.Submission;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -149,6 +150,7 @@ public class SubredditActivity extends DankPullCollapsibleActivity
   @Inject Lazy<UrlParser> urlParser;
   @Inject Lazy<VotingManager> votingManager;
   @Inject Lazy<SubredditController> subredditController;
+  @Inject Lazy<SubmissionPrefetchPlanner> prefetchPlanner;
   @Inject Lazy<UserSessionRepository> userSessionRepository;
   @Inject Lazy<OnLoginRequireListener> loginRequireListener;
 
@@ -645,19 +647,20 @@ public class SubredditActivity extends DankPullCollapsibleActivity
             return Observable.empty();
           }
 
-          return cachedSubmissionStream
-              .subscribeOn(single())
-              .filter(Optional::isPresent)
-              .map(Optional::get)
-              .distinctUntilChanged((first, second) -> first.size() == second.size())
-              .switchMap(cachedSubmissions -> cachePreFiller
-                  .preFillInParallelThreads(cachedSubmissions, submissionAlbumLinkThumbnailWidth)
-                  .doOnError(error -> {
-                    ResolvedError resolvedError = errorResolver.resolve(error);
-                    resolvedError.ifUnknown(() -> Timber.e(error, "Unknown error while pre-filling cache."));
-                  })
-                  .onErrorComplete()
-                  .toObservable());
+          // Switching to a new plan cancels pre-fills of rows that the user has scrolled away from.
+          PlannedPreFills preFills = new PlannedPreFills((submission, isVisibleSoon) -> cachePreFiller
+              .preFillInParallelThreads(Collections.singletonList(submission), isVisibleSoon ? 1 : 0, submissionAlbumLinkThumbnailWidth)
+              .doOnError(error -> {
+                ResolvedError resolvedError = errorResolver.resolve(error);
+                resolvedError.ifUnknown(() -> Timber.e(error, "Unknown error while pre-filling cache."));
+              })
+              .onErrorComplete());
+
+          return prefetchPlanner.get().plans(submissionRecyclerView, submissionsAdapter)
+              .subscribeOn(mainThread())
+              .observeOn(single())
+              .doOnNext(preFills::update)
+              .doFinally(preFills::dispose);
         })
         .takeUntil(lifecycle().onDestroy())
         .subscribe();
@@ -9,6 +9,7 @@ import androidx.annotation.CheckResult;
 import androidx.core.content.ContextCompat;
 
 import com.f2prateek.rx.preferences2.Preference;
+import com.google.auto.value.AutoValue;
 
 import me.saket.dank.urlparser.RedditGalleryImageLink;
 import me.saket.dank.urlparser.RedditGalleryLink;
@@ -19,8 +20,10 @@ import net.dean.jraw.models.VoteDirection;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -105,6 +108,11 @@ public class SubredditUiConstructor {
     Observable<Boolean> sharedFullscreenProgressVisibilities = fullscreenProgressVisibilities(cachedSubmissionLists, paginationResults)
         .share();
 
+    // Rows of the last emission, keyed by submission ID. A vote or a bookmark only
+    // rebuilds the affected row and the rest get reused as-is, which also makes diffing them cheap.
+    Map<String, SubredditSubmission.UiModel> memoizedRows = new HashMap<>();
+    Map<String, SubmissionRowInputs> memoizedRowInputs = new HashMap<>();
+
     return Observable.combineLatest(Arrays.asList(
         sharedFullscreenProgressVisibilities.distinctUntilChanged(),
         fullscreenErrors(cachedSubmissionLists, paginationResults).distinctUntilChanged(),
@@ -134,10 +142,27 @@ public class SubredditUiConstructor {
           rowUiModels.add(walkthroughUiModel);
         });
 
+        Map<String, SubredditSubmission.UiModel> rows = new HashMap<>(cachedSubs.size());
+        Map<String, SubmissionRowInputs> rowInputs = new HashMap<>(cachedSubs.size());
+
         for (Submission submission : cachedSubs) {
           int pendingSyncReplyCount = 0;  // TODO v2:  Get this from database.
-          rowUiModels.add(submissionUiModel(context, submission, pendingSyncReplyCount, folder.subredditName(), swipeActions));
+          SubmissionRowInputs inputs = rowInputs(submission, pendingSyncReplyCount, folder.subredditName(), swipeActions);
+
+          SubredditSubmission.UiModel row = memoizedRows.get(submission.getId());
+          if (row == null || !inputs.equals(memoizedRowInputs.get(submission.getId()))) {
+            row = submissionUiModel(context, inputs);
+          }
+          rowUiModels.add(row);
+          rows.put(submission.getId(), row);
+          rowInputs.put(submission.getId(), inputs);
         }
+
+        // Forget rows that are no longer in the list.
+        memoizedRows.clear();
+        memoizedRows.putAll(rows);
+        memoizedRowInputs.clear();
+        memoizedRowInputs.putAll(rowInputs);
       });
       optPagination.ifPresent(pagination -> rowUiModels.add(pagination));
 
@@ -255,9 +280,58 @@ public class SubredditUiConstructor {
       String subredditName,
       SwipeActions swipeActions
   ) {
-    int submissionScore = votingManager.getScoreAfterAdjustingPendingVote(submission);
-    VoteDirection voteDirection = votingManager.getPendingOrDefaultVote(submission, submission.getVote());
-    int postedAndPendingCommentCount = submission.getCommentCount() + pendingSyncReplyCount;
+    return submissionUiModel(c, rowInputs(submission, pendingSyncReplyCount, subredditName, swipeActions));
+  }
+
+  /**
+   * Everything that a submission's row is built from, so that rows can be reused until one of them changes.
+   */
+  @AutoValue
+  abstract static class SubmissionRowInputs {
+    abstract Submission submission();
+
+    abstract int score();
+
+    abstract VoteDirection voteDirection();
+
+    abstract boolean isSaved();
+
+    abstract int pendingSyncReplyCount();
+
+    abstract String subredditName();
+
+    abstract SwipeActions swipeActions();
+
+    abstract boolean showCommentCountInByline();
+
+    abstract boolean showNsfwContent();
+
+    abstract boolean showThumbnailOnLeft();
+
+    abstract SubredditSubmissionImageStyle imageStyle();
+  }
+
+  private SubmissionRowInputs rowInputs(Submission submission, int pendingSyncReplyCount, String subredditName, SwipeActions swipeActions) {
+    return new AutoValue_SubredditUiConstructor_SubmissionRowInputs(
+        submission,
+        votingManager.getScoreAfterAdjustingPendingVote(submission),
+        votingManager.getPendingOrDefaultVote(submission, submission.getVote()),
+        bookmarksRepository.get().isSaved(submission),
+        pendingSyncReplyCount,
+        subredditName,
+        swipeActions,
+        showCommentCountInByline.get(),
+        showNsfwContent.get(),
+        showSubmissionThumbnailsOnLeft.get(),
+        subredditSubmissionImageStyle.get());
+  }
+
+  private SubredditSubmission.UiModel submissionUiModel(Context c, SubmissionRowInputs inputs) {
+    Submission submission = inputs.submission();
+    String subredditName = inputs.subredditName();
+    int submissionScore = inputs.score();
+    VoteDirection voteDirection = inputs.voteDirection();
+    int postedAndPendingCommentCount = submission.getCommentCount() + inputs.pendingSyncReplyCount();
 
     Truss titleBuilder = new Truss();
     int voteColor = ContextCompat.getColor(c, Themes.voteColor(voteDirection));
@@ -285,7 +359,7 @@ public class SubredditUiConstructor {
       bylineBuilder.append(" \u00b7 ");
     }
     bylineBuilder.append(submission.getAuthor().toUpperCase(Locale.ENGLISH));
-    if (showCommentCountInByline.get()) {
+    if (inputs.showCommentCountInByline()) {
       bylineBuilder.append(" \u00b7 ");
       bylineBuilder.append(c.getString(
           R.string.subreddit_submission_item_byline_comment_count,
@@ -307,14 +381,14 @@ public class SubredditUiConstructor {
     SubmissionThumbnailTypeMinusNsfw thumbnailType = SubmissionThumbnailTypeMinusNsfw.Companion.parse(submission);
     Optional<SubredditSubmission.UiModel.Thumbnail> thumbnail;
 
-    if (subredditSubmissionImageStyle.get().equals(SubredditSubmissionImageStyle.NONE)) {
+    if (inputs.imageStyle().equals(SubredditSubmissionImageStyle.NONE)) {
       thumbnail = Optional.empty();
 
     } else if (thumbnailType == SubmissionThumbnailTypeMinusNsfw.NONE) {
       thumbnail = Optional.empty();
 
     } else {
-      if (submission.isNsfw() && !showNsfwContent.get()) {
+      if (submission.isNsfw() && !inputs.showNsfwContent()) {
         thumbnail = Optional.of(
             thumbnailForStaticImage(c)
                 .staticRes(Optional.of(R.drawable.ic_visibility_off_24dp))
@@ -326,7 +400,7 @@ public class SubredditUiConstructor {
         if (first == null || first.previewVariants() == null) {
           thumbnail = Optional.empty();
         } else {
-          thumbnail = Optional.of(thumbnailForRemoteImage(c, first.previewVariants()));
+          thumbnail = Optional.of(thumbnailForRemoteImage(c, first.previewVariants(), inputs.imageStyle()));
         }
 
       } else {
@@ -348,7 +422,7 @@ public class SubredditUiConstructor {
             break;
 
           case URL_REMOTE_THUMBNAIL:
-            thumbnail = Optional.of(thumbnailForRemoteImage(c, submission.getPreview()));
+            thumbnail = Optional.of(thumbnailForRemoteImage(c, submission.getPreview(), inputs.imageStyle()));
             break;
 
           //noinspection ConstantConditions
@@ -375,7 +449,7 @@ public class SubredditUiConstructor {
       case URL_REMOTE_THUMBNAIL:
         // Don't want to display NSFW content if it's disabled on thumbnail click.
         // Might get flagged by Play Store's automatic review thing.
-        isThumbnailClickable = !submission.isSelfPost() && (!submission.isNsfw() || showNsfwContent.get());
+        isThumbnailClickable = !submission.isSelfPost() && (!submission.isNsfw() || inputs.showNsfwContent());
         break;
 
       case UNKNOWN:
@@ -401,13 +475,13 @@ public class SubredditUiConstructor {
         .adapterId(JrawUtils2.generateAdapterId(submission))
         .thumbnail(thumbnail)
         .isThumbnailClickable(isThumbnailClickable)
-        .displayThumbnailOnLeftSide(showSubmissionThumbnailsOnLeft.get())
-        .imageStyle(subredditSubmissionImageStyle.get())
+        .displayThumbnailOnLeftSide(inputs.showThumbnailOnLeft())
+        .imageStyle(inputs.imageStyle())
         .title(titleBuilder.build(), Pair.create(submissionScore, voteDirection))
         .byline(bylineBuilder.build(), postedAndPendingCommentCount)
         .backgroundDrawableRes(rowBackgroundResource)
-        .isSaved(bookmarksRepository.get().isSaved(submission))
-        .swipeActions(swipeActions)
+        .isSaved(inputs.isSaved())
+        .swipeActions(inputs.swipeActions())
         .build();
   }
 
@@ -420,12 +494,12 @@ public class SubredditUiConstructor {
         .height(Optional.empty());
   }
 
-  private SubredditSubmission.UiModel.Thumbnail thumbnailForRemoteImage(Context c, SubmissionPreview preview) {
-    return thumbnailForRemoteImage(c, ImageWithMultipleVariants.Companion.of(preview));
+  private SubredditSubmission.UiModel.Thumbnail thumbnailForRemoteImage(Context c, SubmissionPreview preview, SubredditSubmissionImageStyle imageStyle) {
+    return thumbnailForRemoteImage(c, ImageWithMultipleVariants.Companion.of(preview), imageStyle);
   }
 
-  private SubredditSubmission.UiModel.Thumbnail thumbnailForRemoteImage(Context c, ImageWithMultipleVariants thumbs) {
-    int preferredWidth = getPreferredWidthForThumbnail(c);
+  private SubredditSubmission.UiModel.Thumbnail thumbnailForRemoteImage(Context c, ImageWithMultipleVariants thumbs, SubredditSubmissionImageStyle imageStyle) {
+    int preferredWidth = getPreferredWidthForThumbnail(c, imageStyle);
     Optional<ImageVariant> optimizedThumbnail = Optional.ofNullable(thumbs.findNearestFor(preferredWidth, -1));
     Optional<String> optimizedThumbnailUrl = optimizedThumbnail.map(ImageVariant::getUrl);
     Optional<Integer> thumbnailFullHeight = optimizedThumbnail.map(thumbnail -> getFullHeightForThumbnail(preferredWidth, thumbnail));
@@ -448,8 +522,8 @@ public class SubredditUiConstructor {
     return optimizedThumbnail.getHeight() + heightDifference;
   }
 
-  private int getPreferredWidthForThumbnail(Context c) {
-    if (subredditSubmissionImageStyle.get().equals(SubredditSubmissionImageStyle.THUMBNAIL)) {
+  private int getPreferredWidthForThumbnail(Context c, SubredditSubmissionImageStyle imageStyle) {
+    if (imageStyle.equals(SubredditSubmissionImageStyle.THUMBNAIL)) {
       return c.getResources().getDimensionPixelSize(R.dimen.subreddit_submission_thumbnail);
     }
     return c.getResources().getDisplayMetrics().widthPixels;
@@ -11,10 +11,12 @@ import com.jakewharton.rxrelay2.BehaviorRelay;
 
 import javax.inject.Inject;
 
+import io.reactivex.Completable;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.DankJobService;
 import me.saket.dank.data.ResolvedError;
 import me.saket.dank.di.Dank;
+import me.saket.dank.reddit.RequestPriority;
 import timber.log.Timber;
 
 import static me.saket.dank.utils.RxUtils.applySchedulersCompletable;
@@ -78,8 +80,14 @@ public class SubredditSubscriptionsSyncJob extends DankJobService {
 
   @Override
   public JobStartCallback onStartJob2(JobParameters params) {
-    subscriptionRepository.refreshAndSaveSubscriptions()
-        .andThen(subscriptionRepository.executePendingSubscribesAndUnsubscribes())
+    Completable syncCompletable = subscriptionRepository.refreshAndSaveSubscriptions()
+        .andThen(subscriptionRepository.executePendingSubscribesAndUnsubscribes());
+
+    if (params.getJobId() == ID_SUBSCRIPTIONS_RECURRING_JOB) {
+      syncCompletable = RequestPriority.background(syncCompletable);
+    }
+
+    syncCompletable
         .compose(applySchedulersCompletable())
         .compose(doOnCompletableStartAndTerminate(ongoing -> progressSubject.accept(ongoing)))
         .ambWith(lifecycleOnDestroy().ignoreElements())
@@ -0,0 +1,88 @@
+package me.saket.dank.urlparser;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Maps domains to values by walking a host's labels right to left, so "i.imgur.com" finds the
+ * value registered for "imgur.com" in one pass over the host. Matching is label-aligned:
+ * "notimgur.com" does not match "imgur.com". When more than one registered domain matches,
+ * the longest one wins.
+ * <p>
+ * Lookups don't allocate. Not thread-safe for writes, so populate it before sharing.
+ */
+class HostTrie<T> {
+
+  private final Node<T> root = new Node<>();
+
+  void put(String domain, T value) {
+    Node<T> node = root;
+    int end = domain.length();
+    while (end > 0) {
+      int start = domain.lastIndexOf('.', end - 1) + 1;
+      node = node.childOrCreate(domain.substring(start, end));
+      end = start - 1;
+    }
+    node.value = value;
+  }
+
+  /**
+   * @return Value of the longest registered domain that <var>host</var> is equal to or is a subdomain of.
+   */
+  @Nullable
+  T get(String host) {
+    T match = null;
+    Node<T> node = root;
+    int end = host.length();
+    while (end > 0 && node != null) {
+      int start = host.lastIndexOf('.', end - 1) + 1;
+      node = node.child(host, start, end);
+      if (node != null && node.value != null) {
+        match = node.value;
+      }
+      end = start - 1;
+    }
+    return match;
+  }
+
+  private static class Node<T> {
+    private String[] labels = new String[0];
+    private Node<T>[] children = newArray(0);
+    private @Nullable T value;
+
+    /**
+     * Linear scan instead of a map because domains rarely fan out into more than a handful of
+     * labels, and comparing regions of the host avoids creating a substring per label.
+     */
+    @Nullable
+    Node<T> child(String host, int start, int end) {
+      int length = end - start;
+      for (int i = 0; i < labels.length; i++) {
+        String label = labels[i];
+        if (label.length() == length && host.regionMatches(true, start, label, 0, length)) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node<T> childOrCreate(String label) {
+      Node<T> existing = child(label, 0, label.length());
+      if (existing != null) {
+        return existing;
+      }
+      Node<T> child = new Node<>();
+      labels = Arrays.copyOf(labels, labels.length + 1);
+      children = Arrays.copyOf(children, children.length + 1);
+      labels[labels.length - 1] = label;
+      children[children.length - 1] = child;
+      return child;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] newArray(int size) {
+      return (Node<T>[]) new Node[size];
+    }
+  }
+}
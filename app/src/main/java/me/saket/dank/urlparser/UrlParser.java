@@ -5,19 +5,14 @@ import android.text.TextUtils;
 
 import androidx.annotation.Nullable;
 
-import com.nytimes.android.external.cache3.Cache;
-
 import net.dean.jraw.models.Submission;
 
 import java.util.Objects;
-import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
-import io.reactivex.exceptions.Exceptions;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.reddit.Reddit;
 import me.saket.dank.utils.JrawUtils2;
@@ -38,13 +33,31 @@ import timber.log.Timber;
  */
 public class UrlParser {
 
-  private final Cache<String, Link> cache;
+  private final UrlParserCache cache;
   private final UrlParserConfig config;
 
+  /**
+   * Picks the parser for a URL by its domain, so that only that website's patterns are run
+   * against it. URLs of unknown domains go to {@link #parseUnknownHostUrl(UrlParts, SubmissionLookup)}.
+   */
+  private final HostTrie<HostParser> hostParsers = new HostTrie<>();
+
   @Inject
-  public UrlParser(@Named("url_parser") Cache<String, Link> cache, UrlParserConfig config) {
+  public UrlParser(UrlParserCache cache, UrlParserConfig config) {
     this.cache = cache;
     this.config = config;
+
+    hostParsers.put("reddit.com", this::parseRedditUrl);
+    hostParsers.put("redd.it", this::parseReddItUrl);
+    hostParsers.put("imgur.com", this::parseImgurUrl);
+    hostParsers.put("bildgur.de", this::parseImgurUrl);
+    hostParsers.put("gfycat.com", (url, submissionLookup) -> createGfycatLink(url.uri));
+    hostParsers.put("redgifs.com", (url, submissionLookup) -> createRedgifsLink(url.uri));
+    hostParsers.put("gifdeliverynetwork.com", (url, submissionLookup) -> createRedgifsLink(url.uri));
+    hostParsers.put("giphy.com", (url, submissionLookup) -> createGiphyLink(url.uri));
+    hostParsers.put("streamable.com", (url, submissionLookup) -> createUnresolvedStreamableLink(url.uri));
+    hostParsers.put("reddituploads.com", this::parseRedditUploadsUrl);
+    hostParsers.put("redditmedia.com", this::parseRedditUploadsUrl);
   }
 
   /**
@@ -62,10 +75,37 @@ public class UrlParser {
    * @return null if the url couldn't be identified. A class implementing {@link Link} otherwise.
    */
   public Link parse(String url, Submission submission) {
-    try {
-      return cache.get(url, () -> parseInternal(url, Optional.ofNullable(submission)));
-    } catch (ExecutionException e) {
-      throw Exceptions.propagate(e);
+    Link cachedLink = cache.get(UrlParserCache.key(url), UrlParserCache.key(url, submission));
+    if (cachedLink != null) {
+      return cachedLink;
+    }
+
+    SubmissionLookup submissionLookup = new SubmissionLookup(submission);
+    Link parsedLink = parseInternal(url, submissionLookup);
+    cache.put(
+        submissionLookup.wasUsed() ? UrlParserCache.key(url, submission) : UrlParserCache.key(url),
+        parsedLink);
+    return parsedLink;
+  }
+
+  /**
+   * Remembers whether parsing a URL needed its submission, so that the result can be cached with the right key.
+   */
+  private static class SubmissionLookup {
+    private final Optional<Submission> submission;
+    private boolean used;
+
+    SubmissionLookup(@Nullable Submission submission) {
+      this.submission = Optional.ofNullable(submission);
+    }
+
+    Optional<Submission> get() {
+      used = true;
+      return submission;
+    }
+
+    boolean wasUsed() {
+      return used;
     }
   }
 
@@ -74,168 +114,177 @@ public class UrlParser {
    *
    * @return null if the url couldn't be identified. A class implementing {@link Link} otherwise.
    */
-  private Link parseInternal(String url, Optional<Submission> submission) {
+  private Link parseInternal(String url, SubmissionLookup submissionLookup) {
     // TODO: Support "np" subdomain?
     // TODO: Support wiki pages.
-    Link parsedLink;
     Uri linkURI = Uri.parse(url);
     String urlDomain = linkURI.getHost() != null ? linkURI.getHost() : "";
     String urlPath = linkURI.getPath() != null ? linkURI.getPath() : "";  // Path is the part of the URL without the domain. E.g.,: /something/image.jpg.
 
-    Matcher subredditMatcher = config.subredditPattern().matcher(urlPath);
-    if (subredditMatcher.matches()) {
-      parsedLink = RedditSubredditLink.create(url, subredditMatcher.group(1));
-
-    } else {
+    // Subreddit and user links are identified on any host, including relative ones like "/r/pics".
+    // Their patterns can only match if the path contains "r/" or "u/", which is much cheaper to check.
+    if (urlPath.contains("r/")) {
+      Matcher subredditMatcher = config.subredditPattern().matcher(urlPath);
+      if (subredditMatcher.matches()) {
+        return RedditSubredditLink.create(url, subredditMatcher.group(1));
+      }
+    }
+    if (urlPath.contains("u/") || urlPath.contains("user/")) {
       Matcher userMatcher = config.userPattern().matcher(urlPath);
       if (userMatcher.matches()) {
-        parsedLink = RedditUserLink.create(url, userMatcher.group(1));
-
-      } else if (urlDomain.endsWith("reddit.com")) {
-        Matcher submissionOrCommentMatcher = config.submissionOrCommentPattern().matcher(urlPath);
-        if (submissionOrCommentMatcher.matches()) {
-          String subredditName = submissionOrCommentMatcher.group(2);
-          String submissionId = submissionOrCommentMatcher.group(3);
-          String commentId = submissionOrCommentMatcher.group(5);
-
-          if (TextUtils.isEmpty(commentId)) {
-            parsedLink = RedditSubmissionLink.create(url, submissionId, subredditName);
-          } else {
-            String contextParamValue = linkURI.getQueryParameter(Reddit.CONTEXT_QUERY_PARAM);
-            int contextCount = TextUtils.isEmpty(contextParamValue) ? 0 : Integer.parseInt(contextParamValue);
-            RedditCommentLink initialComment = RedditCommentLink.create(url, commentId, contextCount);
-            parsedLink = RedditSubmissionLink.createWithComment(url, submissionId, subredditName, initialComment);
-          }
-
-        } else if (urlDomain.contains("i.reddit.com")) {
-          // Old mobile website that nobody uses anymore. Format: i.reddit.com/post_id. Eg., https://i.reddit.com/5524cd
-          String submissionId = urlPath.substring(1);  // Remove the leading slash.
-          parsedLink = RedditSubmissionLink.create(url, submissionId, null);
-
-        } else if (config.galleryPattern().matcher(urlPath).matches()) {
-          Optional<RedditGalleryLink> galleryLink;
-          if (submission.isPresent() && submission.get().isGallery() &&
-              (galleryLink = RedditGalleryLink.create(url, submission.get())).isPresent()) {
-            parsedLink = galleryLink.get();
-          } else {
-            parsedLink = ExternalLink.create(url);
-          }
-
-        } else {
-          Optional<String> urlSubdomain = Urls.subdomain(linkURI);
-          if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
-            // TODO: When submission optional isn't present, treat it as an unresolved reddit video link.
-            parsedLink = createRedditHostedVideoLink(url, submission);
-          } else {
-            parsedLink = ExternalLink.create(url);
-          }
-        }
-
-      } else if (urlDomain.endsWith("redd.it")) {
-        Optional<String> urlSubdomain = Urls.subdomain(linkURI);
-        if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
-          parsedLink = createRedditHostedVideoLink(url, submission);
-
-        } else if ((urlSubdomain.isEmpty() || urlSubdomain.get().equals("i")) // i.redd.it
-            && (!isImageOrGifUrlPath(urlPath) && !isVideoPath(urlPath)))
-        {
-          // Short redd.it url. Format: redd.it/post_id. Eg., https://redd.it/5524cd
-          String submissionId = urlPath.substring(1);  // Remove the leading slash.
-          parsedLink = RedditSubmissionLink.create(url, submissionId, null);
-
-        } else {
-          parsedLink = parseNonRedditUrl(url);
-        }
-
-      } else {
-        if (urlDomain.contains("google") && urlPath.startsWith("/amp/s/amp.reddit.com")) {
-          // Google AMP url.
-          // https://www.google.com/amp/s/amp.reddit.com/r/NoStupidQuestions/comments/2qwyo7/what_is_red_velvet_supposed_to_taste_like/
-          String nonAmpUrl = "https://" + url.substring(url.indexOf("/amp/s/") + "/amp/s/".length());
-          parsedLink = parse(nonAmpUrl);
-
-        } else if (urlDomain.isEmpty() && url.startsWith("/") && !url.contains("@")) {
-          return parseInternal("https://reddit.com" + url, submission);
-
-        } else {
-          parsedLink = parseNonRedditUrl(url);
-        }
+        return RedditUserLink.create(url, userMatcher.group(1));
       }
     }
 
-    cache.put(url, parsedLink);
-    return parsedLink;
+    UrlParts urlParts = new UrlParts(url, linkURI, urlDomain, urlPath);
+    HostParser hostParser = hostParsers.get(urlDomain);
+    return hostParser != null
+        ? hostParser.parse(urlParts, submissionLookup)
+        : parseUnknownHostUrl(urlParts, submissionLookup);
   }
 
-  private String rewriteAsHttps(String link) {
-    Uri uri = Uri.parse(link);
-    if (Objects.equals(uri.getScheme(), "http")) {
-      return uri.buildUpon().scheme("https").build().toString();
+  /**
+   * A URL split into the parts that {@link HostParser}s need, so that it's parsed only once.
+   */
+  private static class UrlParts {
+    final String url;
+    final Uri uri;
+    final String host;
+    final String path;
+
+    UrlParts(String url, Uri uri, String host, String path) {
+      this.url = url;
+      this.uri = uri;
+      this.host = host;
+      this.path = path;
     }
-    return link;
   }
 
-  private Link parseNonRedditUrl(String url) {
-    Uri linkURI = Uri.parse(url);
+  /**
+   * Parses URLs of one website. See {@link #hostParsers}.
+   */
+  private interface HostParser {
+    Link parse(UrlParts url, SubmissionLookup submissionLookup);
+  }
 
-    final String urlDomain = linkURI.getHost() != null ? linkURI.getHost() : "";
-    final String urlPath = linkURI.getPath() != null ? linkURI.getPath() : "";
+  private Link parseRedditUrl(UrlParts url, SubmissionLookup submissionLookup) {
+    Matcher submissionOrCommentMatcher = config.submissionOrCommentPattern().matcher(url.path);
+    if (submissionOrCommentMatcher.matches()) {
+      String subredditName = submissionOrCommentMatcher.group(2);
+      String submissionId = submissionOrCommentMatcher.group(3);
+      String commentId = submissionOrCommentMatcher.group(5);
 
-    if ((urlDomain.contains("imgur.com") || urlDomain.contains("bildgur.de"))) {
-      if (isUnsupportedImgurLink(urlPath)) {
-        // These are links that Imgur no longer uses so Dank does not expect them either.
-        return ExternalLink.create(url);
+      if (TextUtils.isEmpty(commentId)) {
+        return RedditSubmissionLink.create(url.url, submissionId, subredditName);
+      } else {
+        String contextParamValue = url.uri.getQueryParameter(Reddit.CONTEXT_QUERY_PARAM);
+        int contextCount = TextUtils.isEmpty(contextParamValue) ? 0 : Integer.parseInt(contextParamValue);
+        RedditCommentLink initialComment = RedditCommentLink.create(url.url, commentId, contextCount);
+        return RedditSubmissionLink.createWithComment(url.url, submissionId, subredditName, initialComment);
+      }
 
+    } else if (url.host.contains("i.reddit.com")) {
+      // Old mobile website that nobody uses anymore. Format: i.reddit.com/post_id. Eg., https://i.reddit.com/5524cd
+      String submissionId = url.path.substring(1);  // Remove the leading slash.
+      return RedditSubmissionLink.create(url.url, submissionId, null);
+
+    } else if (config.galleryPattern().matcher(url.path).matches()) {
+      Optional<Submission> submission = submissionLookup.get();
+      Optional<RedditGalleryLink> galleryLink;
+      if (submission.isPresent() && submission.get().isGallery() &&
+          (galleryLink = RedditGalleryLink.create(url.url, submission.get())).isPresent()) {
+        return galleryLink.get();
       } else {
-        Matcher albumUrlMatcher = config.imgurAlbumPattern().matcher(Uri.parse(url).getPath());
-        // matches() is important or else groups don't get formed.
-        if (albumUrlMatcher.matches()) {
-          String albumId = albumUrlMatcher.group(1);
-          // It's titled as unresolved because we don't know if the gallery
-          // contains a single image or multiple images.
-          return ImgurAlbumUnresolvedLink.create(url, albumId);
+        return ExternalLink.create(url.url);
+      }
 
-        } else {
-          return createImgurLink(url, null, null);
-        }
+    } else {
+      Optional<String> urlSubdomain = Urls.subdomain(url.uri);
+      if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
+        // TODO: When submission optional isn't present, treat it as an unresolved reddit video link.
+        return createRedditHostedVideoLink(url.url, submissionLookup.get());
+      } else {
+        return ExternalLink.create(url.url);
       }
+    }
+  }
 
-    } else if (urlDomain.contains("gfycat.com")) {
-      return createGfycatLink(linkURI);
+  private Link parseReddItUrl(UrlParts url, SubmissionLookup submissionLookup) {
+    Optional<String> urlSubdomain = Urls.subdomain(url.uri);
+    if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
+      return createRedditHostedVideoLink(url.url, submissionLookup.get());
 
-    } else if (urlDomain.contains("redgifs.com") || urlDomain.contains("gifdeliverynetwork.com")) {
-      return createRedgifsLink(linkURI);
+    } else if ((urlSubdomain.isEmpty() || urlSubdomain.get().equals("i")) // i.redd.it
+        && (!isImageOrGifUrlPath(url.path) && !isVideoPath(url.path)))
+    {
+      // Short redd.it url. Format: redd.it/post_id. Eg., https://redd.it/5524cd
+      String submissionId = url.path.substring(1);  // Remove the leading slash.
+      return RedditSubmissionLink.create(url.url, submissionId, null);
 
-    } else if (urlDomain.contains("giphy.com")) {
-      return createGiphyLink(linkURI);
+    } else {
+      // force https for *redd.it links to avoid problems with networkSecurityConfig
+      String httpsUrl = rewriteAsHttps(url.uri, url.url);
+      return GenericMediaLink.create(httpsUrl, getMediaUrlType(url.path));
+    }
+  }
 
-    } else if (urlDomain.contains("streamable.com")) {
-      return createUnresolvedStreamableLink(linkURI);
+  private Link parseImgurUrl(UrlParts url, SubmissionLookup submissionLookup) {
+    if (isUnsupportedImgurLink(url.path)) {
+      // These are links that Imgur no longer uses so Dank does not expect them either.
+      return ExternalLink.create(url.url);
+    }
 
-    } else if (urlDomain.contains("reddituploads.com") || urlDomain.contains("redditmedia.com")) {
-      // Reddit sends HTML-escaped URLs for reddituploads.com. Decode them again.
-      //noinspection deprecation
-      String htmlUnescapedUrl = rewriteAsHttps(org.jsoup.parser.Parser.unescapeEntities(url, true));
-      return GenericMediaLink.create(htmlUnescapedUrl, Link.Type.SINGLE_IMAGE);
+    Matcher albumUrlMatcher = config.imgurAlbumPattern().matcher(url.path);
+    // matches() is important or else groups don't get formed.
+    if (albumUrlMatcher.matches()) {
+      String albumId = albumUrlMatcher.group(1);
+      // It's titled as unresolved because we don't know if the gallery
+      // contains a single image or multiple images.
+      return ImgurAlbumUnresolvedLink.create(url.url, albumId);
 
-    } else if (urlDomain.endsWith("redd.it")) {
-      // force https for *redd.it links to avoid problems with networkSecurityConfig
-      String httpsUrl = rewriteAsHttps(url);
-      return GenericMediaLink.create(httpsUrl, getMediaUrlType(urlPath));
+    } else {
+      return createImgurLink(url.url, null, null);
+    }
+  }
+
+  private Link parseRedditUploadsUrl(UrlParts url, SubmissionLookup submissionLookup) {
+    // Reddit sends HTML-escaped URLs for reddituploads.com. Decode them again.
+    //noinspection deprecation
+    String htmlUnescapedUrl = org.jsoup.parser.Parser.unescapeEntities(url.url, true);
+    String httpsUrl = rewriteAsHttps(Uri.parse(htmlUnescapedUrl), htmlUnescapedUrl);
+    return GenericMediaLink.create(httpsUrl, Link.Type.SINGLE_IMAGE);
+  }
 
-    } else if (isImageOrGifUrlPath(urlPath) || isVideoPath(urlPath)) {
-      if (Objects.equals(linkURI.getScheme(), "https")) {
-        return GenericMediaLink.create(url, getMediaUrlType(urlPath));
+  private Link parseUnknownHostUrl(UrlParts url, SubmissionLookup submissionLookup) {
+    if (url.host.contains("google") && url.path.startsWith("/amp/s/amp.reddit.com")) {
+      // Google AMP url.
+      // https://www.google.com/amp/s/amp.reddit.com/r/NoStupidQuestions/comments/2qwyo7/what_is_red_velvet_supposed_to_taste_like/
+      String nonAmpUrl = "https://" + url.url.substring(url.url.indexOf("/amp/s/") + "/amp/s/".length());
+      return parse(nonAmpUrl);
+
+    } else if (url.host.isEmpty() && url.url.startsWith("/") && !url.url.contains("@")) {
+      return parseInternal("https://reddit.com" + url.url, submissionLookup);
+
+    } else if (isImageOrGifUrlPath(url.path) || isVideoPath(url.path)) {
+      if (Objects.equals(url.uri.getScheme(), "https")) {
+        return GenericMediaLink.create(url.url, getMediaUrlType(url.path));
       } else {
         // show non-https media in WebView
-        return ExternalLink.create(url);
+        return ExternalLink.create(url.url);
       }
 
     } else {
-      return ExternalLink.create(url);
+      return ExternalLink.create(url.url);
     }
   }
 
+  private static String rewriteAsHttps(Uri uri, String link) {
+    if (Objects.equals(uri.getScheme(), "http")) {
+      return uri.buildUpon().scheme("https").build().toString();
+    }
+    return link;
+  }
+
   private static Link createRedditHostedVideoLink(String url, Optional<Submission> optionalSubmission) {
     return optionalSubmission
         .flatMap(submission -> JrawUtils2.redditVideoDashPlaylistUrl(submission))
@@ -384,8 +433,7 @@ public class UrlParser {
   private Link createGiphyLink(Uri giphyURI) {
     String url = giphyURI.toString();
 
-    HttpUrl httpUrl = HttpUrl.parse(giphyURI.toString());
-    String urlPath = httpUrl.encodedPath();
+    String urlPath = giphyURI.getEncodedPath();
 
     Matcher giphyIdMatcher = config.giphyIdPattern().matcher(urlPath);
     if (giphyIdMatcher.matches()) {
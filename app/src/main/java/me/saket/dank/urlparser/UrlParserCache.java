@@ -0,0 +1,209 @@
+package me.saket.dank.urlparser;
+
+import android.os.Parcel;
+import android.util.AtomicFile;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.nytimes.android.external.cache3.Cache;
+import com.nytimes.android.external.cache3.CacheBuilder;
+
+import net.dean.jraw.models.Submission;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Two-tier cache for {@link UrlParser}: an LRU in memory, optionally backed by a file that
+ * survives process restarts.
+ * <p>
+ * Most links only depend on their URL and are keyed by it. Gallery and v.redd.it links are
+ * resolved using their {@link Submission}, so they're keyed by the URL and the submission's
+ * full name instead. Only links keyed by URL are written to disk.
+ * <p>
+ * The disk tier is never read or written on the caller's thread. It's restored into memory
+ * once with {@link #restoreFromDisk()} and written back with {@link #saveToDisk()}.
+ */
+public class UrlParserCache {
+
+  private static final int DISK_FORMAT_VERSION = 1;
+  private static final char SUBMISSION_KEY_SEPARATOR = '\u0000';
+
+  private final Cache<String, Link> memory;
+  private final long maxEntries;
+  private final @Nullable AtomicFile diskFile;
+  private final int appVersionCode;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong restoredCount = new AtomicLong();
+
+  /**
+   * @param diskFile Null to disable the disk tier.
+   */
+  public UrlParserCache(long maxEntries, @Nullable File diskFile, int appVersionCode) {
+    this.maxEntries = maxEntries;
+    this.diskFile = diskFile != null ? new AtomicFile(diskFile) : null;
+    this.appVersionCode = appVersionCode;
+    this.memory = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .build();
+  }
+
+  static String key(String url) {
+    return url;
+  }
+
+  static String key(String url, @Nullable Submission submission) {
+    return url + SUBMISSION_KEY_SEPARATOR + (submission != null ? submission.getFullName() : "");
+  }
+
+  private static boolean dependsOnSubmission(String key) {
+    return key.indexOf(SUBMISSION_KEY_SEPARATOR) != -1;
+  }
+
+  /**
+   * Tries each key in order.
+   */
+  @Nullable
+  Link get(String key, String fallbackKey) {
+    Link link = memory.getIfPresent(key);
+    if (link == null) {
+      link = memory.getIfPresent(fallbackKey);
+    }
+    (link != null ? hitCount : missCount).incrementAndGet();
+    return link;
+  }
+
+  void put(String key, Link link) {
+    memory.put(key, link);
+  }
+
+  public void invalidateAll() {
+    memory.invalidateAll();
+    if (diskFile != null) {
+      diskFile.delete();
+    }
+  }
+
+  @WorkerThread
+  public void restoreFromDisk() {
+    if (diskFile == null) {
+      return;
+    }
+
+    Parcel parcel = Parcel.obtain();
+    try {
+      byte[] bytes = diskFile.readFully();
+      parcel.unmarshall(bytes, 0, bytes.length);
+      parcel.setDataPosition(0);
+
+      // Parcels aren't a stable format, so links written by a different app version are discarded.
+      if (parcel.readInt() != DISK_FORMAT_VERSION || parcel.readInt() != appVersionCode) {
+        diskFile.delete();
+        return;
+      }
+
+      int count = parcel.readInt();
+      for (int i = 0; i < count; i++) {
+        String key = parcel.readString();
+        Link link = parcel.readParcelable(Link.class.getClassLoader());
+        if (key != null && link != null && memory.getIfPresent(key) == null) {
+          memory.put(key, link);
+          restoredCount.incrementAndGet();
+        }
+      }
+
+    } catch (FileNotFoundException e) {
+      // Nothing saved yet.
+    } catch (Exception e) {
+      Timber.e(e, "Couldn't restore UrlParser cache");
+      diskFile.delete();
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  @WorkerThread
+  public void saveToDisk() {
+    if (diskFile == null) {
+      return;
+    }
+
+    Parcel parcel = Parcel.obtain();
+    FileOutputStream stream = null;
+    try {
+      parcel.writeInt(DISK_FORMAT_VERSION);
+      parcel.writeInt(appVersionCode);
+
+      int countPosition = parcel.dataPosition();
+      parcel.writeInt(0);
+      int count = 0;
+      for (Map.Entry<String, Link> entry : memory.asMap().entrySet()) {
+        if (!dependsOnSubmission(entry.getKey())) {
+          parcel.writeString(entry.getKey());
+          parcel.writeParcelable(entry.getValue(), 0);
+          count++;
+        }
+      }
+      int endPosition = parcel.dataPosition();
+      parcel.setDataPosition(countPosition);
+      parcel.writeInt(count);
+      parcel.setDataPosition(endPosition);
+
+      stream = diskFile.startWrite();
+      stream.write(parcel.marshall());
+      diskFile.finishWrite(stream);
+
+    } catch (IOException e) {
+      Timber.e(e, "Couldn't save UrlParser cache");
+      if (stream != null) {
+        diskFile.failWrite(stream);
+      }
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(hitCount.get(), missCount.get(), restoredCount.get(), memory.size(), maxEntries);
+  }
+
+  public void logStats() {
+    Timber.i("UrlParser cache: %s", stats());
+  }
+
+  public static class Stats {
+    public final long hitCount;
+    public final long missCount;
+    public final long restoredCount;
+    public final long entryCount;
+    public final long maxEntries;
+
+    Stats(long hitCount, long missCount, long restoredCount, long entryCount, long maxEntries) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.restoredCount = restoredCount;
+      this.entryCount = entryCount;
+      this.maxEntries = maxEntries;
+    }
+
+    public float hitRate() {
+      long requestCount = hitCount + missCount;
+      return requestCount == 0 ? 1f : (float) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "hits=%d, misses=%d, hitRate=%.2f, restoredFromDisk=%d, entries=%d/%d",
+          hitCount, missCount, hitRate(), restoredCount, entryCount, maxEntries);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package me.saket.dank.utils;
 
 import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 
 import java.util.Collections;
 import java.util.List;
@@ -50,4 +51,28 @@ public class RxDiffUtil {
         })
         .skip(1);  // Initial value is dummy.
   }
+
+  /**
+   * Like {@link #calculateDiff(BiFunction)}, but lists that were spliced from the last list skip
+   * the diff and report only their spliced range.
+   */
+  public static <T> FlowableTransformer<List<T>, Pair<List<T>, ListUpdate>> calculateDiffOrSplice(
+      BiFunction<List<T>, List<T>, SimpleDiffUtilsCallbacks<T>> diffCallbacks)
+  {
+    Pair<List<T>, ListUpdate> initialPair = Pair.createNullable(Collections.emptyList(), null);
+    return upstream -> upstream
+        .scan(initialPair, (latestPair, nextItems) -> {
+          if (nextItems instanceof SplicedList && ((SplicedList<T>) nextItems).isSplicedFrom(latestPair.first())) {
+            return Pair.create(nextItems, (ListUpdate) ((SplicedList<T>) nextItems)::dispatchUpdatesTo);
+          }
+          DiffUtil.Callback callback = diffCallbacks.apply(latestPair.first(), nextItems);
+          DiffUtil.DiffResult result = DiffUtil.calculateDiff(callback, true);
+          return Pair.create(nextItems, (ListUpdate) result::dispatchUpdatesTo);
+        })
+        .skip(1);  // Initial value is dummy.
+  }
+
+  public interface ListUpdate {
+    void dispatchUpdatesTo(ListUpdateCallback callback);
+  }
 }
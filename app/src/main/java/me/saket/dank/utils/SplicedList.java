@@ -0,0 +1,82 @@
+package me.saket.dank.utils;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list that was made by replacing a range of items in an earlier list. Knowing
+ * the range lets {@link RxDiffUtil#calculateDiffOrSplice} update an adapter without diffing
+ * the two lists.
+ */
+public class SplicedList<T> extends AbstractList<T> implements RandomAccess {
+
+  private final List<T> items;
+  // Weak, so that every list doesn't keep all the lists before it in memory.
+  private final WeakReference<List<T>> base;
+  private final int start;
+  private final int removedCount;
+  private final int insertedCount;
+
+  /**
+   * @param items Items of <var>base</var>, with <var>removedCount</var> items at <var>start</var>
+   *              replaced by <var>insertedCount</var> items. This list takes ownership of it.
+   */
+  public SplicedList(List<T> base, List<T> items, int start, int removedCount, int insertedCount) {
+    if (items.size() != base.size() - removedCount + insertedCount) {
+      throw new IllegalArgumentException(
+          "Splice doesn't add up. base: " + base.size() + ", items: " + items.size()
+              + ", removed: " + removedCount + ", inserted: " + insertedCount);
+    }
+    this.items = items;
+    this.base = new WeakReference<>(base);
+    this.start = start;
+    this.removedCount = removedCount;
+    this.insertedCount = insertedCount;
+  }
+
+  public boolean isSplicedFrom(List<?> list) {
+    return list != null && base.get() == list;
+  }
+
+  public int start() {
+    return start;
+  }
+
+  public int removedCount() {
+    return removedCount;
+  }
+
+  public int insertedCount() {
+    return insertedCount;
+  }
+
+  /**
+   * Items in the replaced range are reported as changed as far as possible, and the rest as
+   * removed or inserted.
+   */
+  public void dispatchUpdatesTo(ListUpdateCallback callback) {
+    int changedCount = Math.min(removedCount, insertedCount);
+    if (changedCount > 0) {
+      callback.onChanged(start, changedCount, null);
+    }
+    if (removedCount > changedCount) {
+      callback.onRemoved(start + changedCount, removedCount - changedCount);
+    } else if (insertedCount > changedCount) {
+      callback.onInserted(start + changedCount, insertedCount - changedCount);
+    }
+  }
+
+  @Override
+  public T get(int index) {
+    return items.get(index);
+  }
+
+  @Override
+  public int size() {
+    return items.size();
+  }
+}
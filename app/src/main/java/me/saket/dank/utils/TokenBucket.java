@@ -0,0 +1,88 @@
+package me.saket.dank.utils;
+
+import androidx.annotation.CheckResult;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+
+/**
+ * Limits how often something can be done. Tokens refill at a fixed rate up to a capacity and
+ * each attempt takes one. When remote asks to slow down, refilling can be paused for a while.
+ */
+public class TokenBucket {
+
+  public interface Clock {
+    long nanoTime();
+  }
+
+  private final int capacity;
+  private final double nanosPerToken;
+  private final Clock clock;
+
+  private double tokens;
+  private long lastRefillNanos;
+  private long pausedUntilNanos;
+
+  public TokenBucket(int capacity, float tokensPerSecond) {
+    this(capacity, tokensPerSecond, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  TokenBucket(int capacity, float tokensPerSecond, Clock clock) {
+    this.capacity = capacity;
+    this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / (double) tokensPerSecond;
+    this.clock = clock;
+    this.tokens = capacity;
+    this.lastRefillNanos = clock.nanoTime();
+    this.pausedUntilNanos = lastRefillNanos;
+  }
+
+  /**
+   * Completes once a token is available, waiting on <var>scheduler</var> if needed.
+   */
+  @CheckResult
+  public Completable acquire(Scheduler scheduler) {
+    return Completable.defer(() -> {
+      long waitNanos = reserve();
+      return waitNanos > 0
+          ? Completable.timer(waitNanos, TimeUnit.NANOSECONDS, scheduler)
+          : Completable.complete();
+    });
+  }
+
+  /**
+   * Takes a token even if it isn't available yet.
+   *
+   * @return Nanoseconds to wait before using the token.
+   */
+  public synchronized long reserve() {
+    long nowNanos = clock.nanoTime();
+    refill(nowNanos);
+    tokens -= 1;
+
+    long refillStartNanos = Math.max(nowNanos, pausedUntilNanos);
+    long debtNanos = tokens < 0 ? (long) Math.ceil(-tokens * nanosPerToken) : 0;
+    return refillStartNanos - nowNanos + debtNanos;
+  }
+
+  /**
+   * Empties the bucket and stops refilling it for <var>duration</var>.
+   */
+  public synchronized void pauseFor(long duration, TimeUnit unit) {
+    long nowNanos = clock.nanoTime();
+    refill(nowNanos);
+    tokens = Math.min(tokens, 0);
+    pausedUntilNanos = Math.max(pausedUntilNanos, nowNanos + unit.toNanos(duration));
+  }
+
+  private void refill(long nowNanos) {
+    long refillFromNanos = Math.max(lastRefillNanos, pausedUntilNanos);
+    if (nowNanos > refillFromNanos) {
+      tokens = Math.min(capacity, tokens + (nowNanos - refillFromNanos) / nanosPerToken);
+      lastRefillNanos = nowNanos;
+    }
+  }
+}
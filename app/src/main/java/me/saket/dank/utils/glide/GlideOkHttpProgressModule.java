@@ -10,9 +10,8 @@ import com.bumptech.glide.load.model.GlideUrl;
 import com.bumptech.glide.module.LibraryGlideModule;
 
 import java.io.InputStream;
-import java.util.concurrent.TimeUnit;
 
-import me.saket.dank.di.RootModule;
+import me.saket.dank.di.Dank;
 import me.saket.dank.utils.okhttp.OkHttpResponseBodyWithProgress;
 import me.saket.dank.utils.okhttp.OkHttpResponseReadProgressListener;
 import okhttp3.Interceptor;
@@ -25,10 +24,10 @@ public class GlideOkHttpProgressModule extends LibraryGlideModule {
 
   @Override
   public void registerComponents(Context context, Glide glide, Registry registry) {
-    OkHttpClient.Builder builder = new OkHttpClient.Builder()
-        .connectTimeout(RootModule.NETWORK_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-        .readTimeout(RootModule.NETWORK_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-        .addNetworkInterceptor(createInterceptor(new OkHttpProgressListenersRepository()));
+    // Sharing connections with the rest of the app.
+    OkHttpClient.Builder builder = Dank.dependencyInjector().sharedOkHttpClient()
+        .newBuilder()
+        .addNetworkInterceptor(createInterceptor(OkHttpProgressListenersRepository.instance()));
 
     //if (BuildConfig.DEBUG) {
     //  HttpLoggingInterceptor logging = new HttpLoggingInterceptor(message -> Timber.tag("Glide").d(message));
@@ -62,11 +61,11 @@ public class GlideOkHttpProgressModule extends LibraryGlideModule {
     float getGranularityPercentage();
   }
 
-  public static void forget(String url) {
-    OkHttpProgressListenersRepository.removeUiProgressListener(url);
+  public static void forget(String url, UiProgressListener listener) {
+    OkHttpProgressListenersRepository.instance().removeUiProgressListener(url, listener);
   }
 
   public static void expect(String url, UiProgressListener listener) {
-    OkHttpProgressListenersRepository.addUiProgressListener(url, listener);
+    OkHttpProgressListenersRepository.instance().addUiProgressListener(url, listener);
   }
 }
@@ -100,7 +100,7 @@ public abstract class GlideProgressTarget<T, Z> extends GlideWrappingTarget<Z> i
     ignoreProgress = true;
     T model = this.model; // save in case it gets modified
     onDelivered();
-    GlideOkHttpProgressModule.forget(toUrlString(model));
+    GlideOkHttpProgressModule.forget(toUrlString(model), this);
     this.model = null;
   }
 
@@ -2,9 +2,15 @@ package me.saket.dank.utils.glide;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import me.saket.dank.utils.okhttp.OkHttpResponseReadProgressListener;
 import okhttp3.HttpUrl;
@@ -13,58 +19,162 @@ import okhttp3.HttpUrl;
  * Holds all listeners attached to OkHttp response bodies and dispatches progress callbacks to them depending upon
  * {@link GlideOkHttpProgressModule.UiProgressListener#getGranularityPercentage()}.
  * <p>
+ * OkHttp's threads only record progress and mark it as dirty. Dirty progresses of all downloads get dispatched
+ * together once per frame, so a progress tick doesn't allocate or post anything to the main thread.
+ * <p>
  * We could have created a custom OkHttp client with a custom intercepter for each request to have local listeners,
  * but this also works where listeners are held globally.
  */
 public class OkHttpProgressListenersRepository implements OkHttpResponseReadProgressListener {
 
-  // Key for both the maps: URL.
-  private static final Map<String, GlideOkHttpProgressModule.UiProgressListener> LISTENERS = new HashMap<>();
-  private static final Map<String, Long> PROGRESSES = new HashMap<>();
+  private static OkHttpProgressListenersRepository instance;
+
+  interface FrameScheduler {
+    /**
+     * Run <var>onFrame</var> on the main thread before the next frame is drawn. Can be called from any thread.
+     */
+    void scheduleNextFrame(Runnable onFrame);
+  }
 
-  private final Handler handler;
+  private final Map<HttpUrl, Progress> progresses = new ConcurrentHashMap<>();
+  private final AtomicBoolean frameScheduled = new AtomicBoolean();
+  private final FrameScheduler frameScheduler;
+  private final Runnable dispatchFrame = this::dispatchFrame;
+
+  public static synchronized OkHttpProgressListenersRepository instance() {
+    if (instance == null) {
+      instance = new OkHttpProgressListenersRepository(new ChoreographerFrameScheduler());
+    }
+    return instance;
+  }
 
-  public OkHttpProgressListenersRepository() {
-    this.handler = new Handler(Looper.getMainLooper());
+  @VisibleForTesting
+  OkHttpProgressListenersRepository(FrameScheduler frameScheduler) {
+    this.frameScheduler = frameScheduler;
   }
 
-  public static void removeUiProgressListener(String url) {
-    LISTENERS.remove(url);
-    PROGRESSES.remove(url);
+  @MainThread
+  public void addUiProgressListener(String url, GlideOkHttpProgressModule.UiProgressListener listener) {
+    HttpUrl httpUrl = HttpUrl.parse(url);
+    if (httpUrl != null) {
+      progresses.put(httpUrl, new Progress(listener));
+    }
+  }
+
+  /**
+   * Only removes <var>listener</var> and not any other listener that was added for the same URL later.
+   */
+  @MainThread
+  public void removeUiProgressListener(String url, GlideOkHttpProgressModule.UiProgressListener listener) {
+    HttpUrl httpUrl = HttpUrl.parse(url);
+    if (httpUrl == null) {
+      return;
+    }
+    Progress progress = progresses.get(httpUrl);
+    if (progress != null && progress.listener == listener) {
+      progresses.remove(httpUrl, progress);
+    }
   }
 
-  public static void addUiProgressListener(String url, GlideOkHttpProgressModule.UiProgressListener listener) {
-    LISTENERS.put(url, listener);
+  @VisibleForTesting
+  int size() {
+    return progresses.size();
   }
 
   @Override
   public void update(HttpUrl url, final long bytesRead, final long expectedContentBytes) {
     //System.out.printf("%s: %d/%d = %.2f%%%n", url, bytesRead, contentLength, (100f * bytesRead) / contentLength);
-    String key = url.toString();
-    final GlideOkHttpProgressModule.UiProgressListener listener = LISTENERS.get(key);
-    if (listener == null) {
+    Progress progress = progresses.get(url);
+    if (progress == null) {
       return;
     }
-    if (expectedContentBytes <= bytesRead) {
-      removeUiProgressListener(key);
+    if (progress.record(bytesRead, expectedContentBytes) && frameScheduled.compareAndSet(false, true)) {
+      frameScheduler.scheduleNextFrame(dispatchFrame);
     }
-    if (needsDispatch(key, bytesRead, expectedContentBytes, listener.getGranularityPercentage())) {
-      handler.post(() -> listener.onProgress(bytesRead, expectedContentBytes));
+  }
+
+  @MainThread
+  private void dispatchFrame() {
+    // Progress recorded from here on will need another frame.
+    frameScheduled.set(false);
+
+    for (Map.Entry<HttpUrl, Progress> entry : progresses.entrySet()) {
+      Progress progress = entry.getValue();
+      if (!progress.dirty) {
+        continue;
+      }
+      progress.dirty = false;
+
+      long expectedBytes = progress.expectedBytes;
+      long bytesRead = progress.bytesRead;
+      if (expectedBytes <= bytesRead) {
+        progresses.remove(entry.getKey(), progress);
+      }
+      if (bytesRead != progress.lastDispatchedBytes) {
+        // Can be the same if it was recorded again while the last frame was being dispatched.
+        progress.lastDispatchedBytes = bytesRead;
+        progress.listener.onProgress(bytesRead, expectedBytes);
+      }
     }
   }
 
-  private boolean needsDispatch(String key, long current, long total, float granularity) {
-    if (granularity == 0 || current == 0 || total == current) {
-      return true;
+  /**
+   * Latest progress of a download. Written by the OkHttp thread reading the response and read on the main thread.
+   */
+  private static class Progress {
+    final GlideOkHttpProgressModule.UiProgressListener listener;
+    volatile long expectedBytes;
+    volatile long bytesRead;
+    volatile boolean dirty;
+    private long lastRecordedStep = -1;
+    private long lastDispatchedBytes = -1;
+
+    Progress(GlideOkHttpProgressModule.UiProgressListener listener) {
+      this.listener = listener;
     }
-    float percent = 100f * current / total;
-    long currentProgress = (long) (percent / granularity);
-    Long lastProgress = PROGRESSES.get(key);
-    if (lastProgress == null || currentProgress != lastProgress) {
-      PROGRESSES.put(key, currentProgress);
+
+    /**
+     * @return True if this progress needs to be dispatched.
+     */
+    boolean record(long current, long total) {
+      if (!needsDispatch(current, total, listener.getGranularityPercentage())) {
+        return false;
+      }
+      // Written before marking as dirty, so that they're visible to whoever sees it dirty.
+      expectedBytes = total;
+      bytesRead = current;
+      dirty = true;
       return true;
-    } else {
-      return false;
+    }
+
+    private boolean needsDispatch(long current, long total, float granularity) {
+      if (granularity == 0 || current == 0 || total <= current) {
+        return true;
+      }
+      float percent = 100f * current / total;
+      long currentStep = (long) (percent / granularity);
+      if (currentStep != lastRecordedStep) {
+        lastRecordedStep = currentStep;
+        return true;
+      } else {
+        return false;
+      }
+    }
+  }
+
+  private static class ChoreographerFrameScheduler implements FrameScheduler {
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    @Nullable private Choreographer.FrameCallback frameCallback;
+
+    @Override
+    public void scheduleNextFrame(Runnable onFrame) {
+      // Choreographer instances are per-thread, so the callback can only be posted from the main thread.
+      mainHandler.post(() -> {
+        if (frameCallback == null) {
+          frameCallback = frameTimeNanos -> onFrame.run();
+        }
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+      });
     }
   }
 }
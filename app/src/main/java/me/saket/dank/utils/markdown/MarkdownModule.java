@@ -1,19 +1,20 @@
 package me.saket.dank.utils.markdown;
 
 import android.app.Application;
+import android.os.Process;
 
 import androidx.core.content.ContextCompat;
 
-import com.nytimes.android.external.cache3.Cache;
-import com.nytimes.android.external.cache3.CacheBuilder;
-
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.R;
 import me.saket.dank.markdownhints.MarkdownHintOptions;
 import me.saket.dank.markdownhints.MarkdownSpanPool;
@@ -61,11 +62,40 @@ public class MarkdownModule {
 
   @Provides
   @Singleton
-  @Named("markwon_spans_renderer")
-  static Cache<String, CharSequence> markdownCache() {
-    return CacheBuilder.newBuilder()
-        .expireAfterAccess(1, TimeUnit.HOURS)
-        .build();
+  static MarkdownSpanCache markdownCache(Application appContext) {
+    long maxWeightKb = appContext.getResources().getInteger(R.integer.markdown_span_cache_max_size_kb);
+    return new MarkdownSpanCache(maxWeightKb * 1024);
+  }
+
+  @Provides
+  @Named("markdown_pre_rendering_parallelism")
+  static int markdownPreRenderingParallelism(Application appContext) {
+    return appContext.getResources().getInteger(R.integer.markdown_pre_rendering_parallelism);
+  }
+
+  @Provides
+  @Named("markdown_pre_rendering_max_depth")
+  static int markdownPreRenderingMaxDepth(Application appContext) {
+    return appContext.getResources().getInteger(R.integer.markdown_pre_rendering_max_depth);
+  }
+
+  /**
+   * Shared by all submission pages so that the number of threads parsing markdown in the
+   * background stays bounded. They run at background priority to stay out of the UI's way.
+   */
+  @Provides
+  @Singleton
+  @Named("markdown_pre_rendering")
+  static Scheduler markdownPreRenderingScheduler(@Named("markdown_pre_rendering_parallelism") int parallelism) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return Schedulers.from(Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+      }, "markdown-pre-rendering-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }));
   }
 
   @Provides
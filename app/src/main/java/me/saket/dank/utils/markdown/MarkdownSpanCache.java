@@ -0,0 +1,137 @@
+package me.saket.dank.utils.markdown;
+
+import android.content.ComponentCallbacks2;
+import android.text.Spanned;
+
+import com.nytimes.android.external.cache3.Cache;
+import com.nytimes.android.external.cache3.CacheBuilder;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Cache for parsed markdown, bounded by an estimate of the memory used by each
+ * parsed text and its spans rather than by the number of entries.
+ */
+public class MarkdownSpanCache {
+
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+  private static final int BYTES_PER_CHAR = 2;
+  private static final int BYTES_PER_SPAN = 48;
+
+  private final Cache<String, CharSequence> cache;
+  private final long maxWeightBytes;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong weightBytes = new AtomicLong();
+
+  public MarkdownSpanCache(long maxWeightBytes) {
+    this.maxWeightBytes = maxWeightBytes;
+    this.cache = CacheBuilder.newBuilder()
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .maximumWeight(maxWeightBytes)
+        .<String, CharSequence>weigher((markdown, parsed) -> {
+          int weight = weigh(markdown, parsed);
+          weightBytes.addAndGet(weight);
+          return weight;
+        })
+        .removalListener(notification -> {
+          //noinspection ConstantConditions
+          weightBytes.addAndGet(-weigh(notification.getKey(), notification.getValue()));
+          if (notification.wasEvicted()) {
+            evictionCount.incrementAndGet();
+          }
+        })
+        .build();
+  }
+
+  static int weigh(String markdown, CharSequence parsed) {
+    int spanCount = parsed instanceof Spanned
+        ? ((Spanned) parsed).getSpans(0, parsed.length(), Object.class).length
+        : 0;
+    return ENTRY_OVERHEAD_BYTES + (markdown.length() + parsed.length()) * BYTES_PER_CHAR + spanCount * BYTES_PER_SPAN;
+  }
+
+  public CharSequence get(String markdown, Callable<CharSequence> valueSeeder) throws ExecutionException {
+    CharSequence cached = cache.getIfPresent(markdown);
+    if (cached != null) {
+      hitCount.incrementAndGet();
+      return cached;
+    }
+    missCount.incrementAndGet();
+    return cache.get(markdown, valueSeeder);
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Frees memory in proportion to how badly the system needs it.
+   * See {@link ComponentCallbacks2#onTrimMemory(int)}.
+   */
+  public void onTrimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      cache.invalidateAll();
+
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      trimTo(maxWeightBytes / 2);
+    }
+  }
+
+  /**
+   * Entries are visited in no particular order, so this isn't LRU. That's fine because
+   * this is only used when the app is going into the background.
+   */
+  private void trimTo(long targetWeightBytes) {
+    Iterator<String> keys = cache.asMap().keySet().iterator();
+    while (weightBytes.get() > targetWeightBytes && keys.hasNext()) {
+      keys.next();
+      keys.remove();
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(hitCount.get(), missCount.get(), evictionCount.get(), cache.size(), weightBytes.get(), maxWeightBytes);
+  }
+
+  public void logStats() {
+    Timber.i("Markdown cache: %s", stats());
+  }
+
+  public static class Stats {
+    public final long hitCount;
+    public final long missCount;
+    public final long evictionCount;
+    public final long entryCount;
+    public final long weightBytes;
+    public final long maxWeightBytes;
+
+    Stats(long hitCount, long missCount, long evictionCount, long entryCount, long weightBytes, long maxWeightBytes) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.entryCount = entryCount;
+      this.weightBytes = weightBytes;
+      this.maxWeightBytes = maxWeightBytes;
+    }
+
+    public float hitRate() {
+      long requestCount = hitCount + missCount;
+      return requestCount == 0 ? 1f : (float) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "hits=%d, misses=%d, hitRate=%.2f, evictions=%d, entries=%d, weight=%dKB/%dKB",
+          hitCount, missCount, hitRate(), evictionCount, entryCount, weightBytes / 1024, maxWeightBytes / 1024);
+    }
+  }
+}
@@ -4,8 +4,6 @@ import android.text.SpannableStringBuilder;
 
 import androidx.annotation.VisibleForTesting;
 
-import com.nytimes.android.external.cache3.Cache;
-
 import net.dean.jraw.models.Comment;
 import net.dean.jraw.models.Message;
 import net.dean.jraw.models.Submission;
@@ -18,13 +16,10 @@ import org.commonmark.node.Visitor;
 import org.commonmark.parser.Parser;
 
 import java.util.Arrays;
-import java.util.Stack;
+import java.util.EnumSet;
 import java.util.concurrent.Callable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
 import io.reactivex.exceptions.Exceptions;
 import me.saket.dank.BuildConfig;
@@ -32,20 +27,16 @@ import me.saket.dank.markdownhints.MarkdownHintOptions;
 import me.saket.dank.reply.PendingSyncReply;
 import me.saket.dank.utils.Preconditions;
 import me.saket.dank.utils.markdown.Markdown;
+import me.saket.dank.utils.markdown.MarkdownSpanCache;
+import me.saket.dank.utils.markdown.markwon.RedditMarkdownPreprocessor.Fix;
 import ru.noties.markwon.SpannableBuilder;
 import ru.noties.markwon.SpannableConfiguration;
 import ru.noties.markwon.tasklist.TaskListExtension;
-import timber.log.Timber;
 
 public class MarkwonBasedMarkdownRenderer implements Markdown {
 
-  private static final Pattern LINK_MARKDOWN_PATTERN = Pattern.compile("\\[([^]]*)]\\(([^)\"]*)\\)");
-  private static final Pattern LINK_WITH_SPACE_MARKDOWN_PATTERN = Pattern.compile("\\[([^]]*)]\\s+\\(([^)\"]*)\\)");
-  private static final Pattern HEADING_WITHOUT_SPACE_MARKDOWN_PATTERN = Pattern.compile("(#{1,6})\\s{0}((?:(?!\\\\n).)*)");
-  private static final Pattern POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN = Pattern.compile("\\[([^]]*)]\\((.*?)\"+(.*?(?<!\\\\))\"+\\)");
-
   private final MarkdownHintOptions markdownOptions;
-  private final Cache<String, CharSequence> cache;
+  private final MarkdownSpanCache cache;
   private final Parser parser;
   private final SpannableConfiguration configuration;
 
@@ -55,7 +46,7 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
       AutoRedditLinkExtension autoRedditLinkExtension,
       EmptyListItemHandlerExtension emptyListItemHandlerExtension,
       MarkdownHintOptions markdownOptions,
-      @Named("markwon_spans_renderer") Cache<String, CharSequence> cache)
+      MarkdownSpanCache cache)
   {
     this.markdownOptions = markdownOptions;
     this.cache = cache;
@@ -73,19 +64,8 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
         .build();
   }
 
-  // TODO: it's important to call these typo-fixing methods in correct order.
-  // Write a test to ensure that. Ensure ordering and integration of all.
   private SpannableStringBuilder parseMarkdown(String markdown) {
-    // Convert '&lgt;' to '<', etc.
-    markdown = org.jsoup.parser.Parser.unescapeEntities(markdown, true);
-    markdown = fixInvalidTables(markdown);
-    markdown = fixInvalidHeadings(markdown);
-    markdown = removeSpaceBetweenLinkLabelAndUrl(markdown);
-    markdown = fixSpacesInLinkUrls(markdown);
-    markdown = fixInvalidSpoilers(markdown);
-
-    // WARNING: this should be at the end.
-    markdown = new SuperscriptMarkdownToHtml().convert(markdown);
+    markdown = new RedditMarkdownPreprocessor().process(markdown);
 
     // It's better **not** to re-use the visitor between multiple calls.
     SpannableBuilder builder = new SpannableBuilder();
@@ -100,10 +80,6 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
     Callable<CharSequence> valueSeeder = () -> parseMarkdown(markdown);
 
     try {
-      // TODO: remove.
-      if (BuildConfig.DEBUG) {
-        return valueSeeder.call();
-      }
       return cache.get(markdown, valueSeeder);
     } catch (Exception e) {
       // Should never happen.
@@ -180,148 +156,28 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
     cache.invalidateAll();
   }
 
-  /**
-   * Markwon needs at-least three dashes for table headers.
-   */
   @VisibleForTesting
   String fixInvalidTables(String markdown) {
-    try {
-      markdown = markdown
-          .replace(":--|", ":---|")
-          .replace("|:--:|", "|:---:|")
-          .replace("|:--", "|:---")
-          .replace("|--:", "|---:")
-          .replace("|-:", "|---:");
-    } catch (Throwable e) {
-      Timber.e(e, "Couldn't fix table syntax in: %s", markdown);
-    }
-    return markdown;
+    return new RedditMarkdownPreprocessor(EnumSet.of(Fix.TABLES)).process(markdown);
   }
 
-  /**
-   * Ensures a space between '#' and heading text.
-   */
   @VisibleForTesting
   String fixInvalidHeadings(String markdown) {
-    try {
-      Matcher matcher = HEADING_WITHOUT_SPACE_MARKDOWN_PATTERN.matcher(markdown);
-      while (matcher.find()) {
-        String heading = matcher.group(0);
-        String hashes = matcher.group(1);
-        String content = matcher.group(2).trim();
-        markdown = markdown.replace(heading, String.format("%s %s", hashes, content));
-      }
-    } catch (Throwable e) {
-      Timber.e(e, "Couldn't fix invalid headers in: %s", markdown);
-    }
-
-    return markdown;
+    return new RedditMarkdownPreprocessor(EnumSet.of(Fix.HEADINGS)).process(markdown);
   }
 
   @VisibleForTesting
   String removeSpaceBetweenLinkLabelAndUrl(String markdown) {
-    try {
-      Matcher matcher = LINK_WITH_SPACE_MARKDOWN_PATTERN.matcher(markdown);
-
-      while (matcher.find()) {
-        String linkText = matcher.group(1);
-        String linkUrl = matcher.group(2);
-
-        markdown = markdown.substring(0, matcher.start())
-            + String.format("[%s](%s)", linkText, linkUrl)
-            + markdown.substring(matcher.end());
-      }
-    } catch (Throwable e) {
-      Timber.e(e, "Couldn't remove spaces between link and url in: %s", markdown);
-    }
-
-    return markdown;
+    return new RedditMarkdownPreprocessor(EnumSet.of(Fix.SPACE_BETWEEN_LINK_LABEL_AND_URL)).process(markdown);
   }
 
   @VisibleForTesting
   String fixSpacesInLinkUrls(String markdown) {
-    try {
-      Matcher matcher = LINK_MARKDOWN_PATTERN.matcher(markdown);
-
-      while (matcher.find()) {
-        String linkText = matcher.group(1);
-        String linkUrl = matcher.group(2).trim().replaceAll("\\s", "%20");
-
-        markdown = markdown.substring(0, matcher.start())
-            + String.format("[%s](%s)", linkText, linkUrl)
-            + markdown.substring(matcher.end());
-      }
-    } catch (Throwable e) {
-      Timber.e(e, "Couldn't escape spaces in link url in: %s", markdown);
-    }
-
-    return markdown;
+    return new RedditMarkdownPreprocessor(EnumSet.of(Fix.SPACES_IN_LINK_URLS)).process(markdown);
   }
 
   @VisibleForTesting
   String fixInvalidSpoilers(String markdown) {
-    try {
-      Matcher matcher = POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN.matcher(markdown);
-
-      while (matcher.find()) {
-        String fullMatch = matcher.group(0);
-        String spoilerLabel = matcher.group(1);
-        String spoilerUrl = matcher.group(2).trim();
-        String spoilerContent = matcher.group(3);
-
-        if (!RedditSpoilerLinkVisitor.isValidSpoilerUrl(spoilerUrl)) {
-          // This will only match "/s", "#s", "# s ", "/ s ", /s ", and similar variations.
-          continue;
-        }
-
-        markdown = markdown.replace(fullMatch, String.format("[%s](/s \"%s\")", spoilerLabel, spoilerContent));
-      }
-    } catch (Throwable e) {
-      Timber.e(e, "Couldn't fix invalid spoilers in: %s", markdown);
-    }
-
-    return markdown;
-  }
-
-  /**
-   * commonmark-java does not recognize '^'. This replaces all '^' with {@code <sup>} tags.
-   */
-  @VisibleForTesting
-  static class SuperscriptMarkdownToHtml {
-    public String convert(String markdown) {
-      try {
-        Stack<Character> stack = new Stack<>();
-        StringBuilder builder = new StringBuilder(markdown.length());
-
-        for (int i = 0; i < markdown.length(); i++) {
-          char c = markdown.charAt(i);
-          char nextC = (i + 1) < markdown.length() ? markdown.charAt(i + 1) : Character.MIN_VALUE;
-
-          if (c == '^') {
-            stack.add(c);
-            builder.append("<sup>");
-          } else {
-            if (Character.isWhitespace(c) || (c == '\\' && nextC == 'n')) {
-              flush(stack, builder);
-            }
-            builder.append(c);
-          }
-        }
-
-        flush(stack, builder);
-        return builder.toString();
-
-      } catch (Throwable e) {
-        Timber.e(e, "Couldn't convert superscript markdown to html in: %s", markdown);
-        return markdown;
-      }
-    }
-
-    private void flush(Stack<Character> stack, StringBuilder builder) {
-      while (!stack.isEmpty()) {
-        stack.pop();
-        builder.append("</sup>");
-      }
-    }
+    return new RedditMarkdownPreprocessor(EnumSet.of(Fix.SPOILERS)).process(markdown);
   }
 }
@@ -0,0 +1,372 @@
+package me.saket.dank.utils.markdown.markwon;
+
+import org.jsoup.nodes.Entities;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Fixes Reddit's flavor of markdown so that commonmark can understand it. All fixes are
+ * applied in one linear pass over the text into a single StringBuilder. Html entities are
+ * decoded before that, in a separate pass that only runs if the text has any '&'.
+ * <p>
+ * Not thread-safe. Create one instance per call.
+ */
+class RedditMarkdownPreprocessor {
+
+  enum Fix {
+    /** Convert '&amp;lt;' to '<', etc. */
+    UNESCAPE_ENTITIES,
+
+    /** Markwon needs at-least three dashes for table headers. */
+    TABLES,
+
+    /** Ensures a space between '#' and heading text. */
+    HEADINGS,
+
+    /** "[label] (url)" -> "[label](url)". */
+    SPACE_BETWEEN_LINK_LABEL_AND_URL,
+
+    /** Trims link urls and escapes spaces inside them. */
+    SPACES_IN_LINK_URLS,
+
+    /** "[label](# s""content"")" -> "[label](/s "content")". */
+    SPOILERS,
+
+    /** commonmark-java does not recognize '^'. This replaces all '^' with {@code <sup>} tags. */
+    SUPERSCRIPTS
+  }
+
+  private static final int MAX_HEADING_LEVEL = 6;
+  private static final int MIN_TABLE_DELIMITER_DASHES = 3;
+  private static final int MAX_ENTITY_LENGTH = 32;
+
+  private final Set<Fix> fixes;
+  private StringBuilder output;
+  private int openSuperscripts;
+  private int nextClosingBracket;
+  private int nextUrlStart;
+  private int nextUrlEnd;
+  private int nextLineBreak;
+  private int failedSpoilerScanEnd;
+
+  RedditMarkdownPreprocessor() {
+    this(EnumSet.allOf(Fix.class));
+  }
+
+  RedditMarkdownPreprocessor(Set<Fix> fixes) {
+    this.fixes = fixes;
+  }
+
+  String process(String markdown) {
+    String text = fixes.contains(Fix.UNESCAPE_ENTITIES) && markdown.indexOf('&') != -1
+        ? unescapeEntities(markdown)
+        : markdown;
+
+    output = new StringBuilder(text.length() + 16);
+    openSuperscripts = 0;
+    nextClosingBracket = 0;
+    nextUrlEnd = 0;
+    nextLineBreak = 0;
+    failedSpoilerScanEnd = -1;
+
+    int length = text.length();
+    int i = 0;
+    boolean atLineStart = true;
+
+    while (i < length) {
+      char c = text.charAt(i);
+
+      if (atLineStart && (c == '|' || c == ':' || c == '-')) {
+        int lineEnd = lineEnd(text, i);
+        if (fixes.contains(Fix.TABLES) && isTableDelimiterRow(text, i, lineEnd)) {
+          appendTableDelimiterRow(text, i, lineEnd);
+          i = lineEnd;
+          atLineStart = false;
+          continue;
+        }
+      }
+
+      if (atLineStart && c == '#' && fixes.contains(Fix.HEADINGS)) {
+        int hashesEnd = i;
+        while (hashesEnd < length && text.charAt(hashesEnd) == '#') {
+          hashesEnd++;
+        }
+        int level = hashesEnd - i;
+        appendRange(text, i, hashesEnd);
+        if (level <= MAX_HEADING_LEVEL && hashesEnd < length && !Character.isWhitespace(text.charAt(hashesEnd))) {
+          append(' ', Character.MIN_VALUE);
+        }
+        i = hashesEnd;
+        atLineStart = false;
+        continue;
+      }
+
+      if (c == '[') {
+        int linkEnd = processLink(text, i);
+        if (linkEnd != -1) {
+          i = linkEnd;
+          atLineStart = false;
+          continue;
+        }
+      }
+
+      append(c, i + 1 < length ? text.charAt(i + 1) : Character.MIN_VALUE);
+      atLineStart = c == '\n';
+      i++;
+    }
+
+    closeSuperscripts();
+    return output.toString();
+  }
+
+  /**
+   * @return End index of the link if it was consumed, or -1 if nothing was consumed.
+   */
+  private int processLink(String text, int labelStart) {
+    // Remembered across links so that lots of '[' without a ']' don't make this quadratic.
+    if (nextClosingBracket != -1 && nextClosingBracket <= labelStart) {
+      nextClosingBracket = text.indexOf(']', labelStart + 1);
+      nextUrlStart = nextClosingBracket + 1;
+      if (nextClosingBracket != -1 && fixes.contains(Fix.SPACE_BETWEEN_LINK_LABEL_AND_URL)) {
+        while (nextUrlStart < text.length() && Character.isWhitespace(text.charAt(nextUrlStart))) {
+          nextUrlStart++;
+        }
+      }
+    }
+    int labelEnd = nextClosingBracket;
+    if (labelEnd == -1) {
+      return -1;
+    }
+
+    int urlStart = nextUrlStart;
+    if (urlStart >= text.length() || text.charAt(urlStart) != '(') {
+      return -1;
+    }
+    boolean hasSpaceBeforeUrl = urlStart != labelEnd + 1;
+
+    // Plain links, without a title. Links only move forward, so like the ']', the end of the
+    // url and the next line break are remembered instead of being scanned again for every '['.
+    if (nextUrlEnd != -1 && nextUrlEnd <= urlStart) {
+      nextUrlEnd = indexOfUrlEnd(text, urlStart + 1);
+    }
+    int urlEnd = nextUrlEnd;
+    if (urlEnd == -1) {
+      return -1;
+    }
+
+    if (text.charAt(urlEnd) == ')') {
+      boolean escapeUrl = fixes.contains(Fix.SPACES_IN_LINK_URLS);
+      if (!escapeUrl && !hasSpaceBeforeUrl) {
+        return -1;
+      }
+      appendRange(text, labelStart, labelEnd + 1);
+      append('(', Character.MIN_VALUE);
+      if (escapeUrl) {
+        appendEscapedUrl(text, urlStart + 1, urlEnd);
+      } else {
+        appendRange(text, urlStart + 1, urlEnd);
+      }
+      append(')', Character.MIN_VALUE);
+      return urlEnd + 1;
+    }
+
+    // Links with a title. These are spoilers if their url is something like "/s".
+    if (!fixes.contains(Fix.SPOILERS) || hasSpaceBeforeUrl) {
+      return -1;
+    }
+    int firstQuote = urlEnd;
+    if (nextLineBreak != -1 && nextLineBreak < urlStart) {
+      nextLineBreak = text.indexOf('\n', urlStart);
+    }
+    if (nextLineBreak != -1 && nextLineBreak < firstQuote) {
+      return -1;
+    }
+
+    int contentStart = firstQuote;
+    while (contentStart < text.length() && text.charAt(contentStart) == '"') {
+      contentStart++;
+    }
+
+    // The rest of this line was already scanned without finding the end of a spoiler.
+    if (contentStart < failedSpoilerScanEnd) {
+      return -1;
+    }
+
+    // Find the earliest run of quotes that's followed by ')' and not preceded by '\'.
+    int quote = contentStart;
+    for (; quote < text.length() && text.charAt(quote) != '\n'; quote++) {
+      if (text.charAt(quote) != '"' || (quote > contentStart && text.charAt(quote - 1) == '\\')) {
+        continue;
+      }
+      int quotesEnd = quote;
+      while (quotesEnd < text.length() && text.charAt(quotesEnd) == '"') {
+        quotesEnd++;
+      }
+      if (quotesEnd >= text.length() || text.charAt(quotesEnd) != ')') {
+        // Quotes that follow in this run are preceded by a quote, so they won't match either.
+        quote = quotesEnd - 1;
+        continue;
+      }
+
+      String spoilerUrl = text.substring(urlStart + 1, firstQuote).trim();
+      if (RedditSpoilerLinkVisitor.isValidSpoilerUrl(spoilerUrl)) {
+        appendRange(text, labelStart, labelEnd + 1);
+        appendRange("(/s \"", 0, 5);
+        appendRange(text, contentStart, quote);
+        appendRange("\")", 0, 2);
+      } else {
+        // Consume the link as-is so that it doesn't get matched again.
+        appendRange(text, labelStart, quotesEnd + 1);
+      }
+      return quotesEnd + 1;
+    }
+    failedSpoilerScanEnd = quote;
+    return -1;
+  }
+
+  private static int indexOfUrlEnd(String text, int start) {
+    for (int i = start; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == ')' || c == '"') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void appendEscapedUrl(String text, int start, int end) {
+    while (start < end && Character.isWhitespace(text.charAt(start))) {
+      start++;
+    }
+    while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+      end--;
+    }
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        append('%', Character.MIN_VALUE);
+        append('2', Character.MIN_VALUE);
+        append('0', Character.MIN_VALUE);
+      } else {
+        append(c, i + 1 < end ? text.charAt(i + 1) : Character.MIN_VALUE);
+      }
+    }
+  }
+
+  private static int lineEnd(String text, int start) {
+    int lineEnd = text.indexOf('\n', start);
+    return lineEnd == -1 ? text.length() : lineEnd;
+  }
+
+  /**
+   * Something like "|:--|--:|-|".
+   */
+  private static boolean isTableDelimiterRow(String text, int start, int end) {
+    boolean hasPipe = false;
+    boolean hasDash = false;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c == '|') {
+        hasPipe = true;
+      } else if (c == '-') {
+        hasDash = true;
+      } else if (c != ':' && c != ' ' && c != '\t') {
+        return false;
+      }
+    }
+    return hasPipe && hasDash;
+  }
+
+  private void appendTableDelimiterRow(String text, int start, int end) {
+    int i = start;
+    while (i < end) {
+      char c = text.charAt(i);
+      if (c == '-') {
+        int dashesEnd = i;
+        while (dashesEnd < end && text.charAt(dashesEnd) == '-') {
+          dashesEnd++;
+        }
+        int dashCount = Math.max(dashesEnd - i, MIN_TABLE_DELIMITER_DASHES);
+        for (int d = 0; d < dashCount; d++) {
+          output.append('-');
+        }
+        i = dashesEnd;
+      } else {
+        append(c, Character.MIN_VALUE);
+        i++;
+      }
+    }
+  }
+
+  private void appendRange(CharSequence text, int start, int end) {
+    for (int i = start; i < end; i++) {
+      append(text.charAt(i), i + 1 < text.length() ? text.charAt(i + 1) : Character.MIN_VALUE);
+    }
+  }
+
+  /**
+   * Superscripts opened by '^' run until the next whitespace or a literal "\n".
+   */
+  private void append(char c, char nextC) {
+    if (fixes.contains(Fix.SUPERSCRIPTS)) {
+      if (c == '^') {
+        openSuperscripts++;
+        output.append("<sup>");
+        return;
+      }
+      if (Character.isWhitespace(c) || (c == '\\' && nextC == 'n')) {
+        closeSuperscripts();
+      }
+    }
+    output.append(c);
+  }
+
+  private void closeSuperscripts() {
+    for (; openSuperscripts > 0; openSuperscripts--) {
+      output.append("</sup>");
+    }
+  }
+
+  /**
+   * Only handles entities that are terminated with a ';', which is how Reddit escapes them.
+   */
+  static String unescapeEntities(String text) {
+    StringBuilder builder = new StringBuilder(text.length());
+    int i = 0;
+    while (i < text.length()) {
+      char c = text.charAt(i);
+      int semicolon = c == '&' ? text.indexOf(';', i + 1) : -1;
+
+      if (semicolon != -1 && semicolon - i <= MAX_ENTITY_LENGTH) {
+        String decoded = decodeEntity(text.substring(i + 1, semicolon));
+        if (decoded != null) {
+          builder.append(decoded);
+          i = semicolon + 1;
+          continue;
+        }
+      }
+      builder.append(c);
+      i++;
+    }
+    return builder.toString();
+  }
+
+  private static String decodeEntity(String name) {
+    if (name.isEmpty()) {
+      return null;
+    }
+    if (name.charAt(0) == '#') {
+      try {
+        boolean isHex = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X');
+        int codePoint = isHex
+            ? Integer.parseInt(name.substring(2), 16)
+            : Integer.parseInt(name.substring(1));
+        return new String(Character.toChars(codePoint));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+    return Entities.isNamedEntity(name) ? Entities.getByName(name) : null;
+  }
+}
@@ -0,0 +1,146 @@
+package me.saket.dank.utils.okhttp;
+
+import androidx.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Caching rules for third-party APIs that don't send useful cache headers. Requires an
+ * {@link okhttp3.Cache}. Revalidation of stale responses using their ETags, with
+ * If-None-Match, is done by the cache itself.
+ */
+public class HttpCachePolicies {
+
+  private static final long MAX_ERROR_BODY_BYTES = 64 * 1024;
+
+  @AutoValue
+  public abstract static class Policy {
+    abstract String host();
+
+    abstract String pathPrefix();
+
+    /**
+     * How long a response can be used without revalidating it, unless the server asked for longer.
+     */
+    abstract long maxAgeSeconds();
+
+    /**
+     * How long after going stale a response can still be used when the server can't be reached.
+     */
+    abstract long staleIfErrorSeconds();
+
+    public static Policy create(String host, String pathPrefix, long maxAge, long staleIfError, TimeUnit unit) {
+      return new AutoValue_HttpCachePolicies_Policy(host, pathPrefix, unit.toSeconds(maxAge), unit.toSeconds(staleIfError));
+    }
+  }
+
+  private final List<Policy> policies;
+
+  public HttpCachePolicies(List<Policy> policies) {
+    this.policies = policies;
+  }
+
+  @Nullable
+  private Policy policyFor(Request request) {
+    if (!"GET".equals(request.method())) {
+      return null;
+    }
+    for (Policy policy : policies) {
+      if (policy.host().equals(request.url().host()) && request.url().encodedPath().startsWith(policy.pathPrefix())) {
+        return policy;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds {@link Policy#maxAgeSeconds()} to responses. Should be added using
+   * {@link okhttp3.OkHttpClient.Builder#addNetworkInterceptor(Interceptor)} so that the cache sees it.
+   */
+  public Interceptor maxAgeInterceptor() {
+    return chain -> {
+      Request request = chain.request();
+      Response response = chain.proceed(request);
+
+      Policy policy = policyFor(request);
+      // 304s are included because their headers replace those of the cached response.
+      if (policy == null || !(response.isSuccessful() || response.code() == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+        return response;
+      }
+
+      CacheControl serverCacheControl = response.cacheControl();
+      if (serverCacheControl.noStore() || serverCacheControl.maxAgeSeconds() > policy.maxAgeSeconds()) {
+        return response;
+      }
+      return response.newBuilder()
+          .removeHeader("Pragma")
+          .header("Cache-Control", "max-age=" + policy.maxAgeSeconds())
+          .build();
+    };
+  }
+
+  /**
+   * Serves stale responses for up to {@link Policy#staleIfErrorSeconds()} when the network fails or
+   * the server returns a 5xx error. Should be added using {@link okhttp3.OkHttpClient.Builder#addInterceptor(Interceptor)}.
+   */
+  public Interceptor staleIfErrorInterceptor() {
+    return chain -> {
+      Request request = chain.request();
+      Policy policy = policyFor(request);
+      if (policy == null || policy.staleIfErrorSeconds() == 0) {
+        return chain.proceed(request);
+      }
+
+      Response response;
+      try {
+        response = chain.proceed(request);
+      } catch (IOException e) {
+        Response staleResponse = staleResponse(chain, request, policy);
+        if (staleResponse != null) {
+          return staleResponse;
+        }
+        throw e;
+      }
+
+      if (response.code() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+        // The call can't proceed again while a response body is open, so the error
+        // is copied before closing it in case there's nothing in the cache either.
+        Response errorResponse = response.newBuilder()
+            .body(response.peekBody(MAX_ERROR_BODY_BYTES))
+            .build();
+        response.close();
+
+        Response staleResponse = staleResponse(chain, request, policy);
+        return staleResponse != null ? staleResponse : errorResponse;
+      }
+      return response;
+    };
+  }
+
+  @Nullable
+  private static Response staleResponse(Interceptor.Chain chain, Request request, Policy policy) throws IOException {
+    CacheControl cacheOnly = new CacheControl.Builder()
+        .onlyIfCached()
+        .maxStale((int) policy.staleIfErrorSeconds(), TimeUnit.SECONDS)
+        .build();
+
+    // Any earlier response must be closed by now, or OkHttp refuses to proceed.
+    Response cachedResponse = chain.proceed(request.newBuilder().cacheControl(cacheOnly).build());
+    if (cachedResponse.code() == HttpURLConnection.HTTP_GATEWAY_TIMEOUT) {
+      // Nothing usable in the cache.
+      cachedResponse.close();
+      return null;
+    }
+    return cachedResponse;
+  }
+}
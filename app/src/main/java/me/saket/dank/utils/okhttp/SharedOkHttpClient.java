@@ -0,0 +1,39 @@
+package me.saket.dank.utils.okhttp;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * The one {@link OkHttpClient} that all HTTP clients in the app are derived from using
+ * {@link OkHttpClient#newBuilder()}. Derived clients share its {@link ConnectionPool} and
+ * {@link Dispatcher}, so Glide, Retrofit, JRAW and the link unfurler reuse each other's
+ * connections to the same hosts instead of each doing their own TCP and TLS handshakes.
+ */
+public class SharedOkHttpClient {
+
+  static final int MAX_IDLE_CONNECTIONS = 10;
+  static final int KEEP_ALIVE_MINUTES = 5;
+  static final int MAX_REQUESTS = 64;
+
+  /**
+   * Images of a page mostly come from a handful of hosts (i.redd.it, preview.redd.it,
+   * i.imgur.com). Keeps one of them from using up all of {@link #MAX_REQUESTS}.
+   */
+  static final int MAX_REQUESTS_PER_HOST = 6;
+
+  public static OkHttpClient create(int connectTimeoutSeconds, int readTimeoutSeconds) {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(MAX_REQUESTS);
+    dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+    return new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        .dispatcher(dispatcher)
+        .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+        .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+        .build();
+  }
+}
@@ -11,26 +11,27 @@ import android.text.format.DateUtils;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 
-import net.dean.jraw.models.Identifiable;
-import net.dean.jraw.models.VoteDirection;
+import java.io.IOException;
 
 import javax.inject.Inject;
 
 import io.reactivex.Completable;
-import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.DankJobService;
 import me.saket.dank.data.ResolvedError;
 import me.saket.dank.di.Dank;
+import me.saket.dank.reddit.RequestPriority;
 import me.saket.dank.ui.compose.SimpleIdentifiable;
 import timber.log.Timber;
 
 /**
- * Used for re-trying failed vote attempts.
+ * Used for re-trying failed vote attempts. Failed votes are queued in {@link VotingManager}'s
+ * outbox and a single job sends all of them, no matter how many votes failed.
  */
 public class VoteJobService extends DankJobService {
 
+  // Extras of jobs that were scheduled for individual votes before the outbox existed.
   private static final String KEY_VOTABLE_JSON = "votableJson";
   private static final String KEY_VOTE_DIRECTION = "voteDirection";
 
@@ -38,26 +39,23 @@ public class VoteJobService extends DankJobService {
   @Inject VotingManager votingManager;
 
   /**
-   * Schedule a voting attempt whenever JobScheduler deems it fit.
+   * Schedule sending of unsent votes whenever JobScheduler deems it fit. Does nothing if it's already scheduled.
    */
-  public static void scheduleRetry(Context context, Identifiable votableContribution, VoteDirection voteDirection, Moshi moshi) {
-    PersistableBundle extras = new PersistableBundle(2);
-    extras.putString(KEY_VOTE_DIRECTION, voteDirection.name());
-
-    JsonAdapter<SimpleIdentifiable> adapter = moshi.adapter(SimpleIdentifiable.class);
-    String votableJson = adapter.toJson(SimpleIdentifiable.Companion.from(votableContribution));
-    extras.putString(KEY_VOTABLE_JSON, votableJson);
+  public static void scheduleSync(Context context) {
+    JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    //noinspection ConstantConditions
+    for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+      if (pendingJob.getId() == ID_VOTE) {
+        return;
+      }
+    }
 
-    JobInfo retryJobInfo = new JobInfo.Builder(ID_VOTE + votableContribution.hashCode(), new ComponentName(context, VoteJobService.class))
+    JobInfo syncJobInfo = new JobInfo.Builder(ID_VOTE, new ComponentName(context, VoteJobService.class))
         .setMinimumLatency(5 * DateUtils.MINUTE_IN_MILLIS)
         .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
         .setPersisted(true)
-        .setExtras(extras)
         .build();
-
-    JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
-    //noinspection ConstantConditions
-    jobScheduler.schedule(retryJobInfo);
+    jobScheduler.schedule(syncJobInfo);
   }
 
   @Override
@@ -68,24 +66,8 @@ public class VoteJobService extends DankJobService {
 
   @Override
   public JobStartCallback onStartJob2(JobParameters params) {
-    //noinspection ConstantConditions
-    VoteDirection voteDirection = VoteDirectionX.valueOfWithMigration(params.getExtras().getString(KEY_VOTE_DIRECTION));
-
-    JsonAdapter<SimpleIdentifiable> jsonAdapter = moshi.adapter(SimpleIdentifiable.class);
-    String votableJson = params.getExtras().getString(KEY_VOTABLE_JSON);
-
-    //noinspection ConstantConditions
-    Single.fromCallable(() -> jsonAdapter.fromJson(votableJson))
-        .flatMapCompletable(votableContribution -> {
-          if (!votingManager.isVotePending(votableContribution)) {
-            // Looks like the pending vote was cleared upon refreshing data from remote.
-            Timber.w("Job is stale because contribution no longer has a pending vote: %s", votableContribution);
-            return Completable.complete();
-
-          } else {
-            return votingManager.saveAndSend(Vote.create(votableContribution, voteDirection));
-          }
-        })
+    Completable.fromAction(() -> migrateLegacyRetry(params.getExtras()))
+        .andThen(RequestPriority.background(votingManager.syncUnsentVotes()))
         .ambWith(lifecycleOnDestroy().ignoreElements())
         .subscribeOn(Schedulers.io())
         .observeOn(AndroidSchedulers.mainThread())
@@ -98,7 +80,7 @@ public class VoteJobService extends DankJobService {
               boolean needsReschedule;
 
               if (VotingManager.isTooManyRequestsError(error)) {
-                Timber.i("Received 429-too-many-requests. Will retry vote later.");
+                Timber.i("Received 429-too-many-requests. Will retry votes later.");
                 needsReschedule = true;
 
               } else {
@@ -115,6 +97,20 @@ public class VoteJobService extends DankJobService {
     return JobStartCallback.runningInBackground();
   }
 
+  private void migrateLegacyRetry(PersistableBundle extras) throws IOException {
+    String votableJson = extras.getString(KEY_VOTABLE_JSON);
+    if (votableJson == null) {
+      return;
+    }
+
+    JsonAdapter<SimpleIdentifiable> jsonAdapter = moshi.adapter(SimpleIdentifiable.class);
+    SimpleIdentifiable votableContribution = jsonAdapter.fromJson(votableJson);
+    //noinspection ConstantConditions
+    if (votingManager.isVotePending(votableContribution)) {
+      votingManager.addToUnsentVotes(votableContribution);
+    }
+  }
+
   @Override
   public JobStopCallback onStopJob2() {
     return JobStopCallback.rescheduleRequired();
@@ -6,7 +6,8 @@ import android.os.Looper;
 
 import androidx.annotation.CheckResult;
 
-import com.squareup.moshi.Moshi;
+import com.jakewharton.rxrelay2.PublishRelay;
+import com.jakewharton.rxrelay2.Relay;
 
 import net.dean.jraw.ApiException;
 import net.dean.jraw.http.NetworkException;
@@ -16,7 +17,13 @@ import net.dean.jraw.models.Submission;
 import net.dean.jraw.models.Votable;
 import net.dean.jraw.models.VoteDirection;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -24,11 +31,16 @@ import javax.inject.Named;
 import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.di.Dank;
 import me.saket.dank.reddit.Reddit;
+import me.saket.dank.ui.compose.SimpleIdentifiable;
+import me.saket.dank.utils.TokenBucket;
 import timber.log.Timber;
 
+import static io.reactivex.android.schedulers.AndroidSchedulers.mainThread;
+
 /**
  * Handles voting on {@link Submission Submissions} & {@link Comment Comments} and storing their values
  * locally, until they're refreshed from remote again.
@@ -41,11 +53,29 @@ public class VotingManager {
   private static final int HTTP_CODE_CONTRIBUTION_DELETED = 404;
   public static final int HTTP_CODE_TOO_MANY_REQUESTS = 429;
   private static final String KEY_PENDING_VOTE_ = "pendingVote_";
+  private static final String KEY_UNSENT_VOTE_ = "unsentVote_";
+  private static final String HEADER_RATE_LIMIT_RESET = "X-Ratelimit-Reset";
+  private static final long DEFAULT_RATE_LIMIT_RESET_SECONDS = 60;
 
   private final Application appContext;
   private final Lazy<Reddit> reddit;
   private final Lazy<SharedPreferences> sharedPrefs;
-  private final Lazy<Moshi> moshi;
+
+  /**
+   * Pending votes by contribution full-names. Read from {@link #sharedPrefs} once and written
+   * through to it, so that looking up votes while constructing rows doesn't touch shared prefs.
+   */
+  private final Map<String, VoteDirection> pendingVotes = new ConcurrentHashMap<>();
+  private final Object pendingVotesLoadLock = new Object();
+  private volatile boolean pendingVotesLoaded;
+  private final Relay<String> changedFullNames = PublishRelay.<String>create().toSerialized();
+
+  /**
+   * Full-names of contributions whose pending votes couldn't be sent yet. Votes on the same
+   * contribution collapse into one entry, which gets sent with the latest pending direction.
+   */
+  private final Set<String> unsentVotes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  private final TokenBucket unsentVotesRateLimiter = new TokenBucket(5, 1f);
 
   /**
    * @param appContext Used for scheduling {@link VoteJobService}.
@@ -54,23 +84,42 @@ public class VotingManager {
   public VotingManager(
       Application appContext,
       Lazy<Reddit> reddit,
-      @Named("votes") Lazy<SharedPreferences> sharedPrefs,
-      Lazy<Moshi> moshi)
+      @Named("votes") Lazy<SharedPreferences> sharedPrefs)
   {
     this.appContext = appContext;
     this.reddit = reddit;
     this.sharedPrefs = sharedPrefs;
-    this.moshi = moshi;
   }
 
+  /**
+   * Emits once immediately and then on the main thread every time any pending vote changes.
+   */
   @CheckResult
   public Observable<Object> streamChanges() {
-    return Observable.create(emitter -> {
-      SharedPreferences.OnSharedPreferenceChangeListener changeListener = (sharedPreferences, key) -> emitter.onNext(key);
-      sharedPrefs.get().registerOnSharedPreferenceChangeListener(changeListener);
-      emitter.setCancellable(() -> sharedPrefs.get().unregisterOnSharedPreferenceChangeListener(changeListener));
-      changeListener.onSharedPreferenceChanged(sharedPrefs.get(), "");    // Initial value.
-    });
+    return changedFullNames
+        .observeOn(mainThread())
+        .cast(Object.class)
+        .startWith("");   // Initial value.
+  }
+
+  /**
+   * Emits once immediately and then on the main thread every time the pending vote of <var>contributionFullName</var> changes.
+   */
+  @CheckResult
+  public Observable<Object> streamChanges(String contributionFullName) {
+    return changedFullNames
+        .filter(fullName -> fullName.equals(contributionFullName))
+        .observeOn(mainThread())
+        .cast(Object.class)
+        .startWith(contributionFullName);   // Initial value.
+  }
+
+  /**
+   * Full-names of contributions whose pending votes changed.
+   */
+  @CheckResult
+  public Observable<String> streamChangedFullNames() {
+    return changedFullNames;
   }
 
   @CheckResult
@@ -78,10 +127,15 @@ public class VotingManager {
     // Mark the vote as pending immediately so that getPendingVote() can be used immediately after calling vote().
     markVoteAsPending(vote.contributionToVote(), vote.direction());
 
+    String fullName = vote.contributionToVote().getFullName();
     return vote.sendToRemote(reddit.get())
 //        .doOnSubscribe(o -> Timber.i("Voting for %s…", contributionToVote.fullName()()))
-//        .doOnComplete(() -> Timber.i("Voting done for %s", contributionToVote.fullName()()))
-        ;
+        .doOnComplete(() -> {
+          // A newer vote on the same contribution may still be waiting in the outbox.
+          if (pendingVotes.get(fullName) == vote.direction()) {
+            removeFromUnsentVotes(fullName);
+          }
+        });
   }
 
   /**
@@ -99,7 +153,11 @@ public class VotingManager {
           if (isTooManyRequestsError(error) || !Dank.errors().resolve(error).isUnknown()) {
             // If unknown, this will most probably be network/Reddit errors. Swallow the error and attempt retries later.
             Timber.i("Voting failed for %s. Will retry again later. Error: %s", vote.contributionToVote().getFullName(), error.getMessage());
-            VoteJobService.scheduleRetry(appContext, vote.contributionToVote(), vote.direction(), moshi.get());
+            if (isTooManyRequestsError(error)) {
+              pauseRateLimiter(error);
+            }
+            addToUnsentVotes(vote.contributionToVote());
+            VoteJobService.scheduleSync(appContext);
             shouldComplete = true;
 
           } else {
@@ -111,6 +169,85 @@ public class VotingManager {
         });
   }
 
+  /**
+   * Queue <var>contribution</var>'s pending vote for sending later by {@link #syncUnsentVotes()}.
+   */
+  public void addToUnsentVotes(Identifiable contribution) {
+    loadPendingVotesIfNeeded();
+    if (unsentVotes.add(contribution.getFullName())) {
+      sharedPrefs.get().edit().putBoolean(KEY_UNSENT_VOTE_ + contribution.getFullName(), true).apply();
+    }
+  }
+
+  private void removeFromUnsentVotes(String contributionFullName) {
+    if (unsentVotes.remove(contributionFullName)) {
+      sharedPrefs.get().edit().remove(KEY_UNSENT_VOTE_ + contributionFullName).apply();
+    }
+  }
+
+  public boolean hasUnsentVotes() {
+    loadPendingVotesIfNeeded();
+    return !unsentVotes.isEmpty();
+  }
+
+  /**
+   * Sends queued votes one after another, as fast as {@link #unsentVotesRateLimiter} allows. Stops
+   * at the first error that isn't specific to a contribution, leaving the rest queued.
+   * <p>
+   * Votes that get queued while this is running are sent too. They can't schedule another
+   * {@link VoteJobService} run because the running job still counts as pending.
+   */
+  @CheckResult
+  public Completable syncUnsentVotes() {
+    return Completable.defer(() -> {
+      loadPendingVotesIfNeeded();
+      return Observable.fromIterable(new ArrayList<>(unsentVotes))
+          .concatMapCompletable(fullName -> {
+            VoteDirection direction = pendingVotes.get(fullName);
+            if (direction == null) {
+              // Looks like the pending vote was cleared upon refreshing data from remote.
+              Timber.w("Dropping unsent vote because contribution no longer has a pending vote: %s", fullName);
+              removeFromUnsentVotes(fullName);
+              return Completable.complete();
+            }
+
+            return unsentVotesRateLimiter.acquire(Schedulers.io())
+                .andThen(reddit.get().loggedInUser().vote(SimpleIdentifiable.Companion.from(fullName), direction))
+                .doOnComplete(() -> {
+                  if (pendingVotes.get(fullName) == direction) {
+                    removeFromUnsentVotes(fullName);
+                  }
+                })
+                .onErrorResumeNext(error -> {
+                  if (isHttpCode(error, HTTP_CODE_CONTRIBUTION_DELETED)) {
+                    removeFromUnsentVotes(fullName);
+                    return Completable.complete();
+                  }
+                  if (isTooManyRequestsError(error)) {
+                    pauseRateLimiter(error);
+                  }
+                  return Completable.error(error);
+                });
+          })
+          .andThen(Completable.defer(() -> unsentVotes.isEmpty() ? Completable.complete() : syncUnsentVotes()));
+    });
+  }
+
+  private void pauseRateLimiter(Throwable tooManyRequestsError) {
+    long resetSeconds = DEFAULT_RATE_LIMIT_RESET_SECONDS;
+    if (tooManyRequestsError instanceof NetworkException) {
+      String resetHeader = ((NetworkException) tooManyRequestsError).getRes().getRaw().header(HEADER_RATE_LIMIT_RESET);
+      if (resetHeader != null) {
+        try {
+          resetSeconds = (long) Double.parseDouble(resetHeader);
+        } catch (NumberFormatException e) {
+          Timber.w("Invalid %s header: %s", HEADER_RATE_LIMIT_RESET, resetHeader);
+        }
+      }
+    }
+    unsentVotesRateLimiter.pauseFor(resetSeconds, TimeUnit.SECONDS);
+  }
+
   /**
    * TODO: Remove pending votes for comments.
    * Assuming the server as the source of truth, remove pending vote for submissions that were fetched from remote.
@@ -123,32 +260,62 @@ public class VotingManager {
             "Expected to be called on a background thread but was " + Thread.currentThread().getName());
       }
 
+      loadPendingVotesIfNeeded();
+
       SharedPreferences.Editor sharedPrefsEditor = sharedPrefs.get().edit();
+      List<String> removedFullNames = new ArrayList<>();
       for (Submission submission : submissionsFromRemote) {
-        if (isVotePending(submission)) {
+        if (pendingVotes.remove(submission.getFullName()) != null) {
           //Timber.i("Removing stale pending vote for %s", ((Submission) submission).getTitle());
           sharedPrefsEditor.remove(keyFor(submission));
+          removedFullNames.add(submission.getFullName());
+        }
+      }
+      if (!removedFullNames.isEmpty()) {
+        sharedPrefsEditor.apply();
+        for (String fullName : removedFullNames) {
+          changedFullNames.accept(fullName);
         }
       }
-      sharedPrefsEditor.apply();
     });
   }
 
   public <T extends Votable & Identifiable> VoteDirection getPendingOrDefaultVote(T votableContribution, VoteDirection defaultValue) {
-    String voteEnumString = sharedPrefs.get().getString(keyFor(votableContribution), defaultValue.name());
-    return VoteDirectionX.valueOfWithMigration(voteEnumString);
+    loadPendingVotesIfNeeded();
+    VoteDirection pendingVote = pendingVotes.get(votableContribution.getFullName());
+    return pendingVote != null ? pendingVote : defaultValue;
   }
 
-//  public boolean isVotePending(Identifiable votableContribution) {
-//    return sharedPrefs.get().contains(keyFor(votableContribution));
-//  }
-
   public boolean isVotePending(Identifiable identifiable) {
-    return sharedPrefs.get().contains(keyFor(identifiable));
+    loadPendingVotesIfNeeded();
+    return pendingVotes.containsKey(identifiable.getFullName());
   }
 
   private void markVoteAsPending(Identifiable votableContribution, VoteDirection voteDirection) {
+    loadPendingVotesIfNeeded();
+    pendingVotes.put(votableContribution.getFullName(), voteDirection);
     sharedPrefs.get().edit().putString(keyFor(votableContribution), voteDirection.name()).apply();
+    changedFullNames.accept(votableContribution.getFullName());
+  }
+
+  private void loadPendingVotesIfNeeded() {
+    if (pendingVotesLoaded) {
+      return;
+    }
+    synchronized (pendingVotesLoadLock) {
+      if (pendingVotesLoaded) {
+        return;
+      }
+      for (Map.Entry<String, ?> entry : sharedPrefs.get().getAll().entrySet()) {
+        if (entry.getKey().startsWith(KEY_PENDING_VOTE_) && entry.getValue() instanceof String) {
+          String fullName = entry.getKey().substring(KEY_PENDING_VOTE_.length());
+          pendingVotes.put(fullName, VoteDirectionX.valueOfWithMigration((String) entry.getValue()));
+        } else if (entry.getKey().startsWith(KEY_UNSENT_VOTE_)) {
+          unsentVotes.add(entry.getKey().substring(KEY_UNSENT_VOTE_.length()));
+        }
+      }
+      pendingVotesLoaded = true;
+    }
   }
 
   @CheckResult
@@ -157,10 +324,19 @@ public class VotingManager {
       throw new IllegalStateException();
     }
 
-    return Completable.fromAction(() ->
-        // VotingManager uses a dedicated shared prefs file so we can safely clear everything.
-        sharedPrefs.get().edit().clear().apply()
-    );
+    return Completable.fromAction(() -> {
+      loadPendingVotesIfNeeded();
+      List<String> removedFullNames = new ArrayList<>(pendingVotes.keySet());
+      pendingVotes.clear();
+      unsentVotes.clear();
+
+      // VotingManager uses a dedicated shared prefs file so we can safely clear everything.
+      sharedPrefs.get().edit().clear().apply();
+
+      for (String fullName : removedFullNames) {
+        changedFullNames.accept(fullName);
+      }
+    });
   }
 
   /**
@@ -0,0 +1,87 @@
+package me.saket.dank.cache
+
+import com.google.common.truth.Truth.assertThat
+import me.saket.dank.data.CachePreFillThing
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class CachePreFillLedgerTest {
+
+  private val dao = FakeCachePreFillDao()
+  private val ttlMillis = mapOf(
+      CachePreFillThing.COMMENTS to TimeUnit.HOURS.toMillis(2),
+      CachePreFillThing.IMAGES to TimeUnit.HOURS.toMillis(24))
+
+  private fun ledger() = CachePreFillLedger({ dao }, ttlMillis, 100)
+
+  @Test
+  fun `remember pre-filled things across instances`() {
+    ledger().markPreFilled("t3_1", CachePreFillThing.COMMENTS)
+
+    val restoredLedger = ledger()
+    assertThat(restoredLedger.isFresh("t3_1", CachePreFillThing.COMMENTS)).isFalse()
+
+    restoredLedger.load().blockingAwait()
+    assertThat(restoredLedger.isFresh("t3_1", CachePreFillThing.COMMENTS)).isTrue()
+    assertThat(restoredLedger.isFresh("t3_1", CachePreFillThing.IMAGES)).isFalse()
+  }
+
+  @Test
+  fun `treat things older than their ttl as stale`() {
+    val threeHoursAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(3)
+    dao.save(CachedPreFill("t3_1", CachePreFillThing.COMMENTS, threeHoursAgo))
+    dao.save(CachedPreFill("t3_1", CachePreFillThing.IMAGES, threeHoursAgo))
+
+    val ledger = ledger()
+    ledger.load().blockingAwait()
+
+    assertThat(ledger.isFresh("t3_1", CachePreFillThing.COMMENTS)).isFalse()
+    assertThat(ledger.isFresh("t3_1", CachePreFillThing.IMAGES)).isTrue()
+  }
+
+  @Test
+  fun `delete entries that have expired for every thing`() {
+    val now = System.currentTimeMillis()
+    dao.save(CachedPreFill("t3_old", CachePreFillThing.IMAGES, now - TimeUnit.HOURS.toMillis(25)))
+    dao.save(CachedPreFill("t3_new", CachePreFillThing.COMMENTS, now - TimeUnit.HOURS.toMillis(3)))
+
+    ledger().recycleExpired().test().assertValue(1)
+    assertThat(dao.preFills().map { it.submissionFullName }).containsExactly("t3_new")
+  }
+
+  @Test
+  fun `handle concurrent updates`() {
+    val ledger = ledger()
+    val executor = Executors.newFixedThreadPool(8)
+    val fullNames = (0 until 50).map { "t3_$it" }
+
+    fullNames
+        .flatMap { fullName -> CachePreFillThing.values().map { thing -> fullName to thing } }
+        .map { (fullName, thing) -> executor.submit { ledger.markPreFilled(fullName, thing) } }
+        .forEach { it.get() }
+    executor.shutdown()
+
+    assertThat(dao.preFills()).hasSize(fullNames.size * CachePreFillThing.values().size)
+    fullNames.forEach {
+      assertThat(ledger.isFresh(it, CachePreFillThing.COMMENTS)).isTrue()
+    }
+  }
+
+  private class FakeCachePreFillDao : CachePreFillDao {
+    private val rows = ConcurrentHashMap<Pair<String, CachePreFillThing>, CachedPreFill>()
+
+    override fun preFills(): List<CachedPreFill> = rows.values.toList()
+
+    override fun save(preFill: CachedPreFill) {
+      rows[preFill.submissionFullName to preFill.thing] = preFill
+    }
+
+    override fun deletePreFillsBefore(savedBeforeMillis: Long): Int {
+      val expired = rows.filterValues { it.saveTimeMillis < savedBeforeMillis }.keys
+      expired.forEach { rows.remove(it) }
+      return expired.size
+    }
+  }
+}
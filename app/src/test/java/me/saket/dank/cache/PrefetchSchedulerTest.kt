@@ -0,0 +1,92 @@
+package me.saket.dank.cache
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.subjects.CompletableSubject
+import me.saket.dank.cache.PrefetchScheduler.Priority
+import me.saket.dank.data.CachePreFillThing
+import org.junit.Test
+import java.util.concurrent.Executor
+
+class PrefetchSchedulerTest {
+
+  private val directExecutor = Executor { it.run() }
+
+  @Test
+  fun `not run more prefetches than the worker budget`() {
+    val scheduler = PrefetchScheduler(directExecutor, 2, emptyMap())
+    val prefetches = List(3) { CompletableSubject.create() }
+
+    prefetches.forEachIndexed { index, prefetch ->
+      scheduler.schedule(prefetch, "id_$index", CachePreFillThing.COMMENTS, Priority.SPECULATIVE).test()
+    }
+    assertThat(prefetches.map { it.hasObservers() }).containsExactly(true, true, false).inOrder()
+
+    prefetches[0].onComplete()
+    assertThat(prefetches[2].hasObservers()).isTrue()
+    assertThat(scheduler.runningCount()).isEqualTo(2)
+  }
+
+  @Test
+  fun `start queued prefetches in order of priority`() {
+    val scheduler = PrefetchScheduler(directExecutor, 1, emptyMap())
+    val running = CompletableSubject.create()
+    val speculative = CompletableSubject.create()
+    val visibleSoon = CompletableSubject.create()
+
+    scheduler.schedule(running, "running", CachePreFillThing.IMAGES, Priority.SPECULATIVE).test()
+    scheduler.schedule(speculative, "speculative", CachePreFillThing.IMAGES, Priority.SPECULATIVE).test()
+    scheduler.schedule(visibleSoon, "visible", CachePreFillThing.IMAGES, Priority.VISIBLE_SOON).test()
+
+    running.onComplete()
+    assertThat(visibleSoon.hasObservers()).isTrue()
+    assertThat(speculative.hasObservers()).isFalse()
+  }
+
+  @Test
+  fun `limit concurrent prefetches of each thing`() {
+    val scheduler = PrefetchScheduler(directExecutor, 3, mapOf(CachePreFillThing.IMAGES to 1))
+    val firstImage = CompletableSubject.create()
+    val secondImage = CompletableSubject.create()
+    val comments = CompletableSubject.create()
+
+    scheduler.schedule(firstImage, "1", CachePreFillThing.IMAGES, Priority.VISIBLE_SOON).test()
+    scheduler.schedule(secondImage, "2", CachePreFillThing.IMAGES, Priority.VISIBLE_SOON).test()
+    scheduler.schedule(comments, "1", CachePreFillThing.COMMENTS, Priority.SPECULATIVE).test()
+
+    assertThat(firstImage.hasObservers()).isTrue()
+    assertThat(secondImage.hasObservers()).isFalse()
+    assertThat(comments.hasObservers()).isTrue()
+  }
+
+  @Test
+  fun `only run prefetches of the foreground submission while it loads`() {
+    val scheduler = PrefetchScheduler(directExecutor, 2, emptyMap())
+    val hold = scheduler.holdForForeground("opened")
+    val otherSubmission = CompletableSubject.create()
+    val openedSubmission = CompletableSubject.create()
+
+    scheduler.schedule(otherSubmission, "other", CachePreFillThing.COMMENTS, Priority.VISIBLE_SOON).test()
+    scheduler.schedule(openedSubmission, "opened", CachePreFillThing.COMMENTS, Priority.SPECULATIVE).test()
+    assertThat(openedSubmission.hasObservers()).isTrue()
+    assertThat(otherSubmission.hasObservers()).isFalse()
+
+    hold.dispose()
+    assertThat(otherSubmission.hasObservers()).isTrue()
+  }
+
+  @Test
+  fun `remove queued prefetches when they are disposed`() {
+    val scheduler = PrefetchScheduler(directExecutor, 1, emptyMap())
+    val running = CompletableSubject.create()
+    val queued = CompletableSubject.create()
+
+    val runningObserver = scheduler.schedule(running, "1", CachePreFillThing.IMAGES, Priority.SPECULATIVE).test()
+    scheduler.schedule(queued, "2", CachePreFillThing.IMAGES, Priority.SPECULATIVE).test().dispose()
+    assertThat(scheduler.queuedCount()).isEqualTo(0)
+
+    runningObserver.dispose()
+    assertThat(running.hasObservers()).isFalse()
+    assertThat(queued.hasObservers()).isFalse()
+    assertThat(scheduler.runningCount()).isEqualTo(0)
+  }
+}
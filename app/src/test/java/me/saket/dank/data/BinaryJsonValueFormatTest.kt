@@ -0,0 +1,51 @@
+package me.saket.dank.data
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.io.IOException
+
+class BinaryJsonValueFormatTest {
+
+  @Test
+  fun `encoded values should decode to the same json value tree`() {
+    val comment = mapOf(
+        "author" to "Dawn",
+        "body" to "Hello 👋 world",
+        "score" to -42L,
+        "created_utc" to 1.5E9,
+        "gilded" to 0L,
+        "ups" to 1.25,
+        "archived" to false,
+        "stickied" to true,
+        "edited" to null
+    )
+    val listing = mapOf(
+        "kind" to "Listing",
+        "data" to mapOf(
+            "children" to listOf(comment, comment.plus("author" to "Saketme")),
+            "after" to null
+        )
+    )
+
+    val decoded = BinaryJsonValueFormat.decode(BinaryJsonValueFormat.encode(listing))
+
+    assertThat(decoded).isEqualTo(listing)
+  }
+
+  @Test
+  fun `repeated strings should only be stored once`() {
+    val author = "a".repeat(1000)
+    val singleComment = listOf(mapOf("author" to author))
+    val manyComments = List(50) { mapOf("author" to author) }
+
+    val singleSize = BinaryJsonValueFormat.encode(singleComment).size
+    val manySize = BinaryJsonValueFormat.encode(manyComments).size
+
+    assertThat(manySize).isLessThan(singleSize + 50 * 4)
+  }
+
+  @Test(expected = IOException::class)
+  fun `decoding json text should fail`() {
+    BinaryJsonValueFormat.decode("{\"kind\": \"Listing\"}".toByteArray())
+  }
+}
@@ -0,0 +1,82 @@
+package me.saket.dank.reddit
+
+import com.google.common.truth.Truth.assertThat
+import me.saket.dank.reddit.RedditRateLimiter.BackgroundRequestDeferredException
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class RedditRateLimiterTest {
+
+  private var nowNanos = 0L
+  private val rateLimiter = RedditRateLimiter { nowNanos }
+  private val maxWaitNanos = TimeUnit.SECONDS.toNanos(RedditRateLimiter.MAX_BACKGROUND_WAIT_SECONDS)
+
+  @Test
+  fun `not hold back any calls until the budget is known`() {
+    assertThat(rateLimiter.reserve(RequestPriority.BACKGROUND, maxWaitNanos)).isEqualTo(0)
+    assertThat(rateLimiter.headroom().known()).isFalse()
+  }
+
+  @Test
+  fun `space out background calls over the rest of the window`() {
+    rateLimiter.update("600", "0", "600")
+
+    // 150 calls are kept for interactive calls.
+    assertThat(rateLimiter.reserve(RequestPriority.BACKGROUND, maxWaitNanos)).isEqualTo(0)
+    assertThat(rateLimiter.reserve(RequestPriority.BACKGROUND, maxWaitNanos)).isEqualTo(TimeUnit.SECONDS.toNanos(600) / 450)
+  }
+
+  @Test
+  fun `never hold back interactive calls`() {
+    rateLimiter.update("1", "599", "300")
+
+    assertThat(rateLimiter.reserve(RequestPriority.INTERACTIVE, maxWaitNanos)).isEqualTo(0)
+    assertThat(rateLimiter.reserve(RequestPriority.INTERACTIVE, maxWaitNanos)).isEqualTo(0)
+  }
+
+  @Test
+  fun `make background calls wait for the next window when only the reserve is left`() {
+    rateLimiter.update("100", "500", "20")
+
+    assertThat(rateLimiter.reserve(RequestPriority.BACKGROUND, maxWaitNanos)).isEqualTo(TimeUnit.SECONDS.toNanos(20))
+    assertThat(rateLimiter.reserve(RequestPriority.BACKGROUND, maxWaitNanos)).isEqualTo(TimeUnit.SECONDS.toNanos(21))
+  }
+
+  @Test(expected = BackgroundRequestDeferredException::class)
+  fun `defer background calls that would wait for too long`() {
+    rateLimiter.update("100", "500", "300")
+    rateLimiter.reserve(RequestPriority.BACKGROUND, maxWaitNanos)
+  }
+
+  @Test
+  fun `forget the budget once its window is over`() {
+    rateLimiter.update("0", "600", "300")
+    nowNanos += TimeUnit.SECONDS.toNanos(300)
+
+    assertThat(rateLimiter.reserve(RequestPriority.BACKGROUND, maxWaitNanos)).isEqualTo(0)
+    assertThat(rateLimiter.headroom().known()).isFalse()
+  }
+
+  @Test
+  fun `report headroom`() {
+    rateLimiter.update("500.0", "100", "200")
+    rateLimiter.reserve(RequestPriority.INTERACTIVE, maxWaitNanos)
+    nowNanos += TimeUnit.SECONDS.toNanos(50)
+
+    val headroom = rateLimiter.headroom()
+    assertThat(headroom.known()).isTrue()
+    assertThat(headroom.remaining()).isEqualTo(499)
+    assertThat(headroom.windowSize()).isEqualTo(600)
+    assertThat(headroom.remainingForBackground()).isEqualTo(349)
+    assertThat(headroom.secondsUntilReset()).isEqualTo(150)
+  }
+
+  @Test
+  fun `ignore responses without rate-limit headers`() {
+    rateLimiter.update("500", "100", "200")
+    rateLimiter.update(null, null, null)
+    rateLimiter.update("abc", "100", "200")
+
+    assertThat(rateLimiter.headroom().remaining()).isEqualTo(500)
+  }
+}
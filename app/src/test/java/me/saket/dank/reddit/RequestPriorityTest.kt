@@ -0,0 +1,52 @@
+package me.saket.dank.reddit
+
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.Completable
+import io.reactivex.Observable
+import io.reactivex.plugins.RxJavaPlugins
+import io.reactivex.schedulers.Schedulers
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class RequestPriorityTest {
+
+  @Before
+  fun setUp() {
+    RxJavaPlugins.setScheduleHandler(RequestPriority.scheduleHandler())
+  }
+
+  @After
+  fun tearDown() {
+    RxJavaPlugins.reset()
+  }
+
+  @Test
+  fun `carry background priority across threads`() {
+    val priorities = mutableListOf<RequestPriority>()
+
+    val work = Observable.timer(10, TimeUnit.MILLISECONDS, Schedulers.computation())
+        .observeOn(Schedulers.io())
+        .doOnNext { priorities += RequestPriority.current() }
+        .ignoreElements()
+        .subscribeOn(Schedulers.single())
+
+    RequestPriority.background(work).blockingAwait()
+
+    assertThat(priorities).containsExactly(RequestPriority.BACKGROUND)
+    assertThat(RequestPriority.current()).isEqualTo(RequestPriority.INTERACTIVE)
+  }
+
+  @Test
+  fun `not leak background priority into interactive work`() {
+    RequestPriority.background(Completable.complete().subscribeOn(Schedulers.io())).blockingAwait()
+
+    val priority = Completable.complete()
+        .subscribeOn(Schedulers.io())
+        .toSingle { RequestPriority.current() }
+        .blockingGet()
+
+    assertThat(priority).isEqualTo(RequestPriority.INTERACTIVE)
+  }
+}
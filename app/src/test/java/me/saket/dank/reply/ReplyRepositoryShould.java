@@ -20,18 +20,18 @@ import org.threeten.bp.Instant;
 import org.threeten.bp.ZonedDateTime;
 
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
+import me.saket.dank.data.AppDatabase;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.utils.AutoValueMoshiAdapterFactory;
 
 import static org.junit.Assert.assertEquals;
-import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyString;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.threeten.bp.ZoneOffset.UTC;
@@ -45,8 +45,12 @@ public class ReplyRepositoryShould {
   @Mock SharedPreferences sharedPrefs;
   @Mock SharedPreferences.Editor sharedPrefsEditor;
   @Mock ErrorResolver errorResolver;
+  @Mock AppDatabase roomDatabase;
+  @Mock ReplyDraftDao draftDao;
 
-  @Captor ArgumentCaptor<String> stringArgCaptor;
+  @Captor ArgumentCaptor<SavedReplyDraft> draftCaptor;
+  @Captor ArgumentCaptor<List<SavedReplyDraft>> draftsCaptor;
+  @Captor ArgumentCaptor<Long> millisCaptor;
 
   private ReplyRepository replyRepository;
   private JsonAdapter<ReplyDraft> replyDraftJsonAdapter;
@@ -55,51 +59,71 @@ public class ReplyRepositoryShould {
   @SuppressLint("CommitPrefEdits")
   public void setUp() {
     Moshi moshi = new Moshi.Builder().add(AutoValueMoshiAdapterFactory.create()).build();
-    replyRepository = spy(new ReplyRepository(
+    replyRepository = new ReplyRepository(
         null,
         null,
         null,
         sharedPrefs,
         moshi,
         RECYCLE_DRAFTS_IN_DAYS,
-        () -> errorResolver));
+        () -> errorResolver,
+        () -> roomDatabase);
     replyDraftJsonAdapter = moshi.adapter(ReplyDraft.class);
 
+    when(roomDatabase.replyDraftDao()).thenReturn(draftDao);
     when(sharedPrefs.edit()).thenReturn(sharedPrefsEditor);
-    when(sharedPrefsEditor.putString(anyString(), anyString())).thenReturn(sharedPrefsEditor);
-    when(sharedPrefsEditor.remove(anyString())).thenReturn(sharedPrefsEditor);
+    when(sharedPrefsEditor.clear()).thenReturn(sharedPrefsEditor);
+    when(sharedPrefs.getAll()).thenReturn(Collections.emptyMap());
   }
 
   @Test
-  @SuppressLint("CommitPrefEdits")
-  public void onSaveDraft_shouldSaveDraft_shouldCallRecycleDrafts() throws Exception {
+  public void onSaveDraft_shouldSaveDraft_withoutRecyclingDrafts() {
     Identifiable parentComment = mock(Identifiable.class);
     when(parentComment.getFullName()).thenReturn("fullName");
-    when(sharedPrefs.getAll()).thenReturn(Collections.emptyMap());
 
-    replyRepository.saveDraft(parentComment, "draft").subscribe();
+    replyRepository.saveDraft(parentComment, "draft").test().assertValue(DraftSaveResult.SAVED_OR_UPDATED);
+
+    verify(draftDao).save(draftCaptor.capture());
+    assertEquals("fullName", draftCaptor.getValue().getParentFullName());
+    assertEquals("draft", draftCaptor.getValue().getBody());
+    verify(draftDao, never()).deleteDraftsCreatedBefore(anyLong());
+  }
+
+  @Test
+  public void onSaveEmptyDraft_shouldRemoveDraft() {
+    Identifiable parentComment = mock(Identifiable.class);
+    when(parentComment.getFullName()).thenReturn("fullName");
+
+    replyRepository.saveDraft(parentComment, "").test().assertValue(DraftSaveResult.REMOVED);
+
+    verify(draftDao).delete("fullName");
+  }
+
+  @Test
+  public void onRecycleOldDrafts_shouldDeleteDraftsOlderThanLimit() {
+    when(draftDao.deleteDraftsCreatedBefore(anyLong())).thenReturn(3);
 
-    // Verify that the draft was saved.
-    verify(sharedPrefsEditor).putString(stringArgCaptor.capture(), stringArgCaptor.capture());
-    assertEquals(stringArgCaptor.getAllValues().get(0), ReplyRepository.keyForDraft(parentComment));
-    ReplyDraft savedReplyDraft = replyDraftJsonAdapter.fromJson(stringArgCaptor.getAllValues().get(1));
-    //noinspection ConstantConditions
-    assertEquals(savedReplyDraft.body(), "draft");
+    replyRepository.recycleOldDrafts().test().assertValue(3);
 
-    verify(replyRepository).recycleOldDrafts(any());
+    verify(draftDao).deleteDraftsCreatedBefore(millisCaptor.capture());
+    ZonedDateTime expectedLimit = Instant.ofEpochMilli(System.currentTimeMillis()).atZone(UTC).minusDays(RECYCLE_DRAFTS_IN_DAYS);
+    long differenceMillis = Math.abs(expectedLimit.toInstant().toEpochMilli() - millisCaptor.getValue());
+    assertTrue(differenceMillis < 60_000);
   }
 
   @Test
-  public void onRecycleOldDrafts_shouldCorrectlyRecycleStaleDrafts() {
-    Map<String, ReplyDraft> savedDrafts = new HashMap<>();
-    ZonedDateTime twoWeeksOldDate = Instant.ofEpochMilli(System.currentTimeMillis()).atZone(UTC).minusDays(RECYCLE_DRAFTS_IN_DAYS + 1);
-    long twoWeeksOldTimeMillis = twoWeeksOldDate.toInstant().toEpochMilli();
-    savedDrafts.put("oldKey", ReplyDraft.create("oldDraft", twoWeeksOldTimeMillis));
-    savedDrafts.put("newKey", ReplyDraft.create("newDraft", System.currentTimeMillis()));
+  public void onFirstUse_shouldMoveDraftsFromSharedPrefs_onlyOnce() {
+    String legacyDraftJson = replyDraftJsonAdapter.toJson(ReplyDraft.create("oldDraft", 42));
+    when(sharedPrefs.getAll()).thenAnswer(invocation -> Collections.singletonMap("replyDraftFor_t1_parent", legacyDraftJson));
 
-    replyRepository.recycleOldDrafts(savedDrafts);
+    Identifiable parentComment = mock(Identifiable.class);
+    when(parentComment.getFullName()).thenReturn("fullName");
+    replyRepository.saveDraft(parentComment, "draft").test();
+    replyRepository.saveDraft(parentComment, "draft2").test();
 
-    verify(sharedPrefsEditor).remove("oldKey");
-    verify(sharedPrefsEditor, never()).remove("newKey");
+    verify(draftDao).saveAll(draftsCaptor.capture());
+    assertEquals(Collections.singletonList(new SavedReplyDraft("t1_parent", "oldDraft", 42)), draftsCaptor.getValue());
+    verify(sharedPrefsEditor).clear();
+    verify(sharedPrefs, times(1)).getAll();
   }
 }
@@ -0,0 +1,59 @@
+package me.saket.dank.ui.comments
+
+import com.google.common.truth.Truth.assertThat
+import me.saket.dank.ui.submission.SubmissionCommentTreeUiConstructor
+import me.saket.dank.ui.submission.adapter.SubmissionRemoteComment
+import me.saket.dank.ui.submission.adapter.SubmissionScreenUiModel
+import me.saket.dank.utils.SplicedList
+import me.saket.dank.walkthrough.SyntheticComment
+import me.saket.dank.walkthrough.SyntheticSubmission
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class SubmissionCommentTreeRowReuseTest : SubmissionCommentTreeBaseTest() {
+
+  @Test
+  fun `collapsing a comment should only rebuild its own row`() {
+    val submission = SyntheticSubmission(commentCount = 2, title = "Submission")
+    val firstComment = SyntheticComment("First", submission)
+    val secondComment = SyntheticComment("Second", submission)
+
+    val observer = buildCommentTree(submission, firstComment, secondComment).test()
+    SubmissionCommentTreeUiConstructor.COLLAPSED_COMMENT_IDS.collapse(secondComment)
+
+    observer.assertNoErrors()
+    val passes: List<List<SubmissionScreenUiModel>> = observer.values()
+    val rowsBeforeCollapse = passes.first().map { it as SubmissionRemoteComment.UiModel }
+    val rowsAfterCollapse = passes.last().map { it as SubmissionRemoteComment.UiModel }
+
+    assertThat(rowsAfterCollapse[0]).isSameInstanceAs(rowsBeforeCollapse[0])
+    assertThat(rowsAfterCollapse[1]).isNotSameInstanceAs(rowsBeforeCollapse[1])
+    assertThat(rowsAfterCollapse[1].isCollapsed).isTrue()
+  }
+
+  @Test
+  fun `collapsing a comment should splice only its own rows`() {
+    val submission = SyntheticSubmission(commentCount = 3, title = "Submission")
+    val firstComment = SyntheticComment("First", submission)
+    val secondComment = SyntheticComment("Second", submission)
+    val thirdComment = SyntheticComment("Third", submission)
+
+    val observer = buildCommentTree(submission, firstComment, secondComment, thirdComment).test()
+    SubmissionCommentTreeUiConstructor.COLLAPSED_COMMENT_IDS.collapse(secondComment)
+
+    observer.assertNoErrors()
+    val passes: List<List<SubmissionScreenUiModel>> = observer.values()
+    val rowsBeforeCollapse = passes[passes.size - 2]
+    val rowsAfterCollapse = passes.last()
+
+    assertThat(rowsAfterCollapse).isInstanceOf(SplicedList::class.java)
+    val splice = rowsAfterCollapse as SplicedList<SubmissionScreenUiModel>
+    assertThat(splice.isSplicedFrom(rowsBeforeCollapse)).isTrue()
+    assertThat(splice.start()).isEqualTo(1)
+    assertThat(splice.removedCount()).isEqualTo(1)
+    assertThat(splice.insertedCount()).isEqualTo(1)
+    assertThat(rowsAfterCollapse[2]).isSameInstanceAs(rowsBeforeCollapse[2])
+  }
+}
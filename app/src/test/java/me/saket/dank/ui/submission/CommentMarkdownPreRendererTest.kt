@@ -0,0 +1,74 @@
+package me.saket.dank.ui.submission
+
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doAnswer
+import com.nhaarman.mockitokotlin2.mock
+import io.reactivex.schedulers.Schedulers
+import me.saket.dank.utils.Optional
+import me.saket.dank.utils.markdown.Markdown
+import me.saket.dank.walkthrough.SyntheticComment
+import me.saket.dank.walkthrough.SyntheticSubmission
+import net.dean.jraw.models.Comment
+import net.dean.jraw.models.Listing
+import net.dean.jraw.models.NestedIdentifiable
+import net.dean.jraw.tree.RootCommentNode
+import org.junit.Before
+import org.junit.Test
+
+class CommentMarkdownPreRendererTest {
+
+  private val submission = SyntheticSubmission(commentCount = 5, title = "Submission")
+  private val grandChild = SyntheticComment("Grand child", submission)
+  private val child = SyntheticComment("Child", submission, replies = listOf(grandChild))
+  private val first = SyntheticComment("First", submission, replies = listOf(child))
+  private val second = SyntheticComment("Second", submission)
+
+  @Before
+  fun setUp() {
+    SubmissionCommentTreeUiConstructor.COLLAPSED_COMMENT_IDS.clear()
+  }
+
+  @Test
+  fun `comments should be visited in display order`() {
+    val comments = CommentMarkdownPreRenderer.commentsInDisplayOrder(rootNode(), Int.MAX_VALUE)
+    assertThat(comments).containsExactly(first, child, grandChild, second).inOrder()
+  }
+
+  @Test
+  fun `comments deeper than the max depth should be skipped`() {
+    val comments = CommentMarkdownPreRenderer.commentsInDisplayOrder(rootNode(), 2)
+    assertThat(comments).containsExactly(first, child, second).inOrder()
+  }
+
+  @Test
+  fun `replies of collapsed comments should be skipped`() {
+    SubmissionCommentTreeUiConstructor.COLLAPSED_COMMENT_IDS.collapse(first)
+
+    val comments = CommentMarkdownPreRenderer.commentsInDisplayOrder(rootNode(), Int.MAX_VALUE)
+    assertThat(comments).containsExactly(first, second).inOrder()
+  }
+
+  @Test
+  fun `pre-rendering should parse every comment`() {
+    val parsedBodies = mutableListOf<String>()
+    val markdown = mock<Markdown> {
+      on { parse(any<Comment>()) } doAnswer {
+        val body = it.getArgument<Comment>(0).body
+        parsedBodies += body
+        body
+      }
+    }
+    val preRenderer = CommentMarkdownPreRenderer({ markdown }, Schedulers.trampoline(), 1, Int.MAX_VALUE)
+
+    preRenderer.preRender(SubmissionAndComments(submission, Optional.of(rootNode())))
+        .test()
+        .assertComplete()
+
+    assertThat(parsedBodies).containsExactly("First", "Child", "Grand child", "Second").inOrder()
+  }
+
+  private fun rootNode(): RootCommentNode {
+    return RootCommentNode(submission, Listing.create<NestedIdentifiable>(null, listOf(first, second)), null)
+  }
+}
@@ -0,0 +1,74 @@
+package me.saket.dank.ui.submission
+
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doAnswer
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import net.dean.jraw.models.Submission
+import org.junit.Test
+
+class DecodedSubmissionCacheTest {
+
+  private val rows = mutableMapOf<String, CachedSubmissionJson>()
+  private val decodedJsons = mutableListOf<String>()
+  private val submissionsByJson = mutableMapOf<String, Submission>()
+
+  private val dao = mock<CachedSubmissionDao> {
+    on { submissionJsons(any()) } doAnswer { invocation ->
+      invocation.getArgument<List<String>>(0).mapNotNull { rows[it] }
+    }
+  }
+
+  private val cache = DecodedSubmissionCache(100) { json ->
+    decodedJsons += json
+    submissionsByJson.getOrPut(json) { mock() }
+  }
+
+  private fun save(id: String, saveTimeMillis: Long): CachedSubmissionVersion {
+    rows[id] = CachedSubmissionJson(id, saveTimeMillis, "$id@$saveTimeMillis")
+    return CachedSubmissionVersion(id, saveTimeMillis)
+  }
+
+  @Test
+  fun `only decode rows that were saved since the last read`() {
+    val first = save("first", 1)
+    val second = save("second", 1)
+    cache.decode(listOf(first, second), dao)
+    decodedJsons.clear()
+
+    val updatedSecond = save("second", 2)
+    val third = save("third", 1)
+    val submissions = cache.decode(listOf(first, updatedSecond, third), dao)
+
+    assertThat(decodedJsons).containsExactly("second@2", "third@1")
+    assertThat(submissions)
+        .containsExactly(submissionsByJson["first@1"], submissionsByJson["second@2"], submissionsByJson["third@1"])
+        .inOrder()
+
+    decodedJsons.clear()
+    cache.decode(listOf(first, updatedSecond, third), dao)
+    assertThat(decodedJsons).isEmpty()
+  }
+
+  @Test
+  fun `skip rows that were deleted after they were queried`() {
+    val first = save("first", 1)
+    val deleted = CachedSubmissionVersion("deleted", 1)
+
+    val submissions = cache.decode(listOf(deleted, first), dao)
+    assertThat(submissions).containsExactly(submissionsByJson["first@1"])
+  }
+
+  @Test
+  fun `read ids in chunks`() {
+    val versions = (0 until 1200).map { save("id_$it", 1) }
+
+    val submission = mock<Submission>()
+
+    val submissions = DecodedSubmissionCache(2000) { submission }.decode(versions, dao)
+    assertThat(submissions).hasSize(1200)
+    verify(dao, times(3)).submissionJsons(any())
+  }
+}
@@ -0,0 +1,114 @@
+package me.saket.dank.ui.submission
+
+import com.google.common.truth.Truth.assertThat
+import net.dean.jraw.JrawUtils
+import net.dean.jraw.databind.Enveloped
+import net.dean.jraw.models.Comment
+import net.dean.jraw.models.NestedIdentifiable
+import org.junit.Test
+
+class MoreCommentsMergerTest {
+
+  private val submissionFullName = "t3_dank"
+  private val adapter = JrawUtils.moshi.adapter<NestedIdentifiable>(NestedIdentifiable::class.java, Enveloped::class.java)
+
+  @Test
+  fun `replace expanded load-more item with fetched comments and their replies`() {
+    val thread = parse(comment("a", submissionFullName,
+        comment("b", "t1_a"),
+        more("more_a", "t1_a", "c", "d")))
+
+    val fetched = listOf(
+        parse(comment("c", "t1_a")),
+        parse(comment("e", "t1_c")),
+        parse(comment("d", "t1_a")))
+
+    val merged = MoreCommentsMerger.merge(listOf(thread), submissionFullName, setOf("t1_a"), fetched)
+
+    val mergedThread = merged.single() as Comment
+    assertThat(mergedThread.replies.children.map { it.fullName }).containsExactly("t1_b", "t1_c", "t1_d").inOrder()
+
+    val fetchedReply = mergedThread.replies.children[1] as Comment
+    assertThat(fetchedReply.replies.children.map { it.fullName }).containsExactly("t1_e")
+  }
+
+  @Test
+  fun `append fetched top-level comments in place of the submission's load-more item`() {
+    val first = parse(comment("a", submissionFullName))
+    val more = parse(more("more_top", submissionFullName, "x", "y"))
+    val fetched = listOf(parse(comment("x", submissionFullName)), parse(comment("y", submissionFullName)))
+
+    val merged = MoreCommentsMerger.merge(listOf(first, more), submissionFullName, setOf(submissionFullName), fetched)
+
+    assertThat(merged.map { it.fullName }).containsExactly("t1_a", "t1_x", "t1_y").inOrder()
+    assertThat(merged[0]).isSameInstanceAs(first)
+  }
+
+  @Test
+  fun `reuse threads that were not expanded`() {
+    val untouched = parse(comment("a", submissionFullName, comment("b", "t1_a")))
+    val expanded = parse(comment("c", submissionFullName, more("more_c", "t1_c", "d")))
+    val fetched = listOf(parse(comment("d", "t1_c")))
+
+    val merged = MoreCommentsMerger.merge(listOf(untouched, expanded), submissionFullName, setOf("t1_c"), fetched)
+
+    assertThat(merged[0]).isSameInstanceAs(untouched)
+    assertThat(merged[1]).isNotSameInstanceAs(expanded)
+    assertThat((merged[1] as Comment).replies.children.map { it.fullName }).containsExactly("t1_d")
+  }
+
+  private fun parse(json: Map<String, Any?>): NestedIdentifiable {
+    return adapter.fromJsonValue(json)!!
+  }
+
+  private fun comment(id: String, parentFullName: String, vararg replies: Map<String, Any?>): Map<String, Any?> {
+    val repliesJson: Any = if (replies.isEmpty()) {
+      ""
+    } else {
+      mapOf("kind" to "Listing", "data" to mapOf("children" to replies.toList(), "after" to null, "before" to null))
+    }
+
+    return mapOf(
+        "kind" to "t1",
+        "data" to mapOf(
+            "id" to id,
+            "name" to "t1_$id",
+            "parent_id" to parentFullName,
+            "link_id" to submissionFullName,
+            "author" to "Dawn",
+            "author_flair_text" to null,
+            "body" to "Comment $id",
+            "body_html" to "Comment $id",
+            "created" to 1_500_000_000.0,
+            "created_utc" to 1_500_000_000.0,
+            "edited" to false,
+            "score" to 1,
+            "ups" to 1,
+            "score_hidden" to false,
+            "likes" to null,
+            "saved" to false,
+            "stickied" to false,
+            "archived" to false,
+            "gilded" to 0,
+            "can_gild" to true,
+            "controversiality" to 0,
+            "distinguished" to null,
+            "subreddit" to "GetDank",
+            "subreddit_id" to "t5_3kfea",
+            "subreddit_type" to "public",
+            "permalink" to "/r/GetDank/comments/dank/_/$id/",
+            "replies" to repliesJson))
+  }
+
+  private fun more(id: String, parentFullName: String, vararg childrenIds: String): Map<String, Any?> {
+    return mapOf(
+        "kind" to "more",
+        "data" to mapOf(
+            "id" to id,
+            "name" to "t1_$id",
+            "parent_id" to parentFullName,
+            "children" to childrenIds.toList(),
+            "count" to childrenIds.size,
+            "depth" to 0))
+  }
+}
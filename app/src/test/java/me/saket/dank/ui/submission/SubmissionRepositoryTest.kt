@@ -0,0 +1,239 @@
+package me.saket.dank.ui.submission
+
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doAnswer
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import dagger.Lazy
+import io.reactivex.Completable
+import io.reactivex.Single
+import io.reactivex.observers.TestObserver
+import io.reactivex.subjects.SingleSubject
+import me.saket.dank.data.AppDatabase
+import me.saket.dank.data.ErrorResolver
+import me.saket.dank.reddit.Reddit
+import me.saket.dank.reply.ReplyRepository
+import me.saket.dank.ui.subreddit.SubmissionPaginationResult
+import me.saket.dank.ui.subreddit.SubmissionPaginationResult.Type.FAILED
+import me.saket.dank.ui.subreddit.SubmissionPaginationResult.Type.IDLE
+import me.saket.dank.ui.subreddit.SubmissionPaginationResult.Type.IN_FLIGHT
+import me.saket.dank.ui.subreddit.SubredditSearchResult
+import me.saket.dank.utils.DankSubmissionRequest
+import me.saket.dank.vote.VotingManager
+import net.dean.jraw.models.Listing
+import net.dean.jraw.models.Submission
+import net.dean.jraw.models.SubredditSort
+import net.dean.jraw.tree.RootCommentNode
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+class SubmissionRepositoryTest {
+
+  private val reddit = mock<Reddit>()
+  private val submissionsApi = mock<Reddit.Submissions>()
+  private val database = mock<AppDatabase>()
+  private val dao = mock<CachedSubmissionDao>()
+  private val replyRepository = mock<ReplyRepository>()
+  private val subreddits = mock<Reddit.Subreddits>()
+  private val votingManager = mock<VotingManager>()
+  private val folder = CachedSubmissionFolder("pics", SortingAndTimePeriod(SubredditSort.HOT))
+  private lateinit var repository: SubmissionRepository
+
+  @Before
+  fun setUp() {
+    whenever(reddit.submissions()).thenReturn(submissionsApi)
+    whenever(database.submissionDao()).thenReturn(dao)
+    doAnswer { (it.arguments[0] as Runnable).run() }.whenever(database).runInTransaction(any<Runnable>())
+    whenever(replyRepository.removeSyncPendingPostedReplies(any())).thenReturn(Completable.complete())
+    whenever(reddit.subreddits()).thenReturn(subreddits)
+    whenever(subreddits.parseSubmissionPaginationError(any())).thenAnswer { SubredditSearchResult.unknownError(it.arguments[0] as Throwable) }
+    whenever(votingManager.removePendingVotesForFetchedSubmissions(any())).thenReturn(Completable.complete())
+
+    repository = SubmissionRepository(
+        lazyOf(mock()),
+        lazyOf(mock()),
+        lazyOf(database),
+        lazyOf(reddit),
+        lazyOf(votingManager),
+        lazyOf(ErrorResolver()),
+        lazyOf(mock()),
+        lazyOf(replyRepository),
+        lazyOf(mock()))
+  }
+
+  private fun <T> lazyOf(value: T): Lazy<T> = Lazy { value }
+
+  private fun rootCommentNode(): RootCommentNode {
+    val submission = mock<Submission>()
+    whenever(submission.id).thenReturn("submission")
+    whenever(submission.fullName).thenReturn("t3_submission")
+    whenever(submission.subreddit).thenReturn("subreddit")
+
+    val node = mock<RootCommentNode>()
+    whenever(node.subject).thenReturn(submission)
+    whenever(node.children).thenReturn(emptyList())
+    return node
+  }
+
+  /**
+   * Returns [pages] one at a time. [onFetch] is called with a page's index before it's returned.
+   */
+  private class FakePaginator(
+      private val pages: List<List<Submission>>,
+      private val failingPageIndex: Int = -1,
+      private val onFetch: (Int) -> Unit = {}
+  ) : Iterator<Listing<Submission>> {
+
+    val fetchedPageCount = AtomicInteger(0)
+
+    override fun hasNext() = fetchedPageCount.get() < pages.size
+
+    override fun next(): Listing<Submission> {
+      val index = fetchedPageCount.get()
+      onFetch(index)
+      if (index == failingPageIndex) {
+        throw RuntimeException("Couldn't fetch page $index")
+      }
+      fetchedPageCount.incrementAndGet()
+      return Listing.create(null, pages[index])
+    }
+  }
+
+  private fun pages(pageCount: Int, submissionsPerPage: Int): List<List<Submission>> {
+    return (0 until pageCount).map { page ->
+      (0 until submissionsPerPage).map { index ->
+        val submission = mock<Submission>()
+        whenever(submission.id).thenReturn("submission_${page}_$index")
+        whenever(submission.subreddit).thenReturn(folder.subredditName)
+        submission
+      }
+    }
+  }
+
+  private fun paginateWith(paginator: FakePaginator) {
+    whenever(subreddits.submissions(any(), any(), any(), any())).thenReturn(paginator)
+  }
+
+  private fun TestObserver<SubmissionPaginationResult>.states() = values().map { it.state() }
+
+  @Test
+  fun `share one fetch and one save between concurrent callers`() {
+    val request = mock<DankSubmissionRequest>()
+    val response = SingleSubject.create<RootCommentNode>()
+    whenever(submissionsApi.fetch(request)).thenReturn(response)
+
+    val firstCaller = repository.fetchAndSaveSubmissionWithComments(request).test()
+    val secondCaller = repository.fetchAndSaveSubmissionWithComments(request).test()
+    response.onSuccess(rootCommentNode())
+
+    firstCaller.assertComplete()
+    secondCaller.assertComplete()
+    verify(submissionsApi, times(1)).fetch(request)
+    verify(dao, times(1)).saveCommentsWithThreads(any(), any())
+  }
+
+  @Test
+  fun `start a new fetch once the previous one has completed`() {
+    val request = mock<DankSubmissionRequest>()
+    whenever(submissionsApi.fetch(request)).thenReturn(Single.just(rootCommentNode()))
+
+    repository.fetchAndSaveSubmissionWithComments(request).test().assertComplete()
+    repository.fetchAndSaveSubmissionWithComments(request).test().assertComplete()
+
+    verify(submissionsApi, times(2)).fetch(request)
+    verify(dao, times(2)).saveCommentsWithThreads(any(), any())
+  }
+
+  @Test
+  fun `continue a shared fetch while a caller is still waiting on it`() {
+    val request = mock<DankSubmissionRequest>()
+    val response = SingleSubject.create<RootCommentNode>()
+    whenever(submissionsApi.fetch(request)).thenReturn(response)
+
+    val firstCaller = repository.fetchAndSaveSubmissionWithComments(request).test()
+    val secondCaller = repository.fetchAndSaveSubmissionWithComments(request).test()
+    firstCaller.dispose()
+    response.onSuccess(rootCommentNode())
+
+    secondCaller.assertComplete()
+    verify(dao, times(1)).saveCommentsWithThreads(any(), any())
+  }
+
+  @Test
+  fun `cancel a shared fetch once all callers have left`() {
+    val request = mock<DankSubmissionRequest>()
+    val response = SingleSubject.create<RootCommentNode>()
+    whenever(submissionsApi.fetch(request)).thenReturn(response)
+
+    val firstCaller = repository.fetchAndSaveSubmissionWithComments(request).test()
+    val secondCaller = repository.fetchAndSaveSubmissionWithComments(request).test()
+    firstCaller.dispose()
+    secondCaller.dispose()
+    response.onSuccess(rootCommentNode())
+
+    verify(dao, never()).saveCommentsWithThreads(any(), any())
+  }
+
+  @Test
+  fun `fetch the next page of submissions while the previous one is being saved`() {
+    val secondPageFetchStarted = CountDownLatch(1)
+    paginateWith(FakePaginator(pages(3, 5), onFetch = { index -> if (index == 1) secondPageFetchStarted.countDown() }))
+
+    val secondPageFetchedDuringFirstSave = AtomicReference<Boolean>()
+    doAnswer {
+      secondPageFetchedDuringFirstSave.compareAndSet(null, secondPageFetchStarted.await(5, TimeUnit.SECONDS))
+      (it.arguments[0] as Runnable).run()
+    }.whenever(database).runInTransaction(any<Runnable>())
+
+    repository.loadAndSaveMoreSubmissions(folder).test()
+        .awaitDone(5, TimeUnit.SECONDS)
+        .assertComplete()
+    assertThat(secondPageFetchedDuringFirstSave.get()).isTrue()
+  }
+
+  @Test
+  fun `report idle as soon as enough submissions are saved`() {
+    val releaseSecondPage = CountDownLatch(1)
+    val paginator = FakePaginator(pages(2, 11), onFetch = { index -> if (index == 1) releaseSecondPage.await(5, TimeUnit.SECONDS) })
+    paginateWith(paginator)
+
+    val observer = repository.loadAndSaveMoreSubmissions(folder).test()
+    observer.awaitCount(2)
+    assertThat(observer.states()).containsExactly(IN_FLIGHT, IDLE).inOrder()
+    assertThat(paginator.fetchedPageCount.get()).isEqualTo(1)
+
+    releaseSecondPage.countDown()
+    observer.awaitDone(5, TimeUnit.SECONDS).assertComplete()
+    assertThat(observer.states()).containsExactly(IN_FLIGHT, IDLE).inOrder()
+    assertThat(paginator.fetchedPageCount.get()).isEqualTo(2)
+  }
+
+  @Test
+  fun `not report a failure for pages fetched ahead after going idle`() {
+    paginateWith(FakePaginator(pages(2, 11), failingPageIndex = 1))
+
+    repository.loadAndSaveMoreSubmissions(folder).test()
+        .awaitDone(5, TimeUnit.SECONDS)
+        .assertNoErrors()
+        .assertComplete()
+        .apply { assertThat(states()).containsExactly(IN_FLIGHT, IDLE).inOrder() }
+  }
+
+  @Test
+  fun `report a failure when pagination fails before going idle`() {
+    paginateWith(FakePaginator(pages(2, 5), failingPageIndex = 1))
+
+    repository.loadAndSaveMoreSubmissions(folder).test()
+        .awaitDone(5, TimeUnit.SECONDS)
+        .assertComplete()
+        .apply { assertThat(states()).containsExactly(IN_FLIGHT, FAILED).inOrder() }
+  }
+}
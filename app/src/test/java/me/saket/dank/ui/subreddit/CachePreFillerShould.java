@@ -25,8 +25,10 @@ import java.util.List;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.observers.TestObserver;
-import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.cache.CachePreFillDao;
+import me.saket.dank.cache.CachePreFillLedger;
 import me.saket.dank.cache.CachePreFiller;
+import me.saket.dank.cache.PrefetchScheduler;
 import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.ui.media.MediaHostRepository;
@@ -62,6 +64,7 @@ public class CachePreFillerShould {
   @Mock UrlParser urlParser;
   @Mock HashMap<CachePreFillThing, Preference<NetworkStrategy>> networkStrategies;
   @Mock SubmissionImageLoader imageLoader;
+  @Mock CachePreFillDao preFillDao;
 
   private CachePreFiller cachePreFiller;
 
@@ -77,7 +80,8 @@ public class CachePreFillerShould {
         linkMetadataRepo,
         () -> urlParser,
         () -> imageLoader,
-        Schedulers::computation,
+        () -> new PrefetchScheduler(Runnable::run, 3, new HashMap<>()),
+        () -> new CachePreFillLedger(() -> preFillDao, new HashMap<>(), 100),
         () -> networkStrategies);
 
     PowerMockito.mockStatic(RxUtils.class);
@@ -99,7 +103,7 @@ public class CachePreFillerShould {
     submissions.add(PowerMockito.mock(Submission.class));
     submissions.add(PowerMockito.mock(Submission.class));
 
-    cachePreFiller.preFillInParallelThreads(submissions, 160)
+    cachePreFiller.preFillInParallelThreads(submissions, submissions.size(), 160)
         .test()
         .assertSubscribed()
         .assertNoValues()
@@ -134,7 +138,7 @@ public class CachePreFillerShould {
 
     when(urlParser.parse(any(), any())).thenReturn(ExternalLink.create(url));
 
-    TestObserver<Void> preFillObserver = cachePreFiller.preFillInParallelThreads(submissions, 160).test();
+    TestObserver<Void> preFillObserver = cachePreFiller.preFillInParallelThreads(submissions, submissions.size(), 160).test();
     preFillObserver.awaitTerminalEvent();
     preFillObserver
         .assertNoErrors()
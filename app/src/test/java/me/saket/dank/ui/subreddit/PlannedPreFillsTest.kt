@@ -0,0 +1,72 @@
+package me.saket.dank.ui.subreddit
+
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.whenever
+import io.reactivex.subjects.CompletableSubject
+import net.dean.jraw.models.Submission
+import org.junit.Test
+
+class PlannedPreFillsTest {
+
+  private val preFills = mutableMapOf<String, CompletableSubject>()
+  private val startedIds = mutableListOf<String>()
+  private val visibleSoonIds = mutableListOf<String>()
+
+  private val plannedPreFills = PlannedPreFills { submission, isVisibleSoon ->
+    startedIds += submission.id
+    if (isVisibleSoon) {
+      visibleSoonIds += submission.id
+    }
+    CompletableSubject.create().also { preFills[submission.id] = it }
+  }
+
+  private fun submission(id: String): Submission {
+    val submission = mock<Submission>()
+    whenever(submission.id).thenReturn(id)
+    return submission
+  }
+
+  private fun plan(vararg ids: String, visibleSoonCount: Int = 0): SubmissionPrefetchPlanner.Plan {
+    return SubmissionPrefetchPlanner.Plan.create(ids.map { submission(it) }, visibleSoonCount)
+  }
+
+  @Test
+  fun `keep pre-fills of submissions that are in both plans`() {
+    plannedPreFills.update(plan("a", "b", "c"))
+    plannedPreFills.update(plan("b", "c", "d"))
+
+    assertThat(startedIds).containsExactly("a", "b", "c", "d").inOrder()
+    assertThat(preFills["a"]!!.hasObservers()).isFalse()
+    assertThat(preFills["b"]!!.hasObservers()).isTrue()
+    assertThat(preFills["c"]!!.hasObservers()).isTrue()
+    assertThat(preFills["d"]!!.hasObservers()).isTrue()
+  }
+
+  @Test
+  fun `start pre-fills again for submissions that come back into the plan`() {
+    plannedPreFills.update(plan("a"))
+    plannedPreFills.update(plan("b"))
+    plannedPreFills.update(plan("a", "b"))
+
+    assertThat(startedIds).containsExactly("a", "b", "a").inOrder()
+  }
+
+  @Test
+  fun `prioritize submissions that are about to be on screen`() {
+    plannedPreFills.update(plan("a", "b", "c", visibleSoonCount = 2))
+
+    assertThat(visibleSoonIds).containsExactly("a", "b")
+  }
+
+  @Test
+  fun `cancel everything when disposed`() {
+    plannedPreFills.update(plan("a", "b"))
+    plannedPreFills.dispose()
+    plannedPreFills.update(plan("c"))
+
+    assertThat(preFills["a"]!!.hasObservers()).isFalse()
+    assertThat(preFills["b"]!!.hasObservers()).isFalse()
+    assertThat(startedIds).doesNotContain("c")
+  }
+}
@@ -0,0 +1,61 @@
+package me.saket.dank.ui.subreddit
+
+import com.google.common.truth.Truth.assertThat
+import me.saket.dank.ui.subreddit.SubmissionPrefetchPlanner.DEFAULT_LOOKAHEAD
+import me.saket.dank.ui.subreddit.SubmissionPrefetchPlanner.FLING_ROWS_PER_SECOND
+import me.saket.dank.ui.subreddit.SubmissionPrefetchPlanner.MAX_LOOKAHEAD
+import me.saket.dank.ui.subreddit.SubmissionPrefetchPlanner.MIN_LOOKAHEAD
+import org.junit.Test
+
+class SubmissionPrefetchPlannerTest {
+
+  @Test
+  fun `pre-fill visible rows and the ones below them when idle`() {
+    val window = SubmissionPrefetchPlanner.window(0, 4, 50, 0f, 10)
+
+    assertThat(window.positions()).isEqualTo((0 until 15).toList())
+    assertThat(window.visibleSoonCount()).isEqualTo(5)
+  }
+
+  @Test
+  fun `not change the window on every scrolled row`() {
+    val window = SubmissionPrefetchPlanner.window(11, 15, 50, 2f, 10)
+    val windowAfterScrollingOneRow = SubmissionPrefetchPlanner.window(12, 16, 50, 2f, 10)
+
+    assertThat(windowAfterScrollingOneRow).isEqualTo(window)
+    assertThat(window.positions()).isEqualTo((10 until 30).toList())
+  }
+
+  @Test
+  fun `pre-fill rows above first when scrolling up`() {
+    val window = SubmissionPrefetchPlanner.window(20, 24, 50, -2f, 10)
+
+    assertThat(window.positions()).isEqualTo((20 until 25).toList() + (19 downTo 10).toList())
+    assertThat(window.visibleSoonCount()).isEqualTo(5)
+  }
+
+  @Test
+  fun `skip rows that are being flung past`() {
+    val window = SubmissionPrefetchPlanner.window(0, 4, 100, FLING_ROWS_PER_SECOND * 4, 10)
+
+    assertThat(window.positions().first()).isGreaterThan(10)
+    assertThat(window.positions()).containsNoneOf(1, 5, 9)
+  }
+
+  @Test
+  fun `not go past the end of the list`() {
+    val window = SubmissionPrefetchPlanner.window(40, 44, 46, FLING_ROWS_PER_SECOND * 4, 10)
+
+    assertThat(window.positions().last()).isEqualTo(45)
+    assertThat(window.positions()).isNotEmpty()
+  }
+
+  @Test
+  fun `scale lookahead with throughput and network`() {
+    assertThat(SubmissionPrefetchPlanner.lookahead(-1f, false)).isEqualTo(DEFAULT_LOOKAHEAD)
+    assertThat(SubmissionPrefetchPlanner.lookahead(-1f, true)).isEqualTo(DEFAULT_LOOKAHEAD / 2)
+    assertThat(SubmissionPrefetchPlanner.lookahead(0.1f, false)).isEqualTo(MIN_LOOKAHEAD)
+    assertThat(SubmissionPrefetchPlanner.lookahead(2f, false)).isEqualTo(10)
+    assertThat(SubmissionPrefetchPlanner.lookahead(100f, false)).isEqualTo(MAX_LOOKAHEAD)
+  }
+}
@@ -0,0 +1,151 @@
+package me.saket.dank.ui.subreddit
+
+import androidx.test.core.app.ApplicationProvider
+import com.f2prateek.rx.preferences2.Preference
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.whenever
+import io.reactivex.Observable
+import io.reactivex.subjects.PublishSubject
+import me.saket.dank.data.ErrorResolver
+import me.saket.dank.ui.preferences.gestures.submissions.SubmissionSwipeActionsRepository
+import me.saket.dank.ui.submission.BookmarksRepository
+import me.saket.dank.ui.submission.CachedSubmissionFolder
+import me.saket.dank.ui.submission.SortingAndTimePeriod
+import me.saket.dank.ui.subreddit.uimodels.SubredditScreenUiModel
+import me.saket.dank.ui.subreddit.uimodels.SubredditSubmission
+import me.saket.dank.ui.subreddit.uimodels.SubredditSubmissionImageStyle
+import me.saket.dank.ui.subreddit.uimodels.SubredditUiConstructor
+import me.saket.dank.utils.Optional
+import me.saket.dank.vote.VotingManager
+import me.saket.dank.walkthrough.SubmissionGesturesWalkthrough
+import net.dean.jraw.models.Submission
+import net.dean.jraw.models.SubredditSort
+import net.dean.jraw.models.ThumbnailType
+import net.dean.jraw.models.VoteDirection
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Date
+
+@RunWith(RobolectricTestRunner::class)
+class SubredditUiConstructorTest {
+
+  private val votingManager = mock<VotingManager>()
+  private val bookmarksRepository = mock<BookmarksRepository>()
+  private val voteChanges = PublishSubject.create<Any>()
+  private val pendingVotes = mutableMapOf<String, VoteDirection>()
+  private val folder = CachedSubmissionFolder("pics", SortingAndTimePeriod(SubredditSort.HOT))
+  private lateinit var uiConstructor: SubredditUiConstructor
+
+  @Before
+  fun setUp() {
+    whenever(votingManager.streamChanges()).thenReturn(voteChanges.startWith(""))
+    whenever(votingManager.getPendingOrDefaultVote(any<Submission>(), any())).thenAnswer {
+      pendingVotes[it.getArgument<Submission>(0).fullName] ?: it.getArgument(1)
+    }
+    whenever(votingManager.getScoreAfterAdjustingPendingVote(any<Submission>())).thenAnswer {
+      val submission = it.getArgument<Submission>(0)
+      submission.score + if (pendingVotes[submission.fullName] == VoteDirection.UP) 1 else 0
+    }
+    whenever(bookmarksRepository.streamChanges()).thenReturn(Observable.never())
+
+    val gesturesWalkthrough = mock<SubmissionGesturesWalkthrough>()
+    whenever(gesturesWalkthrough.walkthroughRows()).thenReturn(Observable.just(Optional.empty()))
+    val swipeActionsRepository = mock<SubmissionSwipeActionsRepository>()
+    whenever(swipeActionsRepository.swipeActions).thenReturn(Observable.just(mock()))
+
+    uiConstructor = SubredditUiConstructor(
+        votingManager,
+        ErrorResolver(),
+        { bookmarksRepository },
+        { gesturesWalkthrough },
+        preference(true),
+        preference(false),
+        preference(false),
+        preference(SubredditSubmissionImageStyle.NONE),
+        { swipeActionsRepository })
+  }
+
+  private fun <T> preference(value: T): Preference<T> {
+    val preference = mock<Preference<T>>()
+    whenever(preference.get()).thenReturn(value)
+    whenever(preference.asObservable()).thenReturn(Observable.just(value))
+    return preference
+  }
+
+  private fun submission(id: String): Submission {
+    val submission = mock<Submission>()
+    whenever(submission.id).thenReturn(id)
+    whenever(submission.fullName).thenReturn("t3_$id")
+    whenever(submission.created).thenReturn(Date(0))
+    whenever(submission.title).thenReturn("Submission $id")
+    whenever(submission.author).thenReturn("author")
+    whenever(submission.subreddit).thenReturn(folder.subredditName)
+    whenever(submission.score).thenReturn(10)
+    whenever(submission.vote).thenReturn(VoteDirection.NONE)
+    whenever(submission.thumbnailType).thenReturn(ThumbnailType.NONE)
+    return submission
+  }
+
+  private fun stream(submissions: Observable<Optional<List<Submission>>>): Observable<SubredditScreenUiModel> {
+    return uiConstructor.stream(
+        ApplicationProvider.getApplicationContext(),
+        submissions,
+        Observable.just(SubmissionPaginationResult.idle()),
+        Observable.just(folder))
+  }
+
+  private fun SubredditScreenUiModel.submissionRows() = rowUiModels().map { it as SubredditSubmission.UiModel }
+
+  @Test
+  fun `reuse rows whose inputs have not changed`() {
+    val submissions = listOf(submission("first"), submission("second"))
+
+    val observer = stream(Observable.just(Optional.of(submissions))).test()
+    voteChanges.onNext("t3_first")
+
+    observer.assertNoErrors()
+    val rowsBefore = observer.values().first().submissionRows()
+    val rowsAfter = observer.values().last().submissionRows()
+    assertThat(observer.values()).hasSize(2)
+    assertThat(rowsAfter[0]).isSameInstanceAs(rowsBefore[0])
+    assertThat(rowsAfter[1]).isSameInstanceAs(rowsBefore[1])
+  }
+
+  @Test
+  fun `rebuild only the rows whose inputs have changed`() {
+    val submissions = listOf(submission("first"), submission("second"))
+
+    val observer = stream(Observable.just(Optional.of(submissions))).test()
+    pendingVotes["t3_second"] = VoteDirection.UP
+    voteChanges.onNext("t3_second")
+
+    observer.assertNoErrors()
+    val rowsBefore = observer.values().first().submissionRows()
+    val rowsAfter = observer.values().last().submissionRows()
+    assertThat(rowsAfter[0]).isSameInstanceAs(rowsBefore[0])
+    assertThat(rowsAfter[1]).isNotSameInstanceAs(rowsBefore[1])
+    assertThat(rowsAfter[1].title().toString()).startsWith("11")
+  }
+
+  @Test
+  fun `forget rows that have left the list`() {
+    val first = submission("first")
+    val second = submission("second")
+    val submissionLists = PublishSubject.create<Optional<List<Submission>>>()
+
+    val observer = stream(submissionLists).test()
+    submissionLists.onNext(Optional.of(listOf(first, second)))
+    submissionLists.onNext(Optional.of(listOf(first)))
+    submissionLists.onNext(Optional.of(listOf(first, second)))
+
+    observer.assertNoErrors()
+    val rowsBefore = observer.values().first().submissionRows()
+    val rowsAfter = observer.values().last().submissionRows()
+    assertThat(rowsAfter[0]).isSameInstanceAs(rowsBefore[0])
+    assertThat(rowsAfter[1]).isNotSameInstanceAs(rowsBefore[1])
+  }
+}
@@ -0,0 +1,48 @@
+package me.saket.dank.urlparser
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class HostTrieTest {
+
+  private val trie = HostTrie<String>().apply {
+    put("reddit.com", "reddit")
+    put("redd.it", "redd.it")
+    put("imgur.com", "imgur")
+    put("i.imgur.com", "imgur images")
+  }
+
+  @Test
+  fun `match domains and their subdomains`() {
+    assertThat(trie.get("reddit.com")).isEqualTo("reddit")
+    assertThat(trie.get("www.reddit.com")).isEqualTo("reddit")
+    assertThat(trie.get("v.redd.it")).isEqualTo("redd.it")
+  }
+
+  @Test
+  fun `prefer the longest registered domain`() {
+    assertThat(trie.get("imgur.com")).isEqualTo("imgur")
+    assertThat(trie.get("m.imgur.com")).isEqualTo("imgur")
+    assertThat(trie.get("i.imgur.com")).isEqualTo("imgur images")
+    assertThat(trie.get("x.i.imgur.com")).isEqualTo("imgur images")
+  }
+
+  @Test
+  fun `only match whole labels`() {
+    assertThat(trie.get("notreddit.com")).isNull()
+    assertThat(trie.get("reddit.com.example.org")).isNull()
+    assertThat(trie.get("com")).isNull()
+  }
+
+  @Test
+  fun `ignore case`() {
+    assertThat(trie.get("WWW.Reddit.COM")).isEqualTo("reddit")
+  }
+
+  @Test
+  fun `not match empty or malformed hosts`() {
+    assertThat(trie.get("")).isNull()
+    assertThat(trie.get(".")).isNull()
+    assertThat(trie.get("reddit.com.")).isNull()
+  }
+}
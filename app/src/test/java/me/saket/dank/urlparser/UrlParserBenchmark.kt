@@ -0,0 +1,124 @@
+package me.saket.dank.urlparser
+
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Microbenchmarks for [UrlParser], run over the URLs used in UrlParserTest. Robolectric is
+ * used instead of mocks so that [android.net.Uri] does real work.
+ *
+ * Follows JMH's approach of warming up before measuring and consuming every result, without
+ * pulling in JMH itself.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Ignore("Benchmark. Run manually.")
+class UrlParserBenchmark {
+
+  @Test
+  fun `benchmark host dispatch`() {
+    val hosts = CORPUS.map { android.net.Uri.parse(it).host ?: "" }
+    val trie = HostTrie<String>().apply {
+      put("reddit.com", "reddit")
+      put("redd.it", "redd.it")
+      put("imgur.com", "imgur")
+      put("bildgur.de", "imgur")
+      put("gfycat.com", "gfycat")
+      put("redgifs.com", "redgifs")
+      put("gifdeliverynetwork.com", "redgifs")
+      put("giphy.com", "giphy")
+      put("streamable.com", "streamable")
+      put("reddituploads.com", "reddituploads")
+      put("redditmedia.com", "reddituploads")
+    }
+
+    measure("Sequential contains() chain", hosts) { sequentialDispatch(it) }
+    measure("Host trie", hosts) { trie.get(it) }
+  }
+
+  @Test
+  fun `benchmark parsing uncached urls`() {
+    // A cache of size 0 evicts every link immediately, so each parse() does the full work.
+    val urlParser = UrlParser(UrlParserCache(0, null, 1), UrlParserConfig())
+    measure("UrlParser#parse()", CORPUS) { urlParser.parse(it) }
+  }
+
+  /**
+   * How hosts were dispatched before [HostTrie], kept here as the baseline.
+   */
+  private fun sequentialDispatch(host: String): String? {
+    return when {
+      host.endsWith("reddit.com") -> "reddit"
+      host.endsWith("redd.it") -> "redd.it"
+      host.contains("google") -> "google"
+      host.contains("imgur.com") || host.contains("bildgur.de") -> "imgur"
+      host.contains("gfycat.com") -> "gfycat"
+      host.contains("redgifs.com") || host.contains("gifdeliverynetwork.com") -> "redgifs"
+      host.contains("giphy.com") -> "giphy"
+      host.contains("streamable.com") -> "streamable"
+      host.contains("reddituploads.com") || host.contains("redditmedia.com") -> "reddituploads"
+      else -> null
+    }
+  }
+
+  private fun <T> measure(name: String, inputs: List<T>, operation: (T) -> Any?) {
+    var blackhole = 0
+
+    repeat(WARMUP_ITERATIONS) {
+      for (input in inputs) {
+        blackhole += operation(input).hashCode()
+      }
+    }
+
+    val nanosPerOp = LongArray(MEASUREMENT_ITERATIONS) {
+      val startTimeNanos = System.nanoTime()
+      for (input in inputs) {
+        blackhole += operation(input).hashCode()
+      }
+      (System.nanoTime() - startTimeNanos) / inputs.size
+    }
+    nanosPerOp.sort()
+
+    println(String.format(
+        "%s: median %dns/op, min %dns/op, max %dns/op (%d)",
+        name,
+        nanosPerOp[nanosPerOp.size / 2],
+        nanosPerOp.first(),
+        nanosPerOp.last(),
+        blackhole))
+  }
+
+  companion object {
+    private const val WARMUP_ITERATIONS = 2_000
+    private const val MEASUREMENT_ITERATIONS = 200
+
+    private val CORPUS = listOf(
+        "https://www.reddit.com/r/pics",
+        "https://www.reddit.com/u/saketme",
+        "https://www.reddit.com/comments/656e5z",
+        "https://www.reddit.com/r/Cricket/comments/60e610/match_thread_india_vs_australia_at_jsca/",
+        "https://www.reddit.com/r/androiddev/comments/5zm7tt/is_anyone_using_services_nowadays/dezzmre/?context=100",
+        "https://www.reddit.com/live/ysrfjcdc2lt1",
+        "https://reddit.com/gold",
+        "http://i.reddit.com/5524cd",
+        "https://redd.it/5524cd",
+        "https://v.redd.it/fjpqnd127wf01",
+        "https://i.redd.it/ge0nqqgjwrsy.jpg",
+        "https://i.redd.it/60dgs56ws4ny.gif",
+        "https://www.google.com/amp/s/amp.reddit.com/r/NoStupidQuestions/comments/2qwyo7/what_is_red_velvet_supposed_to_taste_like/",
+        "https://imgur.com/a/lBQGv",
+        "http://imgur.com/gallery/9Uq7u",
+        "https://i.imgur.com/BU5XFMg.gifv",
+        "https://i.imgur.com/BU5XFMg.webp?maxwidth=640&shape=thumb&fidelity=medium",
+        "https://gfycat.com/MessySpryAfricancivet",
+        "https://zippy.gfycat.com/CompetentRemoteBurro.webm",
+        "http://media.giphy.com/media/l2JJyLbhqCF4va86c/giphy.mp4",
+        "http://streamable.com/jawcl",
+        "https://i.reddituploads.com/df0af5450dd14902a3056ec73db8fa64?fit=max&h=1536&w=1536&amp;s=8fa077352b28b8a3e94fcd845cf7ca83",
+        "https://i.redditmedia.com/H672N4aueEuGzTypOO3Gqzlf3xw3P61tVssYu2ObxDM.jpg?w=640&s=76edfb936f168c9c4dd3bc45a0c45509",
+        "https://example.com/image.png",
+        "https://example.com/article",
+        "saket@saket.me")
+  }
+}
@@ -0,0 +1,39 @@
+package me.saket.dank.utils
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class TokenBucketTest {
+
+  private var nowNanos = 0L
+  private val bucket = TokenBucket(2, 1f) { nowNanos }
+
+  @Test
+  fun `allow bursts up to capacity and then wait for refills`() {
+    assertThat(bucket.reserve()).isEqualTo(0)
+    assertThat(bucket.reserve()).isEqualTo(0)
+    assertThat(bucket.reserve()).isEqualTo(TimeUnit.SECONDS.toNanos(1))
+    assertThat(bucket.reserve()).isEqualTo(TimeUnit.SECONDS.toNanos(2))
+  }
+
+  @Test
+  fun `refill over time without exceeding capacity`() {
+    bucket.reserve()
+    bucket.reserve()
+    nowNanos += TimeUnit.SECONDS.toNanos(10)
+
+    assertThat(bucket.reserve()).isEqualTo(0)
+    assertThat(bucket.reserve()).isEqualTo(0)
+    assertThat(bucket.reserve()).isEqualTo(TimeUnit.SECONDS.toNanos(1))
+  }
+
+  @Test
+  fun `not refill while paused`() {
+    bucket.pauseFor(30, TimeUnit.SECONDS)
+    assertThat(bucket.reserve()).isEqualTo(TimeUnit.SECONDS.toNanos(31))
+
+    nowNanos += TimeUnit.SECONDS.toNanos(40)
+    assertThat(bucket.reserve()).isEqualTo(0)
+  }
+}
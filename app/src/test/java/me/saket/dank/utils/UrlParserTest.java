@@ -6,8 +6,6 @@ import android.text.Spannable;
 import android.text.TextUtils;
 import android.util.Patterns;
 
-import com.nytimes.android.external.cache3.CacheBuilder;
-
 import net.dean.jraw.models.EmbeddedMedia;
 import net.dean.jraw.models.Submission;
 
@@ -42,6 +40,7 @@ import me.saket.dank.urlparser.RedditUserLink;
 import me.saket.dank.urlparser.StreamableUnresolvedLink;
 import me.saket.dank.urlparser.UnresolvedMediaLink;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.urlparser.UrlParserCache;
 import me.saket.dank.urlparser.UrlParserConfig;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -68,7 +67,7 @@ public class UrlParserTest {
 
   @Before
   public void setUp() {
-    urlParser = new UrlParser(CacheBuilder.newBuilder().build(), new UrlParserConfig());
+    urlParser = new UrlParser(new UrlParserCache(100, null, 1), new UrlParserConfig());
 
     PowerMockito.mockStatic(Uri.class);
 
@@ -369,6 +368,24 @@ public class UrlParserTest {
     }
   }
 
+  @Test
+  public void redditHostedVideos_shouldBeCachedPerSubmission() {
+    String videoUrl = "https://v.redd.it/fjpqnd127wf01";
+
+    Submission submissionWithVideo = mock(Submission.class);
+    when(submissionWithVideo.getFullName()).thenReturn("t3_video");
+    EmbeddedMedia media = embeddedMedia("https://v.redd.it/nwypmagtjvf01/DASHPlaylist.mpd");
+    when(submissionWithVideo.getEmbeddedMedia()).thenReturn(media);
+
+    Submission submissionWithoutVideo = mock(Submission.class);
+    when(submissionWithoutVideo.getFullName()).thenReturn("t3_link");
+    when(submissionWithoutVideo.getEmbeddedMedia()).thenReturn(null);
+
+    assertTrue(urlParser.parse(videoUrl, submissionWithVideo) instanceof RedditHostedVideoLink);
+    assertTrue(urlParser.parse(videoUrl, submissionWithoutVideo) instanceof ExternalLink);
+    assertTrue(urlParser.parse(videoUrl, submissionWithVideo) instanceof RedditHostedVideoLink);
+  }
+
   @Test
   public void parseImgurAlbumUrls() {
     for (String url : IMGUR_ALBUM_URLS) {
@@ -590,6 +607,7 @@ public class UrlParserTest {
       int pathStartIndex = url.indexOf(domainTld) + domainTld.length();
       String path = url.substring(pathStartIndex);
       when(mockUri.getPath()).thenReturn(path);
+      when(mockUri.getEncodedPath()).thenReturn(path);
       when(mockUri.getHost()).thenReturn(url.substring(url.indexOf("://") + "://".length(), pathStartIndex));
       when(mockUri.getScheme()).thenReturn(url.substring(0, url.indexOf("://")));
       when(mockUri.toString()).thenReturn(url);
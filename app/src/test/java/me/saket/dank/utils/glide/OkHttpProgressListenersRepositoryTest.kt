@@ -0,0 +1,122 @@
+package me.saket.dank.utils.glide
+
+import com.google.common.truth.Truth.assertThat
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+class OkHttpProgressListenersRepositoryTest {
+
+  private val framesScheduled = AtomicInteger()
+  private val pendingFrame = AtomicReference<Runnable?>()
+
+  private val repository = OkHttpProgressListenersRepository { onFrame ->
+    framesScheduled.incrementAndGet()
+    assertThat(pendingFrame.getAndSet(onFrame)).isNull()
+  }
+
+  /** Runs on the test thread, which plays the main thread. */
+  private fun drawFrame() {
+    pendingFrame.getAndSet(null)?.run()
+  }
+
+  private class RecordingListener : GlideOkHttpProgressModule.UiProgressListener {
+    val progresses = mutableListOf<Pair<Long, Long>>()
+
+    override fun onProgress(bytesRead: Long, expectedLengthBytes: Long) {
+      progresses += bytesRead to expectedLengthBytes
+    }
+
+    override fun getGranularityPercentage() = 1f
+  }
+
+  @Test
+  fun `coalesce progress of a download into one dispatch per frame`() {
+    val listener = RecordingListener()
+    repository.addUiProgressListener("https://i.redd.it/image.jpg", listener)
+
+    val url = "https://i.redd.it/image.jpg".toHttpUrl()
+    repository.update(url, 100, 1000)
+    repository.update(url, 200, 1000)
+    repository.update(url, 300, 1000)
+    drawFrame()
+
+    assertThat(framesScheduled.get()).isEqualTo(1)
+    assertThat(listener.progresses).containsExactly(300L to 1000L)
+
+    repository.update(url, 1000, 1000)
+    drawFrame()
+    assertThat(listener.progresses).containsExactly(300L to 1000L, 1000L to 1000L).inOrder()
+    assertThat(repository.size()).isEqualTo(0)
+  }
+
+  @Test
+  fun `not remove a listener that replaced the removed one`() {
+    val oldListener = RecordingListener()
+    val newListener = RecordingListener()
+    repository.addUiProgressListener("https://i.redd.it/image.jpg", oldListener)
+    repository.addUiProgressListener("https://i.redd.it/image.jpg", newListener)
+    repository.removeUiProgressListener("https://i.redd.it/image.jpg", oldListener)
+
+    repository.update("https://i.redd.it/image.jpg".toHttpUrl(), 500, 1000)
+    drawFrame()
+
+    assertThat(oldListener.progresses).isEmpty()
+    assertThat(newListener.progresses).containsExactly(500L to 1000L)
+  }
+
+  @Test
+  fun `dispatch progress of hundreds of parallel downloads`() {
+    val downloadCount = 500
+    val chunkCount = 400
+    val chunkBytes = 1024L
+    val totalBytes = chunkCount * chunkBytes
+
+    val listeners = (0 until downloadCount).map { RecordingListener() }
+    val urls = (0 until downloadCount).map { "https://i.redd.it/image_$it.jpg" }
+    urls.forEachIndexed { index, url -> repository.addUiProgressListener(url, listeners[index]) }
+
+    // Glide requests that got cancelled before their downloads finished.
+    val cancelled = (0 until downloadCount step 5).toSet()
+    for (index in cancelled) {
+      repository.removeUiProgressListener(urls[index], listeners[index])
+    }
+
+    val executor = Executors.newFixedThreadPool(16)
+    val downloadsDone = CountDownLatch(downloadCount)
+    urls.forEach { url ->
+      executor.execute {
+        val httpUrl = url.toHttpUrl()
+        for (chunk in 1..chunkCount) {
+          repository.update(httpUrl, chunk * chunkBytes, totalBytes)
+        }
+        downloadsDone.countDown()
+      }
+    }
+
+    while (downloadsDone.count > 0) {
+      drawFrame()
+    }
+    drawFrame()
+    executor.shutdown()
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue()
+
+    listeners.forEachIndexed { index, listener ->
+      if (index in cancelled) {
+        assertThat(listener.progresses).isEmpty()
+
+      } else {
+        val bytesRead = listener.progresses.map { it.first }
+        assertThat(bytesRead.last()).isEqualTo(totalBytes)
+        assertThat(bytesRead).isInStrictOrder()
+        // At most one dispatch per granularity step.
+        assertThat(bytesRead.size).isAtMost(101)
+      }
+    }
+    assertThat(repository.size()).isEqualTo(0)
+  }
+}
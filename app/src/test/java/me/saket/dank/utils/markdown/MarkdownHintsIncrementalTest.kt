@@ -0,0 +1,135 @@
+package me.saket.dank.utils.markdown
+
+import android.app.Application
+import android.text.Spanned
+import android.text.style.ForegroundColorSpan
+import android.widget.EditText
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import me.saket.dank.markdownhints.MarkdownHints
+import me.saket.dank.markdownhints.MarkdownSpanPool
+import me.saket.dank.markdownhints.spans.HeadingSpanWithLevel
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class MarkdownHintsIncrementalTest {
+
+  private lateinit var app: Application
+
+  @Before
+  fun setUp() {
+    app = ApplicationProvider.getApplicationContext()
+  }
+
+  @Test
+  fun `typing character by character should highlight the same as a full re-parse`() {
+    val editText = editText(incremental = true)
+    typeCharByChar(editText, sampleMarkdown(targetLength = 2_000))
+
+    assertThat(hintSpans(editText)).isEqualTo(hintSpans(fullyHighlighted(editText.text)))
+  }
+
+  @Test
+  fun `edits in the middle of the text should highlight the same as a full re-parse`() {
+    val editText = editText(incremental = true)
+    editText.setText(sampleMarkdown(targetLength = 2_000))
+    val middle = editText.text.indexOf("\n\n", editText.text.length / 2) + 2
+
+    // Open and close a fence.
+    editText.text.insert(middle, "```\n")
+    assertThat(hintSpans(editText)).isEqualTo(hintSpans(fullyHighlighted(editText.text)))
+    editText.text.delete(middle, middle + 4)
+    assertThat(hintSpans(editText)).isEqualTo(hintSpans(fullyHighlighted(editText.text)))
+
+    // Turn a paragraph into a list item.
+    editText.text.insert(middle, "- ")
+    assertThat(hintSpans(editText)).isEqualTo(hintSpans(fullyHighlighted(editText.text)))
+
+    // Merge two blocks by removing the blank line between them.
+    editText.text.delete(middle - 1, middle)
+    assertThat(hintSpans(editText)).isEqualTo(hintSpans(fullyHighlighted(editText.text)))
+  }
+
+  /**
+   * Prints the time spent per keystroke while composing a long reply.
+   */
+  @Test
+  @Ignore("Benchmark. Run manually.")
+  fun `benchmark typing a 20k character document`() {
+    val markdown = sampleMarkdown(targetLength = 20_000)
+
+    for (incremental in listOf(true, false)) {
+      val editText = editText(incremental)
+      val startTimeNanos = System.nanoTime()
+      typeCharByChar(editText, markdown)
+      val elapsedMillis = (System.nanoTime() - startTimeNanos) / 1_000_000
+
+      println(String.format(
+          "%s: %d chars in %dms (%.3fms per keystroke)",
+          if (incremental) "Incremental" else "Full re-parse",
+          markdown.length,
+          elapsedMillis,
+          elapsedMillis.toFloat() / markdown.length))
+    }
+  }
+
+  private fun editText(incremental: Boolean): EditText {
+    val options = MarkdownModule.provideMarkdownHintOptions(app)
+    val spanPool = MarkdownSpanPool(MarkdownModule.markdownSpansTheme(app, options))
+    val editText = EditText(app)
+    editText.addTextChangedListener(MarkdownHints(editText, options, spanPool, incremental))
+    return editText
+  }
+
+  private fun fullyHighlighted(text: CharSequence): EditText {
+    val editText = editText(incremental = false)
+    editText.setText(text.toString())
+    return editText
+  }
+
+  private fun typeCharByChar(editText: EditText, text: String) {
+    for (char in text) {
+      editText.text.append(char)
+    }
+  }
+
+  private fun hintSpans(editText: EditText): List<String> {
+    val text: Spanned = editText.text
+    return text.getSpans(0, text.length, Any::class.java)
+        .filter { MarkdownHints.SUPPORTED_MARKDOWN_SPANS.contains(it.javaClass) }
+        .map { span ->
+          val details = when (span) {
+            is ForegroundColorSpan -> span.foregroundColor.toString()
+            is HeadingSpanWithLevel -> span.level().toString()
+            else -> ""
+          }
+          "${span.javaClass.simpleName}($details) [${text.getSpanStart(span)}, ${text.getSpanEnd(span)})"
+        }
+        .sorted()
+  }
+
+  private fun sampleMarkdown(targetLength: Int): String {
+    val blocks = listOf(
+        "# Heading",
+        "Some **bold**, *italic*, ~~struck~~ and `inline code` text.\nA second line of the same paragraph.",
+        "> A quote\n> spanning two lines",
+        "- First item\n- Second item\n\n- Third item, after a blank line",
+        "1. One\n2. Two",
+        "    indented code\n\n    more indented code",
+        "```\nfenced *code*\n\nwith a blank line\n```",
+        "A [link](https://dawn.app) and a [spoiler](/s \"surprise\").",
+        "---"
+    )
+    val builder = StringBuilder()
+    var index = 0
+    while (builder.length < targetLength) {
+      builder.append(blocks[index % blocks.size]).append("\n\n")
+      index++
+    }
+    return builder.toString()
+  }
+}
@@ -0,0 +1,50 @@
+package me.saket.dank.utils.markdown;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MarkdownSpanCacheTest {
+
+  @Test
+  public void hitsAndMissesShouldBeCounted() throws Exception {
+    MarkdownSpanCache cache = new MarkdownSpanCache(1024 * 1024);
+
+    cache.get("**one**", () -> "one");
+    cache.get("**one**", () -> "one");
+    cache.get("**two**", () -> "two");
+
+    MarkdownSpanCache.Stats stats = cache.stats();
+    assertThat(stats.hitCount).isEqualTo(1);
+    assertThat(stats.missCount).isEqualTo(2);
+    assertThat(stats.entryCount).isEqualTo(2);
+  }
+
+  @Test
+  public void entriesShouldBeEvictedWhenBudgetIsExceeded() throws Exception {
+    String longText = new String(new char[1000]).replace('\0', 'a');
+    int entryWeight = MarkdownSpanCache.weigh(longText + 0, longText);
+    MarkdownSpanCache cache = new MarkdownSpanCache(entryWeight * 5);
+
+    for (int i = 0; i < 20; i++) {
+      cache.get(longText + i, () -> longText);
+    }
+
+    MarkdownSpanCache.Stats stats = cache.stats();
+    assertThat(stats.evictionCount).isGreaterThan(0L);
+    assertThat(stats.weightBytes).isAtMost(stats.maxWeightBytes);
+  }
+
+  @Test
+  public void cacheShouldBeClearedWhenMemoryIsLow() throws Exception {
+    MarkdownSpanCache cache = new MarkdownSpanCache(1024 * 1024);
+    cache.get("**one**", () -> "one");
+
+    cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+
+    assertThat(cache.stats().entryCount).isEqualTo(0);
+    assertThat(cache.stats().weightBytes).isEqualTo(0);
+  }
+}
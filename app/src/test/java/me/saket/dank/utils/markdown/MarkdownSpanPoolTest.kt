@@ -0,0 +1,91 @@
+package me.saket.dank.utils.markdown
+
+import android.app.Application
+import android.graphics.Color
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import me.saket.dank.markdownhints.MarkdownSpanPool
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+@RunWith(RobolectricTestRunner::class)
+class MarkdownSpanPoolTest {
+
+  private lateinit var pool: MarkdownSpanPool
+
+  @Before
+  fun setUp() {
+    val app = ApplicationProvider.getApplicationContext<Application>()
+    val options = MarkdownModule.provideMarkdownHintOptions(app)
+    pool = MarkdownSpanPool(MarkdownModule.markdownSpansTheme(app, options), 4)
+  }
+
+  @Test
+  fun `multiple spans with the same color should be reused`() {
+    val first = pool.foregroundColor(Color.RED)
+    val second = pool.foregroundColor(Color.RED)
+    pool.recycle(first)
+    pool.recycle(second)
+
+    val reused = setOf(pool.foregroundColor(Color.RED), pool.foregroundColor(Color.RED))
+
+    assertThat(reused).containsExactly(first, second)
+    val stats = pool.stats().getValue("ForegroundColorSpan")
+    assertThat(stats.allocationCount).isEqualTo(2)
+    assertThat(stats.reuseCount).isEqualTo(2)
+  }
+
+  @Test
+  fun `spans should only be reused for the same parameter`() {
+    pool.recycle(pool.heading(1))
+
+    assertThat(pool.heading(2).level()).isEqualTo(2)
+    assertThat(pool.stats().getValue("HeadingSpanWithLevel").reuseCount).isEqualTo(0)
+  }
+
+  @Test
+  fun `spans recycled beyond the capacity should be dropped`() {
+    val spans = List(6) { pool.bold() }
+    spans.forEach { pool.recycle(it) }
+
+    val stats = pool.stats().getValue("StyleSpan")
+    assertThat(stats.pooledCount).isEqualTo(4)
+    assertThat(stats.dropCount).isEqualTo(2)
+  }
+
+  @Test
+  fun `a span should never be handed out to two threads at once`() {
+    val threadCount = 4
+    val executor = Executors.newFixedThreadPool(threadCount)
+    val inUse: MutableSet<Any> = Collections.synchronizedSet(Collections.newSetFromMap(IdentityHashMap()))
+    val reusedWhileInUse = AtomicBoolean()
+    val done = CountDownLatch(threadCount)
+
+    repeat(threadCount) {
+      executor.execute {
+        repeat(10_000) {
+          val span = pool.foregroundColor(Color.BLUE)
+          if (!inUse.add(span)) {
+            reusedWhileInUse.set(true)
+          }
+          inUse.remove(span)
+          pool.recycle(span)
+        }
+        done.countDown()
+      }
+    }
+
+    assertThat(done.await(30, TimeUnit.SECONDS)).isTrue()
+    executor.shutdown()
+    assertThat(reusedWhileInUse.get()).isFalse()
+    assertThat(pool.stats().getValue("ForegroundColorSpan").pooledCount).isAtMost(4L)
+  }
+}
@@ -1,11 +1,10 @@
 package me.saket.dank.utils.markdown.markwon;
 
-import com.nytimes.android.external.cache3.Cache;
-
 import org.junit.Before;
 import org.junit.Test;
 
 import me.saket.dank.markdownhints.MarkdownHintOptions;
+import me.saket.dank.utils.markdown.MarkdownSpanCache;
 import ru.noties.markwon.SpannableConfiguration;
 
 import static junit.framework.Assert.assertEquals;
@@ -17,18 +16,30 @@ public class MarkwonBasedMarkdownRendererTest {
 
   @Before
   public void setUp() {
-    //noinspection unchecked
     renderer = new MarkwonBasedMarkdownRenderer(
         mock(SpannableConfiguration.class),
         mock(AutoRedditLinkExtension.class),
         mock(EmptyListItemHandlerExtension.class),
         mock(MarkdownHintOptions.class),
-        mock(Cache.class));
+        mock(MarkdownSpanCache.class));
   }
 
   @Test
   public void fixInvalidTables() {
-    // TODO.
+    String invalid = "Name|Score\n:-|-:\nfoo|-1\n\n---";
+    String expected = "Name|Score\n:---|---:\nfoo|-1\n\n---";
+
+    String parsed = renderer.fixInvalidTables(invalid);
+    assertEquals(expected, parsed);
+  }
+
+  @Test
+  public void preprocessAllFixesInOnePass() {
+    String invalid = "#Heading\n\n[label] (http://a.com/b c) ^super &amp;lt;3\n\n[spoiler](#s \"\"secret\"\")";
+    String expected = "# Heading\n\n[label](http://a.com/b%20c) <sup>super</sup> &lt;3\n\n[spoiler](/s \"secret\")";
+
+    String parsed = new RedditMarkdownPreprocessor().process(invalid);
+    assertEquals(expected, parsed);
   }
 
   @Test
@@ -107,4 +118,18 @@ public class MarkwonBasedMarkdownRendererTest {
     String parsed = renderer.fixSpacesInLinkUrls(invalid);
     assertEquals(expected, parsed);
   }
+
+  @Test
+  public void leaveLotsOfUnclosedLinksUntouched() {
+    StringBuilder unclosedUrls = new StringBuilder();
+    StringBuilder unclosedSpoilers = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      unclosedUrls.append("[a](b ");
+      unclosedSpoilers.append("[a](/s \"b ");
+    }
+    String unclosed = unclosedUrls + "\n" + unclosedSpoilers;
+
+    String parsed = new RedditMarkdownPreprocessor().process(unclosed);
+    assertEquals(unclosed, parsed);
+  }
 }
@@ -0,0 +1,120 @@
+package me.saket.dank.utils.okhttp
+
+import com.google.common.truth.Truth.assertThat
+import okhttp3.Cache
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.concurrent.TimeUnit
+
+class HttpCachePoliciesTest {
+
+  @get:Rule val tempFolder = TemporaryFolder()
+
+  private val server = MockWebServer()
+  private lateinit var cache: Cache
+  private lateinit var client: OkHttpClient
+
+  @Before
+  fun setUp() {
+    server.start()
+
+    val policies = HttpCachePolicies(listOf(
+        HttpCachePolicies.Policy.create(server.hostName, "/fresh/", 60, 0, TimeUnit.SECONDS),
+        HttpCachePolicies.Policy.create(server.hostName, "/stale/", 0, 60, TimeUnit.SECONDS)
+    ))
+    cache = Cache(tempFolder.newFolder(), 1024 * 1024)
+    client = OkHttpClient.Builder()
+        .cache(cache)
+        .addInterceptor(policies.staleIfErrorInterceptor())
+        .addNetworkInterceptor(policies.maxAgeInterceptor())
+        .build()
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+    cache.close()
+  }
+
+  private fun get(path: String): String {
+    return client.newCall(Request.Builder().url(server.url(path)).build()).execute().use { response ->
+      response.body!!.string()
+    }
+  }
+
+  @Test
+  fun `serve fresh responses without going to network`() {
+    server.enqueue(MockResponse().setBody("album").addHeader("Cache-Control", "no-cache"))
+
+    assertThat(get("/fresh/album")).isEqualTo("album")
+    assertThat(get("/fresh/album")).isEqualTo("album")
+
+    assertThat(server.requestCount).isEqualTo(1)
+  }
+
+  @Test
+  fun `revalidate stale responses with their etags`() {
+    server.enqueue(MockResponse().setBody("video").addHeader("ETag", "\"v1\""))
+    server.enqueue(MockResponse().setResponseCode(304).addHeader("ETag", "\"v1\""))
+
+    assertThat(get("/stale/video")).isEqualTo("video")
+    assertThat(get("/stale/video")).isEqualTo("video")
+
+    assertThat(server.takeRequest().getHeader("If-None-Match")).isNull()
+    assertThat(server.takeRequest().getHeader("If-None-Match")).isEqualTo("\"v1\"")
+    assertThat(cache.hitCount()).isEqualTo(1)
+  }
+
+  @Test
+  fun `serve stale responses when server errors`() {
+    server.enqueue(MockResponse().setBody("video"))
+    server.enqueue(MockResponse().setResponseCode(503))
+
+    assertThat(get("/stale/video")).isEqualTo("video")
+    assertThat(get("/stale/video")).isEqualTo("video")
+  }
+
+  @Test
+  fun `serve stale responses when server errors with a body`() {
+    server.enqueue(MockResponse().setBody("video"))
+    server.enqueue(MockResponse().setResponseCode(503).setBody("Service unavailable"))
+
+    assertThat(get("/stale/video")).isEqualTo("video")
+    assertThat(get("/stale/video")).isEqualTo("video")
+  }
+
+  @Test
+  fun `return server errors when nothing is cached`() {
+    server.enqueue(MockResponse().setResponseCode(503).setBody("Service unavailable"))
+
+    client.newCall(Request.Builder().url(server.url("/stale/video")).build()).execute().use { response ->
+      assertThat(response.code).isEqualTo(503)
+      assertThat(response.body!!.string()).isEqualTo("Service unavailable")
+    }
+  }
+
+  @Test
+  fun `serve stale responses when offline`() {
+    server.enqueue(MockResponse().setBody("video"))
+    assertThat(get("/stale/video")).isEqualTo("video")
+
+    server.shutdown()
+    assertThat(get("/stale/video")).isEqualTo("video")
+  }
+
+  @Test
+  fun `not cache responses of other endpoints`() {
+    server.enqueue(MockResponse().setBody("token 1"))
+    server.enqueue(MockResponse().setBody("token 2"))
+
+    assertThat(get("/oauth/token")).isEqualTo("token 1")
+    assertThat(get("/oauth/token")).isEqualTo("token 2")
+  }
+}
@@ -0,0 +1,106 @@
+package me.saket.dank.utils.okhttp
+
+import com.google.common.truth.Truth.assertThat
+import okhttp3.Call
+import okhttp3.EventListener
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okhttp3.tls.HandshakeCertificates
+import okhttp3.tls.HeldCertificate
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class SharedOkHttpClientTest {
+
+  private val server = MockWebServer()
+  private val tlsHandshakes = AtomicInteger()
+
+  private val certificate = HeldCertificate.Builder()
+      .addSubjectAlternativeName("localhost")
+      .build()
+  private val serverCertificates = HandshakeCertificates.Builder()
+      .heldCertificate(certificate)
+      .build()
+  private val clientCertificates = HandshakeCertificates.Builder()
+      .addTrustedCertificate(certificate.certificate)
+      .build()
+
+  private val handshakeCounter = object : EventListener() {
+    override fun secureConnectStart(call: Call) {
+      tlsHandshakes.incrementAndGet()
+    }
+  }
+
+  @Before
+  fun setUp() {
+    server.useHttps(serverCertificates.sslSocketFactory(), false)
+    server.dispatcher = object : Dispatcher() {
+      override fun dispatch(request: RecordedRequest) = MockResponse().setBody("ok")
+    }
+    server.start()
+  }
+
+  @After
+  fun tearDown() {
+    server.shutdown()
+  }
+
+  private fun OkHttpClient.trustingServer(): OkHttpClient {
+    return newBuilder()
+        .sslSocketFactory(clientCertificates.sslSocketFactory(), clientCertificates.trustManager)
+        .eventListener(handshakeCounter)
+        .build()
+  }
+
+  /**
+   * A feed page makes one API call for submissions, unfurls a link and loads thumbnails,
+   * all from the same host here.
+   */
+  private fun loadFeedPage(apiClient: OkHttpClient, unfurlerClient: OkHttpClient, imageClient: OkHttpClient) {
+    val calls = listOf(apiClient to "/r/pics.json", unfurlerClient to "/article.html") +
+        (1..5).map { imageClient to "/thumbnail_$it.jpg" }
+
+    for ((client, path) in calls) {
+      client.newCall(Request.Builder().url(server.url(path)).build()).execute().use { response ->
+        assertThat(response.body!!.string()).isEqualTo("ok")
+      }
+    }
+  }
+
+  @Test
+  fun `share connections between clients derived from the shared client`() {
+    val sharedClient = SharedOkHttpClient.create(15, 10).trustingServer()
+    val apiClient = sharedClient.newBuilder()
+        .addInterceptor { chain -> chain.proceed(chain.request()) }
+        .build()
+    val imageClient = sharedClient.newBuilder()
+        .addNetworkInterceptor { chain -> chain.proceed(chain.request()) }
+        .build()
+
+    loadFeedPage(apiClient, sharedClient, imageClient)
+    val sharedHandshakes = tlsHandshakes.getAndSet(0)
+
+    loadFeedPage(OkHttpClient().trustingServer(), OkHttpClient().trustingServer(), OkHttpClient().trustingServer())
+    val separateHandshakes = tlsHandshakes.get()
+
+    assertThat(sharedHandshakes).isEqualTo(1)
+    assertThat(separateHandshakes).isEqualTo(3)
+    assertThat(server.requestCount).isEqualTo(14)
+  }
+
+  @Test
+  fun `limit concurrent requests per host`() {
+    val sharedClient = SharedOkHttpClient.create(15, 10)
+    val derivedClient = sharedClient.newBuilder().build()
+
+    assertThat(derivedClient.dispatcher).isSameInstanceAs(sharedClient.dispatcher)
+    assertThat(derivedClient.connectionPool).isSameInstanceAs(sharedClient.connectionPool)
+    assertThat(derivedClient.dispatcher.maxRequestsPerHost).isEqualTo(SharedOkHttpClient.MAX_REQUESTS_PER_HOST)
+  }
+}
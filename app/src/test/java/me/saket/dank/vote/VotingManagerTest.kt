@@ -0,0 +1,121 @@
+package me.saket.dank.vote
+
+import android.content.SharedPreferences
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import com.nhaarman.mockitokotlin2.argThat
+import com.nhaarman.mockitokotlin2.eq
+import io.reactivex.Completable
+import me.saket.dank.ImmediateSchedulersRule
+import me.saket.dank.reddit.Reddit
+import net.dean.jraw.models.Submission
+import net.dean.jraw.models.VoteDirection
+import org.junit.Rule
+import org.junit.Test
+
+class VotingManagerTest {
+
+  @get:Rule
+  val schedulersRule: ImmediateSchedulersRule = ImmediateSchedulersRule.create()
+
+  private val editor = mock<SharedPreferences.Editor> {
+    on { putString(any(), any()) } doReturn it
+    on { putBoolean(any(), any()) } doReturn it
+    on { remove(any()) } doReturn it
+  }
+
+  private val sharedPrefs = mock<SharedPreferences> {
+    on { all } doReturn mapOf("pendingVote_t3_old" to "UPVOTE", "pendingVote_t3_new" to "DOWN")
+    on { edit() } doReturn editor
+  }
+
+  private val loggedInUser = mock<Reddit.LoggedInUser> {
+    on { vote(any(), any()) } doReturn Completable.complete()
+  }
+
+  private val reddit = mock<Reddit> {
+    on { loggedInUser() } doReturn loggedInUser
+  }
+
+  private val votingManager = VotingManager(mock(), { reddit }, { sharedPrefs })
+
+  private fun submission(fullName: String) = mock<Submission> {
+    on { this.fullName } doReturn fullName
+    on { vote } doReturn VoteDirection.NONE
+  }
+
+  private fun vote(fullName: String, direction: VoteDirection) = mock<Vote> {
+    on { contributionToVote() } doReturn submission(fullName)
+    on { direction() } doReturn direction
+    on { sendToRemote(any()) } doReturn Completable.complete()
+  }
+
+  private fun failedVote(fullName: String, direction: VoteDirection) = mock<Vote> {
+    on { contributionToVote() } doReturn submission(fullName)
+    on { direction() } doReturn direction
+    on { sendToRemote(any()) } doReturn Completable.error(RuntimeException())
+  }
+
+  @Test
+  fun `read pending votes from shared prefs only once`() {
+    assertThat(votingManager.getPendingOrDefaultVote(submission("t3_old"), VoteDirection.NONE)).isEqualTo(VoteDirection.UP)
+    assertThat(votingManager.getPendingOrDefaultVote(submission("t3_new"), VoteDirection.NONE)).isEqualTo(VoteDirection.DOWN)
+    assertThat(votingManager.getPendingOrDefaultVote(submission("t3_none"), VoteDirection.NONE)).isEqualTo(VoteDirection.NONE)
+    assertThat(votingManager.isVotePending(submission("t3_none"))).isFalse()
+
+    verify(sharedPrefs, times(1)).all
+  }
+
+  @Test
+  fun `write votes through to shared prefs`() {
+    votingManager.saveAndSend(vote("t3_voted", VoteDirection.UP)).test().assertComplete()
+
+    assertThat(votingManager.getPendingOrDefaultVote(submission("t3_voted"), VoteDirection.NONE)).isEqualTo(VoteDirection.UP)
+    verify(editor).putString("pendingVote_t3_voted", VoteDirection.UP.name)
+    verify(editor).apply()
+  }
+
+  @Test
+  fun `notify changes only for the voted contribution`() {
+    val votedChanges = votingManager.streamChanges("t3_voted").test()
+    val otherChanges = votingManager.streamChanges("t3_other").test()
+
+    votingManager.saveAndSend(vote("t3_voted", VoteDirection.DOWN)).test()
+
+    votedChanges.assertValueCount(2)    // Initial value + vote.
+    otherChanges.assertValueCount(1)
+  }
+
+  @Test
+  fun `send only the latest of multiple unsent votes on a contribution`() {
+    votingManager.saveAndSend(failedVote("t3_voted", VoteDirection.UP)).test()
+    votingManager.addToUnsentVotes(submission("t3_voted"))
+    votingManager.saveAndSend(failedVote("t3_voted", VoteDirection.DOWN)).test()
+    votingManager.addToUnsentVotes(submission("t3_voted"))
+
+    votingManager.syncUnsentVotes().test().await().assertComplete()
+
+    verify(loggedInUser, times(1)).vote(any(), any())
+    verify(loggedInUser).vote(argThat { fullName == "t3_voted" }, eq(VoteDirection.DOWN))
+    assertThat(votingManager.hasUnsentVotes()).isFalse()
+  }
+
+  @Test
+  fun `send votes that got queued while a sync was running`() {
+    votingManager.addToUnsentVotes(submission("t3_new"))
+    whenever(loggedInUser.vote(argThat { fullName == "t3_new" }, any())).thenAnswer {
+      votingManager.addToUnsentVotes(submission("t3_old"))
+      Completable.complete()
+    }
+
+    votingManager.syncUnsentVotes().test().await().assertComplete()
+
+    verify(loggedInUser).vote(argThat { fullName == "t3_old" }, eq(VoteDirection.UP))
+    assertThat(votingManager.hasUnsentVotes()).isFalse()
+  }
+}
@@ -2,8 +2,11 @@ package me.thanel.dawn.linkunfurler
 
 import io.reactivex.Single
 import me.thanel.dawn.linkunfurler.readers.GenericLinkMetadataReader
+import okhttp3.OkHttpClient
+import okhttp3.Request
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
+import java.io.IOException
 import java.net.URI
 import java.net.URL
 import java.util.concurrent.TimeUnit
@@ -11,12 +14,20 @@ import java.util.regex.Pattern
 
 /**
  * Parses meta-data for URLs.
+ *
+ * @param httpClient Pages are downloaded with a client derived from this one, so that
+ * connections get shared with the rest of the app.
  */
 class LinkUnfurler(
   private val genericMetadataReader: GenericLinkMetadataReader,
-  private val customMetadataReaders: List<LinkMetadataReader>
+  private val customMetadataReaders: List<LinkMetadataReader>,
+  httpClient: OkHttpClient
 ) {
 
+  private val httpClient = httpClient.newBuilder()
+    .callTimeout(PAGE_DOWNLOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    .build()
+
   /**
    * @param ignoreSocialMetadata When true, facebook/twitter titles, images will be ignored and the
    * page HTML title will instead be used.
@@ -35,9 +46,7 @@ class LinkUnfurler(
 
     val downloadDocument =
       Single.fromCallable {
-        val document = Jsoup.connect(url)
-          .timeout(PAGE_DOWNLOAD_TIMEOUT_MILLIS)
-          .get()
+        val document = download(url)
         metaRedirectIfNeeded(url, document)
       }
 
@@ -51,6 +60,22 @@ class LinkUnfurler(
       .onErrorReturn { Result.failure(it) }
   }
 
+  private fun download(url: String): Document {
+    val request = Request.Builder()
+      .url(url)
+      .header("User-Agent", USER_AGENT)
+      .build()
+
+    httpClient.newCall(request).execute().use { response ->
+      if (!response.isSuccessful) {
+        throw IOException("HTTP ${response.code} while downloading $url")
+      }
+      val body = response.body ?: throw IOException("Empty body for $url")
+      // Relative URLs are resolved against the final URL after redirects.
+      return Jsoup.parse(body.byteStream(), body.contentType()?.charset()?.name(), response.request.url.toString())
+    }
+  }
+
   /**
    * Jsoup seems handle 301-redirects fine, but not 302s. This method manually does that.
    * Useful for websites like https://youtu.be/VJOAxlsMEJg.
@@ -63,7 +88,7 @@ class LinkUnfurler(
         val redirectUrlMatch = matcher.group(1)
         if (redirectUrlMatch != null) {
           val redirectUrl = uri.resolve(redirectUrlMatch).toString()
-          return Jsoup.connect(redirectUrl).get()
+          return download(redirectUrl)
         }
       }
     }
@@ -98,7 +123,9 @@ class LinkUnfurler(
   }
 
   companion object {
-    private val PAGE_DOWNLOAD_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30).toInt()
+    private const val PAGE_DOWNLOAD_TIMEOUT_SECONDS = 30L
+    // Same as what Jsoup sends by default. Some websites only serve metadata to browsers.
+    private const val USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.143 Safari/537.36"
     private val KNOWN_HTML_EXTENSIONS = setOf("", "html", "htm", "aspx", "php")
     private val REDIRECT_URL_PATTERN = Pattern.compile("(?si)\\d+;\\s*url=(.+)|\\d+")
   }
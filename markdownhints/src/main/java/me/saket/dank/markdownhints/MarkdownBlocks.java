@@ -0,0 +1,196 @@
+package me.saket.dank.markdownhints;
+
+/**
+ * Finds boundaries of markdown blocks in raw text without parsing it. Used by
+ * {@link MarkdownHints} for re-parsing only the blocks touched by an edit.
+ * <p>
+ * Blocks are runs of lines separated by blank lines. List items and indented lines
+ * continue the block before them even across blank lines, because lists and indented
+ * code blocks are allowed to contain blank lines.
+ */
+final class MarkdownBlocks {
+
+  private MarkdownBlocks() {
+  }
+
+  /**
+   * @return Start offset of the block containing <var>position</var>.
+   */
+  static int blockStart(CharSequence text, int position) {
+    int lineStart = lineStart(text, position);
+    while (lineStart > 0) {
+      int previousLineStart = lineStart(text, lineStart - 1);
+      if (!isBlank(text, previousLineStart, lineStart - 1)) {
+        lineStart = previousLineStart;
+        continue;
+      }
+
+      // Blank line above. Keep going if this block continues a list or an indented code block.
+      if (!isListItemOrIndented(text, lineStart)) {
+        break;
+      }
+      int nonBlankLineStart = previousLineStart;
+      while (nonBlankLineStart > 0 && isBlank(text, nonBlankLineStart, lineEnd(text, nonBlankLineStart))) {
+        nonBlankLineStart = lineStart(text, nonBlankLineStart - 1);
+      }
+      if (isBlank(text, nonBlankLineStart, lineEnd(text, nonBlankLineStart))) {
+        break;
+      }
+      lineStart = nonBlankLineStart;
+    }
+    return lineStart;
+  }
+
+  /**
+   * @return End offset (exclusive) of the block containing <var>position</var>, including its last line break.
+   */
+  static int blockEnd(CharSequence text, int position) {
+    int lineEnd = lineEnd(text, position);
+    while (lineEnd < text.length()) {
+      int nextLineStart = lineEnd + 1;
+      int nextLineEnd = lineEnd(text, nextLineStart);
+      if (!isBlank(text, nextLineStart, nextLineEnd)) {
+        lineEnd = nextLineEnd;
+        continue;
+      }
+
+      // Blank line below. Keep going if the next block continues a list or an indented code block.
+      int nonBlankLineStart = nextLineStart;
+      while (nonBlankLineStart < text.length() && isBlank(text, nonBlankLineStart, lineEnd(text, nonBlankLineStart))) {
+        nonBlankLineStart = lineEnd(text, nonBlankLineStart) + 1;
+      }
+      if (nonBlankLineStart >= text.length() || !isListItemOrIndented(text, nonBlankLineStart)) {
+        break;
+      }
+      lineEnd = lineEnd(text, nonBlankLineStart);
+    }
+    return Math.min(lineEnd + 1, text.length());
+  }
+
+  /**
+   * @return True if any line touching [start, end) is a code fence, like "```" or "~~~".
+   */
+  static boolean hasFenceLine(CharSequence text, int start, int end) {
+    int lineStart = lineStart(text, start);
+    while (lineStart <= end && lineStart < text.length()) {
+      if (fenceChar(text, lineStart) != 0) {
+        return true;
+      }
+      lineStart = lineEnd(text, lineStart) + 1;
+    }
+    return false;
+  }
+
+  /**
+   * @return Start of the line that opens a fenced code block which is still open at
+   * <var>position</var>, or -1 if <var>position</var> isn't inside a fenced code block.
+   */
+  static int openFenceStart(CharSequence text, int position) {
+    int openFenceStart = -1;
+    char openFenceChar = 0;
+
+    int lineStart = 0;
+    while (lineStart < position && lineStart < text.length()) {
+      char fenceChar = fenceChar(text, lineStart);
+      if (fenceChar != 0) {
+        if (openFenceStart == -1) {
+          openFenceStart = lineStart;
+          openFenceChar = fenceChar;
+        } else if (fenceChar == openFenceChar) {
+          openFenceStart = -1;
+        }
+      }
+      lineStart = lineEnd(text, lineStart) + 1;
+    }
+    return openFenceStart;
+  }
+
+  /**
+   * @return End of the line that closes the fenced code block opened at <var>openFenceStart</var>,
+   * or the end of the text if it's never closed.
+   */
+  static int closingFenceEnd(CharSequence text, int openFenceStart) {
+    char openFenceChar = fenceChar(text, openFenceStart);
+    int lineStart = lineEnd(text, openFenceStart) + 1;
+    while (lineStart < text.length()) {
+      int lineEnd = lineEnd(text, lineStart);
+      if (fenceChar(text, lineStart) == openFenceChar) {
+        return Math.min(lineEnd + 1, text.length());
+      }
+      lineStart = lineEnd + 1;
+    }
+    return text.length();
+  }
+
+  static int lineStart(CharSequence text, int position) {
+    int index = Math.min(position, text.length());
+    while (index > 0 && text.charAt(index - 1) != '\n') {
+      index--;
+    }
+    return index;
+  }
+
+  static int lineEnd(CharSequence text, int position) {
+    int index = position;
+    while (index < text.length() && text.charAt(index) != '\n') {
+      index++;
+    }
+    return index;
+  }
+
+  private static boolean isBlank(CharSequence text, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * "- item", "* item", "+ item", "1. item", "1) item" or any line starting with a space or a tab.
+   */
+  private static boolean isListItemOrIndented(CharSequence text, int lineStart) {
+    if (lineStart >= text.length()) {
+      return false;
+    }
+    char c = text.charAt(lineStart);
+    if (c == ' ' || c == '\t') {
+      return true;
+    }
+    if (c == '-' || c == '*' || c == '+') {
+      return lineStart + 1 >= text.length() || Character.isWhitespace(text.charAt(lineStart + 1));
+    }
+
+    int index = lineStart;
+    while (index < text.length() && Character.isDigit(text.charAt(index))) {
+      index++;
+    }
+    return index > lineStart
+        && index < text.length()
+        && (text.charAt(index) == '.' || text.charAt(index) == ')');
+  }
+
+  /**
+   * @return '`' or '~' if the line is a code fence, 0 otherwise.
+   */
+  private static char fenceChar(CharSequence text, int lineStart) {
+    int index = lineStart;
+    while (index < text.length() && index - lineStart < 3 && text.charAt(index) == ' ') {
+      index++;
+    }
+    if (index >= text.length()) {
+      return 0;
+    }
+    char c = text.charAt(index);
+    if (c != '`' && c != '~') {
+      return 0;
+    }
+    int runLength = 0;
+    while (index < text.length() && text.charAt(index) == c) {
+      runLength++;
+      index++;
+    }
+    return runLength >= 3 ? c : 0;
+  }
+}
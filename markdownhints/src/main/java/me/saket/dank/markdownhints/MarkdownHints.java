@@ -28,6 +28,8 @@ import timber.log.Timber;
 
 /**
  * Usage: EditText#addTextChangedListener(new MarkdownHints(EditText, HighlightOptions, SpanPool));
+ * <p>
+ * By default, only the blocks touched by an edit are re-parsed. See {@link MarkdownBlocks}.
  */
 public class MarkdownHints extends SimpleTextWatcher {
 
@@ -52,14 +54,30 @@ public class MarkdownHints extends SimpleTextWatcher {
   private final Parser parser;
   private final MarkdownNodeTreeVisitor markdownNodeTreeVisitor;
   private final MarkdownHintsSpanWriter markdownHintsSpanWriter;
+  private final boolean incremental;
+
+  // Range of text that was changed since the last highlight, in new text's coordinates.
+  private int dirtyStart = -1;
+  private int dirtyEnd = -1;
+  private boolean fenceChanged;
 
   public static void enableLogging() {
     Timber.plant(new Timber.DebugTree());
   }
 
   public MarkdownHints(EditText editText, MarkdownHintOptions markdownHintOptions, MarkdownSpanPool spanPool) {
+    this(editText, markdownHintOptions, spanPool, true);
+  }
+
+  /**
+   * @param incremental When true, only the blocks touched by an edit are re-parsed and re-highlighted.
+   *                    Spans in the rest of the text are left alone. Otherwise the entire text is
+   *                    re-parsed on every change.
+   */
+  public MarkdownHints(EditText editText, MarkdownHintOptions markdownHintOptions, MarkdownSpanPool spanPool, boolean incremental) {
     this.editText = editText;
     this.spanPool = spanPool;
+    this.incremental = incremental;
     this.markdownHintsSpanWriter = new MarkdownHintsSpanWriter();
     this.markdownNodeTreeVisitor = new MarkdownNodeTreeVisitor(spanPool, markdownHintOptions);
 
@@ -68,22 +86,101 @@ public class MarkdownHints extends SimpleTextWatcher {
         .build();
   }
 
+  @Override
+  public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+    // Adding or removing a fence changes how everything after it gets parsed.
+    if (incremental && MarkdownBlocks.hasFenceLine(text, start, start + count)) {
+      fenceChanged = true;
+    }
+  }
+
+  @Override
+  public void onTextChanged(CharSequence text, int start, int before, int count) {
+    if (dirtyStart == -1) {
+      dirtyStart = start;
+      dirtyEnd = start + count;
+
+    } else {
+      // More than one change before afterTextChanged() gets called. Shift the previous range if needed.
+      if (dirtyEnd > start) {
+        dirtyEnd = Math.max(dirtyEnd + count - before, start);
+      }
+      dirtyStart = Math.min(dirtyStart, start);
+      dirtyEnd = Math.max(dirtyEnd, start + count);
+    }
+  }
+
   @Override
   public void afterTextChanged(Editable editable) {
     editText.removeTextChangedListener(this);
 
+    if (incremental && dirtyStart != -1) {
+      highlightChangedBlocks(editable);
+    } else {
+      highlightAll(editable);
+    }
+    dirtyStart = -1;
+    dirtyEnd = -1;
+    fenceChanged = false;
+
+    editText.addTextChangedListener(this);
+  }
+
+  private void highlightAll(Editable editable) {
     // We'll see stale styling if previous spans aren't removed.
-    removeHintSpans(editable);
+    removeHintSpans(editable, 0, editable.length());
 
     Node markdownRootNode = parser.parse(SubSequence.of(editable));
     markdownHintsSpanWriter.setText(editable);
     markdownNodeTreeVisitor.visit(markdownRootNode, markdownHintsSpanWriter);
+  }
 
-    editText.addTextChangedListener(this);
+  private void highlightChangedBlocks(Editable editable) {
+    int length = editable.length();
+    int regionStart = MarkdownBlocks.blockStart(editable, Math.min(dirtyStart, length));
+    int regionEnd = MarkdownBlocks.blockEnd(editable, Math.min(dirtyEnd, length));
+
+    int openFenceStart = MarkdownBlocks.openFenceStart(editable, regionStart);
+    if (openFenceStart != -1) {
+      regionStart = MarkdownBlocks.blockStart(editable, openFenceStart);
+      regionEnd = Math.max(regionEnd, MarkdownBlocks.closingFenceEnd(editable, openFenceStart));
+    }
+    if (fenceChanged || MarkdownBlocks.hasFenceLine(editable, regionStart, regionEnd)) {
+      regionEnd = length;
+    }
+
+    // Spans that cross the region's boundaries belong to blocks that have to be re-parsed too.
+    while (true) {
+      int expandedStart = regionStart;
+      int expandedEnd = regionEnd;
+      for (Object span : editable.getSpans(regionStart, regionEnd, Object.class)) {
+        if (SUPPORTED_MARKDOWN_SPANS.contains(span.getClass())) {
+          expandedStart = Math.min(expandedStart, editable.getSpanStart(span));
+          expandedEnd = Math.max(expandedEnd, editable.getSpanEnd(span));
+        }
+      }
+      if (expandedStart == regionStart && expandedEnd == regionEnd) {
+        break;
+      }
+      regionStart = MarkdownBlocks.blockStart(editable, expandedStart);
+      regionEnd = MarkdownBlocks.blockEnd(editable, expandedEnd);
+    }
+
+    if (regionStart == 0 && regionEnd == length) {
+      highlightAll(editable);
+      return;
+    }
+
+    removeHintSpans(editable, regionStart, regionEnd);
+
+    // Nodes parsed from a sub-sequence report their offsets relative to the entire text.
+    Node markdownRootNode = parser.parse(SubSequence.of(editable).subSequence(regionStart, regionEnd));
+    markdownHintsSpanWriter.setText(editable);
+    markdownNodeTreeVisitor.visit(markdownRootNode, markdownHintsSpanWriter);
   }
 
-  private void removeHintSpans(Spannable spannable) {
-    Object[] spans = spannable.getSpans(0, spannable.length(), Object.class);
+  private void removeHintSpans(Spannable spannable, int start, int end) {
+    Object[] spans = spannable.getSpans(start, end, Object.class);
     for (Object span : spans) {
       if (SUPPORTED_MARKDOWN_SPANS.contains(span.getClass())) {
         spannable.removeSpan(span);
@@ -1,6 +1,5 @@
 package me.saket.dank.markdownhints;
 
-import android.annotation.SuppressLint;
 import android.graphics.Typeface;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.LeadingMarginSpan;
@@ -10,11 +9,16 @@ import android.text.style.SuperscriptSpan;
 import android.text.style.TypefaceSpan;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
 import androidx.annotation.Px;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import me.saket.dank.markdownhints.spans.HeadingSpanWithLevel;
 import me.saket.dank.markdownhints.spans.HorizontalRuleSpan;
@@ -22,102 +26,147 @@ import me.saket.dank.markdownhints.spans.IndentedCodeBlockSpan;
 import me.saket.dank.markdownhints.spans.InlineCodeSpan;
 import ru.noties.markwon.spans.BlockQuoteSpan;
 import ru.noties.markwon.spans.SpannableTheme;
+import timber.log.Timber;
 
 /**
  * For avoiding creation of new spans on every text change.
+ * <p>
+ * Every span type, and every parameter for parameterized spans (like a color), gets its own bounded
+ * free list so that multiple spans with the same parameter can be pooled. Spans recycled into a full
+ * list are dropped. Lists are lock-free, so the pool is safe to share across threads.
  */
-@SuppressLint("UseSparseArrays")
 public class MarkdownSpanPool {
 
-  private final Stack<StyleSpan> italicsSpans = new Stack<>();
-  private final Stack<StyleSpan> boldSpans = new Stack<>();
-  private final Stack<StrikethroughSpan> strikethroughSpans = new Stack<>();
-  private final Stack<TypefaceSpan> monospaceTypefaceSpans = new Stack<>();
-  private final Map<Integer, ForegroundColorSpan> foregroundColorSpans = new HashMap<>();
-  private final Stack<InlineCodeSpan> inlineCodeSpans = new Stack<>();
-  private final Stack<IndentedCodeBlockSpan> indentedCodeSpans = new Stack<>();
-  private final Map<Integer, HeadingSpanWithLevel> headingSpans = new HashMap<>();
-  private final Stack<SuperscriptSpan> superscriptSpans = new Stack<>();
-  private final Stack<BlockQuoteSpan> quoteSpans = new Stack<>();
-  private final Map<Integer, LeadingMarginSpan.Standard> leadingMarginSpans = new HashMap<>();
-  private final Map<String, HorizontalRuleSpan> horizontalRuleSpans = new HashMap<>();
+  public static final int DEFAULT_CAPACITY_PER_KEY = 64;
+
+  private final FreeList<StyleSpan> italicsSpans;
+  private final FreeList<StyleSpan> boldSpans;
+  private final FreeList<StrikethroughSpan> strikethroughSpans;
+  private final FreeList<TypefaceSpan> monospaceTypefaceSpans;
+  private final IntKeyedFreeLists<ForegroundColorSpan> foregroundColorSpans;
+  private final FreeList<InlineCodeSpan> inlineCodeSpans;
+  private final FreeList<IndentedCodeBlockSpan> indentedCodeSpans;
+  private final IntKeyedFreeLists<HeadingSpanWithLevel> headingSpans;
+  private final FreeList<SuperscriptSpan> superscriptSpans;
+  private final FreeList<BlockQuoteSpan> quoteSpans;
+  private final IntKeyedFreeLists<LeadingMarginSpan.Standard> leadingMarginSpans;
+  private final ConcurrentHashMap<String, FreeList<HorizontalRuleSpan>> horizontalRuleSpans = new ConcurrentHashMap<>();
 
   private final SpannableTheme spannableTheme;
+  private final int capacityPerKey;
+  private final Map<Class<?>, Counters> counters = new ConcurrentHashMap<>();
 
   public MarkdownSpanPool(SpannableTheme spannableTheme) {
+    this(spannableTheme, DEFAULT_CAPACITY_PER_KEY);
+  }
+
+  /**
+   * @param capacityPerKey Maximum number of spans retained for each span type and parameter.
+   */
+  public MarkdownSpanPool(SpannableTheme spannableTheme, int capacityPerKey) {
     this.spannableTheme = spannableTheme;
+    this.capacityPerKey = capacityPerKey;
+
+    italicsSpans = new FreeList<>(capacityPerKey, counters(StyleSpan.class));
+    boldSpans = new FreeList<>(capacityPerKey, counters(StyleSpan.class));
+    strikethroughSpans = new FreeList<>(capacityPerKey, counters(StrikethroughSpan.class));
+    monospaceTypefaceSpans = new FreeList<>(capacityPerKey, counters(TypefaceSpan.class));
+    foregroundColorSpans = new IntKeyedFreeLists<>(capacityPerKey, counters(ForegroundColorSpan.class));
+    inlineCodeSpans = new FreeList<>(capacityPerKey, counters(InlineCodeSpan.class));
+    indentedCodeSpans = new FreeList<>(capacityPerKey, counters(IndentedCodeBlockSpan.class));
+    headingSpans = new IntKeyedFreeLists<>(capacityPerKey, counters(HeadingSpanWithLevel.class));
+    superscriptSpans = new FreeList<>(capacityPerKey, counters(SuperscriptSpan.class));
+    quoteSpans = new FreeList<>(capacityPerKey, counters(BlockQuoteSpan.class));
+    leadingMarginSpans = new IntKeyedFreeLists<>(capacityPerKey, counters(LeadingMarginSpan.Standard.class));
+    counters(HorizontalRuleSpan.class);
+  }
+
+  private Counters counters(Class<?> spanType) {
+    Counters typeCounters = counters.get(spanType);
+    if (typeCounters == null) {
+      typeCounters = new Counters();
+      counters.put(spanType, typeCounters);
+    }
+    return typeCounters;
   }
 
   public StyleSpan italics() {
-    return italicsSpans.empty() ? new StyleSpan(Typeface.ITALIC) : italicsSpans.pop();
+    StyleSpan span = italicsSpans.poll();
+    return span != null ? span : italicsSpans.allocated(new StyleSpan(Typeface.ITALIC));
   }
 
   public StyleSpan bold() {
-    return boldSpans.empty()
-        ? new StyleSpan(Typeface.BOLD)
-        : boldSpans.pop();
+    StyleSpan span = boldSpans.poll();
+    return span != null ? span : boldSpans.allocated(new StyleSpan(Typeface.BOLD));
   }
 
   public ForegroundColorSpan foregroundColor(@ColorInt int color) {
-    return foregroundColorSpans.containsKey(color)
-        ? foregroundColorSpans.remove(color)
-        : new ForegroundColorSpan(color);
+    FreeList<ForegroundColorSpan> spans = foregroundColorSpans.get(color);
+    ForegroundColorSpan span = spans.poll();
+    return span != null ? span : spans.allocated(new ForegroundColorSpan(color));
   }
 
   public InlineCodeSpan inlineCode() {
-    return inlineCodeSpans.empty()
-        ? new InlineCodeSpan(spannableTheme)
-        : inlineCodeSpans.pop();
+    InlineCodeSpan span = inlineCodeSpans.poll();
+    return span != null ? span : inlineCodeSpans.allocated(new InlineCodeSpan(spannableTheme));
   }
 
   public IndentedCodeBlockSpan indentedCodeBlock() {
-    return indentedCodeSpans.empty()
-        ? new IndentedCodeBlockSpan(spannableTheme)
-        : indentedCodeSpans.pop();
+    IndentedCodeBlockSpan span = indentedCodeSpans.poll();
+    return span != null ? span : indentedCodeSpans.allocated(new IndentedCodeBlockSpan(spannableTheme));
   }
 
   public StrikethroughSpan strikethrough() {
-    return strikethroughSpans.empty()
-        ? new StrikethroughSpan()
-        : strikethroughSpans.pop();
+    StrikethroughSpan span = strikethroughSpans.poll();
+    return span != null ? span : strikethroughSpans.allocated(new StrikethroughSpan());
   }
 
   public TypefaceSpan monospaceTypeface() {
-    return monospaceTypefaceSpans.empty()
-        ? new TypefaceSpan("monospace")
-        : monospaceTypefaceSpans.pop();
+    TypefaceSpan span = monospaceTypefaceSpans.poll();
+    return span != null ? span : monospaceTypefaceSpans.allocated(new TypefaceSpan("monospace"));
   }
 
   public HeadingSpanWithLevel heading(int level) {
-    return headingSpans.containsKey(level)
-        ? headingSpans.remove(level)
-        : new HeadingSpanWithLevel(spannableTheme, level);
+    FreeList<HeadingSpanWithLevel> spans = headingSpans.get(level);
+    HeadingSpanWithLevel span = spans.poll();
+    return span != null ? span : spans.allocated(new HeadingSpanWithLevel(spannableTheme, level));
   }
 
   public SuperscriptSpan superscript() {
-    return superscriptSpans.empty()
-        ? new SuperscriptSpan()
-        : superscriptSpans.pop();
+    SuperscriptSpan span = superscriptSpans.poll();
+    return span != null ? span : superscriptSpans.allocated(new SuperscriptSpan());
   }
 
   public BlockQuoteSpan quote() {
-    return quoteSpans.empty()
-        ? new BlockQuoteSpan(spannableTheme)
-        : quoteSpans.pop();
+    BlockQuoteSpan span = quoteSpans.poll();
+    return span != null ? span : quoteSpans.allocated(new BlockQuoteSpan(spannableTheme));
   }
 
   public LeadingMarginSpan.Standard leadingMargin(int margin) {
-    return leadingMarginSpans.containsKey(margin) ? leadingMarginSpans.remove(margin) : new LeadingMarginSpan.Standard(margin);
+    FreeList<LeadingMarginSpan.Standard> spans = leadingMarginSpans.get(margin);
+    LeadingMarginSpan.Standard span = spans.poll();
+    return span != null ? span : spans.allocated(new LeadingMarginSpan.Standard(margin));
   }
 
   /**
    * @param text See {@link HorizontalRuleSpan#HorizontalRuleSpan(CharSequence, int, int, HorizontalRuleSpan.Mode)}.
    */
   public HorizontalRuleSpan horizontalRule(CharSequence text, @ColorInt int ruleColor, @Px int ruleStrokeWidth, HorizontalRuleSpan.Mode mode) {
-    String key = text + "_" + ruleColor + "_" + ruleStrokeWidth + "_" + mode;
-    return horizontalRuleSpans.containsKey(key)
-        ? horizontalRuleSpans.remove(key)
-        : new HorizontalRuleSpan(text, ruleColor, ruleStrokeWidth, mode);
+    FreeList<HorizontalRuleSpan> spans = horizontalRuleSpans(text + "_" + ruleColor + "_" + ruleStrokeWidth + "_" + mode);
+    HorizontalRuleSpan span = spans.poll();
+    return span != null ? span : spans.allocated(new HorizontalRuleSpan(text, ruleColor, ruleStrokeWidth, mode));
+  }
+
+  private FreeList<HorizontalRuleSpan> horizontalRuleSpans(String key) {
+    FreeList<HorizontalRuleSpan> spans = horizontalRuleSpans.get(key);
+    if (spans == null) {
+      FreeList<HorizontalRuleSpan> newSpans = new FreeList<>(capacityPerKey, counters.get(HorizontalRuleSpan.class));
+      spans = horizontalRuleSpans.putIfAbsent(key, newSpans);
+      if (spans == null) {
+        spans = newSpans;
+      }
+    }
+    return spans;
   }
 
   public void recycle(Object span) {
@@ -161,10 +210,10 @@ public class MarkdownSpanPool {
 
   public void recycle(StyleSpan span) {
     if ((span).getStyle() == Typeface.ITALIC) {
-      italicsSpans.push(span);
+      italicsSpans.offer(span);
 
     } else if ((span).getStyle() == Typeface.BOLD) {
-      boldSpans.add(span);
+      boldSpans.offer(span);
 
     } else {
       throw new UnsupportedOperationException("Only italics and bold spans supported.");
@@ -172,48 +221,200 @@ public class MarkdownSpanPool {
   }
 
   public void recycle(ForegroundColorSpan span) {
-    int key = span.getForegroundColor();
-    foregroundColorSpans.put(key, span);
+    foregroundColorSpans.get(span.getForegroundColor()).offer(span);
   }
 
   public void recycle(InlineCodeSpan span) {
-    inlineCodeSpans.push(span);
+    inlineCodeSpans.offer(span);
   }
 
   public void recycle(IndentedCodeBlockSpan span) {
-    indentedCodeSpans.push(span);
+    indentedCodeSpans.offer(span);
   }
 
   public void recycle(StrikethroughSpan span) {
-    strikethroughSpans.push(span);
+    strikethroughSpans.offer(span);
   }
 
   public void recycle(TypefaceSpan span) {
     if (!span.getFamily().equals("monospace")) {
       throw new UnsupportedOperationException("Only monospace typeface spans exist in this pool.");
     }
-    monospaceTypefaceSpans.push(span);
+    monospaceTypefaceSpans.offer(span);
   }
 
   public void recycle(HeadingSpanWithLevel span) {
-    headingSpans.put(span.level(), span);
+    headingSpans.get(span.level()).offer(span);
   }
 
   public void recycle(SuperscriptSpan span) {
-    superscriptSpans.push(span);
+    superscriptSpans.offer(span);
   }
 
   public void recycle(BlockQuoteSpan span) {
-    quoteSpans.push(span);
+    quoteSpans.offer(span);
   }
 
   public void recycle(LeadingMarginSpan.Standard span) {
     int key = span.getLeadingMargin(true /* irrelevant */);
-    leadingMarginSpans.put(key, span);
+    leadingMarginSpans.get(key).offer(span);
   }
 
   public void recycle(HorizontalRuleSpan span) {
     String key = span.getText() + "_" + span.getRuleColor() + "_" + span.getRuleStrokeWidth() + "_" + span.getMode();
-    horizontalRuleSpans.put(key, span);
+    horizontalRuleSpans(key).offer(span);
+  }
+
+  /**
+   * @return Counters for each span type, keyed by the span's simple class name.
+   */
+  public Map<String, Stats> stats() {
+    Map<String, Stats> stats = new LinkedHashMap<>();
+    for (Map.Entry<Class<?>, Counters> entry : counters.entrySet()) {
+      stats.put(entry.getKey().getSimpleName(), entry.getValue().snapshot());
+    }
+    return stats;
+  }
+
+  public void logStats() {
+    for (Map.Entry<String, Stats> entry : stats().entrySet()) {
+      Timber.i("Span pool: %s -> %s", entry.getKey(), entry.getValue());
+    }
+  }
+
+  public static class Stats {
+    public final long allocationCount;
+    public final long reuseCount;
+    public final long recycleCount;
+    public final long dropCount;
+    public final long pooledCount;
+
+    Stats(long allocationCount, long reuseCount, long recycleCount, long dropCount, long pooledCount) {
+      this.allocationCount = allocationCount;
+      this.reuseCount = reuseCount;
+      this.recycleCount = recycleCount;
+      this.dropCount = dropCount;
+      this.pooledCount = pooledCount;
+    }
+
+    public float reuseRate() {
+      long requestCount = allocationCount + reuseCount;
+      return requestCount == 0 ? 0f : (float) reuseCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "allocations=%d, reuses=%d, reuseRate=%.2f, recycled=%d, dropped=%d, pooled=%d",
+          allocationCount, reuseCount, reuseRate(), recycleCount, dropCount, pooledCount);
+    }
+  }
+
+  private static class Counters {
+    final AtomicLong allocations = new AtomicLong();
+    final AtomicLong reuses = new AtomicLong();
+    final AtomicLong recycles = new AtomicLong();
+    final AtomicLong drops = new AtomicLong();
+    final AtomicLong pooled = new AtomicLong();
+
+    Stats snapshot() {
+      return new Stats(allocations.get(), reuses.get(), recycles.get(), drops.get(), pooled.get());
+    }
+  }
+
+  /**
+   * Bounded, lock-free list of recycled spans. The size is tracked separately because
+   * {@link ConcurrentLinkedQueue#size()} walks the entire queue.
+   */
+  private static class FreeList<T> {
+    private final ConcurrentLinkedQueue<T> spans = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final Counters counters;
+
+    FreeList(int capacity, Counters counters) {
+      this.capacity = capacity;
+      this.counters = counters;
+    }
+
+    @Nullable
+    T poll() {
+      T span = spans.poll();
+      if (span != null) {
+        size.decrementAndGet();
+        counters.pooled.decrementAndGet();
+        counters.reuses.incrementAndGet();
+      }
+      return span;
+    }
+
+    T allocated(T span) {
+      counters.allocations.incrementAndGet();
+      return span;
+    }
+
+    void offer(T span) {
+      counters.recycles.incrementAndGet();
+      if (size.incrementAndGet() > capacity) {
+        size.decrementAndGet();
+        counters.drops.incrementAndGet();
+        return;
+      }
+      spans.offer(span);
+      counters.pooled.incrementAndGet();
+    }
+  }
+
+  /**
+   * Free lists keyed by an int parameter, like a color or a heading level. There are only a handful of keys
+   * in practice, so lookups scan a copy-on-write array instead of boxing keys for a map. Only adding a new key
+   * takes a lock.
+   */
+  private static class IntKeyedFreeLists<T> {
+    private final int capacity;
+    private final Counters counters;
+    private volatile int[] keys = new int[0];
+    private volatile FreeList<T>[] lists = newArray(0);
+
+    IntKeyedFreeLists(int capacity, Counters counters) {
+      this.capacity = capacity;
+      this.counters = counters;
+    }
+
+    FreeList<T> get(int key) {
+      FreeList<T> list = find(key, keys, lists);
+      return list != null ? list : add(key);
+    }
+
+    private synchronized FreeList<T> add(int key) {
+      FreeList<T> existing = find(key, keys, lists);
+      if (existing != null) {
+        return existing;
+      }
+      int[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+      FreeList<T>[] newLists = Arrays.copyOf(lists, lists.length + 1);
+      newKeys[newKeys.length - 1] = key;
+      newLists[newLists.length - 1] = new FreeList<>(capacity, counters);
+
+      // Lists are written first because readers read keys first.
+      lists = newLists;
+      keys = newKeys;
+      return newLists[newLists.length - 1];
+    }
+
+    @Nullable
+    private static <T> FreeList<T> find(int key, int[] keys, FreeList<T>[] lists) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == key) {
+          return lists[i];
+        }
+      }
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> FreeList<T>[] newArray(int size) {
+      return (FreeList<T>[]) new FreeList[size];
+    }
   }
 }